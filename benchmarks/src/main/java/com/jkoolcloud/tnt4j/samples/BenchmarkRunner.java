@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Paths;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs folder monitoring benchmarks with the GC profiler, so allocation rates are reported next to timings. Accepts
+ * standard JMH command line options, benchmarks matching {@code com.jkoolcloud.tnt4j.samples} are run when none
+ * are given.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [jmh options] [benchmark regexp]
+ * </pre>
+ *
+ * @version $Revision: 1$
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		if (cmd.getIncludes().isEmpty()) {
+			builder.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+		}
+		Options opts = builder.parent(cmd).addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-Dtnt4j.config=" + Paths.get(BenchmarkSupport.CONFIG).toAbsolutePath()).build();
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.OpType;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Shared fixtures for benchmarks: handlers logging to a null event sink and temporary files to enrich and diff.
+ *
+ * @version $Revision: 1$
+ */
+final class BenchmarkSupport {
+	static final String CONFIG = System.getProperty("tnt4j.bench.config", "config/tnt4j-bench.properties");
+	static final String PROP_FILE_EXT = ".properties;.conf;.json;.yaml;.yml;.xml";
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Create handler whose events are formatted and discarded by the benchmark tracking configuration.
+	 *
+	 * @param name
+	 *            handler name
+	 * @return folder event handler
+	 */
+	static FolderEventHandler newHandler(String name) throws IOException {
+		if (System.getProperty("tnt4j.config") == null) {
+			System.setProperty("tnt4j.config", Paths.get(CONFIG).toAbsolutePath().toString());
+		}
+		return new FolderEventHandler(FolderMonitor.class.getName() + ".bench." + name, PROP_FILE_EXT);
+	}
+
+	static TrackingEvent newEvent(FolderEventHandler handler, Path path) {
+		return handler.logger.newEvent(OpLevel.INFO, OpType.UPDATE, "PathModified", null, path.toString(),
+				"Benchmark event", path);
+	}
+
+	/**
+	 * Create property set of a given size, every key having a distinct value.
+	 *
+	 * @param size
+	 *            number of properties
+	 * @param changeEvery
+	 *            change value of every n-th key from a base set, 0 for base values
+	 * @return property set
+	 */
+	static Properties properties(int size, int changeEvery) {
+		Properties props = new Properties();
+		for (int i = 0; i < size; i++) {
+			boolean changed = changeEvery > 0 && i % changeEvery == 0;
+			props.setProperty("app.module" + (i % 32) + ".key" + i, (changed ? "changed-" : "value-") + i);
+		}
+		return props;
+	}
+
+	static Path writeProperties(Path file, Properties props) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		try {
+			props.store(out, null);
+		} finally {
+			Utils.close(out);
+		}
+		return file;
+	}
+
+	/**
+	 * Track a synthetic key in a watcher's directory tree, as if it was registered by the watcher, so its events are
+	 * dispatched by {@link FolderWatcher#processKey(WatchKey)}.
+	 *
+	 * @param watcher
+	 *            folder watcher
+	 * @param key
+	 *            watch key
+	 * @param dir
+	 *            directory the key events are relative to
+	 */
+	static void track(FolderWatcher watcher, WatchKey key, Path dir) {
+		watcher.getDirectoryTree().put(dir, key);
+	}
+
+	static void delete(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jkoolcloud.tnt4j.config.ConfigException;
+import com.jkoolcloud.tnt4j.core.PropertySnapshot;
+import com.jkoolcloud.tnt4j.core.ValueTypes;
+import com.jkoolcloud.tnt4j.format.SimpleFormatter;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.sink.impl.FileEventSinkFactory;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * Compares logging a path event with a file system snapshot through the tnt4j file sink with {@link SimpleFormatter}
+ * text against {@link BinaryEventSink}, on one and on several threads.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventSinkBenchmark {
+	@Param({ "file", "binary" })
+	public String sink;
+
+	private Path dir;
+	private EventSink eventSink;
+	private TrackingEvent event;
+
+	@Setup
+	public void setup() throws IOException, ConfigException {
+		dir = Files.createTempDirectory("tnt4j-bench");
+		if (sink.equals("binary")) {
+			BinaryEventSinkFactory factory = new BinaryEventSinkFactory();
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put("Folder", dir.toString());
+			factory.setConfiguration(config);
+			eventSink = factory.getEventSink("bench", null, new SimpleFormatter());
+		} else {
+			FileEventSinkFactory factory = new FileEventSinkFactory();
+			factory.setFileName(dir.resolve("events.log").toString());
+			eventSink = factory.getEventSink("bench", null, new SimpleFormatter());
+		}
+		eventSink.open();
+		FolderEventHandler handler = BenchmarkSupport.newHandler("sink");
+		Path file = dir.resolve("app.properties");
+		event = BenchmarkSupport.newEvent(handler, file);
+		PropertySnapshot snap = new PropertySnapshot("FileSystem", file.toString());
+		snap.add("Exists", true, ValueTypes.VALUE_TYPE_FLAG);
+		snap.add("FileSize", 4096L, ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("LastModified", System.currentTimeMillis(), ValueTypes.VALUE_TYPE_AGE_MSEC);
+		event.getOperation().addSnapshot(snap);
+		event.start();
+		event.stop();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		eventSink.close();
+		BenchmarkSupport.delete(dir);
+	}
+
+	@Benchmark
+	public void log() {
+		eventSink.log(event);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void log4Threads() {
+		eventSink.log(event);
+	}
+}
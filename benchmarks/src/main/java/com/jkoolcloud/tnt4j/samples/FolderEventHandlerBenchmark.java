@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link FolderEventHandler#handleEvent} throughput, from tracking event creation through enrichment and
+ * property diffing to a null event sink, and {@link FolderEventHandler#isPropertyFile} extension matching.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FolderEventHandlerBenchmark {
+	@Param({ "app.properties", "data.bin" })
+	public String fileName;
+
+	private Path dir;
+	private FolderEventHandler handler;
+	private FolderWatchEvent<Path> event;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("tnt4j-bench");
+		BenchmarkSupport.writeProperties(dir.resolve("app.properties"), BenchmarkSupport.properties(100, 0));
+		Files.write(dir.resolve("data.bin"), new byte[4096]);
+		handler = BenchmarkSupport.newHandler("handler");
+		handler.visitFile(dir.resolve("app.properties"), null);
+		event = new FolderWatchEvent<Path>(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get(fileName), 1);
+		file = dir.resolve(fileName).toFile();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkSupport.delete(dir);
+	}
+
+	/**
+	 * Unchanged file content, the common case of repeated modify events.
+	 */
+	@Benchmark
+	public void handleModify() {
+		handler.handleEvent(event, dir);
+	}
+
+	@Benchmark
+	public boolean isPropertyFile() {
+		return handler.isPropertyFile(file);
+	}
+}
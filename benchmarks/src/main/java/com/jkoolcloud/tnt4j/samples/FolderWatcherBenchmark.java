@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jkoolcloud.tnt4j.sink.EventSink;
+
+/**
+ * Measures {@link FolderWatcher} dispatch of a signalled {@link WatchKey} batch, isolated from the handler by a
+ * handler which only consumes events. Results are per key, divide by batch size for per event cost.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FolderWatcherBenchmark {
+	@Param({ "1", "16", "256" })
+	public int batch;
+
+	@Param({ "0", "50" })
+	public long coalesceWindowMs;
+
+	@Param({ "false", "true" })
+	public boolean journal;
+
+	private FolderWatcher watcher;
+	private BatchWatchKey key;
+	private WatchEventJournal eventJournal;
+
+	@Setup
+	public void setup(Blackhole bh) throws IOException {
+		Path dir = Paths.get(System.getProperty("java.io.tmpdir"));
+		watcher = new FolderWatcher(dir, false, new ConsumingHandler(bh));
+		watcher.setCoalescing(coalesceWindowMs, Integer.MAX_VALUE);
+		if (journal) {
+			eventJournal = new WatchEventJournal(Files.createTempFile("bench", ".wej"));
+			watcher.setJournal(eventJournal);
+		}
+		List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>(batch);
+		for (int i = 0; i < batch; i++) {
+			events.add(new FolderWatchEvent<Path>(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("file" + i), 1));
+		}
+		key = new BatchWatchKey(dir, events);
+		BenchmarkSupport.track(watcher, key, dir);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		watcher.setCoalescing(0, 1);
+		if (eventJournal != null) {
+			eventJournal.close();
+			Files.delete(eventJournal.getFile());
+		}
+	}
+
+	@Benchmark
+	public boolean processKey() {
+		return watcher.processKey(key);
+	}
+
+	/**
+	 * Watch key which returns the same batch of events every time it is signalled.
+	 */
+	static class BatchWatchKey implements WatchKey {
+		private final Watchable dir;
+		private final List<WatchEvent<?>> events;
+
+		BatchWatchKey(Watchable dir, List<WatchEvent<?>> events) {
+			this.dir = dir;
+			this.events = events;
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+
+		@Override
+		public List<WatchEvent<?>> pollEvents() {
+			return events;
+		}
+
+		@Override
+		public boolean reset() {
+			return true;
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public Watchable watchable() {
+			return dir;
+		}
+	}
+
+	static class ConsumingHandler extends SimpleFileVisitor<Path> implements WatchEventHandler<Path> {
+		private final Blackhole bh;
+
+		ConsumingHandler(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void handleEvent(WatchEvent<Path> event, Path root) {
+			bh.consume(event);
+			bh.consume(root);
+		}
+
+		@Override
+		public EventSink getEventSink() {
+			return null;
+		}
+	}
+}
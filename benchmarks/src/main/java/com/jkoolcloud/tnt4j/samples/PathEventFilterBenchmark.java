@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * Measures {@link PathEventFilter} enrichment cost for a given set of fields. {@link #newEvent()} is the baseline
+ * cost of creating the tracking event every other benchmark starts with.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathEventFilterBenchmark {
+	@Param({ "Exists;FileSize;LastModified", PathEventFilter.DEFAULT_FIELDS })
+	public String fields;
+
+	@Param({ "true", "false" })
+	public boolean storeCache;
+
+	private Path dir;
+	private Path file;
+	private FolderEventHandler handler;
+	private PathEventFilter filter;
+	private FileStoreCache stores;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("tnt4j-bench");
+		file = Files.write(dir.resolve("data.bin"), new byte[4096]);
+		stores = storeCache ? new FileStoreCache(10000) : null;
+		handler = BenchmarkSupport.newHandler("filter");
+		handler.setEnrichment(fields, stores);
+		filter = handler.getPathFilter();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (stores != null) {
+			stores.close();
+		}
+		BenchmarkSupport.delete(dir);
+	}
+
+	@Benchmark
+	public TrackingEvent newEvent() {
+		return BenchmarkSupport.newEvent(handler, file);
+	}
+
+	@Benchmark
+	public TrackingEvent filter() {
+		TrackingEvent event = BenchmarkSupport.newEvent(handler, file);
+		filter.filter(handler.getEventSink(), event);
+		return event;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link PathFilterEngine} matching of a relative path against typical include and exclude rules, and
+ * {@link PathFilterEngine.SuffixTrie} against a linear {@code endsWith} loop over the same extensions.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathFilterEngineBenchmark {
+	private static final String EXTS = ".properties;.cfg;.conf;.config;.ini;.json;.yaml;.yml;.xml;.toml;.env;.props";
+
+	@Param({ "src/main/java/App.java", "node_modules/lib/index.js", "conf/app.properties" })
+	public String path;
+
+	private PathFilterEngine engine;
+	private PathFilterEngine.SuffixTrie trie;
+	private String[] extList;
+	private Path relative;
+	private String name;
+
+	@Setup
+	public void setup() {
+		engine = new PathFilterEngine("*.java;*.properties;*.xml;regex:src/.*\\.txt",
+				".git;node_modules;target;*.tmp;*~;build/**");
+		extList = EXTS.split(";");
+		trie = new PathFilterEngine.SuffixTrie(Arrays.asList(extList));
+		relative = Paths.get(path);
+		name = relative.getFileName().toString();
+	}
+
+	@Benchmark
+	public boolean acceptsFile() {
+		return engine.acceptsFile(relative);
+	}
+
+	@Benchmark
+	public boolean suffixTrie() {
+		return trie.matches(name);
+	}
+
+	@Benchmark
+	public boolean suffixLoop() {
+		for (int i = 0; i < extList.length; i++) {
+			if (name.endsWith(extList[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * Measures {@link FolderEventHandler#compareProperties} across property set sizes, with a given share of values
+ * changed between versions.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertyDiffBenchmark {
+	@Param({ "10", "100", "1000", "10000" })
+	public int size;
+
+	/**
+	 * Change every n-th value, 0 to compare identical sets
+	 */
+	@Param({ "0", "100", "1" })
+	public int changeEvery;
+
+	private FolderEventHandler handler;
+	private Properties before;
+	private Properties after;
+
+	@Setup
+	public void setup() throws IOException {
+		handler = BenchmarkSupport.newHandler("diff");
+		before = BenchmarkSupport.properties(size, 0);
+		after = BenchmarkSupport.properties(size, changeEvery);
+	}
+
+	@Benchmark
+	public TrackingEvent compareProperties() {
+		TrackingEvent event = BenchmarkSupport.newEvent(handler, Paths.get("app.properties"));
+		return handler.compareProperties("app.properties", before, after, event);
+	}
+}
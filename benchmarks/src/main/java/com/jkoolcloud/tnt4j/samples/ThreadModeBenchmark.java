@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jkoolcloud.tnt4j.sink.EventSink;
+
+/**
+ * Compares dispatching signalled keys of many roots on a bounded pool of platform threads, as {@link WatchMultiplexer}
+ * does by default, with a virtual thread per key, while handlers block for a given time as if writing to a remote
+ * sink. Results are per round of one key for every root. The {@code virtual} mode requires Java 21 or later and fails
+ * its setup on older runtimes.
+ *
+ * @version $Revision: 1$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModeBenchmark {
+	@Param({ "platform", "virtual" })
+	public String mode;
+
+	@Param({ "100", "1000" })
+	public int roots;
+
+	@Param({ "0", "1000" })
+	public long blockMicros;
+
+	private ExecutorService workers;
+	private FolderWatcher[] watchers;
+	private FolderWatcherBenchmark.BatchWatchKey[] keys;
+
+	@Setup
+	public void setup() {
+		if (mode.equals("virtual")) {
+			workers = VirtualThreads.newThreadPerTaskExecutor("bench-worker");
+		} else {
+			workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new WatchMultiplexer.NamedThreadFactory("bench-worker"));
+		}
+		watchers = new FolderWatcher[roots];
+		keys = new FolderWatcherBenchmark.BatchWatchKey[roots];
+		BlockingHandler handler = new BlockingHandler(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+		for (int i = 0; i < roots; i++) {
+			Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "root" + i);
+			watchers[i] = new FolderWatcher(dir, false, handler);
+			keys[i] = new FolderWatcherBenchmark.BatchWatchKey(dir, Collections.<WatchEvent<?>> singletonList(
+					new FolderWatchEvent<Path>(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("file"), 1)));
+			BenchmarkSupport.track(watchers[i], keys[i], dir);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		workers.shutdownNow();
+	}
+
+	@Benchmark
+	public void dispatchRound() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(roots);
+		for (int i = 0; i < roots; i++) {
+			final FolderWatcher watcher = watchers[i];
+			final FolderWatcherBenchmark.BatchWatchKey key = keys[i];
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					watcher.processKey(key);
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+	}
+
+	static class BlockingHandler extends SimpleFileVisitor<Path> implements WatchEventHandler<Path> {
+		private final long blockNanos;
+
+		BlockingHandler(long blockNanos) {
+			this.blockNanos = blockNanos;
+		}
+
+		@Override
+		public void handleEvent(WatchEvent<Path> event, Path root) {
+			if (blockNanos > 0) {
+				LockSupport.parkNanos(blockNanos);
+			}
+		}
+
+		@Override
+		public EventSink getEventSink() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+
+import com.jkoolcloud.tnt4j.core.Operation;
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.Property;
+import com.jkoolcloud.tnt4j.core.Snapshot;
+import com.jkoolcloud.tnt4j.core.UsecTimestamp;
+import com.jkoolcloud.tnt4j.source.Source;
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+import com.jkoolcloud.tnt4j.utils.Useconds;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Compact binary encoding of tracking events, activities, snapshots and log messages, and its conversion to JSON.
+ * <p>
+ * A record is a record type byte followed by fields. Each field is a field id byte, a value tag byte and the value.
+ * Numbers are zig-zag varints or 8 byte doubles, strings are UTF-8 prefixed by their varint byte length. Empty fields
+ * are left out. Snapshots are nested as a 4 byte length followed by their fields. An encoder writes into its own
+ * growing byte array, which is reused for every record.
+ * <p>
+ * Messages whose arguments are inserted as plain text are stored as pattern and argument strings and formatted with
+ * {@link MessageFormat} when converted, so logging does not pay for message formatting. A throwable passed as a message
+ * argument is stored as its stack trace in the exception field.
+ *
+ * @version $Revision: 1$
+ */
+public class BinaryEventCodec {
+	static final byte RECORD_EVENT = 1;
+	static final byte RECORD_ACTIVITY = 2;
+	static final byte RECORD_SNAPSHOT = 3;
+	static final byte RECORD_MESSAGE = 4;
+	private static final String[] RECORD_NAMES = { null, "EVENT", "ACTIVITY", "SNAPSHOT", "MESSAGE" };
+
+	private static final byte TAG_STRING = 1;
+	private static final byte TAG_LONG = 2;
+	private static final byte TAG_DOUBLE = 3;
+	private static final byte TAG_TRUE = 4;
+	private static final byte TAG_FALSE = 5;
+	private static final byte TAG_STRINGS = 6;
+	private static final byte TAG_PROPERTIES = 7;
+	private static final byte TAG_SNAPSHOTS = 8;
+	private static final byte TAG_MESSAGE = 9;
+
+	private static final byte F_TIME = 0;
+	private static final byte F_SEVERITY = 1;
+	private static final byte F_NAME = 2;
+	private static final byte F_TYPE = 3;
+	private static final byte F_COMP_CODE = 4;
+	private static final byte F_REASON_CODE = 5;
+	private static final byte F_RESOURCE = 6;
+	private static final byte F_LOCATION = 7;
+	private static final byte F_USER = 8;
+	private static final byte F_SOURCE = 9;
+	private static final byte F_TRACKING_ID = 10;
+	private static final byte F_PARENT_ID = 11;
+	private static final byte F_CORRELATOR = 12;
+	private static final byte F_TAG = 13;
+	private static final byte F_MESSAGE = 14;
+	private static final byte F_START = 15;
+	private static final byte F_END = 16;
+	private static final byte F_ELAPSED = 17;
+	private static final byte F_WAIT = 18;
+	private static final byte F_PID = 19;
+	private static final byte F_TID = 20;
+	private static final byte F_EXCEPTION = 21;
+	private static final byte F_PROPERTIES = 22;
+	private static final byte F_SNAPSHOTS = 23;
+	private static final byte F_STATUS = 24;
+	private static final byte F_ID_COUNT = 25;
+	private static final byte F_CATEGORY = 26;
+	private static final String[] FIELD_NAMES = { "time-usec", "severity", "name", "type", "comp-code",
+			"reason-code", "resource", "location", "user", "source", "tracking-id", "parent-id", "correlator", "tag",
+			"msg-text", "start-time-usec", "end-time-usec", "elapsed-usec", "wait-usec", "pid", "tid", "exception",
+			"properties", "snapshots", "status", "id-count", "category" };
+
+	private byte[] buf = new byte[1024];
+	private int pos;
+	private Source lastSource;
+	private String lastSourceName;
+
+	/**
+	 * Encode a tracking event, replacing the previous record.
+	 *
+	 * @param event
+	 *            tracking event
+	 * @return itself
+	 */
+	public BinaryEventCodec encode(TrackingEvent event) {
+		pos = 0;
+		writeByte(RECORD_EVENT);
+		Operation op = event.getOperation();
+		writeTime(op);
+		writeString(F_SEVERITY, name(event.getSeverity()));
+		writeString(F_NAME, op.getName());
+		writeString(F_TYPE, name(op.getType()));
+		writeString(F_SOURCE, fqName(event.getSource()));
+		writeString(F_TRACKING_ID, event.getTrackingId());
+		writeString(F_PARENT_ID, event.getParentId());
+		writeStrings(F_TAG, event.getTag());
+		writeMessage(event.getMessagePattern(), event.getMessageArgs());
+		writeOperation(op);
+		if (op.getExceptionString() == null || op.getExceptionString().isEmpty()) {
+			writeException(event.getMessageArgs());
+		}
+		return this;
+	}
+
+	/**
+	 * Encode a tracking activity, replacing the previous record.
+	 *
+	 * @param activity
+	 *            tracking activity
+	 * @return itself
+	 */
+	public BinaryEventCodec encode(TrackingActivity activity) {
+		pos = 0;
+		writeByte(RECORD_ACTIVITY);
+		writeTime(activity);
+		writeString(F_SEVERITY, name(activity.getSeverity()));
+		writeString(F_NAME, activity.getName());
+		writeString(F_TYPE, name(activity.getType()));
+		writeString(F_STATUS, name(activity.getStatus()));
+		writeString(F_SOURCE, fqName(activity.getSource()));
+		writeString(F_TRACKING_ID, activity.getTrackingId());
+		writeString(F_PARENT_ID, activity.getParentId());
+		writeLong(F_ID_COUNT, activity.getIdCount());
+		writeOperation(activity);
+		return this;
+	}
+
+	/**
+	 * Encode a snapshot, replacing the previous record.
+	 *
+	 * @param snapshot
+	 *            snapshot
+	 * @return itself
+	 */
+	public BinaryEventCodec encode(Snapshot snapshot) {
+		pos = 0;
+		writeByte(RECORD_SNAPSHOT);
+		UsecTimestamp time = snapshot.getTimeStamp();
+		writeLong(F_TIME, time == null ? Useconds.CURRENT.get() : time.getTimeUsec());
+		writeSnapshotFields(snapshot);
+		return this;
+	}
+
+	/**
+	 * Encode a log message, replacing the previous record.
+	 *
+	 * @param timeUsec
+	 *            message time in microseconds
+	 * @param source
+	 *            message source, may be null
+	 * @param level
+	 *            message severity
+	 * @param msg
+	 *            message pattern
+	 * @param args
+	 *            message arguments
+	 * @return itself
+	 */
+	public BinaryEventCodec encode(long timeUsec, Source source, OpLevel level, String msg, Object... args) {
+		pos = 0;
+		writeByte(RECORD_MESSAGE);
+		writeLong(F_TIME, timeUsec);
+		writeString(F_SEVERITY, name(level));
+		writeString(F_SOURCE, fqName(source));
+		writeMessage(msg, args);
+		writeException(args);
+		return this;
+	}
+
+	public byte[] array() {
+		return buf;
+	}
+
+	public int length() {
+		return pos;
+	}
+
+	private void writeTime(Operation op) {
+		UsecTimestamp time = op.getEndTime() != null ? op.getEndTime() : op.getStartTime();
+		writeLong(F_TIME, time == null ? Useconds.CURRENT.get() : time.getTimeUsec());
+	}
+
+	private void writeOperation(Operation op) {
+		writeString(F_COMP_CODE, name(op.getCompCode()));
+		if (op.getReasonCode() != 0) {
+			writeLong(F_REASON_CODE, op.getReasonCode());
+		}
+		writeString(F_RESOURCE, op.getResource());
+		writeString(F_LOCATION, op.getLocation());
+		writeString(F_USER, op.getUser());
+		writeStrings(F_CORRELATOR, op.getCorrelator());
+		if (op.getStartTime() != null) {
+			writeLong(F_START, op.getStartTime().getTimeUsec());
+		}
+		if (op.getEndTime() != null) {
+			writeLong(F_END, op.getEndTime().getTimeUsec());
+		}
+		writeLong(F_ELAPSED, op.getElapsedTimeUsec());
+		if (op.getWaitTimeUsec() != 0) {
+			writeLong(F_WAIT, op.getWaitTimeUsec());
+		}
+		writeLong(F_PID, op.getPID());
+		writeLong(F_TID, op.getTID());
+		writeString(F_EXCEPTION, op.getExceptionString());
+		if (op.getPropertyCount() > 0) {
+			writeByte(F_PROPERTIES);
+			writeProperties(op.getProperties());
+		}
+		if (op.getSnapshotCount() > 0) {
+			Collection<Snapshot> snapshots = op.getSnapshots();
+			writeByte(F_SNAPSHOTS);
+			writeByte(TAG_SNAPSHOTS);
+			writeVarint(snapshots.size());
+			for (Snapshot snapshot : snapshots) {
+				// snapshot fields are prefixed by their length, filled in once written
+				ensure(4);
+				int start = pos;
+				pos += 4;
+				writeSnapshotFields(snapshot);
+				int len = pos - start - 4;
+				for (int i = 0; i < 4; i++) {
+					buf[start + i] = (byte) (len >>> (24 - 8 * i));
+				}
+			}
+		}
+	}
+
+	private void writeSnapshotFields(Snapshot snapshot) {
+		writeString(F_CATEGORY, snapshot.getCategory());
+		writeString(F_NAME, snapshot.getName());
+		writeString(F_SEVERITY, name(snapshot.getSeverity()));
+		writeString(F_TRACKING_ID, snapshot.getTrackingId());
+		writeString(F_PARENT_ID, snapshot.getParentId());
+		Collection<Property> props = snapshot.getProperties();
+		if (!props.isEmpty()) {
+			writeByte(F_PROPERTIES);
+			writeProperties(props);
+		}
+	}
+
+	private void writeProperties(Collection<Property> props) {
+		writeByte(TAG_PROPERTIES);
+		writeVarint(props.size());
+		for (Property prop : props) {
+			writeUtf8(prop.getKey());
+			writeUtf8(prop.getValueType() == null ? "" : prop.getValueType());
+			writeValue(prop.getValue());
+		}
+	}
+
+	private void writeValue(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			writeByte(TAG_LONG);
+			writeVarint(zigZag(((Number) value).longValue()));
+		} else if (value instanceof Number) {
+			writeByte(TAG_DOUBLE);
+			writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else {
+			writeByte(TAG_STRING);
+			writeUtf8(value == null ? "" : value.toString());
+		}
+	}
+
+	private void writeMessage(String pattern, Object[] args) {
+		if (pattern == null || args == null || args.length == 0) {
+			writeString(F_MESSAGE, pattern);
+		} else if (!isPlainText(pattern, args)) {
+			writeString(F_MESSAGE, MessageFormat.format(pattern, args));
+		} else {
+			writeByte(F_MESSAGE);
+			writeByte(TAG_MESSAGE);
+			writeUtf8(pattern);
+			writeVarint(args.length);
+			for (Object arg : args) {
+				writeUtf8(String.valueOf(arg));
+			}
+		}
+	}
+
+	/**
+	 * Write the stack trace of a throwable passed as a message argument, as formatters append it to messages.
+	 */
+	private void writeException(Object[] args) {
+		Throwable ex = args == null ? null : Utils.getThrowable(args);
+		if (ex != null) {
+			writeString(F_EXCEPTION, Utils.printThrowable(ex));
+		}
+	}
+
+	/**
+	 * Determine if message arguments are formatted as their string values: no numbers or dates, which are formatted by
+	 * locale, and no format types or styles in the pattern.
+	 */
+	private static boolean isPlainText(String pattern, Object[] args) {
+		for (Object arg : args) {
+			if (arg instanceof Number || arg instanceof Date || arg instanceof Calendar) {
+				return false;
+			}
+		}
+		for (int i = pattern.indexOf('{'); i >= 0; i = pattern.indexOf('{', i + 1)) {
+			int j = i + 1;
+			while (j < pattern.length() && Character.isDigit(pattern.charAt(j))) {
+				j++;
+			}
+			if (j < pattern.length() && pattern.charAt(j) == ',') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeString(byte field, String value) {
+		if (value != null && !value.isEmpty()) {
+			writeByte(field);
+			writeByte(TAG_STRING);
+			writeUtf8(value);
+		}
+	}
+
+	private void writeStrings(byte field, Collection<String> values) {
+		if (values != null && !values.isEmpty()) {
+			writeByte(field);
+			writeByte(TAG_STRINGS);
+			writeVarint(values.size());
+			for (String value : values) {
+				writeUtf8(value);
+			}
+		}
+	}
+
+	private void writeLong(byte field, long value) {
+		writeByte(field);
+		writeByte(TAG_LONG);
+		writeVarint(zigZag(value));
+	}
+
+	private void writeByte(int b) {
+		ensure(1);
+		buf[pos++] = (byte) b;
+	}
+
+	private void writeVarint(long v) {
+		ensure(10);
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte) v;
+	}
+
+	private void writeDouble(double d) {
+		ensure(8);
+		long v = Double.doubleToRawLongBits(d);
+		for (int i = 56; i >= 0; i -= 8) {
+			buf[pos++] = (byte) (v >>> i);
+		}
+	}
+
+	/**
+	 * Write string as UTF-8 directly into the buffer, without an intermediate byte array.
+	 */
+	private void writeUtf8(String s) {
+		int len = s.length();
+		int start = pos;
+		writeVarint(len);
+		ensure(len);
+		byte[] b = buf;
+		int p = pos;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// not ASCII, start over counting encoded bytes first
+				pos = start;
+				writeUtf8Slow(s);
+				return;
+			}
+			b[p++] = (byte) c;
+		}
+		pos = p;
+	}
+
+	private void writeUtf8Slow(String s) {
+		int len = s.length();
+		int bytes = 0;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				bytes++;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else {
+				bytes += 3;
+			}
+		}
+		writeVarint(bytes);
+		ensure(bytes);
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else {
+				// lone surrogates are encoded as is, like modified UTF-8
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void ensure(int n) {
+		if (pos + n > buf.length) {
+			byte[] grown = new byte[Math.max(buf.length * 2, pos + n)];
+			System.arraycopy(buf, 0, grown, 0, pos);
+			buf = grown;
+		}
+	}
+
+	private static long zigZag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static String name(Enum<?> value) {
+		return value == null ? null : value.name();
+	}
+
+	private String fqName(Source source) {
+		if (source == null) {
+			return null;
+		}
+		// sources are long lived and their names are built on every call
+		if (source != lastSource) {
+			lastSourceName = source.getFQName();
+			lastSource = source;
+		}
+		return lastSourceName;
+	}
+
+	/**
+	 * Convert an encoded record to a single line JSON object.
+	 *
+	 * @param record
+	 *            encoded record, read from its position to its limit
+	 * @param out
+	 *            JSON output
+	 * @throws IOException
+	 *             if record is malformed
+	 */
+	public static void toJson(ByteBuffer record, StringBuilder out) throws IOException {
+		int type = record.get();
+		out.append("{\"record\":");
+		quote(type > 0 && type < RECORD_NAMES.length ? RECORD_NAMES[type] : String.valueOf(type), out);
+		readFields(record, record.limit(), out);
+		out.append('}');
+	}
+
+	private static void readFields(ByteBuffer in, int end, StringBuilder out) throws IOException {
+		while (in.position() < end) {
+			readField(in, out);
+		}
+	}
+
+	private static void readField(ByteBuffer in, StringBuilder out) throws IOException {
+		int field = in.get();
+		out.append(',');
+		quote(field >= 0 && field < FIELD_NAMES.length ? FIELD_NAMES[field] : "field-" + field, out);
+		out.append(':');
+		readValue(in, out);
+	}
+
+	private static void readValue(ByteBuffer in, StringBuilder out) throws IOException {
+		int tag = in.get();
+		switch (tag) {
+		case TAG_STRING:
+			quote(readUtf8(in), out);
+			break;
+		case TAG_LONG:
+			long v = readVarint(in);
+			out.append((v >>> 1) ^ -(v & 1));
+			break;
+		case TAG_DOUBLE:
+			double d = in.getDouble();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				quote(String.valueOf(d), out);
+			} else {
+				out.append(d);
+			}
+			break;
+		case TAG_MESSAGE:
+			String pattern = readUtf8(in);
+			Object[] args = new Object[(int) readVarint(in)];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = readUtf8(in);
+			}
+			quote(MessageFormat.format(pattern, args), out);
+			break;
+		case TAG_TRUE:
+			out.append("true");
+			break;
+		case TAG_FALSE:
+			out.append("false");
+			break;
+		case TAG_STRINGS:
+			out.append('[');
+			for (long i = 0, n = readVarint(in); i < n; i++) {
+				out.append(i == 0 ? "" : ",");
+				quote(readUtf8(in), out);
+			}
+			out.append(']');
+			break;
+		case TAG_PROPERTIES:
+			out.append('[');
+			for (long i = 0, n = readVarint(in); i < n; i++) {
+				out.append(i == 0 ? "{\"name\":" : ",{\"name\":");
+				quote(readUtf8(in), out);
+				String valueType = readUtf8(in);
+				if (!valueType.isEmpty()) {
+					out.append(",\"value-type\":");
+					quote(valueType, out);
+				}
+				out.append(",\"value\":");
+				readValue(in, out);
+				out.append('}');
+			}
+			out.append(']');
+			break;
+		case TAG_SNAPSHOTS:
+			out.append('[');
+			for (long i = 0, n = readVarint(in); i < n; i++) {
+				out.append(i == 0 ? "{" : ",{");
+				int len = in.getInt();
+				if (len < 0 || len > in.remaining()) {
+					throw new IOException("Malformed snapshot length " + len + " at " + in.position());
+				}
+				int mark = out.length();
+				readFields(in, in.position() + len, out);
+				if (out.length() > mark) {
+					out.deleteCharAt(mark); // no comma before the first member
+				}
+				out.append('}');
+			}
+			out.append(']');
+			break;
+		default:
+			throw new IOException("Unknown value tag " + tag + " at " + (in.position() - 1));
+		}
+	}
+
+	private static long readVarint(ByteBuffer in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			v |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed varint at " + in.position());
+	}
+
+	private static String readUtf8(ByteBuffer in) throws IOException {
+		int len = (int) readVarint(in);
+		if (len < 0 || len > in.remaining()) {
+			throw new IOException("Malformed string length " + len + " at " + in.position());
+		}
+		String s;
+		if (in.hasArray()) {
+			s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[len];
+			in.duplicate().get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+		}
+		in.position(in.position() + len);
+		return s;
+	}
+
+	private static void quote(String s, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Append-only log of binary records in memory-mapped segment files. A segment starts with a magic number and format
+ * version, followed by records of a 4 byte length, a 4 byte CRC32 of the record and the record itself. A zero length
+ * marks the end of written records. When a record does not fit a segment, the next segment file is created.
+ * <p>
+ * Appends checksum and copy records into the mapped segment outside of any lock, holding it only to reserve room for a
+ * record and to count it once copied, and never wait for the disk. Written records are made durable in groups: a
+ * commit thread forces the segment to disk once a given number of bytes was appended or a given time passed since the
+ * first uncommitted append, whichever comes first. Full segments are forced by the commit thread as well, once all
+ * records reserved in them are copied.
+ *
+ * @version $Revision: 1$
+ */
+public class BinaryEventLog implements Closeable {
+	static final int MAGIC = 0x544E5442; // TNTB
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 8;
+	static final String SEGMENT_EXT = ".tnb";
+
+	private static final ThreadLocal<CRC32> CRC = new ThreadLocal<CRC32>() {
+		@Override
+		protected CRC32 initialValue() {
+			return new CRC32();
+		}
+	};
+
+	private final Path folder;
+	private final String prefix;
+	private final int segmentSize;
+	private final long flushBytes;
+	private final long flushNanos;
+	private final boolean force;
+	private final Thread committer;
+
+	private final LongAdder recordCount = new LongAdder();
+	private final LongAdder byteCount = new LongAdder();
+	private final LongAdder commitCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+
+	private Segment segment;
+	private final List<Segment> fullSegments = new ArrayList<Segment>();
+	private long segmentCount;
+	private long uncommitted;
+	private long firstUncommitted;
+	private int refCount;
+	private boolean closed;
+
+	/**
+	 * Create log appending to new segments in a given folder.
+	 *
+	 * @param folder
+	 *            folder segment files are created in
+	 * @param prefix
+	 *            segment file name prefix
+	 * @param segmentSize
+	 *            segment file size in bytes
+	 * @param flushBytes
+	 *            number of appended bytes triggering a commit
+	 * @param flushMs
+	 *            longest time appended records stay uncommitted, in milliseconds
+	 * @param force
+	 *            true to force segments to disk on commit, false to leave writing to the OS
+	 * @throws IOException
+	 *             if first segment can't be created
+	 */
+	public BinaryEventLog(Path folder, String prefix, int segmentSize, long flushBytes, long flushMs, boolean force)
+			throws IOException {
+		this.folder = folder;
+		this.prefix = prefix;
+		this.segmentSize = Math.max(64 * 1024, segmentSize);
+		this.flushBytes = Math.max(1, flushBytes);
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMs));
+		this.force = force;
+		Files.createDirectories(folder);
+		segmentCount = lastSegmentNumber(folder, prefix);
+		segment = newSegment();
+		committer = new WatchMultiplexer.NamedThreadFactory("BinaryEventLog-" + prefix).newThread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		});
+		committer.start();
+	}
+
+	/**
+	 * List segment files with a given prefix, in the order they were written.
+	 *
+	 * @param folder
+	 *            folder containing segments
+	 * @param prefix
+	 *            segment file name prefix
+	 * @return sorted segment files
+	 * @throws IOException
+	 *             if folder can't be listed
+	 */
+	public static List<Path> listSegments(Path folder, String prefix) throws IOException {
+		List<Path> segments = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(folder, prefix + "-*" + SEGMENT_EXT);
+		try {
+			for (Path file : stream) {
+				segments.add(file);
+			}
+		} finally {
+			Utils.close(stream);
+		}
+		// fixed width segment numbers sort by name
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static long lastSegmentNumber(Path folder, String prefix) throws IOException {
+		List<Path> segments = listSegments(folder, prefix);
+		if (segments.isEmpty()) {
+			return 0;
+		}
+		String name = segments.get(segments.size() - 1).getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(prefix.length() + 1, name.length() - SEGMENT_EXT.length()));
+		} catch (NumberFormatException e) {
+			return segments.size();
+		}
+	}
+
+	private Segment newSegment() throws IOException {
+		Path file = folder.resolve(String.format("%s-%010d%s", prefix, ++segmentCount, SEGMENT_EXT));
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			return new Segment(file, buffer);
+		} finally {
+			Utils.close(channel);
+		}
+	}
+
+	/**
+	 * Keep log open for one more sink.
+	 *
+	 * @return true if acquired, false if log is closed already
+	 */
+	synchronized boolean acquire() {
+		if (closed) {
+			return false;
+		}
+		refCount++;
+		return true;
+	}
+
+	/**
+	 * Release log by a sink, closing it when no sink uses it. Checked and closed under the same lock as
+	 * {@link #acquire()}, so a log is never closed while a sink acquires it.
+	 */
+	void release() {
+		Segment last;
+		synchronized (this) {
+			if (--refCount > 0 || closed) {
+				return;
+			}
+			closed = true;
+			last = segment;
+		}
+		shutdown(last);
+	}
+
+	synchronized boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Append a record.
+	 *
+	 * @param record
+	 *            record bytes
+	 * @param offset
+	 *            record offset
+	 * @param length
+	 *            record length
+	 * @return true if record was appended, false if log is closed or record is larger than a segment
+	 * @throws IOException
+	 *             if a new segment can't be created
+	 */
+	public boolean append(byte[] record, int offset, int length) throws IOException {
+		if (length + RECORD_HEADER_SIZE + 4 > segmentSize - HEADER_SIZE) {
+			droppedCount.increment();
+			return false;
+		}
+		CRC32 crc = CRC.get();
+		crc.reset();
+		crc.update(record, offset, length);
+		int sum = (int) crc.getValue();
+		Segment target;
+		int start;
+		boolean rolled = false;
+		synchronized (this) {
+			if (closed) {
+				droppedCount.increment();
+				return false;
+			}
+			// keep room for the zero length end marker
+			if (segment.buffer.remaining() < length + RECORD_HEADER_SIZE + 4) {
+				roll();
+				rolled = true;
+			}
+			target = segment;
+			start = target.buffer.position();
+			target.buffer.position(start + RECORD_HEADER_SIZE + length);
+			target.writers++;
+		}
+		ByteBuffer slot = target.buffer.duplicate();
+		slot.position(start + 4);
+		slot.putInt(sum);
+		slot.put(record, offset, length);
+		// length last, so a reader never sees a length before its record
+		slot.putInt(start, length);
+		boolean signal;
+		synchronized (this) {
+			target.writers--;
+			if (uncommitted == 0) {
+				firstUncommitted = System.nanoTime();
+			}
+			// counted once copied, so a commit triggered by this record covers it
+			uncommitted += length + RECORD_HEADER_SIZE;
+			signal = uncommitted >= flushBytes || rolled || (target.full && target.writers == 0);
+		}
+		recordCount.increment();
+		byteCount.add(length + RECORD_HEADER_SIZE);
+		if (signal) {
+			synchronized (committer) {
+				committer.notify();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Continue in a new segment. The full one is forced by the commit thread once records being copied into it are.
+	 */
+	private void roll() throws IOException {
+		Segment full = segment;
+		segment = newSegment();
+		full.full = true;
+		fullSegments.add(full);
+	}
+
+	/**
+	 * Remove full segments no record is being copied into anymore.
+	 *
+	 * @return full segments to force
+	 */
+	private List<Segment> takeFullSegments() {
+		if (fullSegments.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Segment> done = new ArrayList<Segment>();
+		for (Segment full : fullSegments) {
+			if (full.writers == 0) {
+				done.add(full);
+			}
+		}
+		fullSegments.removeAll(done);
+		return done;
+	}
+
+	/**
+	 * Commit all appended records now.
+	 */
+	public void commit() {
+		Segment current;
+		List<Segment> full;
+		synchronized (this) {
+			current = segment;
+			full = takeFullSegments();
+			uncommitted = 0;
+		}
+		for (Segment target : full) {
+			commit(target);
+		}
+		commit(current);
+	}
+
+	private void commit(Segment target) {
+		if (force) {
+			target.buffer.force();
+		}
+		commitCount.increment();
+	}
+
+	private void commitLoop() {
+		while (true) {
+			Segment target = null;
+			List<Segment> full;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				full = takeFullSegments();
+				if (uncommitted > 0
+						&& (uncommitted >= flushBytes || System.nanoTime() - firstUncommitted >= flushNanos)) {
+					target = segment;
+					uncommitted = 0;
+				}
+			}
+			for (Segment done : full) {
+				commit(done);
+			}
+			if (target != null) {
+				commit(target);
+			}
+			if (target != null || !full.isEmpty()) {
+				continue;
+			}
+			long waitNanos;
+			synchronized (this) {
+				waitNanos = uncommitted > 0 ? flushNanos - (System.nanoTime() - firstUncommitted) : flushNanos;
+			}
+			synchronized (committer) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(committer, Math.max(1000, waitNanos));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	public long getRecordCount() {
+		return recordCount.sum();
+	}
+
+	public long getByteCount() {
+		return byteCount.sum();
+	}
+
+	public long getCommitCount() {
+		return commitCount.sum();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	public synchronized long getSegmentCount() {
+		return segmentCount;
+	}
+
+	public synchronized Path getSegmentFile() {
+		return segment.file;
+	}
+
+	@Override
+	public void close() {
+		Segment last;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			last = segment;
+		}
+		shutdown(last);
+	}
+
+	private void shutdown(Segment last) {
+		committer.interrupt();
+		List<Segment> full;
+		synchronized (this) {
+			full = new ArrayList<Segment>(fullSegments);
+			fullSegments.clear();
+		}
+		for (Segment target : full) {
+			commit(target);
+		}
+		commit(last);
+	}
+
+	@Override
+	public String toString() {
+		return "BinaryEventLog{segment=" + getSegmentFile() + ", records=" + getRecordCount() + ", bytes="
+				+ getByteCount() + ", commits=" + getCommitCount() + ", dropped=" + getDroppedCount() + "}";
+	}
+
+	/**
+	 * Read records of a segment file.
+	 *
+	 * @param file
+	 *            segment file
+	 * @param reader
+	 *            called with every record, positioned at its start and limited to its end
+	 * @return number of records read
+	 * @throws IOException
+	 *             if file is not a segment or can't be read
+	 */
+	public static long read(Path file, RecordReader reader) throws IOException {
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+			throw new IOException("Not a binary event log segment: " + file);
+		}
+		int version = data.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported segment version " + version + ": " + file);
+		}
+		CRC32 crc = new CRC32();
+		long count = 0;
+		while (data.remaining() >= RECORD_HEADER_SIZE) {
+			int length = data.getInt();
+			int sum = data.getInt();
+			if (length <= 0 || length > data.remaining()) {
+				break; // end marker, or a record torn by a crash
+			}
+			crc.reset();
+			crc.update(data.array(), data.position(), length);
+			if ((int) crc.getValue() != sum) {
+				throw new IOException("Corrupt record at " + (data.position() - RECORD_HEADER_SIZE) + ": " + file);
+			}
+			ByteBuffer record = data.slice();
+			record.limit(length);
+			reader.read(record);
+			data.position(data.position() + length);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Callback for records read from a segment.
+	 */
+	public interface RecordReader {
+		void read(ByteBuffer record) throws IOException;
+	}
+
+	private static class Segment {
+		final Path file;
+		final MappedByteBuffer buffer;
+		// guarded by the log: records being copied, and whether the segment was rolled over
+		int writers;
+		boolean full;
+
+		Segment(Path file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts segments written by {@link BinaryEventSinkFactory} to JSON, one object per line, in the order records were
+ * appended.
+ *
+ * @version $Revision: 1$
+ */
+public class BinaryEventLogReader {
+	/**
+	 * Convert binary event log segments to JSON.
+	 *
+	 * @param args
+	 *            Usage: [-o output-file] [-p file-prefix] segment-file|folder...
+	 * @throws IOException
+	 *             if a segment can't be read or output can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		String output = null;
+		String prefix = "events";
+		List<Path> segments = new ArrayList<Path>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && i + 1 < args.length) {
+				output = args[++i];
+			} else if (args[i].equals("-p") && i + 1 < args.length) {
+				prefix = args[++i];
+			} else {
+				Path path = Paths.get(args[i]);
+				if (Files.isDirectory(path)) {
+					segments.addAll(BinaryEventLog.listSegments(path, prefix));
+				} else {
+					segments.add(path);
+				}
+			}
+		}
+		if (segments.isEmpty()) {
+			System.out.println("Usage: [-o output-file] [-p file-prefix] segment-file|folder...");
+			System.exit(-1);
+		}
+		Writer out = new BufferedWriter(output == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8));
+		try {
+			long count = 0;
+			for (Path segment : segments) {
+				count += toJson(segment, out);
+			}
+			if (output != null) {
+				System.out.println("Converted records=" + count + ", segments=" + segments.size() + ", output=" + output);
+			}
+		} finally {
+			out.flush();
+			if (output != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Convert a segment to JSON lines.
+	 *
+	 * @param segment
+	 *            segment file
+	 * @param out
+	 *            output, one JSON object per line
+	 * @return number of converted records
+	 * @throws IOException
+	 *             if segment can't be read or output can't be written
+	 */
+	public static long toJson(Path segment, final Writer out) throws IOException {
+		final StringBuilder json = new StringBuilder(1024);
+		return BinaryEventLog.read(segment, new BinaryEventLog.RecordReader() {
+			@Override
+			public void read(ByteBuffer record) throws IOException {
+				json.setLength(0);
+				BinaryEventCodec.toJson(record, json);
+				out.append(json).append('\n');
+			}
+		});
+	}
+}
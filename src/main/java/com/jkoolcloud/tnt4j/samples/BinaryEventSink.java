@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.Snapshot;
+import com.jkoolcloud.tnt4j.format.EventFormatter;
+import com.jkoolcloud.tnt4j.sink.AbstractEventSink;
+import com.jkoolcloud.tnt4j.source.Source;
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+import com.jkoolcloud.tnt4j.utils.Useconds;
+
+/**
+ * Event sink writing events, activities, snapshots and messages in binary form to a {@link BinaryEventLog} shared by
+ * all sinks of a {@link BinaryEventSinkFactory}. The log is obtained from the factory when the sink is opened, and again
+ * when it was closed meanwhile. Records are encoded into a per-thread reusable buffer, formatters are not used. See
+ * {@link BinaryEventLogReader} to convert logged records to JSON.
+ *
+ * @version $Revision: 1$
+ */
+public class BinaryEventSink extends AbstractEventSink {
+	private static final ThreadLocal<BinaryEventCodec> CODEC = new ThreadLocal<BinaryEventCodec>() {
+		@Override
+		protected BinaryEventCodec initialValue() {
+			return new BinaryEventCodec();
+		}
+	};
+
+	private final BinaryEventSinkFactory factory;
+	private volatile BinaryEventLog log;
+	private volatile boolean open;
+
+	/**
+	 * Create binary event sink.
+	 *
+	 * @param name
+	 *            sink name
+	 * @param factory
+	 *            factory providing the log records are appended to
+	 * @param formatter
+	 *            event formatter, kept for sink configuration only
+	 */
+	public BinaryEventSink(String name, BinaryEventSinkFactory factory, EventFormatter formatter) {
+		super(name, formatter);
+		this.factory = factory;
+	}
+
+	@Override
+	public Object getSinkHandle() {
+		return log;
+	}
+
+	@Override
+	public boolean isOpen() {
+		BinaryEventLog current = log;
+		return open && current != null && current.isOpen();
+	}
+
+	@Override
+	protected synchronized void _open() throws IOException {
+		if (open && log.isOpen()) {
+			return;
+		}
+		if (open) {
+			// closed by someone else, e.g. on shutdown
+			log.release();
+		}
+		log = factory.acquireLog();
+		open = true;
+	}
+
+	@Override
+	protected synchronized void _close() throws IOException {
+		if (open) {
+			open = false;
+			log.release();
+		}
+	}
+
+	@Override
+	protected void _log(TrackingEvent event) throws IOException {
+		append(CODEC.get().encode(event));
+	}
+
+	@Override
+	protected void _log(TrackingActivity activity) throws IOException {
+		append(CODEC.get().encode(activity));
+	}
+
+	@Override
+	protected void _log(Snapshot snapshot) throws IOException {
+		append(CODEC.get().encode(snapshot));
+	}
+
+	@Override
+	protected void _log(long ttl, Source src, OpLevel sev, String msg, Object... args) throws IOException {
+		append(CODEC.get().encode(Useconds.CURRENT.get(), src, sev, msg, args));
+	}
+
+	@Override
+	protected void _write(Object msg, Object... args) throws IOException, InterruptedException {
+		append(CODEC.get().encode(Useconds.CURRENT.get(), getSource(), OpLevel.NONE, String.valueOf(msg), args));
+	}
+
+	private void append(BinaryEventCodec codec) throws IOException {
+		_checkState();
+		BinaryEventLog current = log;
+		if (current != null && current.append(codec.array(), 0, codec.length())) {
+			incrementBytesSent(codec.length());
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		BinaryEventLog current = log;
+		if (current != null) {
+			current.commit();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "{open=" + open + ", log=" + log + "}";
+	}
+}
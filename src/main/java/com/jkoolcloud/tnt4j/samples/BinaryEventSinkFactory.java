@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+
+import com.jkoolcloud.tnt4j.config.ConfigException;
+import com.jkoolcloud.tnt4j.format.EventFormatter;
+import com.jkoolcloud.tnt4j.sink.AbstractEventSinkFactory;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Event sink factory creating {@link BinaryEventSink}s, which append binary records to a memory-mapped segment log
+ * with group commit. All sinks of a factory share one log. Configured in {@code tnt4j.properties}:
+ *
+ * <pre>
+ * event.sink.factory: com.jkoolcloud.tnt4j.samples.BinaryEventSinkFactory
+ * event.sink.factory.Folder: ./logs
+ * event.sink.factory.FileName: events
+ * event.sink.factory.SegmentMB: 64
+ * event.sink.factory.FlushKB: 1024
+ * event.sink.factory.FlushMs: 100
+ * event.sink.factory.Force: true
+ * </pre>
+ *
+ * @version $Revision: 1$
+ * @see BinaryEventLog
+ */
+public class BinaryEventSinkFactory extends AbstractEventSinkFactory {
+	private String folder = "logs";
+	private String fileName = "events";
+	private int segmentMB = 64;
+	private long flushKB = 1024;
+	private long flushMs = 100;
+	private boolean force = true;
+	private BinaryEventLog log;
+
+	@Override
+	public EventSink getEventSink(String name) {
+		return getEventSink(name, System.getProperties());
+	}
+
+	@Override
+	public EventSink getEventSink(String name, Properties props) {
+		return getEventSink(name, props, getDefaultEventFormatter());
+	}
+
+	@Override
+	public EventSink getEventSink(String name, Properties props, EventFormatter frmt) {
+		return configureSink(new BinaryEventSink(name, this, frmt));
+	}
+
+	/**
+	 * Get the log shared by sinks of this factory, creating a new one if it was closed by its last sink.
+	 *
+	 * @return shared log
+	 * @throws IOException
+	 *             if log can't be created
+	 */
+	public synchronized BinaryEventLog getLog() throws IOException {
+		if (log == null || !log.isOpen()) {
+			Path path = Paths.get(folder);
+			int segmentSize = (int) Math.min(Integer.MAX_VALUE, segmentMB * 1024L * 1024);
+			log = new BinaryEventLog(path, fileName, segmentSize, flushKB * 1024, flushMs, force);
+		}
+		return log;
+	}
+
+	/**
+	 * Get the log shared by sinks of this factory and keep it open for one more sink, creating a new one if it was
+	 * closed meanwhile.
+	 *
+	 * @return acquired log, to be released by the sink
+	 * @throws IOException
+	 *             if log can't be created
+	 * @see BinaryEventLog#release()
+	 */
+	synchronized BinaryEventLog acquireLog() throws IOException {
+		for (;;) {
+			BinaryEventLog current = getLog();
+			if (current.acquire()) {
+				return current;
+			}
+		}
+	}
+
+	@Override
+	public void setConfiguration(Map<String, ?> settings) throws ConfigException {
+		super.setConfiguration(settings);
+		folder = Utils.getString("Folder", settings, folder);
+		fileName = Utils.getString("FileName", settings, fileName);
+		segmentMB = Utils.getInt("SegmentMB", settings, segmentMB);
+		flushKB = Utils.getLong("FlushKB", settings, flushKB);
+		flushMs = Utils.getLong("FlushMs", settings, flushMs);
+		force = Utils.getBoolean("Force", settings, force);
+	}
+}
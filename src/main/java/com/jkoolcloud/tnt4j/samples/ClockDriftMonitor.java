@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.PropertySnapshot;
+import com.jkoolcloud.tnt4j.core.ValueTypes;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+
+/**
+ * Monitors drift of {@link System#currentTimeMillis()} against {@link System#nanoTime()}, which event timestamps and
+ * elapsed times are derived from, and the cost of calling either clock. Drift is sampled at a fixed rate and kept in a
+ * rolling window, from which offset range, percentiles and drift rate (least squares slope in ppm) are computed. Clock
+ * call cost is measured concurrently on a number of threads, exposing contention on virtualized clock sources.
+ * Sampling runs on its own timer thread, so it is not delayed while clock cost is measured and results are logged.
+ * <p>
+ * Results are logged as a {@code ClockDrift} property snapshot every publish period. A warning is logged when drift or
+ * drift rate crosses a threshold, and once more when it is back within thresholds.
+ *
+ * @version $Revision: 1$
+ */
+public class ClockDriftMonitor implements Closeable {
+	public static final String SNAPSHOT_CATEGORY = "ClockDrift";
+
+	private static final int COST_BATCH = 100;
+	private static ScheduledExecutorService sampleTimer;
+	private static ScheduledExecutorService publishTimer;
+
+	private final EventSink logger;
+	private final String name;
+	private final long[] sampleNanos;
+	private final long[] sampleOffsets;
+	private final int costThreads;
+	private final int costCalls;
+	private final ExecutorService costPool;
+	private final LatencyHistogram wallCost = new LatencyHistogram();
+	private final LatencyHistogram nanoCost = new LatencyHistogram();
+	private final ScheduledFuture<?> sampler;
+	private final ScheduledFuture<?> publisher;
+	private final long startNanos;
+	private final long baseMicros;
+
+	private long sampleCount;
+	private long maxStepMicros;
+	private long lastOffset;
+	private long alertMicros;
+	private double alertPpm;
+	private boolean alerting;
+
+	/**
+	 * Create and start clock drift monitor.
+	 *
+	 * @param logger
+	 *            sink snapshots and alerts are logged to
+	 * @param name
+	 *            snapshot name
+	 * @param sampleMillis
+	 *            drift sampling period in milliseconds
+	 * @param windowSize
+	 *            number of most recent samples statistics are computed over
+	 * @param publishSec
+	 *            how often statistics are logged and clock cost is measured, in seconds
+	 * @param costThreads
+	 *            number of threads concurrently calling clocks when measuring their cost, 0 to disable
+	 * @param costCalls
+	 *            number of calls of each clock per thread and measurement
+	 */
+	public ClockDriftMonitor(EventSink logger, String name, long sampleMillis, int windowSize, long publishSec,
+			int costThreads, int costCalls) {
+		this.logger = logger;
+		this.name = name;
+		this.sampleNanos = new long[Math.max(2, windowSize)];
+		this.sampleOffsets = new long[sampleNanos.length];
+		this.costThreads = Math.max(0, costThreads);
+		this.costCalls = Math.max(COST_BATCH, costCalls);
+		this.costPool = this.costThreads > 0
+				? Executors.newFixedThreadPool(this.costThreads, new WatchMultiplexer.NamedThreadFactory("ClockCost"))
+				: null;
+		this.startNanos = System.nanoTime();
+		this.baseMicros = System.currentTimeMillis() * 1000 - startNanos / 1000;
+		long sample = Math.max(1, sampleMillis);
+		this.sampler = getSampleTimer().scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, 0, sample, TimeUnit.MILLISECONDS);
+		long publish = Math.max(1, publishSec);
+		this.publisher = getPublishTimer().scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				publish();
+			}
+		}, publish, publish, TimeUnit.SECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getSampleTimer() {
+		if (sampleTimer == null) {
+			sampleTimer = Executors
+					.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("ClockDriftMonitor"));
+		}
+		return sampleTimer;
+	}
+
+	/**
+	 * Timer measuring clock cost and logging results, which blocks for a whole cost measurement.
+	 */
+	private static synchronized ScheduledExecutorService getPublishTimer() {
+		if (publishTimer == null) {
+			publishTimer = Executors.newSingleThreadScheduledExecutor(
+					new WatchMultiplexer.NamedThreadFactory("ClockDriftMonitor-publish"));
+		}
+		return publishTimer;
+	}
+
+	/**
+	 * Log a warning when drift or drift rate exceeds a threshold.
+	 *
+	 * @param driftMicros
+	 *            highest absolute drift since start in microseconds, 0 for no limit
+	 * @param ppm
+	 *            highest absolute drift rate over the window in microseconds per second, 0 for no limit
+	 * @return itself
+	 */
+	public synchronized ClockDriftMonitor setAlertThresholds(long driftMicros, double ppm) {
+		this.alertMicros = Math.max(0, driftMicros);
+		this.alertPpm = Math.max(0, ppm);
+		return this;
+	}
+
+	/**
+	 * Take one drift sample. The wall clock is read between two nano time reads and compared with their midpoint.
+	 */
+	synchronized void sample() {
+		long before = System.nanoTime();
+		long wall = System.currentTimeMillis();
+		long after = System.nanoTime();
+		long mid = before + (after - before) / 2;
+		long offset = wall * 1000 - mid / 1000 - baseMicros;
+		int slot = (int) (sampleCount % sampleNanos.length);
+		sampleNanos[slot] = mid;
+		sampleOffsets[slot] = offset;
+		if (sampleCount > 0) {
+			maxStepMicros = Math.max(maxStepMicros, Math.abs(offset - lastOffset));
+		}
+		lastOffset = offset;
+		sampleCount++;
+	}
+
+	/**
+	 * Measure per call cost of both clocks, calling them concurrently on all cost threads. Costs of the previous
+	 * measurement are cleared.
+	 */
+	void measureCost() {
+		if (costPool == null) {
+			return;
+		}
+		wallCost.reset();
+		nanoCost.reset();
+		final CountDownLatch done = new CountDownLatch(costThreads);
+		for (int i = 0; i < costThreads; i++) {
+			costPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long sink = 0;
+						for (int n = 0; n < costCalls; n += COST_BATCH) {
+							long begin = System.nanoTime();
+							for (int c = 0; c < COST_BATCH; c++) {
+								sink += System.currentTimeMillis();
+							}
+							long mid = System.nanoTime();
+							for (int c = 0; c < COST_BATCH; c++) {
+								sink += System.nanoTime();
+							}
+							long end = System.nanoTime();
+							wallCost.record((mid - begin) / COST_BATCH);
+							nanoCost.record((end - mid) / COST_BATCH);
+						}
+						if (sink == 42) {
+							// keep clock calls from being optimized away
+							Thread.yield();
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		try {
+			done.await(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void publish() {
+		measureCost();
+		Stats stats = getStats();
+		boolean alert, changed;
+		long maxMicros;
+		double maxPpm;
+		synchronized (this) {
+			maxMicros = alertMicros;
+			maxPpm = alertPpm;
+			alert = (maxMicros > 0 && Math.abs(stats.lastMicros) > maxMicros)
+					|| (maxPpm > 0 && Math.abs(stats.ppm) > maxPpm);
+			changed = alert != alerting;
+			alerting = alert;
+		}
+		PropertySnapshot snap = toSnapshot(stats, alert);
+		logger.log(snap);
+		if (changed) {
+			logger.log(alert ? OpLevel.WARNING : OpLevel.INFO,
+					(alert ? "Clock drift exceeds" : "Clock drift back within")
+							+ " thresholds: drift.us={0}, ppm={1}, max.drift.us={2}, max.ppm={3}",
+					stats.lastMicros, stats.ppm, maxMicros, maxPpm);
+		}
+	}
+
+	/**
+	 * Compute statistics over the current sample window.
+	 *
+	 * @return drift statistics
+	 */
+	public synchronized Stats getStats() {
+		int n = (int) Math.min(sampleCount, sampleNanos.length);
+		Stats stats = new Stats();
+		stats.sampleCount = sampleCount;
+		stats.maxStepMicros = maxStepMicros;
+		stats.lastMicros = lastOffset;
+		if (n == 0) {
+			return stats;
+		}
+		long[] sorted = Arrays.copyOf(sampleOffsets, n);
+		Arrays.sort(sorted);
+		stats.minMicros = sorted[0];
+		stats.maxMicros = sorted[n - 1];
+		stats.p50Micros = sorted[(n - 1) / 2];
+		stats.p99Micros = sorted[(int) Math.ceil(0.99 * n) - 1];
+		// least squares slope of offset over time, microseconds per second is ppm
+		double sx = 0, sy = 0;
+		long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			sx += (sampleNanos[i] - startNanos) / 1e9;
+			sy += sampleOffsets[i];
+			first = Math.min(first, sampleNanos[i]);
+			last = Math.max(last, sampleNanos[i]);
+		}
+		double mx = sx / n, my = sy / n, sxx = 0, sxy = 0;
+		for (int i = 0; i < n; i++) {
+			double dx = (sampleNanos[i] - startNanos) / 1e9 - mx;
+			sxx += dx * dx;
+			sxy += dx * (sampleOffsets[i] - my);
+		}
+		stats.ppm = sxx > 0 ? sxy / sxx : 0;
+		stats.windowSec = (last - first) / 1e9;
+		return stats;
+	}
+
+	PropertySnapshot toSnapshot(Stats stats, boolean alert) {
+		PropertySnapshot snap = new PropertySnapshot(SNAPSHOT_CATEGORY, name,
+				alert ? OpLevel.WARNING : OpLevel.INFO);
+		snap.add("SampleCount", stats.sampleCount);
+		snap.add("DriftMicros", stats.lastMicros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftMinMicros", stats.minMicros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftMaxMicros", stats.maxMicros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftP50Micros", stats.p50Micros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftP99Micros", stats.p99Micros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftMaxStepMicros", stats.maxStepMicros, ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("DriftPpm", stats.ppm);
+		snap.add("WindowSec", stats.windowSec, ValueTypes.VALUE_TYPE_AGE_SEC);
+		snap.add("Alert", alert, ValueTypes.VALUE_TYPE_FLAG);
+		if (costPool != null) {
+			snap.add("CostThreads", costThreads);
+			snap.add("WallClockNanosP50", wallCost.getPercentile(50), ValueTypes.VALUE_TYPE_AGE_NSEC);
+			snap.add("WallClockNanosP99", wallCost.getPercentile(99), ValueTypes.VALUE_TYPE_AGE_NSEC);
+			snap.add("WallClockNanosMax", wallCost.getMax(), ValueTypes.VALUE_TYPE_AGE_NSEC);
+			snap.add("NanoClockNanosP50", nanoCost.getPercentile(50), ValueTypes.VALUE_TYPE_AGE_NSEC);
+			snap.add("NanoClockNanosP99", nanoCost.getPercentile(99), ValueTypes.VALUE_TYPE_AGE_NSEC);
+			snap.add("NanoClockNanosMax", nanoCost.getMax(), ValueTypes.VALUE_TYPE_AGE_NSEC);
+		}
+		return snap;
+	}
+
+	public LatencyHistogram getWallClockCost() {
+		return wallCost;
+	}
+
+	public LatencyHistogram getNanoClockCost() {
+		return nanoCost;
+	}
+
+	@Override
+	public void close() {
+		sampler.cancel(false);
+		publisher.cancel(false);
+		if (costPool != null) {
+			costPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Drift statistics over a sample window, in microseconds since the monitor was started.
+	 */
+	public static class Stats {
+		long sampleCount;
+		long lastMicros, minMicros, maxMicros, p50Micros, p99Micros, maxStepMicros;
+		double ppm, windowSec;
+
+		public long getSampleCount() {
+			return sampleCount;
+		}
+
+		public long getDriftMicros() {
+			return lastMicros;
+		}
+
+		public long getMinMicros() {
+			return minMicros;
+		}
+
+		public long getMaxMicros() {
+			return maxMicros;
+		}
+
+		public long getP50Micros() {
+			return p50Micros;
+		}
+
+		public long getP99Micros() {
+			return p99Micros;
+		}
+
+		public long getMaxStepMicros() {
+			return maxStepMicros;
+		}
+
+		public double getPpm() {
+			return ppm;
+		}
+
+		public double getWindowSec() {
+			return windowSec;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"samples=%d, drift.us=%d, min.us=%d, max.us=%d, p50.us=%d, p99.us=%d, max.step.us=%d, ppm=%.3f, window.sec=%.1f",
+					sampleCount, lastMicros, minMicros, maxMicros, p50Micros, p99Micros, maxStepMicros, ppm, windowSec);
+		}
+	}
+}
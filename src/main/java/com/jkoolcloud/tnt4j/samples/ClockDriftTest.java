@@ -15,28 +15,56 @@
  */
 package com.jkoolcloud.tnt4j.samples;
 
+import java.util.concurrent.TimeUnit;
+
+import com.jkoolcloud.tnt4j.sink.DefaultEventSinkFactory;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+
 /**
- * This class measures clock drift between {@link System#currentTimeMillis()} and {@link System#nanoTime()}.
+ * This class measures clock drift between {@link System#currentTimeMillis()} and {@link System#nanoTime()}, and the
+ * cost of calling both clocks, using a {@link ClockDriftMonitor}. Statistics are printed and logged every publish
+ * period.
  * 
  * @version $Revision: 1 $
  */
 public class ClockDriftTest {
-	private static final int ONEM = 1000000;
+	private static final long SAMPLE_MS = Long.getLong("tnt4j.clock.sample.ms", 100);
+	private static final int WINDOW = Integer.getInteger("tnt4j.clock.window", 600);
+	private static final long PUBLISH_SEC = Long.getLong("tnt4j.clock.publish.sec", 10);
+	private static final int COST_THREADS = Integer.getInteger("tnt4j.clock.cost.threads",
+			Runtime.getRuntime().availableProcessors());
+	private static final int COST_CALLS = Integer.getInteger("tnt4j.clock.cost.calls", 100000);
+	private static final long ALERT_US = Long.getLong("tnt4j.clock.alert.us", 0);
+	private static final double ALERT_PPM = Double.parseDouble(System.getProperty("tnt4j.clock.alert.ppm", "0"));
 
 	public static void main(String[] args) {
-		long start = System.nanoTime();
-		long base = System.currentTimeMillis() - (start / ONEM);
+		EventSink logger = DefaultEventSinkFactory.defaultEventSink(ClockDriftTest.class);
+		ClockDriftMonitor monitor = newMonitor(logger, ClockDriftTest.class.getSimpleName());
 
 		while (true) {
 			try {
-				Thread.sleep(10000);
+				Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, PUBLISH_SEC)));
 			} catch (InterruptedException e) {
 			}
-			long now = System.nanoTime();
-			long drift = System.currentTimeMillis() - (now / ONEM) - base;
-			long interval = (now - start) / ONEM;
-			System.out.println("Clock drift.ms=" + drift + ", after interval.ms=" + interval + ", change.rate="
-					+ ((double) (drift * 1000) / (double) interval) + " ms/sec");
+			System.out.println("Clock drift: " + monitor.getStats() + ", wall.cost.p50.ns="
+					+ monitor.getWallClockCost().getPercentile(50) + ", wall.cost.p99.ns="
+					+ monitor.getWallClockCost().getPercentile(99) + ", nano.cost.p50.ns="
+					+ monitor.getNanoClockCost().getPercentile(50) + ", nano.cost.p99.ns="
+					+ monitor.getNanoClockCost().getPercentile(99) + ", cost.threads=" + COST_THREADS);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Create a clock drift monitor configured by {@code tnt4j.clock.*} system properties.
+	 *
+	 * @param logger
+	 *            sink snapshots and alerts are logged to
+	 * @param name
+	 *            snapshot name
+	 * @return started monitor
+	 */
+	static ClockDriftMonitor newMonitor(EventSink logger, String name) {
+		return new ClockDriftMonitor(logger, name, SAMPLE_MS, WINDOW, PUBLISH_SEC, COST_THREADS, COST_CALLS)
+				.setAlertThresholds(ALERT_US, ALERT_PPM);
+	}
+}
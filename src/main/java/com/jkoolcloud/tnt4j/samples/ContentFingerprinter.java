@@ -0,0 +1,390 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * This class detects real content changes of files, so rewrites of identical bytes and touches are not reported as
+ * changes. Files are hashed in fixed size chunks with {@link ContentHash}, reading through memory-mapped regions of a
+ * {@link FileChannel} for large files, and differing chunks are reported as changed byte ranges. Fingerprints are
+ * cached per path together with file key, size and modification time; a file whose attributes match its cached
+ * fingerprint is not read again. Files modified within {@value #RACY_MS}ms of being hashed are always re-hashed,
+ * since a change within the file system timestamp granularity would not show in their attributes. All methods are
+ * thread safe.
+ *
+ * @version $Revision: 1$
+ */
+public class ContentFingerprinter {
+	static final long RACY_MS = 2000;
+	private static final int HEAP_THRESHOLD = 64 * 1024;
+	private static final long MAX_MAP_SIZE = 1L << 30;
+
+	private final int chunkSize;
+	private final long maxFileSize;
+	private final int maxEntries;
+	private final LinkedHashMap<Path, Fingerprint> cache;
+
+	private final LongAdder skippedCount = new LongAdder();
+	private final LongAdder hashedCount = new LongAdder();
+	private final LongAdder hashedBytes = new LongAdder();
+	private final LongAdder unchangedCount = new LongAdder();
+	private final LongAdder oversizeCount = new LongAdder();
+
+	/**
+	 * Create content fingerprinter.
+	 *
+	 * @param chunkSize
+	 *            size of hashed chunks in bytes, the granularity of reported ranges
+	 * @param maxFileSize
+	 *            largest file to hash in bytes, larger files are always reported as changed
+	 * @param maxEntries
+	 *            maximum number of cached fingerprints, least recently used ones are evicted
+	 */
+	public ContentFingerprinter(int chunkSize, long maxFileSize, int maxEntries) {
+		this.chunkSize = Math.max(4096, chunkSize);
+		this.maxFileSize = maxFileSize;
+		this.maxEntries = Math.max(1, maxEntries);
+		this.cache = new LinkedHashMap<Path, Fingerprint>(256, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, Fingerprint> eldest) {
+				return size() > ContentFingerprinter.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Fingerprint current content of a given file and compare it with the cached fingerprint.
+	 *
+	 * @param file
+	 *            regular file path
+	 * @return content change, null if content is unchanged
+	 * @throws IOException
+	 *             if file can't be read
+	 */
+	public Change update(Path file) throws IOException {
+		return update(file, Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+	}
+
+	/**
+	 * Fingerprint current content of a given file and compare it with the cached fingerprint.
+	 *
+	 * @param file
+	 *            regular file path
+	 * @param attrs
+	 *            current file attributes
+	 * @return content change, null if content is unchanged
+	 * @throws IOException
+	 *             if file can't be read
+	 */
+	public Change update(Path file, BasicFileAttributes attrs) throws IOException {
+		Fingerprint prev;
+		synchronized (cache) {
+			prev = cache.get(file);
+		}
+		if (prev != null && prev.matches(attrs)) {
+			skippedCount.increment();
+			return null;
+		}
+		if (attrs.size() > maxFileSize) {
+			oversizeCount.increment();
+			remove(file);
+			return new Change(prev, null);
+		}
+		Fingerprint next = fingerprint(file, attrs);
+		synchronized (cache) {
+			cache.put(file, next);
+		}
+		if (prev != null && prev.hash == next.hash && prev.size == next.size) {
+			unchangedCount.increment();
+			return null;
+		}
+		return new Change(prev, next);
+	}
+
+	/**
+	 * Forget cached fingerprint of a given file.
+	 *
+	 * @param file
+	 *            file path
+	 */
+	public void remove(Path file) {
+		synchronized (cache) {
+			cache.remove(file);
+		}
+	}
+
+	/**
+	 * Re-key fingerprints of a moved file or directory, so moved files are not hashed again.
+	 *
+	 * @param from
+	 *            path before the move
+	 * @param to
+	 *            path after the move
+	 */
+	public void move(Path from, Path to) {
+		synchronized (cache) {
+			List<Path> moved = new ArrayList<Path>();
+			for (Path path : cache.keySet()) {
+				if (path.startsWith(from)) {
+					moved.add(path);
+				}
+			}
+			for (Path path : moved) {
+				cache.put(to.resolve(from.relativize(path)), cache.remove(path));
+			}
+		}
+	}
+
+	private Fingerprint fingerprint(Path file, BasicFileAttributes attrs) throws IOException {
+		long verifiedAt = System.currentTimeMillis();
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long[] chunks = new long[(int) Math.max(1, (size + chunkSize - 1) / chunkSize)];
+			if (size <= HEAP_THRESHOLD) {
+				ByteBuffer buf = ByteBuffer.allocate((int) size);
+				while (buf.hasRemaining() && channel.read(buf) >= 0) {
+				}
+				buf.flip();
+				hashChunks(buf, 0, chunks);
+			} else {
+				// map whole chunks, at most about 1GB at a time
+				long window = Math.max(1, MAX_MAP_SIZE / chunkSize) * chunkSize;
+				for (long pos = 0; pos < size; pos += window) {
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(window, size - pos));
+					hashChunks(map, (int) (pos / chunkSize), chunks);
+				}
+			}
+			hashedCount.increment();
+			hashedBytes.add(size);
+			return new Fingerprint(attrs, size, chunks, verifiedAt);
+		} finally {
+			Utils.close(channel);
+		}
+	}
+
+	private void hashChunks(ByteBuffer buf, int first, long[] chunks) {
+		for (int i = first, pos = 0;; i++, pos += chunkSize) {
+			ByteBuffer chunk = buf.duplicate();
+			chunk.position(pos).limit(Math.min(buf.limit(), pos + chunkSize));
+			chunks[i] = ContentHash.hash(chunk);
+			if (pos + chunkSize >= buf.limit()) {
+				return;
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Number of updates answered from cached attributes, without reading the file.
+	 *
+	 * @return number of skipped updates
+	 */
+	public long getSkippedCount() {
+		return skippedCount.sum();
+	}
+
+	public long getHashedCount() {
+		return hashedCount.sum();
+	}
+
+	public long getHashedBytes() {
+		return hashedBytes.sum();
+	}
+
+	/**
+	 * Number of updates which hashed the file and found identical content.
+	 *
+	 * @return number of unchanged updates
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount.sum();
+	}
+
+	public long getOversizeCount() {
+		return oversizeCount.sum();
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Content fingerprint of a file: chunk hashes and the attributes they were computed for.
+	 */
+	public static class Fingerprint {
+		final Object fileKey;
+		final long size;
+		final long modified;
+		final long verifiedAt;
+		final long[] chunks;
+		final long hash;
+
+		Fingerprint(BasicFileAttributes attrs, long size, long[] chunks, long verifiedAt) {
+			this.fileKey = attrs.fileKey();
+			this.size = size;
+			this.modified = attrs.lastModifiedTime().toMillis();
+			this.verifiedAt = verifiedAt;
+			this.chunks = chunks;
+			ByteBuffer buf = ByteBuffer.allocate(chunks.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+			buf.asLongBuffer().put(chunks);
+			this.hash = ContentHash.hash(buf);
+		}
+
+		/**
+		 * Whether given attributes describe the content this fingerprint was computed for.
+		 */
+		boolean matches(BasicFileAttributes attrs) {
+			return Utils.equal(fileKey, attrs.fileKey()) && size == attrs.size()
+					&& modified == attrs.lastModifiedTime().toMillis() && modified + RACY_MS < verifiedAt;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getHash() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Content change of a file.
+	 */
+	public class Change {
+		private final Fingerprint before;
+		private final Fingerprint after;
+		private List<long[]> ranges;
+
+		Change(Fingerprint before, Fingerprint after) {
+			this.before = before;
+			this.after = after;
+		}
+
+		/**
+		 * Previous fingerprint.
+		 *
+		 * @return previous fingerprint, null if file was not fingerprinted before
+		 */
+		public Fingerprint getBefore() {
+			return before;
+		}
+
+		/**
+		 * Current fingerprint.
+		 *
+		 * @return current fingerprint, null if file is too large to fingerprint
+		 */
+		public Fingerprint getAfter() {
+			return after;
+		}
+
+		/**
+		 * Whether changed ranges are known, i.e. both fingerprints are available.
+		 *
+		 * @return true if ranges are known
+		 */
+		public boolean isKnown() {
+			return before != null && after != null;
+		}
+
+		/**
+		 * Changed byte ranges, adjacent changed chunks merged into one range.
+		 *
+		 * @return list of {offset, length} pairs, empty if not known
+		 */
+		public List<long[]> getRanges() {
+			if (ranges != null) {
+				return ranges;
+			}
+			if (!isKnown()) {
+				return ranges = Collections.emptyList();
+			}
+			List<long[]> list = new ArrayList<long[]>();
+			long end = Math.max(before.size, after.size);
+			int count = (int) Math.max(1, (end + chunkSize - 1) / chunkSize);
+			long[] open = null;
+			for (int i = 0; i < count; i++) {
+				boolean same = i < before.chunks.length && i < after.chunks.length
+						&& before.chunks[i] == after.chunks[i];
+				if (same) {
+					open = null;
+				} else if (open == null) {
+					open = new long[] { (long) i * chunkSize, Math.min(chunkSize, end - (long) i * chunkSize) };
+					list.add(open);
+				} else {
+					open[1] = Math.min(end, (long) (i + 1) * chunkSize) - open[0];
+				}
+			}
+			return ranges = list;
+		}
+
+		public long getChangedBytes() {
+			long bytes = 0;
+			for (long[] range : getRanges()) {
+				bytes += range[1];
+			}
+			return bytes;
+		}
+
+		/**
+		 * Format changed ranges as {@code start-end} byte offsets (end exclusive) separated by {@code ,}.
+		 *
+		 * @param maxRanges
+		 *            maximum number of ranges listed
+		 * @return changed ranges
+		 */
+		public String formatRanges(int maxRanges) {
+			StringBuilder buf = new StringBuilder();
+			List<long[]> list = getRanges();
+			for (int i = 0; i < list.size() && i < maxRanges; i++) {
+				if (i > 0) {
+					buf.append(',');
+				}
+				buf.append(list.get(i)[0]).append('-').append(list.get(i)[0] + list.get(i)[1]);
+			}
+			if (list.size() > maxRanges) {
+				buf.append(",...");
+			}
+			return buf.toString();
+		}
+	}
+}
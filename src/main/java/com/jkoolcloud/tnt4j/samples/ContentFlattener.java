@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * This interface defines a way to flatten structured file content into path/value pairs, so changes in any format can
+ * be reported as property differences. Implementations parse content as a stream without building a document tree
+ * and must be thread safe.
+ *
+ * @see ContentFlatteners
+ *
+ * @version $Revision: 1$
+ */
+public interface ContentFlattener {
+	/**
+	 * Maximum length of a flattened value, longer values are truncated
+	 */
+	int MAX_VALUE_LENGTH = 8192;
+
+	/**
+	 * Flatten content into path/value pairs. Parsing stops once a given number of pairs is produced.
+	 *
+	 * @param in
+	 *            content stream
+	 * @param out
+	 *            properties receiving path/value pairs
+	 * @param maxEntries
+	 *            maximum number of pairs to produce
+	 * @throws IOException
+	 *             if content can't be read or parsed
+	 */
+	void flatten(InputStream in, Properties out, int maxEntries) throws IOException;
+}
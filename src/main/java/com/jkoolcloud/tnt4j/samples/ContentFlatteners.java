@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link ContentFlattener}s by file extension. Files with unregistered extensions are read as
+ * {@link Properties}.
+ *
+ * @version $Revision: 1$
+ */
+public final class ContentFlatteners {
+	/**
+	 * Flattener reading {@link Properties} format, keeping only the first keys up to the maximum number of entries
+	 */
+	public static final ContentFlattener PROPERTIES = new ContentFlattener() {
+		@Override
+		public void flatten(InputStream in, final Properties out, final int maxEntries) throws IOException {
+			Properties bounded = new Properties() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public synchronized Object put(Object key, Object value) {
+					if (out.size() < maxEntries || out.containsKey(key)) {
+						out.put(key, clip(String.valueOf(value)));
+					}
+					return null;
+				}
+			};
+			bounded.load(in);
+		}
+	};
+
+	private static final Map<String, ContentFlattener> REGISTRY = new ConcurrentHashMap<String, ContentFlattener>();
+
+	static {
+		YamlFlattener yaml = new YamlFlattener();
+		register(".json", new JsonFlattener());
+		register(".yaml", yaml);
+		register(".yml", yaml);
+		register(".xml", new XmlFlattener());
+	}
+
+	private ContentFlatteners() {
+	}
+
+	/**
+	 * Register flattener for a given file extension.
+	 *
+	 * @param ext
+	 *            file extension including leading '.'
+	 * @param flattener
+	 *            content flattener
+	 */
+	public static void register(String ext, ContentFlattener flattener) {
+		REGISTRY.put(ext.toLowerCase(), flattener);
+	}
+
+	/**
+	 * Obtain flattener for a given file name.
+	 *
+	 * @param fileName
+	 *            file name
+	 * @return flattener registered for file extension, {@link #PROPERTIES} if none
+	 */
+	public static ContentFlattener forName(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		ContentFlattener flattener = dot < 0 ? null : REGISTRY.get(fileName.substring(dot).toLowerCase());
+		return flattener == null ? PROPERTIES : flattener;
+	}
+
+	static String join(String path, String name) {
+		return path.isEmpty() ? name : path + "." + name;
+	}
+
+	static String clip(String value) {
+		return value.length() > ContentFlattener.MAX_VALUE_LENGTH
+				? value.substring(0, ContentFlattener.MAX_VALUE_LENGTH) + "..." : value;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fast non-cryptographic 64-bit hash of file contents, consuming 8 bytes per step. A hash value is never 0, so 0 can
+ * be used to mark a missing hash.
+ *
+ * @version $Revision: 1$
+ */
+public final class ContentHash {
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+	private static final long M1 = 0xBF58476D1CE4E5B9L;
+	private static final long M2 = 0x94D049BB133111EBL;
+	private static final int MAP_THRESHOLD = 64 * 1024;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * Hash a byte array range.
+	 *
+	 * @param bytes
+	 *            byte array
+	 * @param offset
+	 *            offset of first byte
+	 * @param length
+	 *            number of bytes
+	 * @return non zero hash value
+	 */
+	public static long hash(byte[] bytes, int offset, int length) {
+		long h = SEED ^ length;
+		int i = offset, end = offset + length;
+		for (; i + 8 <= end; i += 8) {
+			long v = (bytes[i] & 0xFFL) | (bytes[i + 1] & 0xFFL) << 8 | (bytes[i + 2] & 0xFFL) << 16
+					| (bytes[i + 3] & 0xFFL) << 24 | (bytes[i + 4] & 0xFFL) << 32 | (bytes[i + 5] & 0xFFL) << 40
+					| (bytes[i + 6] & 0xFFL) << 48 | (bytes[i + 7] & 0xFFL) << 56;
+			h = step(h, v);
+		}
+		long tail = 0;
+		for (int shift = 0; i < end; i++, shift += 8) {
+			tail |= (bytes[i] & 0xFFL) << shift;
+		}
+		return finish(step(h, tail));
+	}
+
+	/**
+	 * Hash remaining bytes of a buffer, without changing its position.
+	 *
+	 * @param buffer
+	 *            byte buffer, heap, direct or memory-mapped
+	 * @return non zero hash value
+	 */
+	public static long hash(ByteBuffer buffer) {
+		ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		long h = SEED ^ buf.remaining();
+		while (buf.remaining() >= 8) {
+			h = step(h, buf.getLong());
+		}
+		long tail = 0;
+		for (int shift = 0; buf.hasRemaining(); shift += 8) {
+			tail |= (buf.get() & 0xFFL) << shift;
+		}
+		return finish(step(h, tail));
+	}
+
+	/**
+	 * Hash contents of a file. Large files are memory-mapped rather than read onto the heap.
+	 *
+	 * @param file
+	 *            file path
+	 * @return non zero hash value
+	 * @throws IOException
+	 *             if file can't be read or is larger than 2GB
+	 */
+	public static long hash(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large to hash: " + file + ", size=" + size);
+			} else if (size > MAP_THRESHOLD) {
+				return hash(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			}
+			ByteBuffer buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining() && channel.read(buf) >= 0) {
+			}
+			buf.flip();
+			return hash(buf);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Incremental hash of bytes fed in any number of parts. Equal to {@link #hash(byte[], int, int)} of all bytes fed,
+	 * when their number is the length the hasher was created with.
+	 */
+	public static final class Hasher {
+		private long h;
+		private long word;
+		private int wordBytes;
+
+		/**
+		 * Create hasher of a given number of bytes.
+		 *
+		 * @param length
+		 *            expected number of bytes
+		 */
+		public Hasher(long length) {
+			h = SEED ^ length;
+		}
+
+		/**
+		 * Feed a byte array range.
+		 *
+		 * @param bytes
+		 *            byte array
+		 * @param offset
+		 *            offset of first byte
+		 * @param length
+		 *            number of bytes
+		 */
+		public void update(byte[] bytes, int offset, int length) {
+			for (int i = offset, end = offset + length; i < end; i++) {
+				word |= (bytes[i] & 0xFFL) << (wordBytes << 3);
+				if (++wordBytes == 8) {
+					h = step(h, word);
+					word = 0;
+					wordBytes = 0;
+				}
+			}
+		}
+
+		/**
+		 * Hash of all bytes fed so far.
+		 *
+		 * @return non zero hash value
+		 */
+		public long finish() {
+			return ContentHash.finish(step(h, word));
+		}
+	}
+
+	private static long step(long h, long v) {
+		return Long.rotateLeft(h ^ (v * M1), 31) * M2;
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 30;
+		h *= M1;
+		h ^= h >>> 27;
+		h *= M2;
+		h ^= h >>> 31;
+		return h == 0 ? 1 : h;
+	}
+}
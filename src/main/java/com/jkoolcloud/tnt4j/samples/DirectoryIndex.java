@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * This class keeps a compact in-memory metadata index (name, size, modification time, file key) of every watched
+ * directory. After a watch service overflow a directory is rescanned and compared against the index to reconstruct
+ * the create, delete and modify events which were lost.
+ *
+ * @version $Revision: 1$
+ */
+public class DirectoryIndex {
+	private final Map<Path, Map<String, Entry>> dirs = new ConcurrentHashMap<Path, Map<String, Entry>>();
+
+	/**
+	 * Index all entries of a given directory.
+	 *
+	 * @param dir
+	 *            directory to index
+	 * @throws IOException
+	 *             if directory can't be read
+	 */
+	public void index(Path dir) throws IOException {
+		dirs.put(dir, list(dir));
+	}
+
+	/**
+	 * Update index entry of a single directory member after a watch event.
+	 *
+	 * @param dir
+	 *            watched directory
+	 * @param name
+	 *            directory member name
+	 */
+	public void update(Path dir, Path name) {
+		Map<String, Entry> entries = dirs.get(dir);
+		if (entries == null) {
+			return;
+		}
+		Entry entry = stat(dir.resolve(name));
+		synchronized (entries) {
+			if (entry == null) {
+				entries.remove(name.toString());
+			} else {
+				entries.put(name.toString(), entry);
+			}
+		}
+	}
+
+	/**
+	 * Drop index of a directory which is no longer watched.
+	 *
+	 * @param dir
+	 *            directory
+	 */
+	public void remove(Path dir) {
+		dirs.remove(dir);
+	}
+
+	/**
+	 * Re-key listings of a moved directory and its subdirectories.
+	 *
+	 * @param from
+	 *            directory path before the move
+	 * @param to
+	 *            directory path after the move
+	 */
+	public void move(Path from, Path to) {
+		for (Path dir : new ArrayList<Path>(dirs.keySet())) {
+			if (dir.startsWith(from)) {
+				Map<String, Entry> entries = dirs.remove(dir);
+				if (entries != null) {
+					dirs.put(to.resolve(from.relativize(dir)), entries);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rescan a directory and compare it against the index.
+	 *
+	 * @param dir
+	 *            directory to rescan
+	 * @return list of reconstructed events, relative to the directory
+	 * @throws IOException
+	 *             if directory can't be read
+	 */
+	public List<WatchEvent<Path>> rescan(Path dir) throws IOException {
+		Map<String, Entry> after = list(dir);
+		Map<String, Entry> before = dirs.put(dir, after);
+		List<WatchEvent<Path>> events = new ArrayList<WatchEvent<Path>>();
+		if (before == null) {
+			return events;
+		}
+		synchronized (before) {
+			for (Map.Entry<String, Entry> entry : after.entrySet()) {
+				Entry prev = before.remove(entry.getKey());
+				if (prev == null) {
+					events.add(newEvent(StandardWatchEventKinds.ENTRY_CREATE, dir, entry.getKey()));
+				} else if (!prev.equals(entry.getValue())) {
+					events.add(newEvent(StandardWatchEventKinds.ENTRY_MODIFY, dir, entry.getKey()));
+				}
+			}
+			for (String name : before.keySet()) {
+				events.add(newEvent(StandardWatchEventKinds.ENTRY_DELETE, dir, name));
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Number of directory members in the index.
+	 *
+	 * @return number of indexed entries
+	 */
+	public long getEntryCount() {
+		long count = 0;
+		for (Map<String, Entry> entries : dirs.values()) {
+			count += entries.size();
+		}
+		return count;
+	}
+
+	public int getDirectoryCount() {
+		return dirs.size();
+	}
+
+	private static WatchEvent<Path> newEvent(WatchEvent.Kind<Path> kind, Path dir, String name) {
+		return new FolderWatchEvent<Path>(kind, dir.getFileSystem().getPath(name), 1,
+				FolderWatchEvent.Origin.RESCAN);
+	}
+
+	private static Map<String, Entry> list(Path dir) throws IOException {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (Path child : stream) {
+				Entry entry = stat(child);
+				if (entry != null) {
+					entries.put(child.getFileName().toString(), entry);
+				}
+			}
+		} finally {
+			Utils.close(stream);
+		}
+		return entries;
+	}
+
+	private static Entry stat(Path path) {
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+			return new Entry(attrs);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	static class Entry {
+		final long size;
+		final long mtime;
+		final Object fileKey;
+
+		Entry(BasicFileAttributes attrs) {
+			this.size = attrs.size();
+			this.mtime = attrs.lastModifiedTime().toMillis();
+			this.fileKey = attrs.fileKey();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Entry)) {
+				return false;
+			}
+			Entry other = (Entry) obj;
+			return size == other.size && mtime == other.mtime && Utils.equal(fileKey, other.fileKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (size ^ mtime);
+		}
+	}
+}
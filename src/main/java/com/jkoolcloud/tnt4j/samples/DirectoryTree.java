@@ -0,0 +1,549 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact index of directories watched under a root, mapping watch keys to directories. Every directory is a node
+ * holding its parent and its interned name only, so common names like {@code src} or {@code main} are stored once and
+ * full paths are resolved on demand by walking up to the root.
+ * <p>
+ * Removing or moving a directory detaches or re-parents its node in constant time: descendants follow since their
+ * paths are resolved through their ancestors. Keys of descendants of a removed directory are not cancelled right
+ * away; a key whose node is detached is reported as stale when it is looked up, still resolving to its last path, and
+ * stale keys are collected by {@link #sweep()}. Lookups by key are lock-free, changes to the tree are synchronized.
+ *
+ * @version $Revision: 1$
+ */
+public class DirectoryTree {
+	// estimated sizes with compressed references: node object, child slot, key map entry
+	private static final int NODE_BYTES = 40;
+	private static final int SLOT_BYTES = 4;
+	private static final int KEY_ENTRY_BYTES = 40;
+	private static final int MAX_CHILD_ARRAY = 8;
+
+	private final Path root;
+	private final String rootName;
+	private final Node rootNode = new Node(null, "");
+	private final Map<WatchKey, Node> keys = new ConcurrentHashMap<WatchKey, Node>();
+	private volatile int nodeCount = 1;
+	private volatile int detachedCount;
+
+	/**
+	 * Create tree of directories under a given root.
+	 *
+	 * @param root
+	 *            root directory
+	 */
+	public DirectoryTree(Path root) {
+		this.root = root;
+		this.rootName = root.toString();
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Map a watch key to a directory, adding the directory and any missing ancestors.
+	 *
+	 * @param dir
+	 *            directory under root
+	 * @param key
+	 *            watch key of directory
+	 * @return directory the key was mapped to before, null if none
+	 * @throws IllegalArgumentException
+	 *             if directory is not under root
+	 */
+	public synchronized Path put(Path dir, WatchKey key) {
+		Node node = find(dir, true);
+		Node prev = keys.put(key, node);
+		if (prev != null && prev.key == key && prev != node) {
+			prev.key = null;
+		}
+		node.key = key;
+		return prev == null || !isAttached(prev) ? null : pathOf(prev);
+	}
+
+	/**
+	 * Directory a watch key belongs to. Keys of removed directories resolve to the path they had when removed, so their
+	 * pending events can still be handled before they are cancelled.
+	 *
+	 * @param key
+	 *            watch key
+	 * @return directory path, null if key is unknown
+	 */
+	public Path get(WatchKey key) {
+		Node node = keys.get(key);
+		return node == null ? null : pathOf(node);
+	}
+
+	/**
+	 * Whether a watch key belongs to a directory which was removed, directly or with an ancestor.
+	 *
+	 * @param key
+	 *            watch key
+	 * @return true if key is known and stale
+	 */
+	public boolean isStale(WatchKey key) {
+		Node node = keys.get(key);
+		return node != null && !isAttached(node);
+	}
+
+	/**
+	 * Cancel a watch key if it is stale. Checked under the tree lock, so a key mapped to a directory again meanwhile,
+	 * as when a directory is moved out and back in and registered with the same key, is kept.
+	 *
+	 * @param key
+	 *            watch key
+	 * @return true if key was stale and is cancelled
+	 */
+	public synchronized boolean cancelIfStale(WatchKey key) {
+		if (!isStale(key)) {
+			return false;
+		}
+		key.cancel();
+		return true;
+	}
+
+	/**
+	 * Whether a directory is in the tree.
+	 *
+	 * @param dir
+	 *            directory path
+	 * @return true if directory is in the tree
+	 */
+	public boolean contains(Path dir) {
+		return find(dir, false) != null;
+	}
+
+	/**
+	 * Forget a watch key, removing its directory unless it has subdirectories or another key.
+	 *
+	 * @param key
+	 *            watch key
+	 * @return directory the key belonged to, null if unknown
+	 */
+	public synchronized Path removeKey(WatchKey key) {
+		Node node = keys.remove(key);
+		if (node == null) {
+			return null;
+		}
+		boolean attached = isAttached(node);
+		Path path = pathOf(node);
+		if (node.key == key) {
+			node.key = null;
+		}
+		// a directory whose key was replaced stays
+		if (attached && node != rootNode && node.key == null && node.childCount() == 0) {
+			node.origin = path;
+			detach(node);
+			nodeCount--;
+		}
+		return path;
+	}
+
+	/**
+	 * Remove a directory with its whole subtree. Keys of removed directories become stale.
+	 *
+	 * @param dir
+	 *            directory path
+	 * @return true if directory was in the tree
+	 */
+	public synchronized boolean remove(Path dir) {
+		Node node = find(dir, false);
+		if (node == null || node == rootNode) {
+			return false;
+		}
+		node.origin = pathOf(node);
+		detach(node);
+		detachedCount++;
+		return true;
+	}
+
+	/**
+	 * Remove a directory with its whole subtree, provided it still has a given watch key. A directory created again at
+	 * the same path and watched meanwhile is kept.
+	 *
+	 * @param dir
+	 *            directory path
+	 * @param key
+	 *            watch key the directory is expected to have, null if none
+	 * @return true if directory was removed
+	 */
+	public synchronized boolean remove(Path dir, WatchKey key) {
+		Node node = find(dir, false);
+		return node != null && node.key == key && remove(dir);
+	}
+
+	/**
+	 * Move a directory with its whole subtree, as when it is renamed. Keys stay with their directories, which is what
+	 * watch services tracking directories by inode do.
+	 *
+	 * @param from
+	 *            current directory path
+	 * @param to
+	 *            new directory path, under root
+	 * @return true if directory was moved, false if it is not in the tree or target already is
+	 */
+	public synchronized boolean move(Path from, Path to) {
+		Node node = find(from, false);
+		if (node == null || node == rootNode || find(to, false) != null) {
+			return false;
+		}
+		Node parent = find(to.getParent(), true);
+		detach(node);
+		node.name = to.getFileName().toString().intern();
+		node.origin = null;
+		node.parent = parent;
+		parent.addChild(node);
+		return true;
+	}
+
+	/**
+	 * Remove and cancel stale keys, whose directories were removed.
+	 *
+	 * @return removed stale keys with the paths their directories had when removed
+	 */
+	public synchronized Map<WatchKey, Path> sweep() {
+		Map<WatchKey, Path> stale = new HashMap<WatchKey, Path>();
+		for (Map.Entry<WatchKey, Node> entry : keys.entrySet()) {
+			if (!isAttached(entry.getValue())) {
+				stale.put(entry.getKey(), pathOf(entry.getValue()));
+			}
+		}
+		for (WatchKey key : stale.keySet()) {
+			keys.remove(key);
+			key.cancel();
+		}
+		nodeCount = countNodes(rootNode);
+		detachedCount = 0;
+		return stale;
+	}
+
+	/**
+	 * Number of subtrees removed since the last {@link #sweep()}, whose keys may be stale.
+	 *
+	 * @return number of removed subtrees
+	 */
+	public int getDetachedCount() {
+		return detachedCount;
+	}
+
+	public Set<WatchKey> keys() {
+		return keys.keySet();
+	}
+
+	public int getKeyCount() {
+		return keys.size();
+	}
+
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	/**
+	 * Number of directories in the tree, including the root and directories without keys. Directories of removed
+	 * subtrees are counted until the next {@link #sweep()}.
+	 *
+	 * @return number of directories
+	 */
+	public int size() {
+		return nodeCount;
+	}
+
+	/**
+	 * Estimated heap used by the tree and its key map, excluding interned names and the keys themselves.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long estimateBytes() {
+		return (long) nodeCount * (NODE_BYTES + SLOT_BYTES) + (long) keys.size() * KEY_ENTRY_BYTES;
+	}
+
+	public synchronized void clear() {
+		keys.clear();
+		rootNode.clearChildren();
+		rootNode.key = null;
+		nodeCount = 1;
+		detachedCount = 0;
+	}
+
+	/**
+	 * Node of a directory in the tree.
+	 *
+	 * @param dir
+	 *            directory path
+	 * @return directory node, null if not in the tree
+	 */
+	Node nodeOf(Path dir) {
+		return find(dir, false);
+	}
+
+	/**
+	 * Node a watch key is mapped to, which may be detached when its directory was removed.
+	 *
+	 * @param key
+	 *            watch key
+	 * @return directory node, null if key is unknown
+	 */
+	Node nodeOf(WatchKey key) {
+		return keys.get(key);
+	}
+
+	/**
+	 * Watch key of a directory in the tree.
+	 *
+	 * @param dir
+	 *            directory path
+	 * @return watch key, null if directory is not in the tree or has no key
+	 */
+	WatchKey keyOf(Path dir) {
+		Node node = find(dir, false);
+		return node == null ? null : node.key;
+	}
+
+	/**
+	 * Current path of a name in a directory node, resolved as {@link #get(WatchKey)} does for detached nodes.
+	 *
+	 * @param node
+	 *            directory node
+	 * @param name
+	 *            file or directory name
+	 * @return path of name
+	 */
+	Path pathOf(Node node, String name) {
+		return pathOf(node).resolve(name);
+	}
+
+	private boolean isAttached(Node node) {
+		while (node != rootNode) {
+			node = node.parent;
+			if (node == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Path pathOf(Node node) {
+		int depth = 0;
+		Node top = node;
+		while (top != rootNode && top.parent != null) {
+			top = top.parent;
+			depth++;
+		}
+		String[] names = new String[depth];
+		for (Node n = node; depth > 0; n = n.parent) {
+			names[--depth] = n.name;
+		}
+		if (top == rootNode) {
+			return names.length == 0 ? root : root.getFileSystem().getPath(rootName, names);
+		}
+		// detached subtree, resolved against the path its top had when removed
+		Path origin = top.origin != null ? top.origin : root.resolve(top.name);
+		return names.length == 0 ? origin : origin.getFileSystem().getPath(origin.toString(), names);
+	}
+
+	private Node find(Path dir, boolean create) {
+		if (dir == null || !dir.startsWith(root)) {
+			if (create) {
+				throw new IllegalArgumentException(dir + " is not under " + root);
+			}
+			return null;
+		}
+		Node node = rootNode;
+		for (int i = root.getNameCount(); i < dir.getNameCount() && node != null; i++) {
+			String name = dir.getName(i).toString();
+			Node child = node.child(name);
+			if (child == null && create) {
+				child = new Node(node, name.intern());
+				node.addChild(child);
+				nodeCount++;
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	private static void detach(Node node) {
+		Node parent = node.parent;
+		if (parent != null) {
+			parent.removeChild(node);
+			node.parent = null;
+		}
+	}
+
+	private static int countNodes(Node node) {
+		int count = 0;
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			count++;
+			for (Node child : stack.pop().children()) {
+				stack.push(child);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Directory node. A few children are kept in a small array searched linearly, more in an open addressing table
+	 * probed linearly by name hash, which takes a fraction of the memory of a hash map.
+	 */
+	static final class Node {
+		volatile Node parent;
+		volatile String name;
+		volatile WatchKey key;
+		volatile Path origin;
+		private Node[] children;
+		private int count;
+
+		Node(Node parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		private boolean isHashed() {
+			return children != null && children.length > MAX_CHILD_ARRAY;
+		}
+
+		synchronized Node child(String name) {
+			if (children == null) {
+				return null;
+			}
+			if (isHashed()) {
+				int mask = children.length - 1;
+				for (int i = name.hashCode() & mask;; i = (i + 1) & mask) {
+					Node child = children[i];
+					if (child == null || child.name.equals(name)) {
+						return child;
+					}
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				if (children[i].name.equals(name)) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		synchronized void addChild(Node node) {
+			if (children == null) {
+				children = new Node[2];
+			} else if (!isHashed() && count == children.length) {
+				if (count < MAX_CHILD_ARRAY) {
+					children = Arrays.copyOf(children, count * 2);
+				} else {
+					rehash(MAX_CHILD_ARRAY * 4);
+				}
+			} else if (isHashed() && (count + 1) * 2 > children.length) {
+				rehash(children.length * 2);
+			}
+			if (isHashed()) {
+				insert(children, node);
+			} else {
+				children[count] = node;
+			}
+			count++;
+		}
+
+		synchronized void removeChild(Node node) {
+			if (children == null) {
+				return;
+			}
+			if (!isHashed()) {
+				for (int i = 0; i < count; i++) {
+					if (children[i] == node) {
+						children[i] = children[--count];
+						children[count] = null;
+						return;
+					}
+				}
+				return;
+			}
+			int mask = children.length - 1;
+			int i = node.name.hashCode() & mask;
+			while (children[i] != node) {
+				if (children[i] == null) {
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			// shift following entries of the probe sequence back into the freed slot
+			for (int j = (i + 1) & mask; children[j] != null; j = (j + 1) & mask) {
+				int home = children[j].name.hashCode() & mask;
+				if (((j - home) & mask) >= ((j - i) & mask)) {
+					children[i] = children[j];
+					i = j;
+				}
+			}
+			children[i] = null;
+			count--;
+		}
+
+		private void rehash(int capacity) {
+			Node[] table = new Node[capacity];
+			for (Node child : children) {
+				if (child != null) {
+					insert(table, child);
+				}
+			}
+			children = table;
+		}
+
+		private static void insert(Node[] table, Node node) {
+			int mask = table.length - 1;
+			int i = node.name.hashCode() & mask;
+			while (table[i] != null) {
+				i = (i + 1) & mask;
+			}
+			table[i] = node;
+		}
+
+		synchronized int childCount() {
+			return count;
+		}
+
+		synchronized Node[] children() {
+			Node[] result = new Node[count];
+			if (children != null) {
+				int n = 0;
+				for (Node child : children) {
+					if (child != null) {
+						result[n++] = child;
+					}
+				}
+			}
+			return result;
+		}
+
+		synchronized void clearChildren() {
+			children = null;
+			count = 0;
+		}
+	}
+}
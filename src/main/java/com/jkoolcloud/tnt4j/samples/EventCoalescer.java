@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collapses bursts of watch events for the same path into a single {@link FolderWatchEvent} carrying the
+ * occurrence count. Events are held for up to a time window, or until a path accumulates a given number of
+ * occurrences, before being passed on to the {@link WatchEventHandler}. Sequences are merged as follows:
+ * <ul>
+ * <li>CREATE+MODIFY is reported as CREATE, MOVE+MODIFY as MOVE</li>
+ * <li>MODIFY+CREATE is reported as MODIFY, a creation is only reported if the first event was one</li>
+ * <li>CREATE+DELETE cancels out and nothing is reported</li>
+ * <li>DELETE+CREATE is reported as MODIFY</li>
+ * <li>MODIFY+DELETE is reported as DELETE</li>
+ * </ul>
+ * Events are passed on in the order their paths were first seen. The coalescer has no thread of its own: its owner
+ * calls {@link #flush(boolean)} at least every {@link #getTickMillis()}, from the same threads that submit events.
+ *
+ * @version $Revision: 1$
+ */
+public class EventCoalescer {
+	private final LinkedHashMap<Path, Pending> pending = new LinkedHashMap<Path, Pending>();
+	private final Object emitLock = new Object();
+	private final WatchEventHandler<Path> handler;
+	private final long windowNanos;
+	private final long tickMs;
+	private final int maxCount;
+
+	private final LongAdder received = new LongAdder();
+	private final LongAdder emitted = new LongAdder();
+	private final LongAdder suppressed = new LongAdder();
+
+	/**
+	 * Create coalescer in front of a given handler.
+	 *
+	 * @param handler
+	 *            handler receiving coalesced events
+	 * @param windowMs
+	 *            maximum time an event is held, in milliseconds
+	 * @param maxCount
+	 *            number of occurrences after which an event is passed on regardless of its age
+	 */
+	public EventCoalescer(WatchEventHandler<Path> handler, long windowMs, int maxCount) {
+		this.handler = handler;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+		this.maxCount = Math.max(1, maxCount);
+		this.tickMs = Math.max(1, windowMs / 4);
+	}
+
+	/**
+	 * How often {@link #flush(boolean)} needs to be called for events not to be held much longer than the window.
+	 *
+	 * @return period in milliseconds
+	 */
+	public long getTickMillis() {
+		return tickMs;
+	}
+
+	/**
+	 * Submit a raw event for coalescing.
+	 *
+	 * @param event
+	 *            watch event
+	 * @param dir
+	 *            directory the event context is relative to
+	 */
+	public void submit(WatchEvent<Path> event, Path dir) {
+		received.add(event.count());
+		Path child = dir.resolve(event.context());
+		Pending full;
+		synchronized (pending) {
+			Pending entry = pending.get(child);
+			if (entry == null) {
+				entry = new Pending(child, dir, new FolderWatchEvent<Path>(event.kind(), event.context(),
+						FolderWatchEvent.sourceOf(event), event.count(), FolderWatchEvent.originOf(event)));
+				pending.put(child, entry);
+			} else {
+				suppressed.add(event.count());
+				if (!merge(entry.event, event)) {
+					pending.remove(child);
+					suppressed.increment();
+					return;
+				}
+			}
+			if (entry.event.count() < maxCount) {
+				return;
+			}
+			full = entry;
+		}
+		// older entries of other paths go first
+		flush(full);
+	}
+
+	/**
+	 * Merge a new event into a pending one.
+	 *
+	 * @return false if both events cancel out, true otherwise
+	 */
+	static boolean merge(FolderWatchEvent<Path> pending, WatchEvent<Path> event) {
+		Kind<Path> before = pending.kind();
+		Kind<Path> after = event.kind();
+		if (before == StandardWatchEventKinds.ENTRY_CREATE && after == StandardWatchEventKinds.ENTRY_DELETE) {
+			return false;
+		}
+		if (after == StandardWatchEventKinds.ENTRY_CREATE) {
+			// a path can only be created anew after a delete, otherwise the earlier kind stands
+			if (before == StandardWatchEventKinds.ENTRY_DELETE) {
+				pending.setKind(StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		} else if ((before != StandardWatchEventKinds.ENTRY_CREATE && before != FolderWatchEvent.ENTRY_MOVE)
+				|| after != StandardWatchEventKinds.ENTRY_MODIFY) {
+			pending.setKind(after);
+		}
+		pending.addCount(event.count());
+		return true;
+	}
+
+	/**
+	 * Pass pending events on to the handler.
+	 *
+	 * @param all
+	 *            true to flush all pending events, false to flush only events older than the window
+	 */
+	public void flush(boolean all) {
+		flush(all ? FLUSH_ALL : null);
+	}
+
+	/**
+	 * Pass on pending events of a given path and of paths under it, along with all events seen before them, so an
+	 * event not coalesced, such as a move of the path, does not overtake them.
+	 *
+	 * @param path
+	 *            file or directory path
+	 */
+	public void flush(Path path) {
+		Pending last = null;
+		synchronized (pending) {
+			for (Pending entry : pending.values()) {
+				if (entry.path.startsWith(path)) {
+					last = entry;
+				}
+			}
+		}
+		if (last != null) {
+			flush(last);
+		}
+	}
+
+	/**
+	 * Pass pending events on to the handler, in the order their paths were first seen, up to a given entry or else
+	 * up to the first entry younger than the window. Entries are taken and emitted under the emit lock, so batches of
+	 * concurrent flushes don't overtake each other.
+	 */
+	private void flush(Pending last) {
+		synchronized (emitLock) {
+			List<Pending> ready = null;
+			long now = System.nanoTime();
+			synchronized (pending) {
+				if (last != null && last != FLUSH_ALL && pending.get(last.path) != last) {
+					// already flushed by another thread
+					return;
+				}
+				Iterator<Pending> it = pending.values().iterator();
+				while (it.hasNext()) {
+					Pending entry = it.next();
+					if (last == null && (now - entry.since) < windowNanos) {
+						break;
+					}
+					if (ready == null) {
+						ready = new ArrayList<Pending>();
+					}
+					ready.add(entry);
+					it.remove();
+					if (entry == last) {
+						break;
+					}
+				}
+			}
+			if (ready != null) {
+				for (Pending entry : ready) {
+					emitted.increment();
+					handler.handleEvent(entry.event, entry.dir);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pass on all pending events.
+	 */
+	public void close() {
+		flush(true);
+	}
+
+	public long getReceivedCount() {
+		return received.sum();
+	}
+
+	public long getEmittedCount() {
+		return emitted.sum();
+	}
+
+	public long getSuppressedCount() {
+		return suppressed.sum();
+	}
+
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private static final Pending FLUSH_ALL = new Pending(null, null, null);
+
+	private static class Pending {
+		final Path path;
+		final Path dir;
+		final FolderWatchEvent<Path> event;
+		final long since = System.nanoTime();
+
+		Pending(Path path, Path dir, FolderWatchEvent<Path> event) {
+			this.path = path;
+			this.dir = dir;
+			this.event = event;
+		}
+	}
+}
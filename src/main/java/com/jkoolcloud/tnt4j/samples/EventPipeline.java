@@ -0,0 +1,462 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * This class runs a {@link FolderEventHandler} as a staged pipeline, so watcher threads only queue events and reset
+ * their keys. Events pass through three stages: enrich (path attributes), diff (property changes) and emit (sink
+ * I/O). Each stage runs a configurable number of lanes, every lane being a single thread fed by a bounded lock-free
+ * {@link RingBuffer}. A path always maps to the same lane of every stage, so events for any given path are handled in
+ * order. When the first stage is full, the {@link Overload} policy decides what happens to new events; later stages
+ * always block, pushing back onto the first stage.
+ *
+ * @version $Revision: 1$
+ */
+public class EventPipeline implements WatchEventHandler<Path>, Closeable {
+	/**
+	 * What to do with new events when the first stage is full.
+	 */
+	public enum Overload {
+		/**
+		 * Wait for room, delaying the watcher
+		 */
+		BLOCK,
+		/**
+		 * Drop the oldest queued event of the lane
+		 */
+		DROP_OLDEST,
+		/**
+		 * Hold new events aside, merging events for the same path, until the lane catches up
+		 */
+		COALESCE
+	}
+
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final FolderEventHandler handler;
+	private final Overload overload;
+	private final Stage enrich;
+	private final Stage diff;
+	private final Stage emit;
+	private volatile boolean closed = false;
+
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder blockedNanos = new LongAdder();
+
+	/**
+	 * Create pipeline in front of a given handler.
+	 *
+	 * @param handler
+	 *            folder event handler
+	 * @param enrichLanes
+	 *            number of enrich threads
+	 * @param diffLanes
+	 *            number of diff threads
+	 * @param emitLanes
+	 *            number of emit threads
+	 * @param capacity
+	 *            capacity of every lane queue
+	 * @param overload
+	 *            overload policy of the first stage
+	 */
+	public EventPipeline(FolderEventHandler handler, int enrichLanes, int diffLanes, int emitLanes, int capacity,
+			Overload overload) {
+		this.handler = handler;
+		this.overload = overload;
+		String name = "EventPipeline-" + handler.logger.getSource().getName();
+		this.emit = new Stage(name + "-emit", emitLanes, capacity, null) {
+			@Override
+			void process(Item item) {
+				handler.logger.tnt(item.tracking);
+			}
+		};
+		this.diff = new Stage(name + "-diff", diffLanes, capacity, emit) {
+			@Override
+			void process(Item item) {
+				if (item.info != null) {
+					handler.trackPropertyChanges(item.path.toFile(), item.info.regularFile, item.tracking);
+				}
+			}
+		};
+		this.enrich = new Stage(name + "-enrich", enrichLanes, capacity, diff) {
+			@Override
+			void process(Item item) {
+				item.tracking = handler.newTrackingEvent(item.event, item.dir);
+				if (item.tracking == null) {
+					item.next = null;
+				} else {
+					item.info = handler.getPathFilter().enrich(item.path, item.tracking);
+				}
+			}
+		};
+		handler.setPipelined(true);
+		enrich.start();
+		diff.start();
+		emit.start();
+	}
+
+	@Override
+	public void handleEvent(WatchEvent<Path> event, Path root) {
+		if (closed) {
+			handler.handleEvent(event, root);
+			return;
+		}
+		Item item = new Item(event, root);
+		Lane lane = enrich.laneFor(item.path);
+		switch (overload) {
+		case DROP_OLDEST:
+			while (!lane.offer(item)) {
+				if (lane.ring.poll() != null) {
+					dropped.increment();
+				}
+			}
+			break;
+		case COALESCE:
+			lane.offerOrCoalesce(item);
+			break;
+		default:
+			lane.put(item);
+			break;
+		}
+	}
+
+	@Override
+	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+		return handler.visitFile(file, attrs);
+	}
+
+	@Override
+	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+		return handler.preVisitDirectory(dir, attrs);
+	}
+
+	@Override
+	public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+		return handler.visitFileFailed(file, exc);
+	}
+
+	@Override
+	public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+		return handler.postVisitDirectory(dir, exc);
+	}
+
+	@Override
+	public EventSink getEventSink() {
+		return handler.getEventSink();
+	}
+
+	/**
+	 * Stop accepting events, wait for queued events to be emitted and stop stage threads. Events arriving afterwards
+	 * are handled synchronously.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (getQueuedCount() > 0 && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(MAX_PARK_NANOS);
+		}
+		enrich.stop();
+		diff.stop();
+		emit.stop();
+	}
+
+	/**
+	 * Number of events queued in all stages.
+	 *
+	 * @return number of queued events
+	 */
+	public int getQueuedCount() {
+		return enrich.getDepth() + diff.getDepth() + emit.getDepth();
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	public long getBlockedNanos() {
+		return blockedNanos.sum();
+	}
+
+	public Stage getEnrichStage() {
+		return enrich;
+	}
+
+	public Stage getDiffStage() {
+		return diff;
+	}
+
+	public Stage getEmitStage() {
+		return emit;
+	}
+
+	@Override
+	public String toString() {
+		return "overload=" + overload + ", dropped=" + dropped.sum() + ", coalesced=" + coalesced.sum()
+				+ ", blocked.ms=" + TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()) + ", " + enrich + ", " + diff
+				+ ", " + emit;
+	}
+
+	private static class Item {
+		final WatchEvent<Path> event;
+		final Path dir;
+		final Path path;
+		Stage next;
+		TrackingEvent tracking;
+		PathEventFilter.FileInfo info;
+		long queuedAt;
+
+		Item(WatchEvent<Path> event, Path dir) {
+			this.event = event;
+			this.dir = dir;
+			this.path = dir.resolve(event.context());
+		}
+	}
+
+	/**
+	 * Pipeline stage, a set of lanes running the same processing step.
+	 */
+	public abstract class Stage {
+		private final String name;
+		private final Lane[] lanes;
+		private final Stage next;
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder serviceNanos = new LongAdder();
+		private final LongAccumulator maxServiceNanos = new LongAccumulator(Math::max, 0);
+
+		Stage(String name, int lanes, int capacity, Stage next) {
+			this.name = name;
+			this.next = next;
+			this.lanes = new Lane[Math.max(1, lanes)];
+			for (int i = 0; i < this.lanes.length; i++) {
+				this.lanes[i] = new Lane(this, name + "-" + i, capacity);
+			}
+		}
+
+		abstract void process(Item item);
+
+		Lane laneFor(Path path) {
+			return lanes[(path.hashCode() & Integer.MAX_VALUE) % lanes.length];
+		}
+
+		void start() {
+			for (Lane lane : lanes) {
+				lane.thread.start();
+			}
+		}
+
+		void stop() {
+			for (Lane lane : lanes) {
+				lane.running = false;
+				LockSupport.unpark(lane.thread);
+			}
+		}
+
+		void run(Item item) {
+			long begin = System.nanoTime();
+			waitNanos.add(begin - item.queuedAt);
+			item.next = next;
+			try {
+				process(item);
+			} catch (Throwable e) {
+				item.next = null;
+				handler.logger.error("Pipeline stage failed: stage={0}, path={1}", name, item.path, e);
+			}
+			long elapsed = System.nanoTime() - begin;
+			count.increment();
+			serviceNanos.add(elapsed);
+			maxServiceNanos.accumulate(elapsed);
+			if (item.next != null) {
+				item.next.laneFor(item.path).put(item);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Number of events queued in this stage.
+		 *
+		 * @return number of queued events
+		 */
+		public int getDepth() {
+			int depth = 0;
+			for (Lane lane : lanes) {
+				depth += lane.size();
+			}
+			return depth;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getWaitNanos() {
+			return waitNanos.sum();
+		}
+
+		public long getServiceNanos() {
+			return serviceNanos.sum();
+		}
+
+		public long getMaxServiceNanos() {
+			return maxServiceNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			long n = Math.max(1, count.sum());
+			return String.format("%s(lanes=%d, depth=%d, count=%d, wait.avg.us=%.1f, svc.avg.us=%.1f, svc.max.us=%d)",
+					name.substring(name.lastIndexOf('-') + 1), lanes.length, getDepth(), count.sum(),
+					waitNanos.sum() / 1000.0 / n, serviceNanos.sum() / 1000.0 / n,
+					TimeUnit.NANOSECONDS.toMicros(maxServiceNanos.get()));
+		}
+	}
+
+	private class Lane implements Runnable {
+		final Stage stage;
+		final RingBuffer<Item> ring;
+		final Thread thread;
+		final LinkedHashMap<Path, Item> overflow = new LinkedHashMap<Path, Item>();
+		volatile int overflowSize;
+		volatile boolean sleeping;
+		volatile boolean running = true;
+
+		Lane(Stage stage, String name, int capacity) {
+			this.stage = stage;
+			this.ring = new RingBuffer<Item>(capacity);
+			this.thread = new Thread(this, name);
+			this.thread.setDaemon(true);
+		}
+
+		int size() {
+			return ring.size() + overflowSize;
+		}
+
+		boolean offer(Item item) {
+			item.queuedAt = System.nanoTime();
+			if (ring.offer(item)) {
+				if (sleeping) {
+					LockSupport.unpark(thread);
+				}
+				return true;
+			}
+			return false;
+		}
+
+		void put(Item item) {
+			if (offer(item)) {
+				return;
+			}
+			long begin = System.nanoTime();
+			while (!offer(item)) {
+				LockSupport.parkNanos(MAX_PARK_NANOS / 10);
+			}
+			blockedNanos.add(System.nanoTime() - begin);
+		}
+
+		/**
+		 * Queue an event, or hold it aside merged with earlier held events for the same path when the lane is full.
+		 * Once events are held aside, new ones are held too until the lane drains them, keeping per-path order. The
+		 * check for held events and the offer are made under the same lock as the spill, so concurrent producers
+		 * can't queue an event ahead of an earlier one held aside.
+		 */
+		void offerOrCoalesce(Item item) {
+			synchronized (overflow) {
+				if (overflow.isEmpty() && offer(item)) {
+					return;
+				}
+				Item held = overflow.get(item.path);
+				if (held == null) {
+					item.queuedAt = System.nanoTime();
+					overflow.put(item.path, new Item(new FolderWatchEvent<Path>(item.event.kind(),
+							item.event.context(), item.event.count(), FolderWatchEvent.originOf(item.event)),
+							item.dir));
+				} else {
+					coalesced.increment();
+					if (!EventCoalescer.merge((FolderWatchEvent<Path>) held.event, item.event)) {
+						overflow.remove(item.path);
+					}
+				}
+				overflowSize = overflow.size();
+			}
+			if (sleeping) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		private Item pollOverflow() {
+			if (overflowSize == 0) {
+				return null;
+			}
+			synchronized (overflow) {
+				Iterator<Item> it = overflow.values().iterator();
+				if (!it.hasNext()) {
+					return null;
+				}
+				Item item = it.next();
+				it.remove();
+				overflowSize = overflow.size();
+				item.queuedAt = System.nanoTime();
+				return item;
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Item item = ring.poll();
+				if (item == null) {
+					item = pollOverflow();
+				}
+				if (item != null) {
+					stage.run(item);
+				} else {
+					// park until a producer unparks it, re-checking after announcing so no offer is missed
+					sleeping = true;
+					if (ring.size() == 0 && overflowSize == 0 && running) {
+						LockSupport.parkNanos(this, MAX_PARK_NANOS * 100);
+					}
+					sleeping = false;
+				}
+			}
+		}
+	}
+}
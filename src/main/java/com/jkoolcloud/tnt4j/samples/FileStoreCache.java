@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class caches space figures of file stores (mounts), so they are not queried for every event. Figures of every
+ * store seen so far are refreshed on a schedule by a single background thread, and the store of a directory is
+ * resolved once and remembered, up to a number of least recently used directories.
+ *
+ * @version $Revision: 1$
+ */
+public class FileStoreCache implements Closeable {
+	private static final int MAX_DIRS = 16384;
+
+	private final LinkedHashMap<Path, FileStore> stores = new LinkedHashMap<Path, FileStore>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Path, FileStore> eldest) {
+			return size() > MAX_DIRS;
+		}
+	};
+	private final Map<FileStore, Stats> stats = new ConcurrentHashMap<FileStore, Stats>();
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Create file store cache.
+	 *
+	 * @param refreshMs
+	 *            how often space figures are refreshed
+	 */
+	public FileStoreCache(long refreshMs) {
+		refreshMs = Math.max(1, refreshMs);
+		timer = Executors.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("FileStoreCache"));
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Obtain space figures of the file store a given path resides on.
+	 *
+	 * @param path
+	 *            file or directory path
+	 * @param isDirectory
+	 *            true if path is a directory, false otherwise
+	 * @return cached space figures
+	 * @throws IOException
+	 *             if file store can't be determined
+	 */
+	public Stats get(Path path, boolean isDirectory) throws IOException {
+		Path dir = isDirectory || path.getParent() == null ? path : path.getParent();
+		FileStore store;
+		synchronized (stores) {
+			store = stores.get(dir);
+		}
+		if (store == null) {
+			store = Files.getFileStore(dir);
+			synchronized (stores) {
+				stores.put(dir, store);
+			}
+		}
+		Stats st = stats.get(store);
+		if (st == null) {
+			st = new Stats(store);
+			stats.put(store, st);
+		}
+		return st;
+	}
+
+	private void refresh() {
+		for (FileStore store : stats.keySet()) {
+			try {
+				stats.put(store, new Stats(store));
+			} catch (IOException e) {
+				stats.remove(store);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		timer.shutdown();
+	}
+
+	/**
+	 * Space figures of a file store at a given time.
+	 */
+	public static class Stats {
+		private final long total;
+		private final long usable;
+		private final long unallocated;
+		private final long timestamp;
+
+		Stats(FileStore store) throws IOException {
+			this.total = store.getTotalSpace();
+			this.usable = store.getUsableSpace();
+			this.unallocated = store.getUnallocatedSpace();
+			this.timestamp = System.currentTimeMillis();
+		}
+
+		public long getTotalSpace() {
+			return total;
+		}
+
+		public long getUsableSpace() {
+			return usable;
+		}
+
+		public long getFreeSpace() {
+			return unallocated;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+}
@@ -16,25 +16,28 @@
 package com.jkoolcloud.tnt4j.samples;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.*;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.core.OpCompCode;
 import com.jkoolcloud.tnt4j.core.OpLevel;
 import com.jkoolcloud.tnt4j.core.OpType;
 import com.jkoolcloud.tnt4j.core.PropertySnapshot;
+import com.jkoolcloud.tnt4j.core.ValueTypes;
 import com.jkoolcloud.tnt4j.sink.EventSink;
-import com.jkoolcloud.tnt4j.tracker.TimeTracker;
 import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+import com.jkoolcloud.tnt4j.utils.Useconds;
 import com.jkoolcloud.tnt4j.utils.Utils;
 
 /**
@@ -48,38 +51,191 @@ class FolderEventHandler extends SimpleFileVisitor<Path> implements WatchEventHa
 	private static final String CONTENTS_ADDED = "ContentsAdded";
 	private static final String CONTENTS_REMOVED = "ContentsRemoved";
 
+	private static final String CONTENT_FINGERPRINT = "ContentFingerprint";
+	private static final int MAX_REPORTED_RANGES = 32;
+
+	private static final String LINES_APPENDED = "LinesAppended";
+	private static final String LOG_FOLLOW = "LogFollow";
+
 	private static final String PATH_CHANGED = "PathModified";
 	private static final String PATH_ADDED = "PathCreated";
 	private static final String PATH_REMOVED = "PathDeleted";
+	private static final String PATH_MOVED = "PathMoved";
+
+	private static final String HOT_FILES = "HotFiles";
+	private static final String HOT_DIRECTORIES = "HotDirectories";
+
+	private static ScheduledExecutorService timer;
 
 	TrackingLogger logger;
 	String extListString;
-	String[] extList;
-	TimeTracker timeTracker;
-	Map<String, Properties> PROP_TABLE = new HashMap<String, Properties>();
+	PathFilterEngine.SuffixTrie extList;
+	private HotPathSketch hotPaths;
+	private ScheduledFuture<?> hotPublisher;
+	private PropertyTracker tracker;
+	SnapshotIndex index;
+	PathEventFilter pathFilter;
+	ContentFingerprinter fingerprinter;
+	LogFollower follower;
+	private final LongAdder suppressedCount = new LongAdder();
 
 	public FolderEventHandler(String name, String exts) throws IOException {
 		this.extListString = exts;
-		this.extList = exts.split(";");
-		this.timeTracker = TimeTracker.newTracker(1000, TimeUnit.DAYS.toMillis(30));
+		this.extList = new PathFilterEngine.SuffixTrie(Arrays.asList(exts.split(";")));
 		logger = TrackingLogger.getInstance(name);
-		logger.addSinkEventFilter(new PathEventFilter(this));
+		pathFilter = new PathEventFilter(this);
+		logger.addSinkEventFilter(pathFilter);
 		logger.open();
 	}
 
-	private boolean isPropertyFile(File file) {
-		boolean flag = false;
-		if (!file.isFile()) {
-			return flag;
+	/**
+	 * Restore and persist parsed properties using a given snapshot index.
+	 *
+	 * @param idx
+	 *            snapshot index
+	 * @return itself
+	 */
+	public FolderEventHandler setSnapshotIndex(SnapshotIndex idx) {
+		this.index = idx;
+		return this;
+	}
+
+	/**
+	 * Set event enrichment fields and file store cache.
+	 *
+	 * @param fields
+	 *            list of enrichment fields separated by ';'
+	 * @param stores
+	 *            file store cache, null to skip space figures
+	 * @return itself
+	 * @see PathEventFilter.Field
+	 */
+	public FolderEventHandler setEnrichment(String fields, FileStoreCache stores) {
+		pathFilter.setFields(fields).setFileStoreCache(stores);
+		return this;
+	}
+
+	/**
+	 * Keep last known properties of tracked files in a given tracker, which may be shared across handlers. Must be set
+	 * before events are handled.
+	 *
+	 * @param tracker
+	 *            property tracker
+	 * @return itself
+	 */
+	public FolderEventHandler setPropertyTracker(PropertyTracker tracker) {
+		this.tracker = tracker;
+		return this;
+	}
+
+	/**
+	 * Report modifications of files other than property files only when their content changes, using a given
+	 * fingerprinter which may be shared across handlers.
+	 *
+	 * @param fingerprinter
+	 *            content fingerprinter, null to report every modification
+	 * @return itself
+	 */
+	public FolderEventHandler setFingerprinter(ContentFingerprinter fingerprinter) {
+		this.fingerprinter = fingerprinter;
+		return this;
+	}
+
+	/**
+	 * Report lines appended to followed files rather than their modifications, using a given follower which may be
+	 * shared across handlers.
+	 *
+	 * @param follower
+	 *            log follower, null to report modifications of all files
+	 * @return itself
+	 */
+	public FolderEventHandler setFollower(LogFollower follower) {
+		this.follower = follower;
+		return this;
+	}
+
+	/**
+	 * Summarize event activity per path with a given sketch, which also yields the time since a path was last hit
+	 * reported as event elapsed time, and periodically log hot files and directories as snapshots. Must be set before
+	 * events are handled.
+	 *
+	 * @param sketch
+	 *            hot path sketch
+	 * @param publishSec
+	 *            period in seconds hot paths are logged, 0 to not log them
+	 * @return itself
+	 */
+	public synchronized FolderEventHandler setHotPathSketch(HotPathSketch sketch, long publishSec) {
+		if (hotPublisher != null) {
+			hotPublisher.cancel(false);
+			hotPublisher = null;
+		}
+		this.hotPaths = sketch;
+		if (publishSec > 0) {
+			hotPublisher = getTimer().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					publishHotPaths();
+				}
+			}, publishSec, publishSec, TimeUnit.SECONDS);
 		}
+		return this;
+	}
 
-		for (int i = 0; i < extList.length; i++) {
-			flag = file.getName().endsWith(extList[i]);
-			if (flag) {
-				break;
-			}
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors
+					.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("FolderEventHandler-hot"));
 		}
-		return flag;
+		return timer;
+	}
+
+	public HotPathSketch getHotPathSketch() {
+		return hotPaths;
+	}
+
+	public PropertyTracker getPropertyTracker() {
+		return tracker;
+	}
+
+	void publishHotPaths() {
+		HotPathSketch sketch = hotPaths;
+		String name = logger.getSource().getName();
+		PropertySnapshot files = new PropertySnapshot(HOT_FILES, name);
+		files.add("EventRate", sketch.getEventRate());
+		files.add("ThrottledCount", sketch.getThrottledCount());
+		for (HotPathSketch.Hot hot : sketch.getHotFiles()) {
+			files.add(hot.getPath().toString(), hot.getRate());
+		}
+		PropertySnapshot dirs = new PropertySnapshot(HOT_DIRECTORIES, name);
+		for (HotPathSketch.Hot hot : sketch.getHotDirectories()) {
+			dirs.add(hot.getPath().toString(), hot.getRate());
+		}
+		logger.tnt(files);
+		if (dirs.size() > 0) {
+			logger.tnt(dirs);
+		}
+	}
+
+	/**
+	 * Number of modify events not reported because file content was unchanged.
+	 *
+	 * @return number of suppressed events
+	 */
+	public long getSuppressedCount() {
+		return suppressedCount.sum();
+	}
+
+	public PathEventFilter getPathFilter() {
+		return pathFilter;
+	}
+
+	boolean isPropertyFile(File file) {
+		return file.isFile() && isPropertyName(file.getName());
+	}
+
+	boolean isPropertyName(String name) {
+		return extList.matches(name);
 	}
 
 	@Override
@@ -89,30 +245,185 @@ class FolderEventHandler extends SimpleFileVisitor<Path> implements WatchEventHa
 
 	@Override
 	public void handleEvent(WatchEvent<Path> event, Path root) {
+		TrackingEvent ev = newTrackingEvent(event, root);
+		if (ev != null) {
+			logger.tnt(ev);
+		}
+	}
+
+	/**
+	 * Create tracking event for a given watch event, without enrichment. Unless the handler is pipelined, path
+	 * attributes and property changes are added by {@link PathEventFilter} when the event is logged.
+	 *
+	 * @param event
+	 *            watch event
+	 * @param root
+	 *            directory the event context is relative to
+	 * @return tracking event, null if event kind is not tracked or file content is unchanged
+	 */
+	TrackingEvent newTrackingEvent(WatchEvent<Path> event, Path root) {
 		Kind<Path> kind = event.kind();
 		Path child = root.resolve(event.context());
+		ContentFingerprinter.Change content = null;
+		if (kind.equals(FolderWatchEvent.ENTRY_MOVE)) {
+			return newMoveEvent(event, child);
+		} else if (kind.equals(StandardWatchEventKinds.ENTRY_DELETE)) {
+			tracker.remove(child.toString());
+		}
+		if (follower != null && follower.accepts(child)) {
+			if (kind.equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
+				followLines(child);
+				return null;
+			}
+			follower.remove(child);
+			if (kind.equals(StandardWatchEventKinds.ENTRY_CREATE)) {
+				// files created complete, e.g. by an atomic move, may never see a modify event
+				followLines(child);
+			}
+		} else if (fingerprinter != null && !isPropertyName(child.getFileName().toString())) {
+			if (kind.equals(StandardWatchEventKinds.ENTRY_DELETE)) {
+				fingerprinter.remove(child);
+			} else {
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class,
+							LinkOption.NOFOLLOW_LINKS);
+					if (attrs.isRegularFile()) {
+						content = fingerprinter.update(child, attrs);
+						if (content == null && kind.equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
+							suppressedCount.increment();
+							return null;
+						}
+					}
+				} catch (IOException e) {
+				}
+			}
+		}
 		String resource = child.toUri().toString();
+		TrackingEvent ev;
 		if (kind.equals(StandardWatchEventKinds.ENTRY_CREATE)) {
-			logger.tnt(OpLevel.INFO, OpType.ADD, PATH_ADDED, null, resource,
-					TimeUnit.NANOSECONDS.toMicros(timeTracker.hitAndGet(resource)), "Path created: {0}", child);
+			ev = logger.newEvent(OpLevel.INFO, OpType.ADD, PATH_ADDED, null, resource,
+					eventMsg("Path created: {0}", event), child);
 		} else if (kind.equals(StandardWatchEventKinds.ENTRY_DELETE)) {
-			logger.tnt(OpLevel.WARNING, OpType.REMOVE, PATH_REMOVED, null, resource,
-					TimeUnit.NANOSECONDS.toMicros(timeTracker.hitAndGet(resource)), "Path deleted: {0}", child);
+			ev = logger.newEvent(OpLevel.WARNING, OpType.REMOVE, PATH_REMOVED, null, resource,
+					eventMsg("Path deleted: {0}", event), child);
 		} else if (kind.equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
-			logger.tnt(OpLevel.INFO, OpType.UPDATE, PATH_CHANGED, null, resource,
-					TimeUnit.NANOSECONDS.toMicros(timeTracker.hitAndGet(resource)), "Path changed: {0}", child);
+			ev = logger.newEvent(OpLevel.INFO, OpType.UPDATE, PATH_CHANGED, null, resource,
+					eventMsg("Path changed: {0}", event), child);
+		} else {
+			return null;
+		}
+		if (content != null && content.isKnown() && kind.equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
+			ev.getOperation().addSnapshot(contentSnapshot(child, content));
+		}
+		ev.stop(OpCompCode.SUCCESS, 0, null, Useconds.CURRENT.get(),
+				TimeUnit.NANOSECONDS.toMicros(hotPaths.hit(child)));
+		return ev;
+	}
+
+	/**
+	 * Carry tracked state of a moved path over to its new path, so its content is not read again, and create a move
+	 * event. The source is logged as a string, only the new path is enriched: a property file moved over a tracked
+	 * file, or renamed to a property extension, is read and diffed then.
+	 */
+	private TrackingEvent newMoveEvent(WatchEvent<Path> event, Path child) {
+		Path source = FolderWatchEvent.sourceOf(event);
+		tracker.move(source, child);
+		if (!isPropertyName(child.getFileName().toString())) {
+			// renamed away from a property extension
+			tracker.remove(child.toString());
+		}
+		if (fingerprinter != null) {
+			fingerprinter.move(source, child);
+		}
+		if (follower != null) {
+			follower.move(source, child);
+			if (follower.accepts(child)) {
+				// a followed file keeps its offset, any other file is read from its start
+				followLines(child);
+			}
+		}
+		String resource = child.toUri().toString();
+		TrackingEvent ev = logger.newEvent(OpLevel.INFO, OpType.UPDATE, PATH_MOVED, null, resource,
+				eventMsg("Path moved: {0}, from={1}", event), child, source.toString());
+		ev.stop(OpCompCode.SUCCESS, 0, null, Useconds.CURRENT.get(),
+				TimeUnit.NANOSECONDS.toMicros(hotPaths.hit(child)));
+		return ev;
+	}
+
+	private void followLines(Path file) {
+		try {
+			follower.follow(file, lineListener);
+		} catch (IOException e) {
+			logger.error("Cant follow: file={0}", file, e);
 		}
 	}
 
+	private final LogFollower.LineListener lineListener = new LogFollower.LineListener() {
+		@Override
+		public void linesRead(Path file, String lines, int count, long offset, long end, boolean reset) {
+			TrackingEvent ev = logger.newEvent(OpLevel.INFO, OpType.RECEIVE, LINES_APPENDED, null,
+					file.toUri().toString(), "{0}", lines);
+			PropertySnapshot snap = new PropertySnapshot(LOG_FOLLOW, file.toString());
+			snap.add("Offset", offset);
+			snap.add("EndOffset", end);
+			snap.add("LineCount", count);
+			snap.add("ByteCount", end - offset, ValueTypes.VALUE_TYPE_SIZE_BYTE);
+			snap.add("Reset", reset);
+			ev.getOperation().addSnapshot(snap);
+			ev.stop(OpCompCode.SUCCESS, 0, null, Useconds.CURRENT.get(), 0);
+			logger.tnt(ev);
+		}
+	};
+
+	private static PropertySnapshot contentSnapshot(Path file, ContentFingerprinter.Change content) {
+		PropertySnapshot snap = new PropertySnapshot(CONTENT_FINGERPRINT, file.toString());
+		snap.add("Size", content.getAfter().getSize(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("PrevSize", content.getBefore().getSize(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("Hash", Long.toHexString(content.getAfter().getHash()));
+		snap.add("PrevHash", Long.toHexString(content.getBefore().getHash()));
+		snap.add("ChangedBytes", content.getChangedBytes(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("ChangedRanges", content.formatRanges(MAX_REPORTED_RANGES));
+		return snap;
+	}
+
+	/**
+	 * Enrich events in pipeline stages rather than in the sink filter.
+	 *
+	 * @param flag
+	 *            true if events are enriched by an {@link EventPipeline}, false otherwise
+	 * @return itself
+	 */
+	public FolderEventHandler setPipelined(boolean flag) {
+		if (flag) {
+			logger.removeSinkEventFilter(pathFilter);
+		} else {
+			logger.addSinkEventFilter(pathFilter);
+		}
+		return this;
+	}
+
+	private static String eventMsg(String msg, WatchEvent<?> event) {
+		if (event.count() > 1) {
+			msg += ", count=" + event.count();
+		}
+		FolderWatchEvent.Origin origin = FolderWatchEvent.originOf(event);
+		if (origin != FolderWatchEvent.Origin.WATCH) {
+			msg += ", origin=" + origin;
+		}
+		return msg;
+	}
+
 	protected void trackPropertyChanges(File file, TrackingEvent event) {
-		if (isPropertyFile(file)) {
-			Properties before = PROP_TABLE.get(file.getPath());
+		trackPropertyChanges(file, file.isFile(), event);
+	}
+
+	void trackPropertyChanges(File file, boolean regularFile, TrackingEvent event) {
+		if (regularFile && isPropertyName(file.getName())) {
 			try {
-				Properties after = loadPropFile(file);
-				if (before != null && after != null) {
-					compareProperties(file.getPath(), before, after, event);
+				PropertyTracker.Change change = readPropFile(file);
+				if (change != null && change.getBefore() != null) {
+					compareProperties(file.getPath(), change.getBefore(), change.getAfter(), event);
 				}
-				PROP_TABLE.put(file.getPath(), after);
 			} catch (IOException e) {
 				logger.error("Cant read: file={0}", file.toPath(), e);
 			}
@@ -120,20 +431,27 @@ class FolderEventHandler extends SimpleFileVisitor<Path> implements WatchEventHa
 	}
 
 	protected Properties loadPropFile(File file) throws IOException {
-		if (isPropertyFile(file)) {
-			Properties prop = new Properties();
-			InputStream in = new FileInputStream(file);
-			try {
-				prop.load(in);
-				return prop;
-			} finally {
-				Utils.close(in);
-			}
+		if (!isPropertyFile(file)) {
+			return null;
 		}
-		return null;
+		PropertyTracker.Change change = readPropFile(file);
+		return change == null ? tracker.get(file.getPath()) : change.getAfter();
 	}
 
-	private TrackingEvent compareProperties(String fileName, Properties before, Properties after, TrackingEvent event) {
+	/**
+	 * Read a property file into the tracker, skipping parsing when its content is unchanged.
+	 *
+	 * @return property change, null if content is unchanged
+	 */
+	private PropertyTracker.Change readPropFile(File file) throws IOException {
+		PropertyTracker.Change change = tracker.update(file.toPath());
+		if (change != null && index != null) {
+			index.putContent(file.toPath(), change.getHash(), change.getAfter());
+		}
+		return change;
+	}
+
+	TrackingEvent compareProperties(String fileName, Properties before, Properties after, TrackingEvent event) {
 		PropertySnapshot changes = new PropertySnapshot(CONTENTS_CHANGED, fileName);
 		PropertySnapshot added = new PropertySnapshot(CONTENTS_ADDED, fileName);
 		PropertySnapshot removed = new PropertySnapshot(CONTENTS_REMOVED, fileName);
@@ -171,11 +489,28 @@ class FolderEventHandler extends SimpleFileVisitor<Path> implements WatchEventHa
 	@Override
 	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 		try {
+			if (follower != null && attrs != null && attrs.isRegularFile() && follower.accepts(file)) {
+				follower.seed(file, attrs);
+				return FileVisitResult.CONTINUE;
+			}
+			if (fingerprinter != null && attrs != null && attrs.isRegularFile()
+					&& !isPropertyName(file.getFileName().toString())) {
+				fingerprinter.update(file, attrs);
+				return FileVisitResult.CONTINUE;
+			}
+			SnapshotIndex.Entry entry = index == null ? null : index.get(file);
+			if (entry != null && entry.hasProperties() && isPropertyFile(file.toFile())) {
+				// stored properties are the last known state, stale ones are diffed by the offline change event
+				Properties prop = entry.getProperties();
+				logger.debug("Restored properties: file={0}, prop.count={1}, current={2}", file, prop.size(),
+						entry.matches(attrs) && entry.isContentCurrent());
+				tracker.put(file.toFile().getPath(), entry.getHash(), prop);
+				return FileVisitResult.CONTINUE;
+			}
 			Properties prop = loadPropFile(file.toFile());
 			if (prop != null) {
 				logger.debug("Loaded properties: file={0}, type={1}, prop.count={2}", file,
 						Files.probeContentType(file), prop.size());
-				PROP_TABLE.put(file.toFile().getPath(), prop);
 			}
 		} catch (Throwable e) {
 			logger.error("Cant read: file={0}", file, e);
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.Snapshot;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.sink.SinkEventFilter;
+import com.jkoolcloud.tnt4j.source.Source;
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Load generator measuring the time from a file operation to the tracked event leaving {@link FolderMonitor}. A mix
+ * of create, modify, delete and rename operations is run at a target rate across a tree of directories, watched as
+ * configured by {@code tnt4j.folder.*} properties. A sink filter placed after enrichment captures every event and
+ * matches it to the operation on its path. Latency percentiles, lost events and, in ramp mode, the highest rate
+ * sustained without losing events are reported for recursive and non-recursive watches.
+ *
+ * @version $Revision: 1$
+ */
+public class FolderLoadGenerator {
+	private static final int DIRS = Integer.getInteger("tnt4j.load.dirs", 4);
+	private static final int DEPTH = Integer.getInteger("tnt4j.load.depth", 2);
+	private static final int FILES = Integer.getInteger("tnt4j.load.files", 1000);
+	private static final double RATE = Double.parseDouble(System.getProperty("tnt4j.load.rate", "500"));
+	private static final long DURATION_SEC = Long.getLong("tnt4j.load.duration.sec", 10);
+	private static final long WARMUP_SEC = Long.getLong("tnt4j.load.warmup.sec", 2);
+	private static final String MIX = System.getProperty("tnt4j.load.mix", "30;50;10;10");
+	private static final String RECURSIVE = System.getProperty("tnt4j.load.recursive", "both");
+	private static final double PROPERTY_RATIO = Double
+			.parseDouble(System.getProperty("tnt4j.load.property.ratio", "0.2"));
+	private static final long DRAIN_MS = Long.getLong("tnt4j.load.drain.ms", 5000);
+	private static final boolean RAMP = Boolean.getBoolean("tnt4j.load.ramp");
+	private static final double RAMP_MAX_LOSS_PCT = Double
+			.parseDouble(System.getProperty("tnt4j.load.ramp.max.loss.pct", "0.1"));
+	private static final long RAMP_MAX_P99_MS = Long.getLong("tnt4j.load.ramp.max.p99.ms", 1000);
+
+	private static final int CREATE = 0;
+	private static final int MODIFY = 1;
+	private static final int DELETE = 2;
+	private static final int RENAME = 3;
+
+	/**
+	 * Run load generator.
+	 *
+	 * @param args
+	 *            Usage: [folder], a temporary folder is used and removed if none given
+	 * @throws IOException
+	 *             if load folders can't be created or watched
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean temp = args.length < 1;
+		Path root = temp ? Files.createTempDirectory("tnt4j-load") : Paths.get(args[0]);
+		int[] mix = parseMix(MIX);
+		List<Boolean> modes = new ArrayList<Boolean>();
+		if (!RECURSIVE.equalsIgnoreCase("false")) {
+			modes.add(true);
+		}
+		if (!RECURSIVE.equalsIgnoreCase("true")) {
+			modes.add(false);
+		}
+		try {
+			for (boolean recursive : modes) {
+				Load load = new Load(root.resolve(recursive ? "recursive" : "flat"), recursive, mix);
+				try {
+					load.start();
+					if (WARMUP_SEC > 0) {
+						load.run(RATE, WARMUP_SEC);
+					}
+					if (RAMP) {
+						double best = 0;
+						for (double rate = RATE;; rate *= 2) {
+							Result result = load.run(rate, DURATION_SEC);
+							System.out.println(result);
+							if (!result.isSustained()) {
+								break;
+							}
+							best = rate;
+						}
+						System.out.format("Max sustainable rate: recursive=%b, ops/sec=%.0f\n", recursive, best);
+					} else {
+						System.out.println(load.run(RATE, DURATION_SEC));
+					}
+				} finally {
+					load.close();
+				}
+			}
+		} finally {
+			if (temp) {
+				delete(root);
+			}
+		}
+	}
+
+	private static int[] parseMix(String mix) {
+		String[] weights = mix.split(";");
+		int[] cumulative = new int[4];
+		int sum = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			sum += i < weights.length ? Math.max(0, Integer.parseInt(weights[i].trim())) : 0;
+			cumulative[i] = sum;
+		}
+		if (sum == 0) {
+			throw new IllegalArgumentException("Empty operation mix: " + mix);
+		}
+		return cumulative;
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.deleteIfExists(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.deleteIfExists(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Load run against one watched folder tree.
+	 */
+	static class Load implements SinkEventFilter {
+		private final Path base;
+		private final boolean recursive;
+		private final int[] mix;
+		private final Random random = new Random(42);
+		private final List<Path> dirs = new ArrayList<Path>();
+		private final List<Path> files = new ArrayList<Path>();
+		private final Map<Path, Long> pending = new ConcurrentHashMap<Path, Long>();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder events = new LongAdder();
+		private final LongAdder matched = new LongAdder();
+		private final List<EventPipeline> pipelines = new ArrayList<EventPipeline>();
+		private long nameSeq = 0;
+		private FileStoreCache stores;
+		private WatchMultiplexer pollMux;
+		private FolderEventHandler handler;
+		private FolderWatcher watcher;
+
+		Load(Path base, boolean recursive, int[] mix) {
+			this.base = base;
+			this.recursive = recursive;
+			this.mix = mix;
+		}
+
+		/**
+		 * Create folder tree and initial files, then start watching it.
+		 */
+		void start() throws IOException {
+			delete(base);
+			Files.createDirectories(base);
+			dirs.add(base);
+			for (int i = 0; recursive && i < DIRS; i++) {
+				Path dir = base.resolve("d" + i);
+				for (int level = 0; level < Math.max(1, DEPTH); level++) {
+					dir = level == 0 ? dir : dir.resolve("l" + level);
+					Files.createDirectories(dir);
+					dirs.add(dir);
+				}
+			}
+			for (int i = 0; i < FILES; i++) {
+				Path file = newFile();
+				Files.write(file, content(file));
+				files.add(file);
+			}
+			stores = new FileStoreCache(10000);
+			pollMux = FolderMonitor.newPollingMux(null);
+			handler = FolderMonitor.newHandler(base, stores, FolderMonitor.newPropertyTracker(),
+					FolderMonitor.newFingerprinter());
+			handler.logger.addSinkEventFilter(this);
+			watcher = FolderMonitor.startWatcher(base, handler, recursive, false, false, null, pollMux, null,
+					pipelines);
+		}
+
+		/**
+		 * Run operations at a given rate and wait for their events.
+		 *
+		 * @param rate
+		 *            target operations per second
+		 * @param durationSec
+		 *            run duration in seconds
+		 * @return run results
+		 */
+		Result run(double rate, long durationSec) {
+			latency.reset();
+			events.reset();
+			matched.reset();
+			long overflows = watcher.getOverflowCount();
+			long[] ops = new long[4];
+			long errors = 0;
+			long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+			long begin = System.nanoTime();
+			long end = begin + TimeUnit.SECONDS.toNanos(durationSec);
+			long count = 0;
+			for (long due = begin; due < end; due = begin + ++count * intervalNanos) {
+				long wait = due - System.nanoTime();
+				if (wait > 50000) {
+					LockSupport.parkNanos(wait);
+				}
+				int kind = nextKind();
+				try {
+					ops[perform(kind)]++;
+				} catch (IOException e) {
+					errors++;
+				}
+			}
+			long elapsed = System.nanoTime() - begin;
+			long drainEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MS);
+			while (!pending.isEmpty() && System.nanoTime() < drainEnd) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+			}
+			long lost = pending.size();
+			pending.clear();
+			return new Result(this, rate, count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed, ops, errors, lost,
+					watcher.getOverflowCount() - overflows);
+		}
+
+		private int nextKind() {
+			int pick = random.nextInt(mix[mix.length - 1]);
+			for (int kind = 0; kind < mix.length; kind++) {
+				if (pick < mix[kind]) {
+					return kind;
+				}
+			}
+			return CREATE;
+		}
+
+		/**
+		 * Perform one operation, falling back to create when there is no file without an operation in flight.
+		 *
+		 * @return kind of operation performed
+		 */
+		private int perform(int kind) throws IOException {
+			int index = kind == CREATE ? -1 : idleFile();
+			Path path;
+			if (index < 0) {
+				path = newFile();
+				pending.put(path, System.nanoTime());
+				write(path);
+				files.add(path);
+				return CREATE;
+			}
+			path = files.get(index);
+			switch (kind) {
+			case DELETE:
+				pending.put(path, System.nanoTime());
+				removeFile(index);
+				try {
+					Files.delete(path);
+				} catch (IOException e) {
+					pending.remove(path);
+					throw e;
+				}
+				break;
+			case RENAME:
+				Path target = newFile(path.getParent(), path.getFileName().toString().endsWith(".properties"));
+				pending.put(target, System.nanoTime());
+				removeFile(index);
+				try {
+					Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException e) {
+					pending.remove(target);
+					files.add(path);
+					throw e;
+				}
+				files.add(target);
+				break;
+			default:
+				pending.put(path, System.nanoTime());
+				write(path);
+				break;
+			}
+			return kind;
+		}
+
+		private void write(Path path) throws IOException {
+			try {
+				Files.write(path, content(path));
+			} catch (IOException e) {
+				pending.remove(path);
+				throw e;
+			}
+		}
+
+		private int idleFile() {
+			for (int tries = 0; tries < 4 && !files.isEmpty(); tries++) {
+				int index = random.nextInt(files.size());
+				if (!pending.containsKey(files.get(index))) {
+					return index;
+				}
+			}
+			return -1;
+		}
+
+		private void removeFile(int index) {
+			int last = files.size() - 1;
+			files.set(index, files.get(last));
+			files.remove(last);
+		}
+
+		private Path newFile() {
+			return newFile(dirs.get(random.nextInt(dirs.size())), random.nextDouble() < PROPERTY_RATIO);
+		}
+
+		private Path newFile(Path dir, boolean properties) {
+			return dir.resolve("f" + nameSeq++ + (properties ? ".properties" : ".dat"));
+		}
+
+		private byte[] content(Path path) {
+			String text = "key" + random.nextInt(16) + "=" + random.nextInt() + "\nseq=" + nameSeq + "\n";
+			return text.getBytes(StandardCharsets.UTF_8);
+		}
+
+		void close() throws IOException {
+			handler.logger.removeSinkEventFilter(this);
+			Utils.close(watcher);
+			for (EventPipeline pipeline : pipelines) {
+				pipeline.close();
+			}
+			pollMux.close();
+			stores.close();
+			delete(base);
+		}
+
+		@Override
+		public boolean filter(EventSink sink, TrackingEvent event) {
+			long now = System.nanoTime();
+			Object[] args = event.getMessageArgs();
+			for (int i = 0; args != null && i < args.length; i++) {
+				if (args[i] instanceof Path) {
+					events.increment();
+					Long begin = pending.remove(args[i]);
+					if (begin != null) {
+						matched.increment();
+						latency.record(now - begin);
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean filter(EventSink sink, TrackingActivity activity) {
+			return true;
+		}
+
+		@Override
+		public boolean filter(EventSink sink, Snapshot snapshot) {
+			return true;
+		}
+
+		@Override
+		public boolean filter(EventSink sink, long ttl, Source source, OpLevel level, String msg, Object... args) {
+			return true;
+		}
+	}
+
+	/**
+	 * Results of a load run.
+	 */
+	static class Result {
+		final boolean recursive;
+		final int dirs;
+		final double rate;
+		final double achieved;
+		final long[] ops;
+		final long errors;
+		final long events;
+		final long matched;
+		final long lost;
+		final long overflows;
+		final long p50, p99, p999, max;
+		final double mean;
+
+		Result(Load load, double rate, double achieved, long[] ops, long errors, long lost, long overflows) {
+			this.recursive = load.recursive;
+			this.dirs = load.dirs.size();
+			this.rate = rate;
+			this.achieved = achieved;
+			this.ops = ops;
+			this.errors = errors;
+			this.events = load.events.sum();
+			this.matched = load.matched.sum();
+			this.lost = lost;
+			this.overflows = overflows;
+			this.p50 = load.latency.getPercentile(50);
+			this.p99 = load.latency.getPercentile(99);
+			this.p999 = load.latency.getPercentile(99.9);
+			this.max = load.latency.getMax();
+			this.mean = load.latency.getMean();
+		}
+
+		long getOpCount() {
+			return ops[CREATE] + ops[MODIFY] + ops[DELETE] + ops[RENAME];
+		}
+
+		double getLossPct() {
+			return lost * 100.0 / Math.max(1, getOpCount());
+		}
+
+		/**
+		 * Whether the target rate was generated and watched within loss and latency limits.
+		 */
+		boolean isSustained() {
+			return achieved >= rate * 0.95 && getLossPct() <= RAMP_MAX_LOSS_PCT
+					&& p99 <= TimeUnit.MILLISECONDS.toNanos(RAMP_MAX_P99_MS);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"Load stats: recursive=%b, dirs=%d, rate=%.0f, achieved=%.1f, ops=%d, creates=%d, modifies=%d, deletes=%d, renames=%d, errors=%d, events=%d, matched=%d, lost=%d, loss.pct=%.3f, overflows=%d, p50.us=%d, p99.us=%d, p999.us=%d, max.us=%d, mean.us=%.1f",
+					recursive, dirs, rate, achieved, getOpCount(), ops[CREATE], ops[MODIFY], ops[DELETE], ops[RENAME],
+					errors, events, matched, lost, getLossPct(), overflows, TimeUnit.NANOSECONDS.toMicros(p50),
+					TimeUnit.NANOSECONDS.toMicros(p99), TimeUnit.NANOSECONDS.toMicros(p999),
+					TimeUnit.NANOSECONDS.toMicros(max), mean / 1000);
+		}
+	}
+}
@@ -15,13 +15,23 @@
  */
 package com.jkoolcloud.tnt4j.samples;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 import com.jkoolcloud.tnt4j.core.OpLevel;
 import com.jkoolcloud.tnt4j.sink.DefaultEventSinkFactory;
 import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.utils.Utils;
 
 /**
  * Simple application that monitors changes to file system folders.
@@ -30,16 +40,94 @@ import com.jkoolcloud.tnt4j.sink.EventSink;
  */
 public class FolderMonitor {
 	private static final String PROP_FILE_EXT = System.getProperty("tnt4j.folder.property.file.ext",
-			".properties;.conf");
+			".properties;.conf;.json;.yaml;.yml;.xml");
+	private static final String WATCH_MODE = System.getProperty("tnt4j.folder.watch.mode", "thread");
+	private static final String THREAD_MODE = System.getProperty("tnt4j.folder.threads", "platform");
+	private static final boolean VIRTUAL_THREADS = THREAD_MODE.equalsIgnoreCase("virtual")
+			&& VirtualThreads.isSupported();
+	private static final int MUX_POLLERS = Integer.getInteger("tnt4j.folder.mux.pollers", 1);
+	private static final int MUX_WORKERS = Integer.getInteger("tnt4j.folder.mux.workers",
+			Runtime.getRuntime().availableProcessors());
+	private static final long COALESCE_WINDOW_MS = Long.getLong("tnt4j.folder.coalesce.window.ms", 0);
+	private static final int COALESCE_MAX_COUNT = Integer.getInteger("tnt4j.folder.coalesce.max.count", 100);
+	private static final long MOVE_WINDOW_MS = Long.getLong("tnt4j.folder.move.window.ms", 0);
+	private static final int MOVE_MAX_ENTRIES = Integer.getInteger("tnt4j.folder.move.max.entries", 100000);
+	private static final PathFilterEngine PATH_FILTER = new PathFilterEngine(
+			System.getProperty("tnt4j.folder.include", ""), System.getProperty("tnt4j.folder.exclude", ""));
+	private static final boolean OVERFLOW_RECOVERY = Boolean.getBoolean("tnt4j.folder.overflow.recovery");
+	private static final int SCAN_PARALLELISM = Integer.getInteger("tnt4j.folder.scan.parallelism",
+			Runtime.getRuntime().availableProcessors());
+	private static final String INDEX_DIR = System.getProperty("tnt4j.folder.index.dir");
+	private static final long POLL_MIN_MS = Long.getLong("tnt4j.folder.poll.min.ms", 1000);
+	private static final long POLL_MAX_MS = Long.getLong("tnt4j.folder.poll.max.ms", 30000);
+	private static final int POLL_IOPS = Integer.getInteger("tnt4j.folder.poll.iops", 1000);
+	private static final boolean POLL_FALLBACK = Boolean
+			.parseBoolean(System.getProperty("tnt4j.folder.poll.fallback", "true"));
+	private static final int WATCH_BUDGET_LIMIT = Integer.getInteger("tnt4j.folder.watch.budget", 0);
+	private static final int WATCH_EAGER_DEPTH = Integer.getInteger("tnt4j.folder.watch.eager.depth", 2);
+	private static final WatchBudget WATCH_BUDGET = WATCH_BUDGET_LIMIT > 0
+			? new WatchBudget(WATCH_BUDGET_LIMIT, WATCH_EAGER_DEPTH) : null;
+	private static final String ENRICH_FIELDS = System.getProperty("tnt4j.folder.enrich.fields",
+			PathEventFilter.DEFAULT_FIELDS);
+	private static final long ENRICH_STORE_REFRESH_MS = Long.getLong("tnt4j.folder.enrich.store.refresh.ms", 10000);
+	private static final int PROPS_MAX_ENTRIES = Integer.getInteger("tnt4j.folder.props.max.entries", 100000);
+	private static final long PROPS_MAX_MB = Long.getLong("tnt4j.folder.props.max.mb", 64);
+	private static final int PROPS_MAX_KEYS = Integer.getInteger("tnt4j.folder.props.max.keys", 10000);
+	private static final boolean PROPS_COMPRESS = Boolean.getBoolean("tnt4j.folder.props.compress");
+	private static final boolean CONTENT_FINGERPRINT = Boolean.getBoolean("tnt4j.folder.content.fingerprint");
+	private static final int CONTENT_CHUNK_KB = Integer.getInteger("tnt4j.folder.content.chunk.kb", 1024);
+	private static final long CONTENT_MAX_MB = Long.getLong("tnt4j.folder.content.max.mb", 1024);
+	private static final int CONTENT_MAX_ENTRIES = Integer.getInteger("tnt4j.folder.content.max.entries", 100000);
+	private static final String FOLLOW_EXT = System.getProperty("tnt4j.folder.follow.ext", "");
+	private static final int FOLLOW_BATCH_LINES = Integer.getInteger("tnt4j.folder.follow.batch.lines", 100);
+	private static final int FOLLOW_MAX_LINE = Integer.getInteger("tnt4j.folder.follow.max.line", 8192);
+	private static final int FOLLOW_BUFFER_KB = Integer.getInteger("tnt4j.folder.follow.buffer.kb", 64);
+	private static final String FOLLOW_OFFSETS_FILE = System.getProperty("tnt4j.folder.follow.offsets.file");
+	private static final long FOLLOW_SAVE_SEC = Long.getLong("tnt4j.folder.follow.save.sec", 5);
+	private static final int HOT_TOP_K = Integer.getInteger("tnt4j.folder.hot.top.k", 20);
+	private static final int HOT_WIDTH = Integer.getInteger("tnt4j.folder.hot.width", 2048);
+	private static final int HOT_DEPTH = Integer.getInteger("tnt4j.folder.hot.depth", 4);
+	private static final long HOT_HALF_LIFE_SEC = Long.getLong("tnt4j.folder.hot.half.life.sec", 60);
+	private static final long HOT_PUBLISH_SEC = Long.getLong("tnt4j.folder.hot.publish.sec", 0);
+	private static final double HOT_THROTTLE_RATE = Double
+			.parseDouble(System.getProperty("tnt4j.folder.hot.throttle.rate", "0"));
+	private static final String JOURNAL_FILE = System.getProperty("tnt4j.folder.journal.file");
+	private static final boolean PIPELINE = Boolean.getBoolean("tnt4j.folder.pipeline");
+	private static final int PIPELINE_ENRICH_THREADS = Integer.getInteger("tnt4j.folder.pipeline.enrich.threads", 2);
+	private static final int PIPELINE_DIFF_THREADS = Integer.getInteger("tnt4j.folder.pipeline.diff.threads", 2);
+	private static final int PIPELINE_EMIT_THREADS = Integer.getInteger("tnt4j.folder.pipeline.emit.threads", 1);
+	private static final int PIPELINE_CAPACITY = Integer.getInteger("tnt4j.folder.pipeline.capacity", 1024);
+	private static final EventPipeline.Overload PIPELINE_OVERLOAD = EventPipeline.Overload
+			.valueOf(System.getProperty("tnt4j.folder.pipeline.overload", "BLOCK").toUpperCase());
+	private static final boolean JMX = Boolean.parseBoolean(System.getProperty("tnt4j.folder.jmx", "true"));
+	private static final long METRICS_PERIOD_SEC = Long.getLong("tnt4j.folder.metrics.period.sec", 10);
+	private static final boolean METRICS_PUBLISH = Boolean.getBoolean("tnt4j.folder.metrics.publish");
+	private static final boolean CLOCK_MONITOR = Boolean.getBoolean("tnt4j.folder.clock.monitor");
+	private static final long STATS_PERIOD_SEC = Long.getLong("tnt4j.folder.stats.period.sec", 60);
 	private static final EventSink logger = DefaultEventSinkFactory.defaultEventSink(FolderMonitor.class);
 
 	public static void main(String[] args) throws InterruptedException, IOException {
 		if (args.length < 1) {
-			System.out.println("Usage: [+r|-r] [+v|-v] folder-watch-list");
+			System.out.println("Usage: [+r|-r] [+v|-v] [+p|-p] folder-watch-list");
 			System.exit(-1);
 		}
-		boolean recursive = false, verbose = false;
+		boolean recursive = false, verbose = false, poll = false;
+		if (THREAD_MODE.equalsIgnoreCase("virtual") && !VIRTUAL_THREADS) {
+			logger.log(OpLevel.WARNING, "Virtual threads not supported: java.version={0}, using platform threads",
+					System.getProperty("java.version"));
+		}
+		WatchMultiplexer mux = WATCH_MODE.equalsIgnoreCase("mux")
+				? new WatchMultiplexer(MUX_POLLERS, MUX_WORKERS, VIRTUAL_THREADS) : null;
+		WatchMultiplexer pollMux = newPollingMux(mux);
+		List<FolderWatcher> watchers = new ArrayList<FolderWatcher>();
+		List<FolderEventHandler> handlers = new ArrayList<FolderEventHandler>();
+		List<EventPipeline> pipelines = new ArrayList<EventPipeline>();
+		FileStoreCache stores = newFileStoreCache();
+		PropertyTracker tracker = newPropertyTracker();
+		ContentFingerprinter fingerprinter = newFingerprinter();
 		try {
+			WatchEventJournal journal = newJournal();
+			LogFollower follower = newFollower();
 			for (int i = 0; i < args.length; i++) {
 				if (args[i].equalsIgnoreCase("+r")) {
 					recursive = true;
@@ -53,19 +141,305 @@ public class FolderMonitor {
 				} else if (args[i].equalsIgnoreCase("-v")) {
 					verbose = false;
 					continue;
+				} else if (args[i].equalsIgnoreCase("+p")) {
+					poll = true;
+					continue;
+				} else if (args[i].equalsIgnoreCase("-p")) {
+					poll = false;
+					continue;
 				}
 				Path pathToWatch = Paths.get(args[i]);
 				System.out.println(
-						"Watch path: path=" + pathToWatch + ", recursive=" + recursive + ", verbose=" + verbose);
-				FolderEventHandler evHandler = new FolderEventHandler(
-						FolderMonitor.class.getName() + "." + pathToWatch.toFile().getName(), PROP_FILE_EXT);
-				FolderWatcher folderWatcher = new FolderWatcher(pathToWatch, recursive, evHandler);
-				Thread monitorThread = new Thread(folderWatcher.setVerbose(verbose).load());
-				monitorThread.start();
+						"Watch path: path=" + pathToWatch + ", recursive=" + recursive + ", verbose=" + verbose
+								+ ", poll=" + poll);
+				FolderEventHandler evHandler = newHandler(pathToWatch, stores, tracker, fingerprinter);
+				evHandler.setFollower(follower);
+				handlers.add(evHandler);
+				FolderWatcher folderWatcher = startWatcher(pathToWatch, evHandler, recursive, verbose, poll, mux,
+						pollMux, journal, pipelines);
+				if (JMX || METRICS_PUBLISH) {
+					FolderWatcherMetrics metrics = new FolderWatcherMetrics(folderWatcher, evHandler,
+							METRICS_PERIOD_SEC, METRICS_PUBLISH);
+					if (JMX) {
+						try {
+							metrics.register();
+						} catch (JMException e) {
+							logger.log(OpLevel.WARNING, "Unable to register metrics: path={0}", pathToWatch, e);
+						}
+					}
+					closeOnShutdown(metrics);
+				}
+				watchers.add(folderWatcher);
+			}
+			if (CLOCK_MONITOR) {
+				closeOnShutdown(ClockDriftTest.newMonitor(logger, FolderMonitor.class.getSimpleName()));
 			}
+			scheduleStats(watchers, handlers, pipelines, tracker, fingerprinter, follower, journal, mux, pollMux);
 			System.out.println("Done & Ready :)");
 		} catch (Throwable ex) {
 			logger.log(OpLevel.ERROR, "Unable to watch: {0}", args[0], ex);
 		}
+		// virtual, poller and worker threads are daemons, they don't keep the JVM running
+		for (FolderWatcher watcher : watchers) {
+			watcher.awaitStopped();
+		}
+	}
+
+	/**
+	 * Create multiplexer dispatching polled keys, which is the given multiplexer in mux mode.
+	 *
+	 * @param mux
+	 *            watch multiplexer, null in thread mode
+	 * @return multiplexer with a polling service
+	 */
+	static WatchMultiplexer newPollingMux(WatchMultiplexer mux) {
+		// polled keys are always dispatched by a multiplexer, a small one in thread mode
+		WatchMultiplexer pollMux = mux != null ? mux : new WatchMultiplexer(1, 1);
+		pollMux.setPollingService(new PollingWatchService(POLL_MIN_MS, POLL_MAX_MS, POLL_IOPS));
+		return pollMux;
+	}
+
+	static FileStoreCache newFileStoreCache() {
+		return new FileStoreCache(ENRICH_STORE_REFRESH_MS);
+	}
+
+	/**
+	 * Create journal recording raw watch events if enabled by {@code tnt4j.folder.journal.file}.
+	 *
+	 * @return watch event journal, null if disabled
+	 * @throws IOException
+	 *             if journal file can't be created
+	 */
+	static WatchEventJournal newJournal() throws IOException {
+		if (JOURNAL_FILE == null) {
+			return null;
+		}
+		WatchEventJournal journal = new WatchEventJournal(Paths.get(JOURNAL_FILE));
+		closeOnShutdown(journal);
+		return journal;
+	}
+
+	static PropertyTracker newPropertyTracker() {
+		return new PropertyTracker(PROPS_MAX_ENTRIES, PROPS_MAX_MB * 1024 * 1024, PROPS_COMPRESS)
+				.setMaxKeys(PROPS_MAX_KEYS);
+	}
+
+	/**
+	 * Create content fingerprinter if enabled by {@code tnt4j.folder.content.fingerprint}.
+	 *
+	 * @return content fingerprinter, null if disabled
+	 */
+	static ContentFingerprinter newFingerprinter() {
+		return CONTENT_FINGERPRINT ? new ContentFingerprinter(CONTENT_CHUNK_KB * 1024, CONTENT_MAX_MB * 1024 * 1024,
+				CONTENT_MAX_ENTRIES) : null;
+	}
+
+	/**
+	 * Create log follower if enabled by {@code tnt4j.folder.follow.ext}. Offsets are restored from and saved to
+	 * {@code tnt4j.folder.follow.offsets.file} when set.
+	 *
+	 * @return log follower, null if disabled
+	 * @throws IOException
+	 *             if saved offsets can't be read
+	 */
+	static LogFollower newFollower() throws IOException {
+		if (FOLLOW_EXT.isEmpty()) {
+			return null;
+		}
+		LogFollower follower = new LogFollower(FOLLOW_EXT, FOLLOW_BATCH_LINES, FOLLOW_MAX_LINE, FOLLOW_BUFFER_KB * 1024,
+				FOLLOW_OFFSETS_FILE == null ? null : Paths.get(FOLLOW_OFFSETS_FILE), FOLLOW_SAVE_SEC);
+		closeOnShutdown(follower);
+		return follower;
+	}
+
+	static FolderEventHandler newHandler(Path pathToWatch, FileStoreCache stores, PropertyTracker tracker,
+			ContentFingerprinter fingerprinter) throws IOException {
+		FolderEventHandler evHandler = new FolderEventHandler(
+				FolderMonitor.class.getName() + "." + pathToWatch.toFile().getName(), PROP_FILE_EXT);
+		evHandler.setEnrichment(ENRICH_FIELDS, stores).setPropertyTracker(tracker).setFingerprinter(fingerprinter);
+		evHandler.setHotPathSketch(
+				new HotPathSketch(HOT_WIDTH, HOT_DEPTH, HOT_TOP_K, HOT_HALF_LIFE_SEC).setThrottleRate(HOT_THROTTLE_RATE),
+				HOT_PUBLISH_SEC);
+		return evHandler;
+	}
+
+	/**
+	 * Watch a given path as configured by {@code tnt4j.folder.*} properties. A watch thread is started unless keys
+	 * are dispatched by a multiplexer.
+	 *
+	 * @param pathToWatch
+	 *            path to watch
+	 * @param evHandler
+	 *            handler of path events
+	 * @param recursive
+	 *            watch sub-folders
+	 * @param verbose
+	 *            print watch events
+	 * @param poll
+	 *            poll instead of using native watch service
+	 * @param mux
+	 *            watch multiplexer, null in thread mode
+	 * @param pollMux
+	 *            multiplexer dispatching polled keys
+	 * @param journal
+	 *            journal recording raw watch events, null to not record them
+	 * @param pipelines
+	 *            list collecting created event pipelines
+	 * @return started folder watcher
+	 * @throws IOException
+	 *             if path can't be watched
+	 */
+	static FolderWatcher startWatcher(Path pathToWatch, FolderEventHandler evHandler, boolean recursive,
+			boolean verbose, boolean poll, WatchMultiplexer mux, WatchMultiplexer pollMux, WatchEventJournal journal,
+			List<EventPipeline> pipelines) throws IOException {
+		WatchEventHandler<Path> handler = evHandler;
+		if (PIPELINE) {
+			EventPipeline pipeline = new EventPipeline(evHandler, PIPELINE_ENRICH_THREADS, PIPELINE_DIFF_THREADS,
+					PIPELINE_EMIT_THREADS, PIPELINE_CAPACITY, PIPELINE_OVERLOAD);
+			pipelines.add(pipeline);
+			closeOnShutdown(pipeline);
+			handler = pipeline;
+		}
+		FolderWatcher folderWatcher = new FolderWatcher(pathToWatch, recursive, handler);
+		if (INDEX_DIR != null) {
+			SnapshotIndex index = new SnapshotIndex(SnapshotIndex.indexFileFor(INDEX_DIR, pathToWatch));
+			evHandler.setSnapshotIndex(index);
+			folderWatcher.setSnapshotIndex(index);
+			closeOnShutdown(index);
+		}
+		folderWatcher.setVerbose(verbose).setMultiplexer(mux).setCoalescing(COALESCE_WINDOW_MS, COALESCE_MAX_COUNT)
+				.setMoveDetection(MOVE_WINDOW_MS, MOVE_MAX_ENTRIES)
+				.setPathFilter(PATH_FILTER).setOverflowRecovery(OVERFLOW_RECOVERY).setScanParallelism(SCAN_PARALLELISM)
+				.setWatchBudget(WATCH_BUDGET).setJournal(journal)
+				.setPolling(poll || POLL_FALLBACK || WATCH_BUDGET != null ? pollMux : null, poll).load();
+		if (mux == null && !folderWatcher.isPolling()) {
+			if (VIRTUAL_THREADS) {
+				Thread monitorThread = VirtualThreads.newThreadFactory("FolderWatcher").newThread(folderWatcher);
+				monitorThread.start();
+			} else {
+				Thread monitorThread = new Thread(folderWatcher);
+				monitorThread.start();
+			}
+		}
+		return folderWatcher;
+	}
+
+	private static void closeOnShutdown(final Closeable closeable) {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Utils.close(closeable);
+			}
+		}, "FolderMonitor-shutdown"));
+	}
+
+	/**
+	 * Periodically print threads used and event rates, so thread-per-root and multiplexed modes can be compared.
+	 */
+	private static void scheduleStats(final List<FolderWatcher> watchers, final List<FolderEventHandler> handlers,
+			final List<EventPipeline> pipelines, final PropertyTracker tracker,
+			final ContentFingerprinter fingerprinter, final LogFollower follower, final WatchEventJournal journal,
+			final WatchMultiplexer mux, final WatchMultiplexer pollMux) {
+		if (STATS_PERIOD_SEC <= 0) {
+			return;
+		}
+		final PollingWatchService polling = pollMux.getPollingService();
+		ScheduledExecutorService timer = Executors
+				.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("FolderMonitor-stats"));
+		timer.scheduleAtFixedRate(new Runnable() {
+			long lastCount = 0;
+			long lastTime = System.nanoTime();
+
+			@Override
+			public void run() {
+				long count = 0, suppressed = 0, overflows = 0, reconstructed = 0, fallbacks = 0, filtered = 0, pruned = 0;
+				long dirs = 0, treeBytes = 0;
+				int rootThreads = 0;
+				for (FolderWatcher watcher : watchers) {
+					if (!watcher.isPolling()) {
+						rootThreads++;
+					}
+					count += watcher.getEventCount();
+					overflows += watcher.getOverflowCount();
+					reconstructed += watcher.getReconstructedCount();
+					fallbacks += watcher.getFallbackCount();
+					filtered += watcher.getFilteredCount();
+					pruned += watcher.getPrunedCount();
+					dirs += watcher.getDirectoryTree().size();
+					treeBytes += watcher.getDirectoryTree().estimateBytes();
+					if (watcher.getCoalescer() != null) {
+						suppressed += watcher.getCoalescer().getSuppressedCount();
+					}
+				}
+				long enriched = 0, enrichNanos = 0, enrichMaxNanos = 0;
+				for (FolderEventHandler handler : handlers) {
+					PathEventFilter filter = handler.getPathFilter();
+					enriched += filter.getCount();
+					enrichNanos += filter.getTotalNanos();
+					enrichMaxNanos = Math.max(enrichMaxNanos, filter.getMaxNanos());
+				}
+				long now = System.nanoTime();
+				double rate = (count - lastCount) * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - lastTime);
+				lastCount = count;
+				lastTime = now;
+				System.out.format(
+						"Watch stats: mode=%s, threads=%s, roots=%d, dirs=%d, tree.kb=%d, watch.threads=%d, jvm.threads=%d, events=%d, events/sec=%.1f, suppressed=%d, filtered=%d, pruned=%d, overflows=%d, reconstructed=%d, polled.keys=%d, poll.fallbacks=%d, poll.scans=%d, poll.ops=%d, enrich.count=%d, enrich.avg.us=%.1f, enrich.max.us=%d, props.files=%d, props.kb=%d, props.parsed=%d, props.unchanged=%d, props.evicted=%d\n",
+						mux == null ? "thread" : "mux", VIRTUAL_THREADS ? "virtual" : "platform", watchers.size(),
+						dirs, treeBytes / 1024,
+						mux == null ? (VIRTUAL_THREADS ? 0 : rootThreads) + pollMux.getThreadCount() : mux.getThreadCount(),
+						ManagementFactory.getThreadMXBean().getThreadCount(), count, rate, suppressed, filtered, pruned,
+						overflows, reconstructed, polling.getKeyCount(), fallbacks, polling.getScanCount(), polling.getOpCount(), enriched,
+						enrichNanos / 1000.0 / Math.max(1, enriched), TimeUnit.NANOSECONDS.toMicros(enrichMaxNanos),
+						tracker.size(), tracker.getBytes() / 1024, tracker.getParsedCount(), tracker.getUnchangedCount(),
+						tracker.getEvictedCount());
+				if (fingerprinter != null) {
+					System.out.format(
+							"Content stats: files=%d, hashed=%d, hashed.mb=%d, skipped=%d, unchanged=%d, oversize=%d\n",
+							fingerprinter.size(), fingerprinter.getHashedCount(),
+							fingerprinter.getHashedBytes() / (1024 * 1024), fingerprinter.getSkippedCount(),
+							fingerprinter.getUnchangedCount(), fingerprinter.getOversizeCount());
+				}
+				if (follower != null) {
+					System.out.format("Follow stats: files=%d, lines=%d, read.kb=%d, resets=%d\n", follower.size(),
+							follower.getLineCount(), follower.getByteCount() / 1024, follower.getResetCount());
+				}
+				if (MOVE_WINDOW_MS > 0) {
+					long moved = 0, unmatched = 0, remembered = 0;
+					for (FolderWatcher watcher : watchers) {
+						MoveCorrelator mover = watcher.getMoveCorrelator();
+						if (mover != null) {
+							moved += mover.getMovedCount();
+							unmatched += mover.getUnmatchedCount();
+							remembered += mover.size();
+						}
+					}
+					System.out.format("Move stats: moved=%d, unmatched=%d, keys=%d\n", moved, unmatched, remembered);
+				}
+				if (HOT_TOP_K > 0 || HOT_THROTTLE_RATE > 0) {
+					long hits = 0, throttled = 0;
+					HotPathSketch.Hot hottest = null;
+					for (FolderEventHandler handler : handlers) {
+						HotPathSketch sketch = handler.getHotPathSketch();
+						hits += sketch.getHitCount();
+						throttled += sketch.getThrottledCount();
+						List<HotPathSketch.Hot> hot = sketch.getHotFiles();
+						if (!hot.isEmpty() && (hottest == null || hot.get(0).getRate() > hottest.getRate())) {
+							hottest = hot.get(0);
+						}
+					}
+					System.out.format("Hot stats: hits=%d, throttled=%d, hottest=%s\n", hits, throttled, hottest);
+				}
+				if (journal != null) {
+					System.out.format("Journal stats: batches=%d, events=%d, file=%s\n", journal.getBatchCount(),
+							journal.getEventCount(), journal.getFile());
+				}
+				if (WATCH_BUDGET != null) {
+					System.out.println("Budget stats: " + WATCH_BUDGET);
+				}
+				for (EventPipeline pipeline : pipelines) {
+					System.out.println("Pipeline stats: " + pipeline);
+				}
+			}
+		}, STATS_PERIOD_SEC, STATS_PERIOD_SEC, TimeUnit.SECONDS);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * {@link WatchEvent} implementation for events produced by folder monitoring itself rather than by a
+ * {@link java.nio.file.WatchService}, such as coalesced or reconstructed events.
+ *
+ * @version $Revision: 1$
+ */
+public class FolderWatchEvent<T> implements WatchEvent<T> {
+	/**
+	 * Entry moved or renamed within a watched tree. The context is the new path, {@link #getSource()} the absolute path
+	 * it was moved from.
+	 */
+	public static final Kind<Path> ENTRY_MOVE = new Kind<Path>() {
+		@Override
+		public String name() {
+			return "ENTRY_MOVE";
+		}
+
+		@Override
+		public Class<Path> type() {
+			return Path.class;
+		}
+
+		@Override
+		public String toString() {
+			return name();
+		}
+	};
+
+	/**
+	 * Where an event comes from.
+	 */
+	public enum Origin {
+		/**
+		 * Reported by a watch service
+		 */
+		WATCH,
+		/**
+		 * Reconstructed by rescanning a directory after an overflow
+		 */
+		RESCAN,
+		/**
+		 * Detected at startup, changed while the monitor was not running
+		 */
+		OFFLINE
+	}
+
+	private Kind<T> kind;
+	private final T context;
+	private final Origin origin;
+	private final T source;
+	private int count;
+
+	public FolderWatchEvent(Kind<T> kind, T context, int count) {
+		this(kind, context, count, Origin.WATCH);
+	}
+
+	public FolderWatchEvent(Kind<T> kind, T context, int count, Origin origin) {
+		this(kind, context, null, count, origin);
+	}
+
+	public FolderWatchEvent(Kind<T> kind, T context, T source, int count, Origin origin) {
+		this.kind = kind;
+		this.context = context;
+		this.source = source;
+		this.count = count;
+		this.origin = origin;
+	}
+
+	/**
+	 * Obtain origin of a given event.
+	 *
+	 * @param event
+	 *            watch event
+	 * @return event origin, {@link Origin#WATCH} for events reported by a watch service
+	 */
+	public static Origin originOf(WatchEvent<?> event) {
+		return event instanceof FolderWatchEvent ? ((FolderWatchEvent<?>) event).getOrigin() : Origin.WATCH;
+	}
+
+	public Origin getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Obtain source of a given move event.
+	 *
+	 * @param event
+	 *            watch event
+	 * @return absolute path the entry was moved from, null if event is not a move
+	 */
+	public static <T> T sourceOf(WatchEvent<T> event) {
+		return event instanceof FolderWatchEvent ? ((FolderWatchEvent<T>) event).getSource() : null;
+	}
+
+	public T getSource() {
+		return source;
+	}
+
+	/**
+	 * Determine if this event was reconstructed rather than reported by a watch service.
+	 *
+	 * @return true if event was reconstructed, false otherwise
+	 */
+	public boolean isReconstructed() {
+		return origin != Origin.WATCH;
+	}
+
+	@Override
+	public Kind<T> kind() {
+		return kind;
+	}
+
+	@Override
+	public int count() {
+		return count;
+	}
+
+	@Override
+	public T context() {
+		return context;
+	}
+
+	void setKind(Kind<T> kind) {
+		this.kind = kind;
+	}
+
+	void addCount(int delta) {
+		count += delta;
+	}
+
+	@Override
+	public String toString() {
+		return kind.name() + ": " + context + (source == null ? "" : ", source=" + source) + ", count=" + count
+				+ ", origin=" + origin;
+	}
+}
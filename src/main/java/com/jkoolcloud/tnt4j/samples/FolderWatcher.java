@@ -15,12 +15,19 @@
  */
 package com.jkoolcloud.tnt4j.samples;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class monitors for changes in folders, files and triggers a specified handler {@link WatchEventHandler}.
@@ -29,32 +36,99 @@ import java.util.Map;
  * 
  * @version $Revision: 1$
  */
-public class FolderWatcher implements Runnable {
+public class FolderWatcher implements Runnable, Closeable {
 
-	private final Map<WatchKey, Path> watchMap;
+	private static final Kind<?>[] KINDS = { StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY };
+
+	private static final int SWEEP_THRESHOLD = 64;
+	private static final long DEMOTE_TICK_MS = 1000;
+
+	private final DirectoryTree watchTree;
 	private final WatchEventHandler<Path> handler;
 	private final Path folder;
+	private final LongAdder eventCount = new LongAdder();
+	private final LongAdder overflowCount = new LongAdder();
+	private final LongAdder reconstructedCount = new LongAdder();
+	private final LongAdder createCount = new LongAdder();
+	private final LongAdder modifyCount = new LongAdder();
+	private final LongAdder deleteCount = new LongAdder();
+	private final LongAdder moveCount = new LongAdder();
+	private final LatencyHistogram handlerLatency = new LatencyHistogram();
+	private volatile long scanNanos;
+	private volatile long scanFileCount;
+	private DirectoryIndex index;
+	private SnapshotIndex snapshots;
+	private List<FolderWatchEvent<Path>> offlineEvents;
 	private WatchService watcher;
+	private WatchMultiplexer multiplexer;
+	private WatchMultiplexer pollingMux;
+	private boolean polling = false;
+	private WatchBudget budget;
+	private WatchEventJournal journal;
+	private final LongAdder fallbackCount = new LongAdder();
+	private EventCoalescer coalescer;
+	private PathFilterEngine pathFilter;
+	private MoveCorrelator mover;
+	private long moveTickMs;
+	private final Queue<WatchKey> demotions = new ConcurrentLinkedQueue<WatchKey>();
+	private final LongAdder filteredCount = new LongAdder();
+	private final LongAdder prunedCount = new LongAdder();
+	private final Object rootLock = new Object();
+	private final CountDownLatch stopLatch = new CountDownLatch(1);
 	private final boolean recursive;
 	private boolean verbose = false;
+	private int scanParallelism = 1;
 
 	FolderWatcher(Path folder, boolean recursive, WatchEventHandler<Path> handler) {
 		this.folder = folder;
 		this.recursive = recursive;
 		this.handler = handler;
-		this.watchMap = new HashMap<WatchKey, Path>();
+		this.watchTree = new DirectoryTree(folder);
 	}
 
 	public FolderWatcher load() throws IOException {
-		this.watcher = FileSystems.getDefault().newWatchService();
+		// held deletes and coalesced events expire and evicted watches are demoted on the threads processing keys of
+		// this root, which wake up idle roots
+		long tick = getIdleTickMillis();
+		if (tick > 0 && multiplexer != null) {
+			multiplexer.addIdleTask(this, tick);
+		} else if (tick > 0 && polling) {
+			pollingMux.addIdleTask(this, tick);
+		}
+		if (polling) {
+			if (pollingMux == null || pollingMux.getPollingService() == null) {
+				throw new IllegalStateException("No polling service for " + folder);
+			}
+		} else if (multiplexer != null) {
+			this.watcher = multiplexer.getWatchService(folder.getFileSystem());
+		} else {
+			this.watcher = folder.getFileSystem().newWatchService();
+		}
+		if (snapshots != null && snapshots.beginScan()) {
+			offlineEvents = new ArrayList<FolderWatchEvent<Path>>();
+		}
+		long scanStart = System.nanoTime();
 		if (recursive) {
-			long begin = System.currentTimeMillis();
 			System.out.format("Scanning path %s ...\n", folder);
-			watchAll(folder);
-			System.out.format("Scanning done, path.count=%d, elapsed.ms=%d\n", watchMap.size(),
-					(System.currentTimeMillis() - begin));
+			ParallelTreeScanner scan = new ParallelTreeScanner(scanParallelism);
+			watchAll(folder, scan);
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(scan.getElapsedNanos());
+			System.out.format(
+					"Scanning done, path.count=%d, file.count=%d, pruned=%d, elapsed.ms=%d, list.ms=%d, register.ms=%d, visit.ms=%d, files/sec=%.1f, parallel=%b\n",
+					watchTree.getKeyCount(), scan.getFileCount(), prunedCount.sum(), elapsedMs,
+					TimeUnit.NANOSECONDS.toMillis(scan.getListNanos()),
+					TimeUnit.NANOSECONDS.toMillis(scan.getRegisterNanos()),
+					TimeUnit.NANOSECONDS.toMillis(scan.getVisitNanos()),
+					scan.getFileCount() * 1000.0 / Math.max(1, elapsedMs), scan.isParallel());
+			scanFileCount = scan.getFileCount();
 		} else {
 			watch(folder);
+			checkChildren(folder);
+		}
+		scanNanos = System.nanoTime() - scanStart;
+		if (snapshots != null) {
+			dispatchOffline();
 		}
 		return this;
 	}
@@ -64,15 +138,286 @@ public class FolderWatcher implements Runnable {
 		return this;
 	}
 
+	/**
+	 * Share watch service and dispatch threads of a given multiplexer instead of running a dedicated thread. Keys of
+	 * different directories are then processed concurrently, so the handler must be thread safe. Must be set before
+	 * {@link #load()}.
+	 *
+	 * @param mux
+	 *            watch multiplexer
+	 * @return itself
+	 */
+	public FolderWatcher setMultiplexer(WatchMultiplexer mux) {
+		multiplexer = mux;
+		return this;
+	}
+
+	/**
+	 * Watch directories using a polling watch service, either for all directories of this root or only as a fallback
+	 * for directories the native watch service fails to register (e.g. watch limits exhausted). Polled keys are
+	 * dispatched by a given multiplexer. Must be set before {@link #load()}.
+	 *
+	 * @param mux
+	 *            multiplexer owning the polling watch service, null to disable polling
+	 * @param always
+	 *            true to poll all directories of this root, false to poll only on fallback
+	 * @return itself
+	 */
+	public FolderWatcher setPolling(WatchMultiplexer mux, boolean always) {
+		pollingMux = mux;
+		polling = mux != null && always;
+		return this;
+	}
+
+	/**
+	 * Limit native watches by a given budget, which may be shared across roots. Directories beyond the budget's eager
+	 * depth are polled until activity is seen in them, so polling should be set as well. Must be set before
+	 * {@link #load()}.
+	 *
+	 * @param budget
+	 *            watch budget, null to register all directories natively
+	 * @return itself
+	 */
+	public FolderWatcher setWatchBudget(WatchBudget budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	public WatchBudget getWatchBudget() {
+		return budget;
+	}
+
+	/**
+	 * Record raw events of signalled keys, before filtering, in a given journal which may be shared across roots.
+	 *
+	 * @param journal
+	 *            watch event journal, null to not record events
+	 * @return itself
+	 */
+	public FolderWatcher setJournal(WatchEventJournal journal) {
+		this.journal = journal;
+		return this;
+	}
+
+	/**
+	 * Determine if this root is watched by polling only, so it needs no dedicated watch thread.
+	 *
+	 * @return true if all directories are polled, false otherwise
+	 */
+	public boolean isPolling() {
+		return polling;
+	}
+
+	boolean canPoll() {
+		return pollingMux != null && pollingMux.getPollingService() != null;
+	}
+
+	/**
+	 * Scan recursive trees using a given number of fork-join threads, 1 for a sequential scan.
+	 *
+	 * @param parallelism
+	 *            number of scanning threads
+	 * @return itself
+	 */
+	public FolderWatcher setScanParallelism(int parallelism) {
+		scanParallelism = Math.max(1, parallelism);
+		return this;
+	}
+
+	/**
+	 * Coalesce repeated events for the same path before passing them to the handler.
+	 *
+	 * @param windowMs
+	 *            maximum time an event is held, 0 to disable coalescing
+	 * @param maxCount
+	 *            number of occurrences after which an event is passed on regardless of its age
+	 * @return itself
+	 */
+	public FolderWatcher setCoalescing(long windowMs, int maxCount) {
+		if (coalescer != null) {
+			coalescer.close();
+		}
+		coalescer = windowMs > 0 ? new EventCoalescer(handler, windowMs, maxCount) : null;
+		return this;
+	}
+
+	/**
+	 * Skip paths rejected by given include and exclude rules. Excluded directories are neither registered nor scanned,
+	 * events for rejected paths don't reach the handler. Must be set before {@link #load()}.
+	 *
+	 * @param filter
+	 *            path filter engine, null to watch all paths
+	 * @return itself
+	 */
+	public FolderWatcher setPathFilter(PathFilterEngine filter) {
+		pathFilter = filter == null || filter.isEmpty() ? null : filter;
+		return this;
+	}
+
+	/**
+	 * Report moves and renames inside the tree as single move events, matching deletes and creates by file key. Moved
+	 * directories keep their watches and are not scanned again. Deletes are held for up to the given window. Must be
+	 * set before {@link #load()}.
+	 *
+	 * @param windowMs
+	 *            maximum time between delete and create of a moved path, 0 to disable move detection
+	 * @param maxEntries
+	 *            maximum number of remembered file keys
+	 * @return itself
+	 * @see MoveCorrelator
+	 */
+	public FolderWatcher setMoveDetection(long windowMs, int maxEntries) {
+		flushMoves(true);
+		mover = windowMs > 0 ? new MoveCorrelator(watchTree, windowMs, maxEntries) : null;
+		moveTickMs = Math.max(1, windowMs / 2);
+		return this;
+	}
+
+	public MoveCorrelator getMoveCorrelator() {
+		return mover;
+	}
+
+	/**
+	 * Keep a metadata index of watched directories, used to reconstruct events lost when the watch service overflows.
+	 * Must be set before {@link #load()}.
+	 *
+	 * @param flag
+	 *            true to enable overflow recovery, false otherwise
+	 * @return itself
+	 */
+	public FolderWatcher setOverflowRecovery(boolean flag) {
+		index = flag ? new DirectoryIndex() : null;
+		return this;
+	}
+
+	/**
+	 * Persist metadata of watched paths in a given index, used to report changes made while the monitor was not
+	 * running. Must be set before {@link #load()}.
+	 *
+	 * @param idx
+	 *            snapshot index for this root
+	 * @return itself
+	 */
+	public FolderWatcher setSnapshotIndex(SnapshotIndex idx) {
+		snapshots = idx;
+		return this;
+	}
+
+	public DirectoryIndex getDirectoryIndex() {
+		return index;
+	}
+
+	public long getOverflowCount() {
+		return overflowCount.sum();
+	}
+
+	public long getFallbackCount() {
+		return fallbackCount.sum();
+	}
+
+	public long getReconstructedCount() {
+		return reconstructedCount.sum();
+	}
+
+	/**
+	 * Number of scanned files and events rejected by the path filter.
+	 *
+	 * @return number of filtered files and events
+	 */
+	public long getFilteredCount() {
+		return filteredCount.sum();
+	}
+
+	/**
+	 * Number of directories excluded by the path filter, with their subtrees.
+	 *
+	 * @return number of pruned directories
+	 */
+	public long getPrunedCount() {
+		return prunedCount.sum();
+	}
+
+	public EventCoalescer getCoalescer() {
+		return coalescer;
+	}
+
+	public Path getFolder() {
+		return folder;
+	}
+
+	public long getEventCount() {
+		return eventCount.sum();
+	}
+
+	public int getKeyCount() {
+		return watchTree.getKeyCount();
+	}
+
+	public DirectoryTree getDirectoryTree() {
+		return watchTree;
+	}
+
+	public boolean isRecursive() {
+		return recursive;
+	}
+
+	public WatchEventHandler<Path> getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Number of events passed on to the handler of a given kind.
+	 *
+	 * @param kind
+	 *            event kind
+	 * @return number of events
+	 */
+	public long getEventCount(Kind<?> kind) {
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+			return createCount.sum();
+		} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			return deleteCount.sum();
+		} else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+			return modifyCount.sum();
+		} else if (kind == FolderWatchEvent.ENTRY_MOVE) {
+			return moveCount.sum();
+		}
+		return 0;
+	}
+
+	/**
+	 * Time taken to pass events to the handler (or coalescer), in nanoseconds.
+	 *
+	 * @return handler latency histogram
+	 */
+	public LatencyHistogram getHandlerLatency() {
+		return handlerLatency;
+	}
+
+	/**
+	 * Duration of the initial scan and registration, in nanoseconds.
+	 *
+	 * @return scan duration
+	 */
+	public long getScanNanos() {
+		return scanNanos;
+	}
+
+	public long getScanFileCount() {
+		return scanFileCount;
+	}
+
 	@SuppressWarnings("unchecked")
 	public static <T> WatchEvent<T> cast(WatchEvent<?> event) {
 		return (WatchEvent<T>) event;
 	}
 
 	private void watch(Path folder) throws IOException {
-		WatchKey key = folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
-				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
-		Path prev = watchMap.get(key);
+		WatchKey key = register(folder);
+		if (key == null) {
+			return;
+		}
+		Path prev = watchTree.put(folder, key);
 		if (verbose) {
 			if (prev == null) {
 				System.out.format("watch path: %s\n", folder);
@@ -82,25 +427,294 @@ public class FolderWatcher implements Runnable {
 				}
 			}
 		}
-		watchMap.put(key, folder);
+		if (index != null) {
+			index.index(folder);
+		}
+		bind(key);
+	}
+
+	private void bind(WatchKey key) {
+		if (key instanceof PollingWatchService.PollingWatchKey) {
+			pollingMux.bind(key, this);
+		} else if (multiplexer != null) {
+			multiplexer.bind(key, this);
+		}
+	}
+
+	private void unbind(WatchKey key) {
+		if (key instanceof PollingWatchService.PollingWatchKey) {
+			pollingMux.unbind(key);
+		} else {
+			if (multiplexer != null) {
+				multiplexer.unbind(key);
+			}
+			if (budget != null) {
+				budget.release(key);
+			}
+		}
+	}
+
+	/**
+	 * Register a directory with the native watch service, within the watch budget if any, or else with the polling
+	 * watch service.
+	 *
+	 * @return watch key, null if directory is left unwatched because the watch budget is used up
+	 */
+	private WatchKey register(Path folder) throws IOException {
+		if (!polling) {
+			boolean eager = budget == null || budget.isEager(folder.getNameCount() - this.folder.getNameCount());
+			if (!eager && canPoll()) {
+				budget.deferred();
+			} else if (budget == null || budget.reserve()) {
+				try {
+					WatchKey key = folder.register(watcher, KINDS);
+					if (budget != null) {
+						budget.add(this, folder, key, eager);
+					}
+					return key;
+				} catch (IOException x) {
+					if (budget != null) {
+						budget.cancel(x);
+					}
+					if (!canPoll() || x instanceof NoSuchFileException) {
+						throw x;
+					}
+					fallbackCount.increment();
+					if (verbose) {
+						System.out.format("poll path: %s, reason=%s\n", folder, x);
+					}
+				}
+			} else if (canPoll()) {
+				budget.deferred();
+			} else {
+				budget.unwatched();
+				if (verbose) {
+					System.out.format("unwatched path: %s, reason=budget used up\n", folder);
+				}
+				return null;
+			}
+		}
+		return pollingMux.getPollingService().register(folder, KINDS);
+	}
+
+	/**
+	 * Replace the polled key of an active directory by a native watch, if the watch budget allows.
+	 */
+	private boolean promote(WatchKey key, Path dir) {
+		if (!budget.reserve()) {
+			return false;
+		}
+		WatchKey nativeKey;
+		try {
+			nativeKey = dir.register(watcher, KINDS);
+		} catch (IOException x) {
+			budget.cancel(x);
+			return false;
+		}
+		budget.add(this, dir, nativeKey, false);
+		budget.promoted();
+		if (verbose) {
+			System.out.format("promote path: %s\n", dir);
+		}
+		replaceKey(dir, key, nativeKey);
+		return true;
+	}
+
+	/**
+	 * Replace the native watch of an idle directory by a polled key. Called by the watch budget to make room for
+	 * another watch, which may happen on a thread of another root: the key is replaced on a thread of this root, when
+	 * it processes its next key or wakes up idle.
+	 *
+	 * @param key
+	 *            native watch key
+	 */
+	void demote(WatchKey key) {
+		demotions.offer(key);
+	}
+
+	private void demotePending() {
+		for (WatchKey key = demotions.poll(); key != null; key = demotions.poll()) {
+			Path dir = watchTree.get(key);
+			if (dir == null || !key.isValid()) {
+				continue;
+			}
+			WatchKey polledKey;
+			try {
+				polledKey = pollingMux.getPollingService().register(dir, KINDS);
+			} catch (NoSuchFileException x) {
+				// removed meanwhile, its delete is pending on the parent
+				polledKey = null;
+			} catch (IOException x) {
+				// keep the native watch rather than leave the directory unwatched
+				budget.restore(this, dir, key);
+				if (verbose) {
+					System.out.format("demote path: %s, failed=%s\n", dir, x);
+				}
+				continue;
+			}
+			if (verbose) {
+				System.out.format("demote path: %s\n", dir);
+			}
+			// events signalled before the polled key was registered would be lost by cancelling
+			handleEvents(key, dir, key.pollEvents());
+			replaceKey(dir, key, polledKey);
+		}
+	}
+
+	private void replaceKey(Path dir, WatchKey oldKey, WatchKey newKey) {
+		if (newKey != null) {
+			watchTree.put(dir, newKey);
+			bind(newKey);
+		}
+		watchTree.removeKey(oldKey);
+		oldKey.cancel();
+		unbind(oldKey);
 	}
 
 	private void watchAll(Path start) throws IOException {
-		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+		watchAll(start, new ParallelTreeScanner(scanParallelism));
+	}
+
+	private void watchAll(Path start, ParallelTreeScanner scanner) throws IOException {
+		scanner.scan(start, new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!acceptsFile(file)) {
+					filteredCount.increment();
+					return FileVisitResult.CONTINUE;
+				}
+				checkOffline(file, attrs);
+				remember(file, attrs);
 				handler.visitFile(file, attrs);
 				return FileVisitResult.CONTINUE;
 			}
 
 			@Override
 			public FileVisitResult preVisitDirectory(Path folder, BasicFileAttributes attrs) throws IOException {
+				if (!acceptsDirectory(folder)) {
+					prunedCount.increment();
+					return FileVisitResult.SKIP_SUBTREE;
+				}
 				watch(folder);
+				checkOffline(folder, attrs);
+				remember(folder, attrs);
 				return FileVisitResult.CONTINUE;
 			}
 		});
 	}
 
+	/**
+	 * Visit direct children of a folder watched non-recursively, as the tree scan does for recursive watches.
+	 */
+	private void checkChildren(Path dir) throws IOException {
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (Path child : stream) {
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class,
+							LinkOption.NOFOLLOW_LINKS);
+					if (attrs.isDirectory() ? !acceptsDirectory(child) : !acceptsFile(child)) {
+						filteredCount.increment();
+						continue;
+					}
+					checkOffline(child, attrs);
+					remember(child, attrs);
+					if (!attrs.isDirectory()) {
+						handler.visitFile(child, attrs);
+						scanFileCount++;
+					}
+				} catch (IOException x) {
+				}
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private void remember(Path path, BasicFileAttributes attrs) {
+		if (mover != null && attrs != null) {
+			mover.remember(path, attrs.fileKey());
+		}
+	}
+
+	private boolean acceptsDirectory(Path dir) {
+		return pathFilter == null || dir.equals(folder) || pathFilter.acceptsDirectory(folder.relativize(dir));
+	}
+
+	private boolean acceptsFile(Path file) {
+		return pathFilter == null || pathFilter.acceptsFile(folder.relativize(file));
+	}
+
+	/**
+	 * Whether an event passes the path filter. Includes only apply to files, so a path failing them is still accepted
+	 * if it is a directory, or was a watched one when deleted.
+	 */
+	private boolean accepts(WatchEvent<Path> event, Path dir) {
+		if (pathFilter == null) {
+			return true;
+		}
+		Path child = dir.resolve(event.context());
+		Path relative = folder.relativize(child);
+		if (!pathFilter.acceptsDirectory(relative)) {
+			return false;
+		} else if (!pathFilter.hasIncludes() || pathFilter.acceptsFile(relative)) {
+			return true;
+		}
+		return event.kind() == StandardWatchEventKinds.ENTRY_DELETE ? watchTree.contains(child)
+				: Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	/**
+	 * Compare a scanned path against the snapshot index and record it as changed while offline if it differs.
+	 */
+	private void checkOffline(Path path, BasicFileAttributes attrs) {
+		if (snapshots == null) {
+			return;
+		}
+		List<FolderWatchEvent<Path>> offline = offlineEvents;
+		if (offline != null && !path.equals(folder)) {
+			SnapshotIndex.Entry entry = snapshots.get(path);
+			Kind<Path> kind = null;
+			if (entry == null) {
+				kind = StandardWatchEventKinds.ENTRY_CREATE;
+			} else if (!attrs.isDirectory() && (!entry.matches(attrs) || !entry.isContentCurrent())) {
+				kind = StandardWatchEventKinds.ENTRY_MODIFY;
+			}
+			if (kind != null) {
+				synchronized (offline) {
+					offline.add(offlineEvent(kind, path));
+				}
+			}
+		}
+		snapshots.putAttributes(path, attrs);
+	}
+
+	/**
+	 * Create offline change event, with the absolute path as context until it is dispatched.
+	 */
+	private static FolderWatchEvent<Path> offlineEvent(Kind<Path> kind, Path path) {
+		return new FolderWatchEvent<Path>(kind, path, 1, FolderWatchEvent.Origin.OFFLINE);
+	}
+
+	private void dispatchOffline() {
+		List<FolderWatchEvent<Path>> offline = offlineEvents;
+		offlineEvents = null;
+		if (offline == null) {
+			return;
+		}
+		for (String path : snapshots.sweep()) {
+			offline.add(offlineEvent(StandardWatchEventKinds.ENTRY_DELETE, Paths.get(path)));
+		}
+		if (verbose || !offline.isEmpty()) {
+			System.out.format("Changed while offline: path=%s, count=%d\n", folder, offline.size());
+		}
+		for (FolderWatchEvent<Path> change : offline) {
+			Path path = change.context();
+			handle(new FolderWatchEvent<Path>(change.kind(), path.getFileName(), 1, FolderWatchEvent.Origin.OFFLINE),
+					path.getParent());
+		}
+	}
+
 	void preProcessEvent(WatchEvent<Path> event, Path dir) {
 		Path child = dir.resolve(event.context());
 
@@ -117,42 +731,346 @@ public class FolderWatcher implements Runnable {
 		}
 	}
 
-	void go() throws InterruptedException {
-		for (;;) {
-			WatchKey key = watcher.take();
-			Path folder = watchMap.get(key);
-			if (folder == null) {
+	/**
+	 * Process all pending events of a signalled key and reset it.
+	 *
+	 * @param key
+	 *            signalled watch key
+	 * @return false if this watcher has no more valid keys, true otherwise
+	 */
+	boolean processKey(WatchKey key) {
+		if (multiplexer != null) {
+			demotePending();
+			boolean valid = processEvents(key);
+			flushHeld();
+			return valid;
+		}
+		// without a multiplexer, polled keys are dispatched by the polling multiplexer while native keys are taken by
+		// the root thread: keep handler calls of this root serialized as with a single watch thread
+		synchronized (rootLock) {
+			demotePending();
+			boolean valid = processEvents(key);
+			flushHeld();
+			return valid;
+		}
+	}
+
+	/**
+	 * Demote evicted watches and pass on held deletes and coalesced events which expired while no keys of this root
+	 * were signalled.
+	 */
+	void idle() {
+		if (multiplexer != null) {
+			demotePending();
+			flushHeld();
+			return;
+		}
+		synchronized (rootLock) {
+			demotePending();
+			flushHeld();
+		}
+	}
+
+	/**
+	 * Pass on expired held deletes, then expired coalesced events.
+	 */
+	private void flushHeld() {
+		flushMoves(false);
+		if (coalescer != null) {
+			coalescer.flush(false);
+		}
+	}
+
+	/**
+	 * How often this root needs to wake up without signalled keys.
+	 *
+	 * @return period in milliseconds, 0 if never
+	 */
+	private long getIdleTickMillis() {
+		long tick = 0;
+		if (mover != null) {
+			tick = moveTickMs;
+		}
+		if (coalescer != null) {
+			tick = minTick(tick, coalescer.getTickMillis());
+		}
+		if (budget != null) {
+			tick = minTick(tick, DEMOTE_TICK_MS);
+		}
+		return tick;
+	}
+
+	private static long minTick(long tick, long other) {
+		return tick == 0 ? other : Math.min(tick, other);
+	}
+
+	private boolean processEvents(WatchKey key) {
+		Path folder = watchTree.get(key);
+		if (folder == null) {
+			return true;
+		}
+		boolean polled = key instanceof PollingWatchService.PollingWatchKey;
+		if (budget != null && !polled) {
+			budget.touch(key);
+		}
+
+		List<WatchEvent<?>> events = key.pollEvents();
+		handleEvents(key, folder, events);
+
+		// directory removed, or with an ancestor: its pending events are handled, cancel its key
+		boolean stale = watchTree.cancelIfStale(key);
+		if (!stale && budget != null && polled && !polling && !events.isEmpty() && promote(key, folder)) {
+			return true;
+		}
+		boolean valid = !stale && key.reset();
+		if (!valid) {
+			forget(key, folder);
+		}
+		if (watchTree.getDetachedCount() >= SWEEP_THRESHOLD) {
+			for (Map.Entry<WatchKey, Path> entry : watchTree.sweep().entrySet()) {
+				Path staleDir = entry.getValue();
+				if (index != null && !watchTree.contains(staleDir)) {
+					index.remove(staleDir);
+				}
+				unbind(entry.getKey());
+			}
+		}
+		return valid || !watchTree.isEmpty();
+	}
+
+	private void handleEvents(WatchKey key, Path folder, List<WatchEvent<?>> events) {
+		if (journal != null && !events.isEmpty()) {
+			journal.record(folder, events);
+		}
+		for (WatchEvent<?> event : events) {
+			Kind<?> kind = event.kind();
+
+			if (kind == StandardWatchEventKinds.OVERFLOW) {
+				overflowCount.increment();
+				recover(folder);
+				continue;
+			}
+			WatchEvent<Path> ev = cast(event);
+			if (!accepts(ev, folder)) {
+				filteredCount.increment();
+				continue;
+			}
+			eventCount.increment();
+			if (index != null) {
+				index.update(folder, ev.context());
+			}
+			if (snapshots != null) {
+				snapshots.update(folder.resolve(ev.context()));
+			}
+			if (mover != null && correlate(key, ev, folder)) {
 				continue;
 			}
+			if (ev.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+				if (recursive) {
+					watchTree.remove(folder.resolve(ev.context()));
+				}
+				if (snapshots != null) {
+					// paths under a deleted directory get no events of their own
+					snapshots.removeTree(folder.resolve(ev.context()));
+				}
+			}
+			dispatch(ev, folder);
+		}
+	}
+
+	/**
+	 * Hold deletes and match creates against them, dispatching a move event for a match.
+	 *
+	 * @return true if event is held or was dispatched as a move, false if it should be dispatched as is
+	 */
+	private boolean correlate(WatchKey key, WatchEvent<Path> ev, Path dir) {
+		if (ev.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+			return mover.holdDelete(key, ev, dir);
+		} else if (ev.kind() != StandardWatchEventKinds.ENTRY_CREATE) {
+			return false;
+		}
+		Path child = dir.resolve(ev.context());
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException x) {
+			return false;
+		}
+		Path source = mover.matchCreate(child, attrs.fileKey());
+		if (source == null) {
+			return false;
+		}
+		if (verbose) {
+			System.out.format("%s: %s, source=%s\n", FolderWatchEvent.ENTRY_MOVE.name(), child, source);
+		}
+		if (snapshots != null) {
+			snapshots.move(source, child);
+		}
+		if (attrs.isDirectory()) {
+			// remembered paths under the directory follow its node
+			if (index != null) {
+				index.move(source, child);
+			}
+			if (recursive && !watchTree.move(source, child)) {
+				// source was not watched, e.g. excluded or removed already
+				watchTree.remove(source);
+				try {
+					watchAll(child);
+				} catch (IOException x) {
+				}
+			}
+		}
+		handle(new FolderWatchEvent<Path>(FolderWatchEvent.ENTRY_MOVE, ev.context(), source, ev.count(),
+				FolderWatchEvent.originOf(ev)), dir);
+		return true;
+	}
+
+	/**
+	 * Pass on deletes held for move detection which were not matched by a create.
+	 */
+	private void flushMoves(boolean all) {
+		MoveCorrelator correlator = mover;
+		if (correlator == null) {
+			return;
+		}
+		for (MoveCorrelator.Pending pending : correlator.expire(all)) {
+			Path dir = pending.getDir();
+			WatchEvent<Path> ev = pending.getEvent();
+			Path path = dir.resolve(ev.context());
+			if (recursive) {
+				// unless a directory was created at the same path and watched meanwhile
+				watchTree.remove(path, pending.getKey());
+			}
+			if (snapshots != null && !Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+				snapshots.removeTree(path);
+			}
+			dispatch(ev, dir);
+		}
+	}
+
+	/**
+	 * Stop tracking a cancelled or invalid key.
+	 */
+	private void forget(WatchKey key, Path folder) {
+		// a replaced key no longer owns its directory
+		if (watchTree.removeKey(key) != null && index != null && folder != null) {
+			index.remove(folder);
+		}
+		unbind(key);
+	}
 
-			for (WatchEvent<?> event : key.pollEvents()) {
-				Kind<?> kind = event.kind();
+	private void dispatch(WatchEvent<Path> ev, Path folder) {
+		preProcessEvent(ev, folder);
+		handle(ev, folder);
+	}
+
+	private void handle(WatchEvent<Path> ev, Path dir) {
+		Kind<Path> kind = ev.kind();
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+			createCount.increment();
+		} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			deleteCount.increment();
+		} else if (kind == FolderWatchEvent.ENTRY_MOVE) {
+			moveCount.increment();
+		} else {
+			modifyCount.increment();
+		}
+		long begin = System.nanoTime();
+		// moves are not coalesced, pending events of the moved path are passed on first
+		if (coalescer != null && kind != FolderWatchEvent.ENTRY_MOVE) {
+			coalescer.submit(ev, dir);
+		} else {
+			Path source = FolderWatchEvent.sourceOf(ev);
+			if (coalescer != null && source != null) {
+				coalescer.flush(source);
+			}
+			handler.handleEvent(ev, dir);
+		}
+		handlerLatency.record(System.nanoTime() - begin);
+	}
 
-				if (kind == StandardWatchEventKinds.OVERFLOW) {
+	/**
+	 * Rescan a directory after an overflow and dispatch the events reconstructed from the metadata index.
+	 */
+	private void recover(Path folder) {
+		if (index == null) {
+			return;
+		}
+		try {
+			List<WatchEvent<Path>> missed = index.rescan(folder);
+			if (verbose) {
+				System.out.format("OVERFLOW: %s, reconstructed=%d\n", folder, missed.size());
+			}
+			for (WatchEvent<Path> ev : missed) {
+				if (!accepts(ev, folder)) {
 					continue;
 				}
-				WatchEvent<Path> ev = cast(event);
-				preProcessEvent(ev, folder);
-				handler.handleEvent(ev, folder);
+				reconstructedCount.increment();
+				dispatch(ev, folder);
 			}
+		} catch (IOException x) {
+		}
+	}
 
-			boolean valid = key.reset();
-			if (!valid) {
-				watchMap.remove(key);
-				if (watchMap.isEmpty()) {
-					break;
-				}
+	void go() throws InterruptedException {
+		long tick = getIdleTickMillis();
+		for (;;) {
+			WatchKey key = tick == 0 ? watcher.take() : watcher.poll(tick, TimeUnit.MILLISECONDS);
+			if (key == null) {
+				idle();
+			} else if (!processKey(key)) {
+				break;
 			}
 		}
 	}
 
+	void stopped() {
+		if (multiplexer != null) {
+			multiplexer.removeIdleTask(this);
+		}
+		if (pollingMux != null) {
+			pollingMux.removeIdleTask(this);
+		}
+		flushMoves(true);
+		if (coalescer != null) {
+			coalescer.close();
+		}
+		System.out.println("Watcher for " + folder + " stopped");
+		stopLatch.countDown();
+	}
+
+	/**
+	 * Wait until this watcher stops, either on its own thread or on threads of a multiplexer.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitStopped() throws InterruptedException {
+		stopLatch.await();
+	}
+
+	/**
+	 * Stop watching: cancel all keys and close the watch service unless it is shared with other watchers.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (WatchKey key : watchTree.keys()) {
+			key.cancel();
+			unbind(key);
+		}
+		watchTree.clear();
+		if (multiplexer == null && watcher != null) {
+			watcher.close();
+		}
+	}
+
 	@Override
 	public void run() {
 		try {
 			go();
-		} catch (InterruptedException e) {
+		} catch (InterruptedException | ClosedWatchServiceException e) {
 		} finally {
-			System.out.println("Watcher for " + folder + " stopped");
+			stopped();
 		}
 	}
 }
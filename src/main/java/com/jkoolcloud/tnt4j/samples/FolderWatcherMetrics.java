@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jkoolcloud.tnt4j.core.PropertySnapshot;
+import com.jkoolcloud.tnt4j.core.ValueTypes;
+
+/**
+ * Runtime metrics of a {@link FolderWatcher} root and its {@link FolderEventHandler}, exposed as a JMX MBean and
+ * optionally published as a {@link PropertySnapshot} every sampling period. Metrics are read from the striped
+ * counters and lock-free histogram the watcher already keeps, so nothing is added to the event path; rates are
+ * computed by the sampling task.
+ *
+ * @version $Revision: 1$
+ */
+public class FolderWatcherMetrics implements FolderWatcherMetricsMBean, Closeable {
+	public static final String DOMAIN = "com.jkoolcloud.tnt4j.samples";
+	public static final String SNAPSHOT_CATEGORY = "FolderWatcher";
+
+	private static ScheduledExecutorService timer;
+
+	private final FolderWatcher watcher;
+	private final FolderEventHandler handler;
+	private final boolean publish;
+	private final ScheduledFuture<?> sampler;
+	private ObjectName name;
+
+	private long lastNanos = System.nanoTime();
+	private long lastCreates, lastModifies, lastDeletes;
+	private volatile double createRate, modifyRate, deleteRate;
+
+	/**
+	 * Create metrics of a given watcher.
+	 *
+	 * @param watcher
+	 *            folder watcher
+	 * @param handler
+	 *            handler of watcher events
+	 * @param periodSec
+	 *            sampling period in seconds
+	 * @param publish
+	 *            log metrics snapshot every sampling period
+	 */
+	public FolderWatcherMetrics(FolderWatcher watcher, FolderEventHandler handler, long periodSec, boolean publish) {
+		this.watcher = watcher;
+		this.handler = handler;
+		this.publish = publish;
+		long period = Math.max(1, periodSec);
+		this.sampler = getTimer().scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors
+					.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("FolderWatcherMetrics"));
+		}
+		return timer;
+	}
+
+	/**
+	 * Register MBean with the platform MBean server as
+	 * {@code com.jkoolcloud.tnt4j.samples:type=FolderWatcher,root=<path>}.
+	 *
+	 * @return itself
+	 * @throws JMException
+	 *             if MBean can't be registered
+	 */
+	public FolderWatcherMetrics register() throws JMException {
+		ObjectName objName = new ObjectName(
+				DOMAIN + ":type=" + SNAPSHOT_CATEGORY + ",root=" + ObjectName.quote(getRoot()));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objName);
+		name = objName;
+		return this;
+	}
+
+	/**
+	 * Stop sampling and unregister MBean.
+	 */
+	@Override
+	public void close() {
+		sampler.cancel(false);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (name != null && server.isRegistered(name)) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+			}
+		}
+	}
+
+	synchronized void sample() {
+		long now = System.nanoTime();
+		double sec = Math.max(1, now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+		long creates = getCreateCount(), modifies = getModifyCount(), deletes = getDeleteCount();
+		createRate = (creates - lastCreates) / sec;
+		modifyRate = (modifies - lastModifies) / sec;
+		deleteRate = (deletes - lastDeletes) / sec;
+		lastCreates = creates;
+		lastModifies = modifies;
+		lastDeletes = deletes;
+		lastNanos = now;
+		if (publish) {
+			handler.logger.tnt(toSnapshot());
+		}
+	}
+
+	/**
+	 * Create snapshot of current metrics.
+	 *
+	 * @return property snapshot
+	 */
+	public PropertySnapshot toSnapshot() {
+		PropertySnapshot snap = new PropertySnapshot(SNAPSHOT_CATEGORY, getRoot());
+		snap.add("Recursive", isRecursive(), ValueTypes.VALUE_TYPE_FLAG);
+		snap.add("KeyCount", getKeyCount());
+		snap.add("DirectoryCount", getDirectoryCount());
+		snap.add("DirectoryTreeBytes", getDirectoryTreeBytes(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("CreateCount", getCreateCount());
+		snap.add("ModifyCount", getModifyCount());
+		snap.add("DeleteCount", getDeleteCount());
+		snap.add("CreateRate", createRate);
+		snap.add("ModifyRate", modifyRate);
+		snap.add("DeleteRate", deleteRate);
+		snap.add("OverflowCount", getOverflowCount());
+		snap.add("ReconstructedCount", getReconstructedCount());
+		snap.add("HandlerCount", getHandlerCount());
+		snap.add("HandlerMeanMicros", getHandlerMeanMicros(), ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("HandlerP50Micros", getHandlerP50Micros(), ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("HandlerP99Micros", getHandlerP99Micros(), ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("HandlerP999Micros", getHandlerP999Micros(), ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("HandlerMaxMicros", getHandlerMaxMicros(), ValueTypes.VALUE_TYPE_AGE_USEC);
+		snap.add("PropertyFileCount", getPropertyFileCount());
+		snap.add("PropertyBytes", getPropertyBytes(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		snap.add("ScanMillis", getScanMillis(), ValueTypes.VALUE_TYPE_AGE_MSEC);
+		snap.add("ScanFileCount", getScanFileCount());
+		return snap;
+	}
+
+	@Override
+	public String getRoot() {
+		return watcher.getFolder().toString();
+	}
+
+	@Override
+	public boolean isRecursive() {
+		return watcher.isRecursive();
+	}
+
+	@Override
+	public int getKeyCount() {
+		return watcher.getKeyCount();
+	}
+
+	@Override
+	public int getDirectoryCount() {
+		return watcher.getDirectoryTree().size();
+	}
+
+	@Override
+	public long getDirectoryTreeBytes() {
+		return watcher.getDirectoryTree().estimateBytes();
+	}
+
+	@Override
+	public long getEventCount() {
+		return watcher.getEventCount();
+	}
+
+	@Override
+	public long getCreateCount() {
+		return watcher.getEventCount(StandardWatchEventKinds.ENTRY_CREATE);
+	}
+
+	@Override
+	public long getModifyCount() {
+		return watcher.getEventCount(StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	@Override
+	public long getDeleteCount() {
+		return watcher.getEventCount(StandardWatchEventKinds.ENTRY_DELETE);
+	}
+
+	@Override
+	public double getCreateRate() {
+		return createRate;
+	}
+
+	@Override
+	public double getModifyRate() {
+		return modifyRate;
+	}
+
+	@Override
+	public double getDeleteRate() {
+		return deleteRate;
+	}
+
+	@Override
+	public long getOverflowCount() {
+		return watcher.getOverflowCount();
+	}
+
+	@Override
+	public long getReconstructedCount() {
+		return watcher.getReconstructedCount();
+	}
+
+	@Override
+	public long getHandlerCount() {
+		return watcher.getHandlerLatency().getCount();
+	}
+
+	@Override
+	public double getHandlerMeanMicros() {
+		return watcher.getHandlerLatency().getMean() / 1000;
+	}
+
+	@Override
+	public long getHandlerP50Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(watcher.getHandlerLatency().getPercentile(50));
+	}
+
+	@Override
+	public long getHandlerP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(watcher.getHandlerLatency().getPercentile(99));
+	}
+
+	@Override
+	public long getHandlerP999Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(watcher.getHandlerLatency().getPercentile(99.9));
+	}
+
+	@Override
+	public long getHandlerMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(watcher.getHandlerLatency().getMax());
+	}
+
+	@Override
+	public int getPropertyFileCount() {
+		return handler.getPropertyTracker().size();
+	}
+
+	@Override
+	public long getPropertyBytes() {
+		return handler.getPropertyTracker().getBytes();
+	}
+
+	@Override
+	public long getScanMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(watcher.getScanNanos());
+	}
+
+	@Override
+	public long getScanFileCount() {
+		return watcher.getScanFileCount();
+	}
+
+	@Override
+	public void resetLatency() {
+		watcher.getHandlerLatency().reset();
+	}
+}
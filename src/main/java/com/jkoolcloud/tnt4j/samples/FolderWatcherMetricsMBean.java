@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+/**
+ * JMX management interface of {@link FolderWatcherMetrics}, one per watched root. Rates are events per second over
+ * the last sampling period, latencies are in microseconds.
+ *
+ * @version $Revision: 1$
+ */
+public interface FolderWatcherMetricsMBean {
+	String getRoot();
+
+	boolean isRecursive();
+
+	int getKeyCount();
+
+	int getDirectoryCount();
+
+	long getDirectoryTreeBytes();
+
+	long getEventCount();
+
+	long getCreateCount();
+
+	long getModifyCount();
+
+	long getDeleteCount();
+
+	double getCreateRate();
+
+	double getModifyRate();
+
+	double getDeleteRate();
+
+	long getOverflowCount();
+
+	long getReconstructedCount();
+
+	long getHandlerCount();
+
+	double getHandlerMeanMicros();
+
+	long getHandlerP50Micros();
+
+	long getHandlerP99Micros();
+
+	long getHandlerP999Micros();
+
+	long getHandlerMaxMicros();
+
+	int getPropertyFileCount();
+
+	long getPropertyBytes();
+
+	long getScanMillis();
+
+	long getScanFileCount();
+
+	/**
+	 * Clear handler latency histogram.
+	 */
+	void resetLatency();
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming summary of event activity per path in constant memory, regardless of the number of paths. A count-min
+ * sketch with conservative update estimates the event rate of any path, and a companion sketch keeping the latest
+ * hit time per cell estimates the time since a path was last hit. Space-saving top-K lists track the hottest files and
+ * directories. Counts decay exponentially with a given half-life (forward decay: hits are weighted by their age
+ * against a landmark, which is moved forward before weights overflow), so rates follow recent activity.
+ * <p>
+ * Estimates are never below true values: collisions only inflate counts and make last hit times more recent. Paths
+ * whose estimated rate exceeds a throttle rate are enriched with a probability bringing their enrichment rate down to
+ * the throttle rate.
+ *
+ * @version $Revision: 1$
+ */
+public class HotPathSketch {
+	private static final double MAX_WEIGHT = 1e100;
+
+	private final int depth;
+	private final int mask;
+	private final double[] counts;
+	private final long[] lastSeen;
+	private final double lambda;
+	private final long origin = System.nanoTime();
+	private long landmark = origin;
+	private double total;
+
+	private final TopK files;
+	private final TopK dirs;
+	private volatile double throttleRate;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder throttledCount = new LongAdder();
+
+	/**
+	 * Create hot path sketch.
+	 *
+	 * @param width
+	 *            counters per sketch row, rounded up to a power of 2
+	 * @param depth
+	 *            number of sketch rows
+	 * @param topK
+	 *            number of hottest files and directories tracked, 0 to track none
+	 * @param halfLifeSec
+	 *            time in seconds after which a hit counts half
+	 */
+	public HotPathSketch(int width, int depth, int topK, long halfLifeSec) {
+		int size = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+		this.depth = Math.max(1, depth);
+		this.mask = size - 1;
+		this.counts = new double[this.depth * size];
+		this.lastSeen = new long[this.depth * size];
+		this.lambda = Math.log(2) / Math.max(1, halfLifeSec);
+		this.files = new TopK(Math.max(0, topK));
+		this.dirs = new TopK(Math.max(0, topK));
+	}
+
+	/**
+	 * Set rate above which enrichment of a path is throttled.
+	 *
+	 * @param rate
+	 *            events per second per path, 0 to never throttle
+	 * @return itself
+	 */
+	public HotPathSketch setThrottleRate(double rate) {
+		this.throttleRate = rate;
+		return this;
+	}
+
+	public double getThrottleRate() {
+		return throttleRate;
+	}
+
+	/**
+	 * Record an event of a given path, counting it for the path and its parent directory.
+	 *
+	 * @param path
+	 *            event path
+	 * @return estimated nanoseconds since the path was last hit, 0 if it was not hit before
+	 */
+	public long hit(Path path) {
+		Path dir = path.getParent();
+		int h = fmix(path.hashCode());
+		int step = fmix(h ^ 0x5BD1E995) | 1;
+		hitCount.increment();
+		synchronized (this) {
+			long now = System.nanoTime();
+			double w = weight(now);
+			total += w;
+			double est = Double.MAX_VALUE;
+			long since = Long.MAX_VALUE;
+			for (int row = 0, base = 0; row < depth; row++, base += mask + 1) {
+				int i = base + ((h + row * step) & mask);
+				est = Math.min(est, counts[i]);
+				since = Math.min(since, lastSeen[i]);
+			}
+			// conservative update: raise cells only up to the new estimate
+			est += w;
+			long stamp = now - origin + 1;
+			for (int row = 0, base = 0; row < depth; row++, base += mask + 1) {
+				int i = base + ((h + row * step) & mask);
+				if (counts[i] < est) {
+					counts[i] = est;
+				}
+				lastSeen[i] = stamp;
+			}
+			files.add(path, w);
+			if (dir != null) {
+				dirs.add(dir, w);
+			}
+			return since == 0 ? 0 : stamp - since;
+		}
+	}
+
+	/**
+	 * Estimated event rate of a given path.
+	 *
+	 * @param path
+	 *            file or directory path
+	 * @return events per second, never below the true decayed rate
+	 */
+	public double rate(Path path) {
+		int h = fmix(path.hashCode());
+		int step = fmix(h ^ 0x5BD1E995) | 1;
+		synchronized (this) {
+			double est = Double.MAX_VALUE;
+			for (int row = 0, base = 0; row < depth; row++, base += mask + 1) {
+				est = Math.min(est, counts[base + ((h + row * step) & mask)]);
+			}
+			return toRate(est, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Determine if enrichment of an event of a given path should be skipped. Paths hotter than the throttle rate are
+	 * enriched with probability {@code throttleRate / rate}.
+	 *
+	 * @param path
+	 *            event path
+	 * @return true if enrichment should be skipped, false otherwise
+	 */
+	public boolean isThrottled(Path path) {
+		double max = throttleRate;
+		if (max <= 0) {
+			return false;
+		}
+		double rate = rate(path);
+		if (rate <= max || ThreadLocalRandom.current().nextDouble() * rate < max) {
+			return false;
+		}
+		throttledCount.increment();
+		return true;
+	}
+
+	/**
+	 * Estimated event rate of all paths.
+	 *
+	 * @return events per second
+	 */
+	public synchronized double getEventRate() {
+		return toRate(total, System.nanoTime());
+	}
+
+	/**
+	 * Hottest files, hottest first.
+	 *
+	 * @return list of hot files
+	 */
+	public synchronized List<Hot> getHotFiles() {
+		return files.list(System.nanoTime());
+	}
+
+	/**
+	 * Hottest directories, hottest first.
+	 *
+	 * @return list of hot directories
+	 */
+	public synchronized List<Hot> getHotDirectories() {
+		return dirs.list(System.nanoTime());
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getThrottledCount() {
+		return throttledCount.sum();
+	}
+
+	/**
+	 * Approximate memory used by sketch counters, excluding top-K paths.
+	 *
+	 * @return number of bytes
+	 */
+	public long estimateBytes() {
+		return (long) counts.length * (8 + 8);
+	}
+
+	/**
+	 * Forward decay weight of a hit at a given time, relative to the landmark. Counters are rescaled and the landmark
+	 * moved to the given time before weights grow too large.
+	 */
+	private double weight(long now) {
+		double w = Math.exp(lambda * (now - landmark) / TimeUnit.SECONDS.toNanos(1));
+		if (w > MAX_WEIGHT) {
+			double scale = 1 / w;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] *= scale;
+			}
+			total *= scale;
+			files.scale(scale);
+			dirs.scale(scale);
+			landmark = now;
+			w = 1;
+		}
+		return w;
+	}
+
+	private double toRate(double count, long now) {
+		// a steady rate r accumulates a decayed count of r / lambda
+		return count * Math.exp(-lambda * (now - landmark) / TimeUnit.SECONDS.toNanos(1)) * lambda;
+	}
+
+	private static int fmix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Hot path and its estimated event rate.
+	 */
+	public static class Hot {
+		final Path path;
+		final double rate;
+		final double error;
+
+		Hot(Path path, double rate, double error) {
+			this.path = path;
+			this.rate = rate;
+			this.error = error;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Estimated event rate, overestimated by at most {@link #getError()}.
+		 *
+		 * @return events per second
+		 */
+		public double getRate() {
+			return rate;
+		}
+
+		public double getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s=%.2f/s", path, rate);
+		}
+	}
+
+	/**
+	 * Space-saving top-K: a path not tracked replaces the coldest one and inherits its count as error. Entries are
+	 * kept in a min-heap on count.
+	 */
+	private class TopK {
+		private final Entry[] heap;
+		private final Map<Path, Entry> entries;
+		private int size;
+
+		TopK(int k) {
+			heap = new Entry[k];
+			entries = new HashMap<Path, Entry>(k * 2);
+		}
+
+		void add(Path path, double w) {
+			if (heap.length == 0) {
+				return;
+			}
+			Entry e = entries.get(path);
+			if (e != null) {
+				e.count += w;
+			} else if (size < heap.length) {
+				e = new Entry(path, w, 0);
+				e.index = size;
+				heap[size++] = e;
+				entries.put(path, e);
+				siftUp(e.index);
+				return;
+			} else {
+				e = heap[0];
+				entries.remove(e.path);
+				e.path = path;
+				e.error = e.count;
+				e.count += w;
+				entries.put(path, e);
+			}
+			siftDown(e.index);
+		}
+
+		void scale(double factor) {
+			for (int i = 0; i < size; i++) {
+				heap[i].count *= factor;
+				heap[i].error *= factor;
+			}
+		}
+
+		List<Hot> list(long now) {
+			Entry[] sorted = Arrays.copyOf(heap, size);
+			Arrays.sort(sorted, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry e1, Entry e2) {
+					return Double.compare(e2.count, e1.count);
+				}
+			});
+			List<Hot> list = new ArrayList<Hot>(size);
+			for (Entry e : sorted) {
+				list.add(new Hot(e.path, toRate(e.count, now), toRate(e.error, now)));
+			}
+			return Collections.unmodifiableList(list);
+		}
+
+		private void siftUp(int i) {
+			Entry e = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heap[parent].count <= e.count) {
+					break;
+				}
+				place(heap[parent], i);
+				i = parent;
+			}
+			place(e, i);
+		}
+
+		private void siftDown(int i) {
+			Entry e = heap[i];
+			for (;;) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+					child++;
+				}
+				if (e.count <= heap[child].count) {
+					break;
+				}
+				place(heap[child], i);
+				i = child;
+			}
+			place(e, i);
+		}
+
+		private void place(Entry e, int i) {
+			heap[i] = e;
+			e.index = i;
+		}
+	}
+
+	private static class Entry {
+		Path path;
+		double count;
+		double error;
+		int index;
+
+		Entry(Path path, double count, double error) {
+			this.path = path;
+			this.count = count;
+			this.error = error;
+		}
+	}
+}
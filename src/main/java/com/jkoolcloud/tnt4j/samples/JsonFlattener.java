@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * {@link ContentFlattener} for JSON, using a streaming tokenizer. Object members are flattened as
+ * {@code parent.member}, array elements as {@code parent[index]}, empty objects and arrays as {@code {}} and
+ * {@code []} values.
+ *
+ * @version $Revision: 1$
+ */
+public class JsonFlattener implements ContentFlattener {
+	private static final int MAX_DEPTH = 256;
+
+	@Override
+	public void flatten(InputStream in, Properties out, int maxEntries) throws IOException {
+		Parser parser = new Parser(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), out,
+				maxEntries);
+		try {
+			parser.value("", 0);
+		} catch (LimitReachedException e) {
+		}
+	}
+
+	private static class Parser {
+		final Reader in;
+		final Properties out;
+		final int maxEntries;
+		final StringBuilder buf = new StringBuilder();
+		int next = -2;
+
+		Parser(Reader in, Properties out, int maxEntries) {
+			this.in = in;
+			this.out = out;
+			this.maxEntries = maxEntries;
+		}
+
+		int peek() throws IOException {
+			if (next == -2) {
+				next = in.read();
+			}
+			return next;
+		}
+
+		int read() throws IOException {
+			int c = peek();
+			next = -2;
+			return c;
+		}
+
+		int skipWhitespace() throws IOException {
+			int c = peek();
+			while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				read();
+				c = peek();
+			}
+			return c;
+		}
+
+		void expect(char ch) throws IOException {
+			int c = skipWhitespace();
+			if (c != ch) {
+				throw new IOException("Expected '" + ch + "' but found " + describe(c));
+			}
+			read();
+		}
+
+		void put(String path, String value) {
+			out.put(path, ContentFlatteners.clip(value));
+			if (out.size() >= maxEntries) {
+				throw LimitReachedException.INSTANCE;
+			}
+		}
+
+		void value(String path, int depth) throws IOException {
+			if (depth > MAX_DEPTH) {
+				throw new IOException("JSON nesting deeper than " + MAX_DEPTH);
+			}
+			int c = skipWhitespace();
+			if (c == '{') {
+				read();
+				object(path, depth);
+			} else if (c == '[') {
+				read();
+				array(path, depth);
+			} else if (c == '"') {
+				read();
+				put(path, string());
+			} else if (c == -1) {
+				if (depth > 0) {
+					throw new IOException("Unexpected end of JSON");
+				}
+			} else {
+				put(path, literal());
+			}
+		}
+
+		void object(String path, int depth) throws IOException {
+			if (skipWhitespace() == '}') {
+				read();
+				put(path, "{}");
+				return;
+			}
+			for (;;) {
+				expect('"');
+				String key = string();
+				expect(':');
+				value(ContentFlatteners.join(path, key), depth + 1);
+				int c = skipWhitespace();
+				read();
+				if (c == '}') {
+					return;
+				} else if (c != ',') {
+					throw new IOException("Expected ',' or '}' but found " + describe(c));
+				}
+			}
+		}
+
+		void array(String path, int depth) throws IOException {
+			if (skipWhitespace() == ']') {
+				read();
+				put(path, "[]");
+				return;
+			}
+			for (int index = 0;; index++) {
+				value(path + "[" + index + "]", depth + 1);
+				int c = skipWhitespace();
+				read();
+				if (c == ']') {
+					return;
+				} else if (c != ',') {
+					throw new IOException("Expected ',' or ']' but found " + describe(c));
+				}
+			}
+		}
+
+		String string() throws IOException {
+			buf.setLength(0);
+			for (;;) {
+				int c = read();
+				if (c == '"') {
+					return buf.toString();
+				} else if (c == -1) {
+					throw new IOException("Unterminated JSON string");
+				} else if (c == '\\') {
+					c = read();
+					switch (c) {
+					case 'b':
+						c = '\b';
+						break;
+					case 'f':
+						c = '\f';
+						break;
+					case 'n':
+						c = '\n';
+						break;
+					case 'r':
+						c = '\r';
+						break;
+					case 't':
+						c = '\t';
+						break;
+					case 'u':
+						char[] hex = new char[4];
+						for (int i = 0; i < hex.length; i++) {
+							hex[i] = (char) read();
+						}
+						try {
+							c = Integer.parseInt(new String(hex), 16);
+						} catch (NumberFormatException e) {
+							throw new IOException("Invalid JSON escape \\u" + new String(hex));
+						}
+						break;
+					default:
+						break;
+					}
+				}
+				if (buf.length() <= MAX_VALUE_LENGTH) {
+					buf.append((char) c);
+				}
+			}
+		}
+
+		String literal() throws IOException {
+			buf.setLength(0);
+			int c = peek();
+			while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				buf.append((char) read());
+				if (buf.length() > MAX_VALUE_LENGTH) {
+					throw new IOException("Invalid JSON literal");
+				}
+				c = peek();
+			}
+			if (buf.length() == 0) {
+				throw new IOException("Unexpected " + describe(c));
+			}
+			return buf.toString();
+		}
+
+		static String describe(int c) {
+			return c == -1 ? "end of input" : "'" + (char) c + "'";
+		}
+	}
+
+	/**
+	 * Thrown to stop parsing once the maximum number of entries is reached.
+	 */
+	static class LimitReachedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		static final LimitReachedException INSTANCE = new LimitReachedException();
+
+		private LimitReachedException() {
+			super("Entry limit reached", null, false, false);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values such as latencies in nanoseconds. Every power of 2 range is
+ * split into {@code 2^precisionBits} linear buckets, so recorded values are kept with a relative error below
+ * {@code 2^-precisionBits} in a fixed amount of memory. Recording takes no locks and allocates nothing.
+ *
+ * @version $Revision: 1$
+ */
+public class LatencyHistogram {
+	private final int subBits;
+	private final int subCount;
+	private final AtomicLongArray counts;
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Create histogram with about 3% precision.
+	 */
+	public LatencyHistogram() {
+		this(5);
+	}
+
+	/**
+	 * Create histogram with a given precision.
+	 *
+	 * @param precisionBits
+	 *            number of bits of linear precision within every power of 2, 1 to 10
+	 */
+	public LatencyHistogram(int precisionBits) {
+		this.subBits = Math.max(1, Math.min(10, precisionBits));
+		this.subCount = 1 << subBits;
+		this.counts = new AtomicLongArray((64 - subBits) * subCount);
+	}
+
+	/**
+	 * Record a value, negative values are recorded as 0.
+	 *
+	 * @param value
+	 *            value to record
+	 */
+	public void record(long value) {
+		long v = Math.max(0, value);
+		counts.incrementAndGet(indexOf(v));
+		total.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	private int indexOf(long v) {
+		if (v < subCount) {
+			return (int) v;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(v) - subBits;
+		return ((shift + 1) << subBits) + (int) ((v >>> shift) - subCount);
+	}
+
+	/**
+	 * Highest value falling into a given bucket.
+	 */
+	private long highestOf(int index) {
+		if (index < subCount) {
+			return index;
+		}
+		int shift = (index >>> subBits) - 1;
+		long sub = index & (subCount - 1);
+		return ((subCount + sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Get value at a given percentile.
+	 *
+	 * @param percentile
+	 *            percentile, 0 to 100
+	 * @return highest value of the bucket the percentile falls into, capped by the maximum recorded value
+	 */
+	public long getPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return total.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = total.sum();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * Clear all recorded values. Values recorded while clearing may be partly lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+}
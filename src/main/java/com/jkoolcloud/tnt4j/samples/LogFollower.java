@@ -0,0 +1,495 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * This class follows appended content of log files, like {@code tail -F}. A read offset is kept per file and only
+ * bytes past it are read, through a {@link FileChannel} into a pooled direct buffer, so there are only as many
+ * buffers as concurrent readers, even with a virtual thread per root. Complete lines are collected into batches and
+ * each batch is decoded into a single string, so there is no allocation per line. The offset only advances past
+ * complete lines, so a partly written last line is read again once it is complete; lines longer than the maximum line
+ * length are split.
+ * <p>
+ * A file whose file key changed since it was last read (rotated and recreated) or which became shorter than its offset
+ * (truncated) is read again from its start. Offsets can be saved to a file periodically and on close, so a restart
+ * resumes where it stopped, provided the file key is unchanged. Files first seen while scanning are followed from
+ * their end, files created while watching from their start.
+ * <p>
+ * Files are read without holding a lock, so readers on virtual threads don't pin their carriers and saving offsets
+ * is not held up by reads. Only one thread reads a given file at a time: a follow call arriving while the file is
+ * being read has the reading thread read again once it is done.
+ *
+ * @version $Revision: 1$
+ */
+public class LogFollower implements Closeable {
+	private static final int MAGIC = 0x544E5446; // TNTF
+	private static final int VERSION = 1;
+
+	private final PathFilterEngine.SuffixTrie extList;
+	private final int batchLines;
+	private final int maxLineLength;
+	private final int bufferSize;
+	private final Path offsetsFile;
+	private final Map<Path, FileState> files = new ConcurrentHashMap<Path, FileState>();
+	private final Queue<Reader> readers = new ConcurrentLinkedQueue<Reader>();
+	private ScheduledExecutorService timer;
+
+	private final LongAdder lineCount = new LongAdder();
+	private final LongAdder byteCount = new LongAdder();
+	private final LongAdder resetCount = new LongAdder();
+
+	/**
+	 * Receives batches of lines read from a followed file.
+	 */
+	public interface LineListener {
+		/**
+		 * Handle a batch of complete lines.
+		 *
+		 * @param file
+		 *            followed file
+		 * @param lines
+		 *            lines separated by {@code '\n'}, without line terminators
+		 * @param count
+		 *            number of lines
+		 * @param offset
+		 *            offset of the first line in file
+		 * @param end
+		 *            offset following the last line
+		 * @param reset
+		 *            true if file was rotated or truncated since it was last read
+		 */
+		void linesRead(Path file, String lines, int count, long offset, long end, boolean reset);
+	}
+
+	/**
+	 * Create log follower.
+	 *
+	 * @param exts
+	 *            followed file extensions separated by {@code ;}
+	 * @param batchLines
+	 *            maximum number of lines per batch
+	 * @param maxLineLength
+	 *            maximum line length in bytes, longer lines are split
+	 * @param bufferSize
+	 *            size of each pooled direct read buffer
+	 * @param offsetsFile
+	 *            file offsets are saved to and restored from, null to keep offsets in memory only
+	 * @param saveSec
+	 *            how often offsets are saved, in seconds
+	 * @throws IOException
+	 *             if saved offsets can't be read
+	 */
+	public LogFollower(String exts, int batchLines, int maxLineLength, int bufferSize, Path offsetsFile, long saveSec)
+			throws IOException {
+		List<String> suffixes = new ArrayList<String>();
+		for (String ext : exts.split(";")) {
+			if (!ext.isEmpty()) {
+				suffixes.add(ext);
+			}
+		}
+		this.extList = new PathFilterEngine.SuffixTrie(suffixes);
+		this.batchLines = Math.max(1, batchLines);
+		this.maxLineLength = Math.max(1, maxLineLength);
+		this.bufferSize = Math.max(this.maxLineLength + 1, bufferSize);
+		this.offsetsFile = offsetsFile;
+		if (offsetsFile != null) {
+			load();
+			timer = Executors.newSingleThreadScheduledExecutor(new WatchMultiplexer.NamedThreadFactory("LogFollower"));
+			long period = Math.max(1, saveSec);
+			timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						save();
+					} catch (IOException e) {
+					}
+				}
+			}, period, period, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Whether a given file is followed, based on its extension.
+	 *
+	 * @param file
+	 *            file path
+	 * @return true if file is followed
+	 */
+	public boolean accepts(Path file) {
+		Path name = file.getFileName();
+		if (name == null) {
+			return false;
+		}
+		return extList.matches(name.toString());
+	}
+
+	/**
+	 * Start following a file found while scanning, from its end unless a saved offset for the same file exists.
+	 *
+	 * @param file
+	 *            file path
+	 * @param attrs
+	 *            file attributes
+	 */
+	public void seed(Path file, BasicFileAttributes attrs) {
+		String key = String.valueOf(attrs.fileKey());
+		FileState state = files.get(file);
+		if (state == null || !state.fileKey.equals(key) || state.offset > attrs.size()) {
+			files.put(file, new FileState(key, attrs.size()));
+		}
+	}
+
+	/**
+	 * Stop following a file.
+	 *
+	 * @param file
+	 *            file path
+	 */
+	public void remove(Path file) {
+		files.remove(file);
+	}
+
+	/**
+	 * Keep following files of a moved file or directory from their current offsets. Moved files no longer followed
+	 * are dropped.
+	 *
+	 * @param from
+	 *            path before the move
+	 * @param to
+	 *            path after the move
+	 */
+	public void move(Path from, Path to) {
+		for (Path file : new ArrayList<Path>(files.keySet())) {
+			if (file.startsWith(from)) {
+				FileState state = files.remove(file);
+				Path target = to.resolve(from.relativize(file));
+				if (state != null && accepts(target)) {
+					files.put(target, state);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read lines appended to a file since it was last read and pass them on in batches.
+	 *
+	 * @param file
+	 *            file path
+	 * @param listener
+	 *            listener receiving batches of lines
+	 * @return number of lines read
+	 * @throws IOException
+	 *             if file can't be read
+	 */
+	public int follow(Path file, LineListener listener) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			files.remove(file);
+			return 0;
+		}
+		if (!attrs.isRegularFile()) {
+			return 0;
+		}
+		String key = String.valueOf(attrs.fileKey());
+		FileState state = files.get(file);
+		if (state == null) {
+			state = new FileState(key, 0);
+			FileState prev = files.putIfAbsent(file, state);
+			state = prev == null ? state : prev;
+		}
+		synchronized (state) {
+			if (state.reading) {
+				// the reading thread reads again for this call
+				state.pending = true;
+				return 0;
+			}
+			state.reading = true;
+		}
+		int lines = 0;
+		boolean done = false;
+		try {
+			for (;;) {
+				lines += read(file, attrs, state, listener);
+				synchronized (state) {
+					if (!state.pending) {
+						state.reading = false;
+						done = true;
+						return lines;
+					}
+					state.pending = false;
+				}
+				attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+		} finally {
+			if (!done) {
+				synchronized (state) {
+					state.reading = state.pending = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a file past its offset, only copying the offset in and publishing it back under the state lock.
+	 */
+	private int read(Path file, BasicFileAttributes attrs, FileState state, LineListener listener)
+			throws IOException {
+		String key = String.valueOf(attrs.fileKey());
+		boolean reset = false;
+		long offset;
+		synchronized (state) {
+			if (!state.fileKey.equals(key) || attrs.size() < state.offset) {
+				state.fileKey = key;
+				state.offset = 0;
+				resetCount.increment();
+				reset = true;
+			}
+			offset = state.offset;
+		}
+		if (attrs.size() == offset) {
+			return 0;
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			Reader reader = readers.poll();
+			if (reader == null) {
+				reader = new Reader(bufferSize);
+			}
+			try {
+				return reader.read(file, channel, state, offset, reset, listener);
+			} finally {
+				readers.offer(reader);
+			}
+		} finally {
+			Utils.close(channel);
+		}
+	}
+
+	public int size() {
+		return files.size();
+	}
+
+	public long getLineCount() {
+		return lineCount.sum();
+	}
+
+	public long getByteCount() {
+		return byteCount.sum();
+	}
+
+	/**
+	 * Number of times a file was read again from its start, after rotation or truncation.
+	 *
+	 * @return number of resets
+	 */
+	public long getResetCount() {
+		return resetCount.sum();
+	}
+
+	private void load() throws IOException {
+		if (!Files.exists(offsetsFile)) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(offsetsFile)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				System.out.format("Follow offsets reset: file=%s, reason=unknown format\n", offsetsFile);
+				return;
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				Path file = offsetsFile.getFileSystem().getPath(in.readUTF());
+				String key = in.readUTF();
+				files.put(file, new FileState(key, in.readLong()));
+			}
+		} catch (EOFException e) {
+		} finally {
+			Utils.close(in);
+		}
+	}
+
+	/**
+	 * Save current offsets of all followed files, replacing the offsets file atomically.
+	 *
+	 * @throws IOException
+	 *             if offsets can't be written
+	 */
+	public synchronized void save() throws IOException {
+		if (offsetsFile == null) {
+			return;
+		}
+		Path tmp = offsetsFile.resolveSibling(offsetsFile.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			Map<Path, FileState> copy = new HashMap<Path, FileState>(files);
+			out.writeInt(copy.size());
+			for (Map.Entry<Path, FileState> entry : copy.entrySet()) {
+				FileState state = entry.getValue();
+				synchronized (state) {
+					out.writeUTF(entry.getKey().toString());
+					out.writeUTF(state.fileKey);
+					out.writeLong(state.offset);
+				}
+			}
+		} finally {
+			Utils.close(out);
+		}
+		Files.move(tmp, offsetsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Stop periodic saving and save current offsets.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (timer != null) {
+			timer.shutdown();
+		}
+		save();
+	}
+
+	private static class FileState {
+		String fileKey;
+		long offset;
+		boolean reading;
+		boolean pending;
+
+		FileState(String fileKey, long offset) {
+			this.fileKey = fileKey;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Pooled read buffers: a direct buffer bytes are read into and a heap array a batch of lines is collected in.
+	 */
+	private class Reader {
+		final ByteBuffer buf;
+		final byte[] batch;
+		int batchLength;
+		int batchCount;
+
+		Reader(int bufferSize) {
+			this.buf = ByteBuffer.allocateDirect(bufferSize);
+			this.batch = new byte[bufferSize];
+		}
+
+		int read(Path file, FileChannel channel, FileState state, long offset, boolean reset, LineListener listener)
+				throws IOException {
+			int lines = 0;
+			long batchStart = offset;
+			batchLength = 0;
+			batchCount = 0;
+			for (;;) {
+				buf.clear();
+				int n = channel.read(buf, offset);
+				if (n <= 0) {
+					break;
+				}
+				buf.flip();
+				int lineStart = 0;
+				int consumed = 0;
+				for (int i = 0; i < n; i++) {
+					boolean newline = buf.get(i) == '\n';
+					if (newline || i - lineStart + 1 >= maxLineLength) {
+						int end = newline ? i : i + 1;
+						if (end > lineStart && buf.get(end - 1) == '\r') {
+							end--;
+						}
+						append(lineStart, end);
+						lineStart = consumed = i + 1;
+						lines++;
+						if (batchCount >= batchLines || batchLength + maxLineLength + 1 > batch.length) {
+							long batchEnd = offset + consumed;
+							emit(file, state, batchStart, batchEnd, reset, listener);
+							reset = false;
+							batchStart = batchEnd;
+						}
+					}
+				}
+				if (consumed == 0) {
+					break; // only a partial line is left
+				}
+				offset += consumed;
+				byteCount.add(consumed);
+			}
+			if (batchCount > 0) {
+				emit(file, state, batchStart, offset, reset, listener);
+			}
+			lineCount.add(lines);
+			return lines;
+		}
+
+		private void append(int start, int end) {
+			if (batchCount > 0) {
+				batch[batchLength++] = '\n';
+			}
+			ByteBuffer line = buf.duplicate();
+			line.position(start).limit(end);
+			int len = end - start;
+			line.get(batch, batchLength, len);
+			batchLength += len;
+			batchCount++;
+		}
+
+		/**
+		 * Pass a batch on and publish the offset past it, so saved offsets only cover delivered lines.
+		 */
+		private void emit(Path file, FileState state, long start, long end, boolean reset, LineListener listener) {
+			listener.linesRead(file, new String(batch, 0, batchLength, StandardCharsets.UTF_8), batchCount, start, end,
+					reset);
+			batchLength = 0;
+			batchCount = 0;
+			synchronized (state) {
+				state.offset = end;
+			}
+		}
+	}
+}
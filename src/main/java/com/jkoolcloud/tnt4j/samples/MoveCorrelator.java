@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class detects moves and renames inside a watched tree, which watch services report as a delete followed or
+ * preceded by a create, by matching both paths on their file key
+ * ({@link java.nio.file.attribute.BasicFileAttributes#fileKey()}, the inode on Unix). File keys of scanned and created
+ * paths are remembered, up to a maximum number of least recently used ones. A delete of a path with a known file key
+ * is held for a short window; a create of a path with the same file key within the window is a move. A create may
+ * also arrive first, when source and target directories are signalled in a different order: it is a move if its file
+ * key was last seen at a path which no longer exists, and the delete arriving later is dropped.
+ * <p>
+ * Deletes not matched within the window are passed on as deletes. File systems without file keys report no moves.
+ *
+ * @version $Revision: 1$
+ */
+public class MoveCorrelator {
+	private final DirectoryTree tree;
+	private final long windowNanos;
+	private final int maxEntries;
+	private final LinkedHashMap<Name, Object> keysByPath;
+	private final Map<Object, Name> pathsByKey = new HashMap<Object, Name>();
+	private final LinkedHashMap<Object, Pending> pendingDeletes = new LinkedHashMap<Object, Pending>();
+	private final LinkedHashMap<Path, Long> expectedDeletes = new LinkedHashMap<Path, Long>();
+
+	private final LongAdder movedCount = new LongAdder();
+	private final LongAdder unmatchedCount = new LongAdder();
+
+	/**
+	 * Create move correlator for paths in directories of a given tree. Paths are remembered by their directory node
+	 * and name, so they take little memory and follow their directory when it is moved.
+	 *
+	 * @param tree
+	 *            tree of watched directories
+	 * @param windowMs
+	 *            how long a delete is held waiting for a matching create, in milliseconds
+	 * @param maxEntries
+	 *            maximum number of remembered file keys
+	 */
+	public MoveCorrelator(DirectoryTree tree, long windowMs, int maxEntries) {
+		this.tree = tree;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+		this.maxEntries = Math.max(1, maxEntries);
+		this.keysByPath = new LinkedHashMap<Name, Object>(256, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Name, Object> eldest) {
+				if (size() > MoveCorrelator.this.maxEntries) {
+					pathsByKey.remove(eldest.getValue(), eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Remember file key of a path, as found by a scan or after a create. Paths in directories not in the tree are not
+	 * remembered.
+	 *
+	 * @param path
+	 *            file or directory path
+	 * @param fileKey
+	 *            file key, null if not supported
+	 */
+	public synchronized void remember(Path path, Object fileKey) {
+		remember(nameOf(tree.nodeOf(path.getParent()), path), fileKey);
+	}
+
+	private void remember(Name name, Object fileKey) {
+		if (fileKey == null || name == null) {
+			return;
+		}
+		Object prev = keysByPath.put(name, fileKey);
+		if (prev != null && !prev.equals(fileKey)) {
+			pathsByKey.remove(prev, name);
+		}
+		pathsByKey.put(fileKey, name);
+	}
+
+	private Object forget(Name name) {
+		Object fileKey = name == null ? null : keysByPath.remove(name);
+		if (fileKey != null) {
+			pathsByKey.remove(fileKey, name);
+		}
+		return fileKey;
+	}
+
+	private static Name nameOf(DirectoryTree.Node dir, Path path) {
+		return dir == null || path.getFileName() == null ? null : new Name(dir, path.getFileName().toString());
+	}
+
+	/**
+	 * Hold a delete event while waiting for a matching create.
+	 *
+	 * @param dirKey
+	 *            watch key of the directory the event was signalled for, which still resolves to its node when the
+	 *            directory was removed meanwhile
+	 * @param event
+	 *            delete event
+	 * @param dir
+	 *            directory the event context is relative to
+	 * @return true if event is held or was already reported as a move, false if it should be passed on
+	 */
+	public synchronized boolean holdDelete(WatchKey dirKey, WatchEvent<Path> event, Path dir) {
+		Path path = dir.resolve(event.context());
+		if (expectedDeletes.remove(path) != null) {
+			return true;
+		}
+		DirectoryTree.Node node = dirKey == null ? null : tree.nodeOf(dirKey);
+		Object fileKey = forget(nameOf(node == null ? tree.nodeOf(dir) : node, path));
+		if (fileKey == null) {
+			return false;
+		}
+		if (pendingDeletes.containsKey(fileKey)) {
+			return false; // same file key deleted twice, the first delete is still held
+		}
+		pendingDeletes.put(fileKey, new Pending(dir, event, tree.keyOf(path)));
+		return true;
+	}
+
+	/**
+	 * Match a created path against held deletes and remembered paths.
+	 *
+	 * @param path
+	 *            created path
+	 * @param fileKey
+	 *            file key of created path, null if not supported
+	 * @return path the created path was moved from, null if it is a new path
+	 */
+	public Path matchCreate(Path path, Object fileKey) {
+		if (fileKey == null) {
+			return null;
+		}
+		Name name = nameOf(tree.nodeOf(path.getParent()), path);
+		Name known;
+		Path source;
+		synchronized (this) {
+			Pending pending = pendingDeletes.remove(fileKey);
+			if (pending != null) {
+				source = pending.dir.resolve(pending.event.context());
+				remember(name, fileKey);
+				movedCount.increment();
+				return source;
+			}
+			known = pathsByKey.get(fileKey);
+			source = known == null ? null : tree.pathOf(known.dir, known.name);
+		}
+		if (source == null || source.equals(path) || Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+			// new path, or another link to the same file
+			synchronized (this) {
+				remember(name, fileKey);
+			}
+			return null;
+		}
+		synchronized (this) {
+			Pending pending = pendingDeletes.remove(fileKey);
+			if (pending != null) {
+				// delete of source arrived meanwhile
+				source = pending.dir.resolve(pending.event.context());
+			} else if (known.equals(pathsByKey.get(fileKey))) {
+				forget(known);
+				expectedDeletes.put(source, System.nanoTime() + windowNanos);
+			} else {
+				remember(name, fileKey);
+				return null;
+			}
+			remember(name, fileKey);
+			movedCount.increment();
+			return source;
+		}
+	}
+
+	/**
+	 * Remove held deletes which were not matched within the window.
+	 *
+	 * @param all
+	 *            true to remove all held deletes regardless of their age
+	 * @return expired deletes, to be passed on as deletes
+	 */
+	public synchronized List<Pending> expire(boolean all) {
+		List<Pending> expired = new ArrayList<Pending>();
+		long now = System.nanoTime();
+		Iterator<Pending> it = pendingDeletes.values().iterator();
+		while (it.hasNext()) {
+			Pending pending = it.next();
+			if (!all && now - pending.since < windowNanos) {
+				break;
+			}
+			expired.add(pending);
+			it.remove();
+		}
+		Iterator<Long> deadlines = expectedDeletes.values().iterator();
+		while (deadlines.hasNext()) {
+			long deadline = deadlines.next();
+			if (!all && now - deadline < 0) {
+				break;
+			}
+			deadlines.remove();
+		}
+		unmatchedCount.add(expired.size());
+		return expired;
+	}
+
+	public long getWindowMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+	}
+
+	/**
+	 * Number of moves detected so far.
+	 *
+	 * @return number of moves
+	 */
+	public long getMovedCount() {
+		return movedCount.sum();
+	}
+
+	/**
+	 * Number of held deletes passed on as deletes, without a matching create.
+	 *
+	 * @return number of unmatched deletes
+	 */
+	public long getUnmatchedCount() {
+		return unmatchedCount.sum();
+	}
+
+	public synchronized int size() {
+		return keysByPath.size();
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingDeletes.size();
+	}
+
+	/**
+	 * Delete event held while waiting for a matching create.
+	 */
+	public static class Pending {
+		final Path dir;
+		final WatchEvent<Path> event;
+		final WatchKey key;
+		final long since = System.nanoTime();
+
+		Pending(Path dir, WatchEvent<Path> event, WatchKey key) {
+			this.dir = dir;
+			this.event = event;
+			this.key = key;
+		}
+
+		public Path getDir() {
+			return dir;
+		}
+
+		public WatchEvent<Path> getEvent() {
+			return event;
+		}
+
+		/**
+		 * Watch key the deleted path had when the delete was held, if it is a directory in the tree.
+		 *
+		 * @return watch key, null if none
+		 */
+		public WatchKey getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * Remembered path: a directory node and a name in it.
+	 */
+	private static final class Name {
+		final DirectoryTree.Node dir;
+		final String name;
+
+		Name(DirectoryTree.Node dir, String name) {
+			this.dir = dir;
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Name)) {
+				return false;
+			}
+			Name other = (Name) obj;
+			return dir == other.dir && name.equals(other.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(dir) * 31 + name.hashCode();
+		}
+	}
+}
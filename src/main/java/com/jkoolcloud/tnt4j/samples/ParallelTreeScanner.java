@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class walks a file tree the same way {@link Files#walkFileTree(Path, FileVisitor)} does, but visits
+ * subdirectories in parallel using fork-join work stealing. The visitor must be thread safe. Time spent listing
+ * directories, in {@link FileVisitor#preVisitDirectory(Object, BasicFileAttributes)} and in
+ * {@link FileVisitor#visitFile(Object, BasicFileAttributes)} is accumulated across all threads, so per-phase costs
+ * can be reported. A parallelism of 1 falls back to a sequential {@link Files#walkFileTree(Path, FileVisitor)}, where
+ * listing time is the time the walk spends outside of the visitor.
+ *
+ * @version $Revision: 1$
+ */
+public class ParallelTreeScanner {
+	private static final int FILE_BATCH_SIZE = 256;
+	private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+
+	private final ForkJoinPool pool;
+
+	private final LongAdder dirCount = new LongAdder();
+	private final LongAdder fileCount = new LongAdder();
+	private final LongAdder listNanos = new LongAdder();
+	private final LongAdder registerNanos = new LongAdder();
+	private final LongAdder visitNanos = new LongAdder();
+	private long elapsedNanos;
+
+	/**
+	 * Create scanner with a given parallelism.
+	 *
+	 * @param parallelism
+	 *            number of scanning threads, 1 for a sequential scan
+	 */
+	public ParallelTreeScanner(int parallelism) {
+		this.pool = parallelism > 1 ? getPool(parallelism) : null;
+	}
+
+	/**
+	 * Obtain pool shared by scanners of the same parallelism, so roots scanned with different settings each get the
+	 * number of threads they asked for.
+	 */
+	private static synchronized ForkJoinPool getPool(int parallelism) {
+		ForkJoinPool pool = POOLS.get(parallelism);
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+			POOLS.put(parallelism, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Walk a file tree starting at a given directory.
+	 *
+	 * @param start
+	 *            starting directory
+	 * @param visitor
+	 *            thread safe file visitor
+	 * @throws IOException
+	 *             first I/O error raised by the visitor
+	 */
+	public void scan(Path start, FileVisitor<Path> visitor) throws IOException {
+		long begin = System.nanoTime();
+		try {
+			TimedVisitor timed = new TimedVisitor(visitor);
+			if (pool == null) {
+				// directories are listed by the walk itself, between visitor calls
+				long callbackNanos = registerNanos.sum() + visitNanos.sum();
+				long walkBegin = System.nanoTime();
+				try {
+					Files.walkFileTree(start, timed);
+				} finally {
+					callbackNanos = registerNanos.sum() + visitNanos.sum() - callbackNanos;
+					listNanos.add(Math.max(0, System.nanoTime() - walkBegin - callbackNanos));
+				}
+				return;
+			}
+			BasicFileAttributes attrs = Files.readAttributes(start, BasicFileAttributes.class);
+			if (!attrs.isDirectory()) {
+				timed.visitFile(start, attrs);
+				return;
+			}
+			AtomicReference<IOException> error = new AtomicReference<IOException>();
+			pool.invoke(new DirectoryTask(start, attrs, timed, error));
+			if (error.get() != null) {
+				throw error.get();
+			}
+		} finally {
+			elapsedNanos += System.nanoTime() - begin;
+		}
+	}
+
+	public boolean isParallel() {
+		return pool != null;
+	}
+
+	public long getDirCount() {
+		return dirCount.sum();
+	}
+
+	public long getFileCount() {
+		return fileCount.sum();
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getListNanos() {
+		return listNanos.sum();
+	}
+
+	public long getRegisterNanos() {
+		return registerNanos.sum();
+	}
+
+	public long getVisitNanos() {
+		return visitNanos.sum();
+	}
+
+	private class TimedVisitor implements FileVisitor<Path> {
+		final FileVisitor<Path> visitor;
+
+		TimedVisitor(FileVisitor<Path> visitor) {
+			this.visitor = visitor;
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+			long begin = System.nanoTime();
+			try {
+				dirCount.increment();
+				return visitor.preVisitDirectory(dir, attrs);
+			} finally {
+				registerNanos.add(System.nanoTime() - begin);
+			}
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			long begin = System.nanoTime();
+			try {
+				fileCount.increment();
+				return visitor.visitFile(file, attrs);
+			} finally {
+				visitNanos.add(System.nanoTime() - begin);
+			}
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+			return visitor.visitFileFailed(file, exc);
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+			return visitor.postVisitDirectory(dir, exc);
+		}
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Path dir;
+		final BasicFileAttributes attrs;
+		final FileVisitor<Path> visitor;
+		final AtomicReference<IOException> error;
+
+		DirectoryTask(Path dir, BasicFileAttributes attrs, FileVisitor<Path> visitor,
+				AtomicReference<IOException> error) {
+			this.dir = dir;
+			this.attrs = attrs;
+			this.visitor = visitor;
+			this.error = error;
+		}
+
+		@Override
+		protected void compute() {
+			if (error.get() != null) {
+				return;
+			}
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			IOException failure = null;
+			try {
+				if (visitor.preVisitDirectory(dir, attrs) != FileVisitResult.CONTINUE) {
+					return;
+				}
+				List<Path> files = new ArrayList<Path>();
+				List<BasicFileAttributes> fileAttrs = new ArrayList<BasicFileAttributes>();
+				long begin = System.nanoTime();
+				DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+				try {
+					for (Path child : stream) {
+						BasicFileAttributes childAttrs;
+						try {
+							childAttrs = Files.readAttributes(child, BasicFileAttributes.class,
+									LinkOption.NOFOLLOW_LINKS);
+						} catch (IOException e) {
+							visitor.visitFileFailed(child, e);
+							continue;
+						}
+						if (childAttrs.isDirectory()) {
+							tasks.add(new DirectoryTask(child, childAttrs, visitor, error));
+						} else {
+							files.add(child);
+							fileAttrs.add(childAttrs);
+							if (files.size() >= FILE_BATCH_SIZE) {
+								tasks.add(new FileBatchTask(files, fileAttrs, visitor, error));
+								files = new ArrayList<Path>();
+								fileAttrs = new ArrayList<BasicFileAttributes>();
+							}
+						}
+					}
+				} finally {
+					stream.close();
+					listNanos.add(System.nanoTime() - begin);
+				}
+				if (!files.isEmpty()) {
+					tasks.add(new FileBatchTask(files, fileAttrs, visitor, error));
+				}
+			} catch (DirectoryIteratorException e) {
+				failure = e.getCause();
+			} catch (IOException e) {
+				failure = e;
+			}
+			try {
+				if (failure != null && tasks.isEmpty()) {
+					visitor.visitFileFailed(dir, failure);
+					return;
+				}
+				invokeAll(tasks);
+				visitor.postVisitDirectory(dir, failure);
+			} catch (IOException e) {
+				error.compareAndSet(null, e);
+			}
+		}
+	}
+
+	private static class FileBatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final List<Path> files;
+		final List<BasicFileAttributes> attrs;
+		final FileVisitor<Path> visitor;
+		final AtomicReference<IOException> error;
+
+		FileBatchTask(List<Path> files, List<BasicFileAttributes> attrs, FileVisitor<Path> visitor,
+				AtomicReference<IOException> error) {
+			this.files = files;
+			this.attrs = attrs;
+			this.visitor = visitor;
+			this.error = error;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = 0; i < files.size() && error.get() == null; i++) {
+				try {
+					visitor.visitFile(files.get(i), attrs.get(i));
+				} catch (IOException e) {
+					error.compareAndSet(null, e);
+				}
+			}
+		}
+	}
+}
@@ -15,8 +15,17 @@
  */
 package com.jkoolcloud.tnt4j.samples;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.jkoolcloud.tnt4j.core.OpLevel;
 import com.jkoolcloud.tnt4j.core.PropertySnapshot;
@@ -29,46 +38,179 @@ import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
 import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
 
 /**
- * This class provide enrichment of folder/file tracking events
+ * This class provide enrichment of folder/file tracking events. File attributes are read with a single attribute call
+ * per path; access flags are derived from the permission bits where those are conclusive and checked by the file system
+ * otherwise, and space figures come from a {@link FileStoreCache}. Time spent enriching is accumulated as a latency
+ * metric. Enrichment of paths other than property files is skipped for a share of events of paths hotter than the
+ * throttle rate of the handler's {@link HotPathSketch}.
  *
  * @version $Revision: 1$
  */
 public class PathEventFilter implements SinkEventFilter {
-	FolderEventHandler evHandler;
+	/**
+	 * Enrichment fields, named as the properties they add.
+	 */
+	public enum Field {
+		Exists, CanRead, CanWrite, CanExecute, FileSize, FreeSpace, TotalSpace, UsableSpace, LastModified, Permissions
+	}
+
+	/**
+	 * Fields enabled by default
+	 */
+	public static final String DEFAULT_FIELDS = "Exists;CanRead;CanWrite;CanExecute;FileSize;FreeSpace;TotalSpace;"
+			+ "UsableSpace;LastModified";
+
+	private static final String UNIX_ATTRS = "unix:size,lastModifiedTime,isDirectory,isRegularFile,mode,uid";
+
+	private final FolderEventHandler evHandler;
+	private EnumSet<Field> fields = parseFields(DEFAULT_FIELDS);
+	private FileStoreCache stores;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
 
 	PathEventFilter(FolderEventHandler evHandler) {
 		this.evHandler = evHandler;
 	}
 
+	/**
+	 * Set enrichment fields.
+	 *
+	 * @param list
+	 *            list of {@link Field} names separated by ';', empty to disable enrichment
+	 * @return itself
+	 */
+	public PathEventFilter setFields(String list) {
+		fields = parseFields(list);
+		return this;
+	}
+
+	/**
+	 * Set cache used to obtain file store space figures, which are skipped when no cache is set.
+	 *
+	 * @param cache
+	 *            file store cache
+	 * @return itself
+	 */
+	public PathEventFilter setFileStoreCache(FileStoreCache cache) {
+		stores = cache;
+		return this;
+	}
+
+	private static EnumSet<Field> parseFields(String list) {
+		EnumSet<Field> set = EnumSet.noneOf(Field.class);
+		for (String name : list.split(";")) {
+			name = name.trim();
+			if (!name.isEmpty()) {
+				set.add(Field.valueOf(name));
+			}
+		}
+		return set;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
 	@Override
 	public boolean filter(EventSink sink, TrackingEvent event) {
 		Object[] args = event.getMessageArgs();
 		for (int i = 0; args != null && i < args.length; i++) {
 			if (args[i] instanceof Path) {
 				Path path = (Path) args[i];
-				File file = path.toFile();
-				String resource = path.toUri().toString();
-				event.getOperation().setResource(resource);
-				boolean exists = file.exists();
-				if (exists) {
-					PropertySnapshot snap = new PropertySnapshot("FileSystem", file.getPath());
-					snap.add("Exists", file.exists(), ValueTypes.VALUE_TYPE_FLAG);
-					snap.add("CanRead", file.canRead(), ValueTypes.VALUE_TYPE_FLAG);
-					snap.add("CanWrite", file.canWrite(), ValueTypes.VALUE_TYPE_FLAG);
-					snap.add("CanExecute", file.canExecute(), ValueTypes.VALUE_TYPE_FLAG);
-					snap.add("FileSize", file.length(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
-					snap.add("FreeSpace", file.getFreeSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
-					snap.add("TotalSpace", file.getTotalSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
-					snap.add("UsableSpace", file.getUsableSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
-					snap.add("LastModified", file.lastModified(), ValueTypes.VALUE_TYPE_AGE_MSEC);
-					event.getOperation().addSnapshot(snap);
-					evHandler.trackPropertyChanges(file, event);
+				FileInfo info = enrich(path, event);
+				if (info != null) {
+					evHandler.trackPropertyChanges(path.toFile(), info.regularFile, event);
 				}
 			}
 		}
 		return true;
 	}
 
+	/**
+	 * Add path attributes to a given event.
+	 *
+	 * @param path
+	 *            event path
+	 * @param event
+	 *            tracking event
+	 * @return path attributes, null if path does not exist or enrichment is throttled
+	 */
+	FileInfo enrich(Path path, TrackingEvent event) {
+		if (evHandler.getHotPathSketch().isThrottled(path)
+				&& !evHandler.isPropertyName(String.valueOf(path.getFileName()))) {
+			return null;
+		}
+		long begin = System.nanoTime();
+		try {
+			return addSnapshot(path, event);
+		} finally {
+			long elapsed = System.nanoTime() - begin;
+			count.increment();
+			totalNanos.add(elapsed);
+			maxNanos.accumulate(elapsed);
+		}
+	}
+
+	private FileInfo addSnapshot(Path path, TrackingEvent event) {
+		event.getOperation().setResource(path.toUri().toString());
+		FileInfo info = FileInfo.read(path);
+		if (info == null) {
+			return null;
+		}
+		PropertySnapshot snap = new PropertySnapshot("FileSystem", path.toString());
+		if (fields.contains(Field.Exists)) {
+			snap.add("Exists", true, ValueTypes.VALUE_TYPE_FLAG);
+		}
+		if (fields.contains(Field.CanRead)) {
+			snap.add("CanRead", info.canRead(), ValueTypes.VALUE_TYPE_FLAG);
+		}
+		if (fields.contains(Field.CanWrite)) {
+			snap.add("CanWrite", info.canWrite(), ValueTypes.VALUE_TYPE_FLAG);
+		}
+		if (fields.contains(Field.CanExecute)) {
+			snap.add("CanExecute", info.canExecute(), ValueTypes.VALUE_TYPE_FLAG);
+		}
+		if (fields.contains(Field.FileSize)) {
+			snap.add("FileSize", info.size, ValueTypes.VALUE_TYPE_SIZE_BYTE);
+		}
+		if (stores != null && (fields.contains(Field.FreeSpace) || fields.contains(Field.TotalSpace)
+				|| fields.contains(Field.UsableSpace))) {
+			try {
+				FileStoreCache.Stats st = stores.get(path, info.directory);
+				if (fields.contains(Field.FreeSpace)) {
+					snap.add("FreeSpace", st.getFreeSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+				}
+				if (fields.contains(Field.TotalSpace)) {
+					snap.add("TotalSpace", st.getTotalSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+				}
+				if (fields.contains(Field.UsableSpace)) {
+					snap.add("UsableSpace", st.getUsableSpace(), ValueTypes.VALUE_TYPE_SIZE_BYTE);
+				}
+			} catch (IOException e) {
+			}
+		}
+		if (fields.contains(Field.LastModified)) {
+			snap.add("LastModified", info.lastModified, ValueTypes.VALUE_TYPE_AGE_MSEC);
+		}
+		if (fields.contains(Field.Permissions) && info.mode >= 0) {
+			snap.add("Permissions", FileInfo.permissions(info.mode));
+		}
+		if (snap.size() > 0) {
+			event.getOperation().addSnapshot(snap);
+		}
+		return info;
+	}
+
 	@Override
 	public boolean filter(EventSink sink, TrackingActivity activity) {
 		return true;
@@ -83,4 +225,130 @@ public class PathEventFilter implements SinkEventFilter {
 	public boolean filter(EventSink sink, long ttl, Source source, OpLevel level, String msg, Object... args) {
 		return true;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Attributes of a path obtained with one attribute read. Access flags are derived from permission bits only where
+	 * those decide access regardless of supplementary groups and ACLs: owner bits for files owned by the (non-root)
+	 * process user, and a permission missing from all classes for other files. Writes granted by owner bits are still
+	 * checked, as the file system may be mounted read-only. Anything else is checked with {@link Files}, which asks
+	 * the file system as {@link java.io.File#canRead()} does.
+	 */
+	static class FileInfo {
+		final Path path;
+		long size;
+		long lastModified;
+		boolean directory;
+		boolean regularFile;
+		int mode = -1;
+		int uid;
+		Boolean readOnly;
+
+		private FileInfo(Path path) {
+			this.path = path;
+		}
+
+		/**
+		 * Read attributes of a path.
+		 *
+		 * @param path
+		 *            file or directory path
+		 * @return path attributes, null if path does not exist
+		 */
+		static FileInfo read(Path path) {
+			FileInfo info = new FileInfo(path);
+			try {
+				if (path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+					Map<String, Object> attrs = Files.readAttributes(path, UNIX_ATTRS);
+					info.size = (Long) attrs.get("size");
+					info.lastModified = ((FileTime) attrs.get("lastModifiedTime")).toMillis();
+					info.directory = (Boolean) attrs.get("isDirectory");
+					info.regularFile = (Boolean) attrs.get("isRegularFile");
+					info.mode = (Integer) attrs.get("mode") & 07777;
+					info.uid = (Integer) attrs.get("uid");
+				} else {
+					boolean dos = path.getFileSystem().supportedFileAttributeViews().contains("dos");
+					BasicFileAttributes attrs = dos ? Files.readAttributes(path, DosFileAttributes.class)
+							: Files.readAttributes(path, BasicFileAttributes.class);
+					info.size = attrs.size();
+					info.lastModified = attrs.lastModifiedTime().toMillis();
+					info.directory = attrs.isDirectory();
+					info.regularFile = attrs.isRegularFile();
+					info.readOnly = dos ? ((DosFileAttributes) attrs).isReadOnly() : null;
+				}
+				return info;
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		boolean canRead() {
+			Boolean access = accessBits(4);
+			if (access != null) {
+				return access;
+			}
+			return readOnly != null || Files.isReadable(path);
+		}
+
+		boolean canWrite() {
+			Boolean access = accessBits(2);
+			if (access != null && !access) {
+				return false;
+			}
+			return readOnly != null ? !readOnly : Files.isWritable(path);
+		}
+
+		boolean canExecute() {
+			Boolean access = accessBits(1);
+			if (access != null) {
+				return access;
+			}
+			return Files.isExecutable(path);
+		}
+
+		/**
+		 * Decide access from permission bits.
+		 *
+		 * @param bit
+		 *            permission bit of the "other" class: 4 read, 2 write, 1 execute
+		 * @return true if granted, false if denied, null if permission bits alone don't decide
+		 */
+		private Boolean accessBits(int bit) {
+			if (mode < 0 || ProcessIds.UID <= 0) {
+				// unknown, or root: access depends on more than the bits
+				return null;
+			} else if (uid == ProcessIds.UID) {
+				return (mode & (bit << 6)) != 0;
+			} else if ((mode & (bit << 6 | bit << 3 | bit)) == 0) {
+				// group bits mask ACL entries, so no class grants it
+				return false;
+			}
+			return null;
+		}
+
+		static String permissions(int mode) {
+			char[] chars = "rwxrwxrwx".toCharArray();
+			for (int i = 0; i < chars.length; i++) {
+				if ((mode & (0400 >> i)) == 0) {
+					chars[i] = '-';
+				}
+			}
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * User id of this process, taken from the owner of {@code /proc/self}, or -1 if unknown. Nothing is written, so it
+	 * works on read-only systems.
+	 */
+	private static class ProcessIds {
+		static final int UID = readUid(Paths.get("/proc/self"));
+
+		private static int readUid(Path path) {
+			try {
+				return (Integer) Files.getAttribute(path, "unix:uid");
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+	}
+}
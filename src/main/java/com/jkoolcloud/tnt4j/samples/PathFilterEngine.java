@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude rules for paths relative to a watched root, compiled into one matcher per rule set. Rules are
+ * separated by {@code ;} and are globs unless prefixed by {@code regex:}. Globs without {@code /} match file names at
+ * any depth, like {@code .git}, {@code node_modules} or {@code *.tmp}; globs with {@code /} and regular expressions
+ * match the whole relative path, using {@code /} as separator. In globs {@code *} and {@code ?} don't cross
+ * directories, {@code **} does, {@code {a,b}} and {@code [abc]} are alternatives.
+ * <p>
+ * Rules are compiled by shape: plain names into a hash set, {@code *suffix} globs into a {@link SuffixTrie} and all
+ * remaining ones into a single name pattern and a single path pattern, so each path is matched in at most four steps
+ * whatever the number of rules. Excludes apply to files and directories, excluded directories are pruned with their
+ * whole subtree. Includes apply to files only, so directories are still traversed to find included files.
+ *
+ * @version $Revision: 1$
+ */
+public class PathFilterEngine {
+	private static final String REGEX = "regex:";
+	private static final String GLOB = "glob:";
+
+	private final Rules includes;
+	private final Rules excludes;
+
+	/**
+	 * Create filter engine.
+	 *
+	 * @param includes
+	 *            include rules separated by {@code ;}, empty to include all files
+	 * @param excludes
+	 *            exclude rules separated by {@code ;}, empty to exclude nothing
+	 */
+	public PathFilterEngine(String includes, String excludes) {
+		this.includes = new Rules(includes);
+		this.excludes = new Rules(excludes);
+	}
+
+	/**
+	 * Whether there are any include or exclude rules.
+	 *
+	 * @return true if no path is filtered out
+	 */
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	public boolean hasIncludes() {
+		return !includes.isEmpty();
+	}
+
+	/**
+	 * Whether a directory is watched, or pruned with its subtree.
+	 *
+	 * @param relative
+	 *            directory path relative to the watched root
+	 * @return true if directory is watched
+	 */
+	public boolean acceptsDirectory(Path relative) {
+		return !excludes.matches(relative);
+	}
+
+	/**
+	 * Whether a file is watched.
+	 *
+	 * @param relative
+	 *            file path relative to the watched root
+	 * @return true if file is watched
+	 */
+	public boolean acceptsFile(Path relative) {
+		return !excludes.matches(relative) && (includes.isEmpty() || includes.matches(relative));
+	}
+
+	@Override
+	public String toString() {
+		return "PathFilterEngine{includes=" + includes + ", excludes=" + excludes + "}";
+	}
+
+	private static String separatorsToSlash(String path) {
+		return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Translate a glob into a regular expression. A {@code [} or <code>{</code> without a closing bracket or brace
+	 * matches itself, groups may be nested.
+	 */
+	static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder(glob.length() * 2);
+		int groupDepth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (inClass) {
+				if (c == ']') {
+					inClass = false;
+				} else if ("\\[&^".indexOf(c) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(c);
+				continue;
+			}
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					i++;
+					if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+						// **/ matches zero or more directories
+						i++;
+						regex.append("(?:.*/)?");
+					} else {
+						regex.append(".*");
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				boolean negated = i + 1 < glob.length() && glob.charAt(i + 1) == '!';
+				// the first class character may be ']'
+				if (glob.indexOf(']', i + (negated ? 3 : 2)) < 0) {
+					regex.append("\\[");
+					break;
+				}
+				inClass = true;
+				regex.append('[');
+				if (negated) {
+					i++;
+					regex.append('^');
+				}
+				if (glob.charAt(i + 1) == ']') {
+					i++;
+					regex.append("\\]");
+				}
+				break;
+			case '{':
+				if (closingBrace(glob, i) < 0) {
+					regex.append("\\{");
+				} else {
+					groupDepth++;
+					regex.append("(?:");
+				}
+				break;
+			case '}':
+				if (groupDepth > 0) {
+					groupDepth--;
+					regex.append(')');
+				} else {
+					regex.append("\\}");
+				}
+				break;
+			case ',':
+				regex.append(groupDepth > 0 ? "|" : ",");
+				break;
+			default:
+				if ("\\.^$+()|".indexOf(c) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(c);
+				break;
+			}
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * Find the brace closing a group, counting nested groups.
+	 *
+	 * @return index of closing brace, -1 if group is not closed
+	 */
+	private static int closingBrace(String glob, int open) {
+		int depth = 0;
+		for (int i = open; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && --depth == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isLiteral(String glob) {
+		for (int i = 0; i < glob.length(); i++) {
+			if ("*?[]{}\\".indexOf(glob.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * One compiled rule set.
+	 */
+	private static class Rules {
+		final String source;
+		final Set<String> names = new HashSet<String>();
+		final SuffixTrie suffixes;
+		final Pattern namePattern;
+		final Pattern pathPattern;
+
+		Rules(String rules) {
+			this.source = rules;
+			List<String> suffixList = new ArrayList<String>();
+			StringBuilder nameRegex = new StringBuilder(), pathRegex = new StringBuilder();
+			for (String rule : rules.split(";")) {
+				rule = rule.trim();
+				if (rule.isEmpty()) {
+					continue;
+				}
+				if (rule.startsWith(REGEX)) {
+					append(pathRegex, rule.substring(REGEX.length()));
+					continue;
+				}
+				String glob = rule.startsWith(GLOB) ? rule.substring(GLOB.length()) : rule;
+				while (glob.length() > 1 && glob.endsWith("/")) {
+					glob = glob.substring(0, glob.length() - 1);
+				}
+				if (glob.startsWith("**/") && glob.indexOf('/', 3) < 0) {
+					glob = glob.substring(3);
+				}
+				if (glob.indexOf('/') >= 0) {
+					append(pathRegex, globToRegex(glob));
+				} else if (isLiteral(glob)) {
+					names.add(glob);
+				} else if (glob.startsWith("*") && isLiteral(glob.substring(1))) {
+					suffixList.add(glob.substring(1));
+				} else {
+					append(nameRegex, globToRegex(glob));
+				}
+			}
+			this.suffixes = suffixList.isEmpty() ? null : new SuffixTrie(suffixList);
+			this.namePattern = nameRegex.length() == 0 ? null : Pattern.compile(nameRegex.toString());
+			this.pathPattern = pathRegex.length() == 0 ? null : Pattern.compile(pathRegex.toString());
+		}
+
+		private static void append(StringBuilder regex, String rule) {
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:").append(rule).append(')');
+		}
+
+		boolean isEmpty() {
+			return names.isEmpty() && suffixes == null && namePattern == null && pathPattern == null;
+		}
+
+		boolean matches(Path relative) {
+			Path fileName = relative.getFileName();
+			if (fileName == null) {
+				return false;
+			}
+			String name = fileName.toString();
+			if (names.contains(name) || (suffixes != null && suffixes.matches(name))
+					|| (namePattern != null && namePattern.matcher(name).matches())) {
+				return true;
+			}
+			return pathPattern != null && pathPattern.matcher(separatorsToSlash(relative.toString())).matches();
+		}
+
+		@Override
+		public String toString() {
+			return source;
+		}
+	}
+
+	/**
+	 * Set of suffixes matched by walking a trie of reversed suffixes from the end of a name, so a name is matched in
+	 * time proportional to the longest matching suffix regardless of the number of suffixes.
+	 */
+	public static class SuffixTrie {
+		private final Node root = new Node();
+
+		/**
+		 * Create trie of given suffixes. An empty suffix matches every name.
+		 *
+		 * @param suffixes
+		 *            suffixes to match
+		 */
+		public SuffixTrie(Iterable<String> suffixes) {
+			for (String suffix : suffixes) {
+				Node node = root;
+				for (int i = suffix.length() - 1; i >= 0; i--) {
+					node = node.child(suffix.charAt(i), true);
+				}
+				node.terminal = true;
+			}
+		}
+
+		/**
+		 * Whether a name ends with any of the suffixes.
+		 *
+		 * @param name
+		 *            name to match
+		 * @return true if name ends with a suffix
+		 */
+		public boolean matches(String name) {
+			Node node = root;
+			if (node.terminal) {
+				return true;
+			}
+			for (int i = name.length() - 1; i >= 0; i--) {
+				node = node.child(name.charAt(i), false);
+				if (node == null) {
+					return false;
+				} else if (node.terminal) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static class Node {
+			char[] keys = new char[0];
+			Node[] children = new Node[0];
+			boolean terminal;
+
+			Node child(char c, boolean create) {
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == c) {
+						return children[i];
+					}
+				}
+				if (!create) {
+					return null;
+				}
+				Node node = new Node();
+				int n = keys.length;
+				keys = Arrays.copyOf(keys, n + 1);
+				children = Arrays.copyOf(children, n + 1);
+				keys[n] = c;
+				children[n] = node;
+				return node;
+			}
+		}
+	}
+}
@@ -16,19 +16,36 @@
 package com.jkoolcloud.tnt4j.samples;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.jkoolcloud.tnt4j.ActivityScheduler;
 import com.jkoolcloud.tnt4j.core.Activity;
 import com.jkoolcloud.tnt4j.core.ActivityListener;
+import com.jkoolcloud.tnt4j.core.Property;
 import com.jkoolcloud.tnt4j.core.PropertySnapshot;
 
 /**
  * Simple application that generates an activity ping based on a predefined interval. Developer can enrich activities
  * before activities are logged to TNT4J event sink.
+ * <p>
+ * In {@code wheel} mode ({@code -Dtnt4j.pinger.mode=wheel}) a number of concurrent pings are run on a shared
+ * {@link TimerWheel}, allowing sub-millisecond periods, and achieved rate, scheduling jitter and activity elapsed
+ * time percentiles are printed instead of every ping.
  * 
  * @version $Revision: 1 $
  */
 public class Pinger {
+	private static final String MODE = System.getProperty("tnt4j.pinger.mode", "scheduler");
+	private static final int COUNT = Integer.getInteger("tnt4j.pinger.count", 1);
+	private static final long TICK_US = Long.getLong("tnt4j.pinger.tick.us", 50);
+	private static final long SPIN_US = Long.getLong("tnt4j.pinger.spin.us", 20);
+	private static final int WHEEL_SIZE = Integer.getInteger("tnt4j.pinger.wheel.size", 1024);
+	private static final long DURATION_SEC = Long.getLong("tnt4j.pinger.duration.sec", 0);
+	private static final long REPORT_SEC = Long.getLong("tnt4j.pinger.report.sec", 5);
+
 	/**
 	 * Run TNT4J Pinger application to generate scheduled activity ping
 	 * 
@@ -44,36 +61,157 @@ public class Pinger {
 			System.out.println("Usage: pinger-name activity-name period-ms");
 			System.exit(-1);
 		}
-		ActivityScheduler pinger = new ActivityScheduler(args[0], new PingHandler());
+		if (MODE.equalsIgnoreCase("wheel")) {
+			runWheel(args[0], args[1], (long) (Double.parseDouble(args[2]) * 1000000));
+			return;
+		}
+		ActivityScheduler pinger = new ActivityScheduler(args[0], new PingHandler(false));
 		pinger.open();
 		long period = Long.parseLong(args[2]);
 		pinger.schedule(args[1], period);
 		try {
-			Thread.sleep(period * 10);
+			Thread.sleep(DURATION_SEC > 0 ? TimeUnit.SECONDS.toMillis(DURATION_SEC) : period * 10);
 		} finally {
 			pinger.close();
 		}
 	}
+
+	private static void runWheel(String pingerName, String activityName, long periodNanos)
+			throws InterruptedException, IOException {
+		PingHandler handler = new PingHandler(true);
+		TimerWheel wheel = new TimerWheel(TimeUnit.MICROSECONDS.toNanos(TICK_US), WHEEL_SIZE,
+				TimeUnit.MICROSECONDS.toNanos(SPIN_US));
+		WheelScheduler pinger = new WheelScheduler(pingerName, handler, wheel);
+		pinger.open();
+		wheel.start("Pinger-wheel");
+		for (int i = 0; i < COUNT; i++) {
+			// spread pings across the period rather than firing them all on the same tick
+			pinger.schedule(COUNT > 1 ? activityName + "-" + i : activityName, periodNanos * i / COUNT, periodNanos);
+		}
+		long begin = System.nanoTime();
+		long durationNanos = DURATION_SEC > 0 ? TimeUnit.SECONDS.toNanos(DURATION_SEC) : periodNanos * 10;
+		long reportNanos = REPORT_SEC > 0 ? TimeUnit.SECONDS.toNanos(REPORT_SEC) : durationNanos;
+		try {
+			for (long elapsed = 0; elapsed < durationNanos; elapsed = System.nanoTime() - begin) {
+				TimeUnit.NANOSECONDS.sleep(Math.min(reportNanos, durationNanos - elapsed));
+				report(handler, wheel, periodNanos, System.nanoTime() - begin);
+			}
+		} finally {
+			pinger.cancel();
+			wheel.close();
+			pinger.close();
+		}
+	}
+
+	private static void report(PingHandler handler, TimerWheel wheel, long periodNanos, long elapsedNanos) {
+		LatencyHistogram jitter = wheel.getJitter();
+		LatencyHistogram elapsed = handler.getElapsed();
+		double seconds = elapsedNanos / 1e9;
+		System.out.format(
+				"Ping stats: pingers=%d, period.us=%.1f, tick.us=%d, requested/sec=%.1f, achieved/sec=%.1f, pings=%d, missed=%d, jitter.avg.us=%.1f, jitter.p50.us=%.1f, jitter.p99.us=%.1f, jitter.p999.us=%.1f, jitter.max.us=%.1f, elapsed.p50.us=%d, elapsed.p99.us=%d, elapsed.max.us=%d\n",
+				COUNT, periodNanos / 1e3, TimeUnit.NANOSECONDS.toMicros(wheel.getTickNanos()),
+				COUNT * 1e9 / periodNanos, handler.getPingCount() / seconds, handler.getPingCount(),
+				wheel.getMissedCount(), jitter.getMean() / 1e3, jitter.getPercentile(50) / 1e3,
+				jitter.getPercentile(99) / 1e3, jitter.getPercentile(99.9) / 1e3, jitter.getMax() / 1e3,
+				elapsed.getPercentile(50), elapsed.getPercentile(99), elapsed.getMax());
+	}
+}
+
+/**
+ * Activity scheduler running its activity tasks on a shared {@link TimerWheel} instead of its own executor.
+ */
+class WheelScheduler extends ActivityScheduler {
+	private final TimerWheel wheel;
+	private final List<TimerWheel.Timer> timers = new ArrayList<TimerWheel.Timer>();
+
+	WheelScheduler(String name, ActivityListener listener, TimerWheel wheel) {
+		super(name, listener);
+		this.wheel = wheel;
+	}
+
+	synchronized void schedule(String activityName, long delayNanos, long periodNanos) {
+		timers.add(wheel.schedule(newActivityTask(getLogger(), activityName, getOpLevel()), delayNanos, periodNanos));
+	}
+
+	@Override
+	public synchronized void cancel(boolean mayInterrupt) {
+		for (TimerWheel.Timer timer : timers) {
+			timer.cancel();
+		}
+		timers.clear();
+	}
 }
 
 class PingHandler implements ActivityListener {
-	long pingCount = 0;
+	private final boolean quiet;
+	private final LongAdder pingCount = new LongAdder();
+	private final LatencyHistogram elapsed = new LatencyHistogram();
+	// activities are logged by the thread stopping them, so each thread can reuse its own snapshot
+	private final ThreadLocal<PingStats> stats = new ThreadLocal<PingStats>() {
+		@Override
+		protected PingStats initialValue() {
+			return new PingStats();
+		}
+	};
+
+	/**
+	 * Create ping handler.
+	 *
+	 * @param quiet
+	 *            true to record elapsed times only, false to print every ping
+	 */
+	PingHandler(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	long getPingCount() {
+		return pingCount.sum();
+	}
+
+	LatencyHistogram getElapsed() {
+		return elapsed;
+	}
 
 	@Override
 	public void started(Activity activity) {
-		System.out.println("START: activity.id=" + activity.getTrackingId() + ", activity.name=" + activity.getName()
-				+ ", started=" + activity.getStartTime());
+		if (!quiet) {
+			System.out.println("START: activity.id=" + activity.getTrackingId() + ", activity.name="
+					+ activity.getName() + ", started=" + activity.getStartTime());
+		}
 	}
 
 	@Override
 	public void stopped(Activity activity) {
-		pingCount++;
+		pingCount.increment();
+		long elapsedUsec = activity.getElapsedTimeUsec();
+		elapsed.record(elapsedUsec);
 		// post processing of activity: enrich activity with application metrics
-		PropertySnapshot snapshot = new PropertySnapshot("Pinger", "Stats");
-		snapshot.add("ping.count", pingCount);
-		activity.add(snapshot); // add property snapshot to activity
-		System.out.println("END: activity.id=" + activity.getTrackingId() + ", activity.name=" + activity.getName()
-				+ ", elapsed.usec=" + activity.getElapsedTimeUsec() + ", snap.count=" + activity.getSnapshotCount()
-				+ ", id.count=" + activity.getIdCount());
+		activity.add(stats.get().update(pingCount.sum(), elapsedUsec)); // add property snapshot to activity
+		if (!quiet) {
+			System.out.println("END: activity.id=" + activity.getTrackingId() + ", activity.name=" + activity.getName()
+					+ ", elapsed.usec=" + elapsedUsec + ", snap.count=" + activity.getSnapshotCount()
+					+ ", id.count=" + activity.getIdCount());
+		}
+	}
+
+	/**
+	 * Property snapshot reused for every ping ended on a thread, updated in place. Sinks must serialize it when the
+	 * activity is logged, as buffered sinks would see later values.
+	 */
+	private static class PingStats {
+		final PropertySnapshot snapshot = new PropertySnapshot("Pinger", "Stats");
+		final Property count = new Property("ping.count", 0L);
+		final Property elapsed = new Property("elapsed.usec", 0L);
+
+		PingStats() {
+			snapshot.add(count);
+			snapshot.add(elapsed);
+		}
+
+		PropertySnapshot update(long pingCount, long elapsedUsec) {
+			count.set(count.getKey(), pingCount);
+			elapsed.set(elapsed.getKey(), elapsedUsec);
+			return snapshot;
+		}
 	}
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * {@link WatchService} implementation which detects changes by periodically rescanning registered directories, for
+ * file systems where native watch services miss events (NFS, SMB) or run out of resources (inotify watch limits).
+ * Every directory keeps a generation-stamped metadata index; entries not stamped by the latest scan are reported as
+ * deleted. Scans are spread adaptively: a directory with changes is scanned more often, an idle one less often, and
+ * the total number of file system operations per second is capped by a budget. Keys and events behave like those of a
+ * native watch service, so {@link FolderWatcher} and {@link WatchEventHandler} implementations work unchanged.
+ *
+ * @version $Revision: 1$
+ */
+public class PollingWatchService implements WatchService {
+	private static final int MAX_EVENT_LIST_SIZE = 512;
+	private static final PollingWatchKey CLOSE_KEY = new PollingWatchKey(null, null, 0);
+
+	private final LinkedBlockingDeque<PollingWatchKey> signalled = new LinkedBlockingDeque<PollingWatchKey>();
+	private final DelayQueue<PollingWatchKey> schedule = new DelayQueue<PollingWatchKey>();
+	private final Map<Path, PollingWatchKey> keys = new ConcurrentHashMap<Path, PollingWatchKey>();
+	private final long minIntervalNanos;
+	private final long maxIntervalNanos;
+	private final double iops;
+	private Thread scanner;
+	private volatile boolean closed = false;
+
+	private final LongAdder scanCount = new LongAdder();
+	private final LongAdder opCount = new LongAdder();
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * Create polling watch service.
+	 *
+	 * @param minIntervalMs
+	 *            shortest interval between scans of a directory with recent changes
+	 * @param maxIntervalMs
+	 *            longest interval between scans of an idle directory
+	 * @param iops
+	 *            maximum number of file system operations (directory listings and stats) per second
+	 */
+	public PollingWatchService(long minIntervalMs, long maxIntervalMs, double iops) {
+		this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, minIntervalMs));
+		this.maxIntervalNanos = Math.max(minIntervalNanos, TimeUnit.MILLISECONDS.toNanos(maxIntervalMs));
+		this.iops = Math.max(1, iops);
+		this.tokens = this.iops;
+	}
+
+	/**
+	 * Register a directory with this watch service.
+	 *
+	 * @param dir
+	 *            directory to watch
+	 * @param kinds
+	 *            event kinds to report
+	 * @return watch key
+	 * @throws IOException
+	 *             if directory can't be read
+	 */
+	public WatchKey register(Path dir, Kind<?>... kinds) throws IOException {
+		if (closed) {
+			throw new ClosedWatchServiceException();
+		}
+		PollingWatchKey key = keys.get(dir);
+		if (key != null && key.isValid()) {
+			return key;
+		}
+		key = new PollingWatchKey(this, dir, minIntervalNanos);
+		key.kinds.addAll(Arrays.asList(kinds));
+		scan(key, false);
+		keys.put(dir, key);
+		startScanner();
+		key.nextScan = System.nanoTime() + minIntervalNanos;
+		schedule.offer(key);
+		return key;
+	}
+
+	private synchronized void startScanner() {
+		if (scanner == null) {
+			scanner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					scanLoop();
+				}
+			}, "FolderWatcher-scanner");
+			scanner.setDaemon(true);
+			scanner.start();
+		}
+	}
+
+	private void scanLoop() {
+		while (!closed) {
+			try {
+				PollingWatchKey key = schedule.take();
+				if (!key.isValid()) {
+					continue;
+				}
+				acquire(key.entries.size() + 1);
+				boolean changed;
+				try {
+					changed = scan(key, true);
+				} catch (IOException e) {
+					key.cancel();
+					signal(key);
+					continue;
+				}
+				key.interval = changed ? Math.max(minIntervalNanos, key.interval / 2)
+						: Math.min(maxIntervalNanos, key.interval * 2);
+				key.nextScan = System.nanoTime() + key.interval;
+				schedule.offer(key);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Wait until the operations budget allows a given number of operations. Operations larger than the budget run
+	 * into debt, so that very large directories are not starved.
+	 */
+	private void acquire(int ops) throws InterruptedException {
+		long now = System.nanoTime();
+		tokens = Math.min(iops, tokens + (now - lastRefill) * iops / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+		if (tokens < 0) {
+			long waitNanos = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / iops);
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+			tokens += waitNanos * iops / TimeUnit.SECONDS.toNanos(1);
+			lastRefill = System.nanoTime();
+		}
+		tokens -= ops;
+		opCount.add(ops);
+	}
+
+	/**
+	 * Scan a directory and compare it against the key's index.
+	 *
+	 * @return true if any changes were found, false otherwise
+	 */
+	private boolean scan(PollingWatchKey key, boolean report) throws IOException {
+		int generation = ++key.generation;
+		boolean changed = false;
+		DirectoryStream<Path> stream = Files.newDirectoryStream(key.dir);
+		try {
+			for (Path child : stream) {
+				BasicFileAttributes attrs;
+				try {
+					attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				} catch (IOException e) {
+					continue;
+				}
+				String name = child.getFileName().toString();
+				Node node = key.entries.get(name);
+				if (node == null) {
+					key.entries.put(name, new Node(attrs, generation));
+					changed |= report && key.signalEvent(StandardWatchEventKinds.ENTRY_CREATE, child.getFileName());
+				} else {
+					if (!node.matches(attrs)) {
+						node.update(attrs);
+						changed |= report
+								&& key.signalEvent(StandardWatchEventKinds.ENTRY_MODIFY, child.getFileName());
+					}
+					node.generation = generation;
+				}
+			}
+		} finally {
+			Utils.close(stream);
+		}
+		Iterator<Map.Entry<String, Node>> it = key.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Node> entry = it.next();
+			if (entry.getValue().generation != generation) {
+				it.remove();
+				changed |= report && key.signalEvent(StandardWatchEventKinds.ENTRY_DELETE,
+						key.dir.getFileSystem().getPath(entry.getKey()));
+			}
+		}
+		scanCount.increment();
+		if (changed) {
+			signal(key);
+		}
+		return changed;
+	}
+
+	void signal(PollingWatchKey key) {
+		synchronized (key) {
+			if (!key.signalled) {
+				key.signalled = true;
+				signalled.offer(key);
+			}
+		}
+	}
+
+	void cancel(PollingWatchKey key) {
+		keys.remove(key.dir, key);
+		schedule.remove(key);
+	}
+
+	@Override
+	public WatchKey poll() {
+		return check(signalled.poll());
+	}
+
+	@Override
+	public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return check(signalled.poll(timeout, unit));
+	}
+
+	@Override
+	public WatchKey take() throws InterruptedException {
+		return check(signalled.take());
+	}
+
+	private WatchKey check(PollingWatchKey key) {
+		if (key == CLOSE_KEY) {
+			signalled.offer(CLOSE_KEY);
+		}
+		if (closed) {
+			throw new ClosedWatchServiceException();
+		}
+		return key;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		synchronized (this) {
+			if (scanner != null) {
+				scanner.interrupt();
+			}
+		}
+		for (PollingWatchKey key : keys.values()) {
+			key.valid = false;
+		}
+		keys.clear();
+		signalled.offer(CLOSE_KEY);
+	}
+
+	public int getKeyCount() {
+		return keys.size();
+	}
+
+	public long getScanCount() {
+		return scanCount.sum();
+	}
+
+	public long getOpCount() {
+		return opCount.sum();
+	}
+
+	private static class Node {
+		long size;
+		long mtime;
+		Object fileKey;
+		int generation;
+
+		Node(BasicFileAttributes attrs, int generation) {
+			update(attrs);
+			this.generation = generation;
+		}
+
+		void update(BasicFileAttributes attrs) {
+			size = attrs.size();
+			mtime = attrs.lastModifiedTime().toMillis();
+			fileKey = attrs.fileKey();
+		}
+
+		boolean matches(BasicFileAttributes attrs) {
+			return size == attrs.size() && mtime == attrs.lastModifiedTime().toMillis()
+					&& Utils.equal(fileKey, attrs.fileKey());
+		}
+	}
+
+	static class PollingWatchKey implements WatchKey, Delayed {
+		final PollingWatchService service;
+		final Path dir;
+		final Set<Kind<?>> kinds = new HashSet<Kind<?>>();
+		final Map<String, Node> entries = new HashMap<String, Node>();
+		List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>();
+		volatile boolean valid = true;
+		boolean signalled = false;
+		int generation;
+		long interval;
+		long nextScan;
+
+		PollingWatchKey(PollingWatchService service, Path dir, long interval) {
+			this.service = service;
+			this.dir = dir;
+			this.interval = interval;
+		}
+
+		synchronized boolean signalEvent(Kind<Path> kind, Path context) {
+			if (!kinds.contains(kind)) {
+				return false;
+			}
+			if (events.size() >= MAX_EVENT_LIST_SIZE) {
+				events.clear();
+				events.add(new FolderWatchEvent<Object>(StandardWatchEventKinds.OVERFLOW, null, 1));
+			} else if (events.isEmpty() || events.get(0).kind() != StandardWatchEventKinds.OVERFLOW) {
+				events.add(new FolderWatchEvent<Path>(kind, context, 1));
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isValid() {
+			return valid;
+		}
+
+		@Override
+		public synchronized List<WatchEvent<?>> pollEvents() {
+			List<WatchEvent<?>> result = events;
+			events = new ArrayList<WatchEvent<?>>();
+			return result;
+		}
+
+		@Override
+		public boolean reset() {
+			if (!valid) {
+				return false;
+			}
+			synchronized (this) {
+				signalled = false;
+				if (!events.isEmpty()) {
+					service.signal(this);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void cancel() {
+			valid = false;
+			service.cancel(this);
+		}
+
+		@Override
+		public Watchable watchable() {
+			return dir;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(nextScan - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(nextScan, ((PollingWatchKey) o).nextScan);
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * This class keeps the last known properties of tracked files, so changes can be reported as property differences.
+ * Structured formats are flattened into properties by {@link ContentFlatteners}. Content is hashed before parsing and
+ * byte-identical rewrites are skipped without parsing. Stored properties are kept compact: keys are interned across all
+ * files and snapshots may optionally be deflated. The least recently used files are evicted when the number of files or
+ * estimated memory exceeds configured caps. All methods are thread safe.
+ *
+ * @version $Revision: 1$
+ */
+public class PropertyTracker {
+	private static final int MAX_POOLED_KEYS = 65536;
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int STRING_OVERHEAD = 40;
+	private static final int LOCK_STRIPES = 64;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+	private final Map<String, String> keyPool = new HashMap<String, String>();
+	private final Object[] pathLocks = new Object[LOCK_STRIPES];
+	private final int maxEntries;
+	private final long maxBytes;
+	private final boolean compress;
+	private int maxKeys = 10000;
+	private long bytes;
+
+	private final LongAdder unchangedCount = new LongAdder();
+	private final LongAdder parsedCount = new LongAdder();
+	private final LongAdder evictedCount = new LongAdder();
+
+	/**
+	 * Create property tracker.
+	 *
+	 * @param maxEntries
+	 *            maximum number of tracked files
+	 * @param maxBytes
+	 *            maximum estimated memory used by stored properties
+	 * @param compress
+	 *            true to store deflated snapshots, false to store interned key/value arrays
+	 */
+	public PropertyTracker(int maxEntries, long maxBytes, boolean compress) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxBytes = Math.max(1, maxBytes);
+		this.compress = compress;
+		for (int i = 0; i < pathLocks.length; i++) {
+			pathLocks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Set maximum number of properties kept per file. Structured files are parsed only up to this many values.
+	 *
+	 * @param maxKeys
+	 *            maximum number of properties per file
+	 * @return itself
+	 */
+	public PropertyTracker setMaxKeys(int maxKeys) {
+		this.maxKeys = Math.max(1, maxKeys);
+		return this;
+	}
+
+	/**
+	 * Track new content of a given file. The file is hashed first, memory-mapped when large, and content identical to
+	 * the stored content is not parsed. Otherwise it is parsed as a stream by the {@link ContentFlattener} registered
+	 * for its extension, and the bytes read by the parser are hashed again, so the stored hash always matches the
+	 * stored properties. Concurrent updates of the same file are serialized, so each one is diffed against the result
+	 * of the previous.
+	 *
+	 * @param file
+	 *            file path
+	 * @return change with previous and current properties, null if content is unchanged
+	 * @throws IOException
+	 *             if file can't be read or parsed
+	 */
+	public Change update(Path file) throws IOException {
+		String path = file.toString();
+		synchronized (lockFor(path)) {
+			long hash = ContentHash.hash(file);
+			Entry prev;
+			synchronized (this) {
+				prev = entries.get(path);
+			}
+			if (prev != null && prev.hash == hash) {
+				unchangedCount.increment();
+				return null;
+			}
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			Properties after;
+			try {
+				HashingInputStream in = new HashingInputStream(Channels.newInputStream(channel), channel.size());
+				after = parse(file, in);
+				hash = in.finish();
+			} finally {
+				Utils.close(channel);
+			}
+			parsedCount.increment();
+			put(path, hash, after);
+			return new Change(prev == null ? null : prev.toProperties(), after, hash);
+		}
+	}
+
+	/**
+	 * Obtain lock serializing updates of a given file, striped so updates of different files rarely contend.
+	 */
+	private Object lockFor(String path) {
+		return pathLocks[(path.hashCode() & 0x7fffffff) % pathLocks.length];
+	}
+
+	/**
+	 * Store known properties of a given file, e.g. restored from a {@link SnapshotIndex}.
+	 *
+	 * @param path
+	 *            file path
+	 * @param hash
+	 *            content hash, 0 if unknown
+	 * @param props
+	 *            file properties
+	 */
+	public void put(String path, long hash, Properties props) {
+		Entry entry = compress ? deflate(hash, props) : intern(hash, props);
+		synchronized (lockFor(path)) {
+			synchronized (this) {
+				Entry prev = entries.put(path, entry);
+				if (prev != null) {
+					bytes -= prev.bytes;
+				}
+				bytes += entry.bytes;
+				Iterator<Entry> it = entries.values().iterator();
+				while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+					Entry eldest = it.next();
+					if (eldest == entry) {
+						break;
+					}
+					it.remove();
+					bytes -= eldest.bytes;
+					evictedCount.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Obtain stored properties of a given file.
+	 *
+	 * @param path
+	 *            file path
+	 * @return stored properties, null if file is not tracked
+	 */
+	public Properties get(String path) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+		}
+		return entry == null ? null : entry.toProperties();
+	}
+
+	/**
+	 * Stop tracking a given file, e.g. when it is deleted.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	public void remove(String path) {
+		synchronized (lockFor(path)) {
+			synchronized (this) {
+				Entry prev = entries.remove(path);
+				if (prev != null) {
+					bytes -= prev.bytes;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-key tracked files of a moved file or directory, so they are not parsed again. A file already tracked at the
+	 * target path keeps its entry, so a file replaced by a rename, as editors save files, is diffed against its
+	 * replaced content when read next.
+	 *
+	 * @param from
+	 *            path before the move
+	 * @param to
+	 *            path after the move
+	 */
+	public synchronized void move(Path from, Path to) {
+		String prefix = from.toString() + File.separator;
+		List<String> moved = new ArrayList<String>();
+		for (String path : entries.keySet()) {
+			if (path.equals(from.toString()) || path.startsWith(prefix)) {
+				moved.add(path);
+			}
+		}
+		for (String path : moved) {
+			Entry entry = entries.remove(path);
+			String target = to.toString() + path.substring(from.toString().length());
+			if (!entries.containsKey(target)) {
+				entries.put(target, entry);
+			} else {
+				bytes -= entry.bytes;
+			}
+		}
+	}
+
+	/**
+	 * Parse file content into properties.
+	 *
+	 * @param file
+	 *            file path, selecting the content format
+	 * @param in
+	 *            file content
+	 * @return parsed properties
+	 * @throws IOException
+	 *             if content can't be parsed
+	 */
+	protected Properties parse(Path file, InputStream in) throws IOException {
+		Properties props = new Properties();
+		ContentFlatteners.forName(file.getFileName().toString()).flatten(in, props, maxKeys);
+		return props;
+	}
+
+	private Entry intern(long hash, Properties props) {
+		String[] kv = new String[props.size() * 2];
+		int size = ENTRY_OVERHEAD + kv.length * 8, i = 0;
+		synchronized (keyPool) {
+			if (keyPool.size() > MAX_POOLED_KEYS) {
+				keyPool.clear();
+			}
+			for (Map.Entry<Object, Object> prop : props.entrySet()) {
+				String key = String.valueOf(prop.getKey());
+				String pooled = keyPool.get(key);
+				if (pooled == null) {
+					keyPool.put(key, key);
+					pooled = key;
+				}
+				String value = String.valueOf(prop.getValue());
+				kv[i++] = pooled;
+				kv[i++] = value;
+				size += STRING_OVERHEAD + value.length() * 2;
+			}
+		}
+		return new Entry(hash, kv, 0, size);
+	}
+
+	private static Entry deflate(long hash, Properties props) {
+		byte[] raw = SnapshotIndex.encodeProperties(props);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+			byte[] buf = new byte[4096];
+			while (!deflater.finished()) {
+				out.write(buf, 0, deflater.deflate(buf));
+			}
+			byte[] data = out.toByteArray();
+			return new Entry(hash, data, raw.length, ENTRY_OVERHEAD + data.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Number of tracked files.
+	 *
+	 * @return number of tracked files
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimated memory used by stored properties.
+	 *
+	 * @return number of bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getUnchangedCount() {
+		return unchangedCount.sum();
+	}
+
+	public long getParsedCount() {
+		return parsedCount.sum();
+	}
+
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+
+	/**
+	 * Properties of a file before and after a content change.
+	 */
+	public static class Change {
+		private final Properties before;
+		private final Properties after;
+		private final long hash;
+
+		Change(Properties before, Properties after, long hash) {
+			this.before = before;
+			this.after = after;
+			this.hash = hash;
+		}
+
+		/**
+		 * Obtain properties before the change.
+		 *
+		 * @return previous properties, null if file was not tracked
+		 */
+		public Properties getBefore() {
+			return before;
+		}
+
+		public Properties getAfter() {
+			return after;
+		}
+
+		public long getHash() {
+			return hash;
+		}
+	}
+
+	private static class Entry {
+		final long hash;
+		final Object data;
+		final int rawLength;
+		final int bytes;
+
+		Entry(long hash, Object data, int rawLength, int bytes) {
+			this.hash = hash;
+			this.data = data;
+			this.rawLength = rawLength;
+			this.bytes = bytes;
+		}
+
+		Properties toProperties() {
+			if (data instanceof String[]) {
+				String[] kv = (String[]) data;
+				Properties props = new Properties();
+				for (int i = 0; i < kv.length; i += 2) {
+					props.put(kv[i], kv[i + 1]);
+				}
+				return props;
+			}
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput((byte[]) data);
+				byte[] raw = new byte[rawLength];
+				int n = 0;
+				while (n < raw.length && !inflater.finished()) {
+					int count = inflater.inflate(raw, n, raw.length - n);
+					if (count == 0 && inflater.needsInput()) {
+						break;
+					}
+					n += count;
+				}
+				return SnapshotIndex.decodeProperties(raw);
+			} catch (DataFormatException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Stream hashing the bytes read through it, in a buffer of bounded size.
+	 */
+	private static class HashingInputStream extends FilterInputStream {
+		private final ContentHash.Hasher hasher;
+		private final byte[] single = new byte[1];
+
+		HashingInputStream(InputStream in, long length) {
+			super(in);
+			this.hasher = new ContentHash.Hasher(length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				single[0] = (byte) b;
+				hasher.update(single, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				hasher.update(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buf = new byte[(int) Math.min(n, 8192)];
+			int read = read(buf, 0, buf.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Read what the parser left unread and hash all of it.
+		 */
+		long finish() throws IOException {
+			byte[] buf = new byte[8192];
+			while (read(buf, 0, buf.length) >= 0) {
+			}
+			return hasher.finish();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue backed by a ring buffer. Every slot carries a sequence number
+ * telling producers and consumers whether it is free or filled for their turn, so neither side takes a lock.
+ *
+ * @param <E>
+ *            element type
+ *
+ * @version $Revision: 1$
+ */
+public class RingBuffer<E> {
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Create ring buffer.
+	 *
+	 * @param capacity
+	 *            minimum capacity, rounded up to a power of 2
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.elements = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Add an element if there is room.
+	 *
+	 * @param element
+	 *            element to add
+	 * @return true if element was added, false if buffer is full
+	 */
+	public boolean offer(E element) {
+		for (;;) {
+			long pos = tail.get();
+			int slot = (int) pos & mask;
+			long diff = sequences.get(slot) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(slot, element);
+					sequences.set(slot, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Remove the oldest element.
+	 *
+	 * @return oldest element, null if buffer is empty
+	 */
+	public E poll() {
+		for (;;) {
+			long pos = head.get();
+			int slot = (int) pos & mask;
+			long diff = sequences.get(slot) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					E element = elements.get(slot);
+					elements.lazySet(slot, null);
+					sequences.set(slot, pos + mask + 1);
+					return element;
+				}
+			} else if (diff < 0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Approximate number of elements in the buffer.
+	 *
+	 * @return number of elements
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+}
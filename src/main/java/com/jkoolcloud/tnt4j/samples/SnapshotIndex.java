@@ -0,0 +1,569 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * This class maintains a persistent index of path to (size, modification time, file key, content hash, serialized
+ * properties) for a watched tree. The index is an append-only log written through a memory-mapped region as events
+ * arrive; the latest record for a path wins and deletions are written as tombstones. On startup the log is replayed
+ * into memory and compacted when most of it is garbage, so that properties can be restored without reparsing
+ * unchanged files and changes made while the monitor was down can be detected.
+ *
+ * @version $Revision: 1$
+ */
+public class SnapshotIndex implements Closeable {
+	private static final int MAGIC = 0x544E5449; // "TNTI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int MAP_CHUNK = 4 * 1024 * 1024;
+	private static final byte REC_PUT = 1;
+	private static final byte REC_REMOVE = 2;
+	private static final int LOCK_STRIPES = 64;
+
+	// sorted by path, so the paths under a directory are a range
+	private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<String, Entry>();
+	private final Object[] pathLocks = new Object[LOCK_STRIPES];
+	private final Path file;
+	private FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long writePos;
+	private long recordCount;
+	private volatile int generation;
+
+	/**
+	 * Open index stored in a given file, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            index file
+	 * @throws IOException
+	 *             if index can't be read or created
+	 */
+	public SnapshotIndex(Path file) throws IOException {
+		this.file = file;
+		for (int i = 0; i < pathLocks.length; i++) {
+			pathLocks[i] = new Object();
+		}
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		load();
+		if (recordCount > 2L * entries.size() + 1024) {
+			compact();
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (channel.size() > writePos) {
+			// drop a torn tail, or all of an unreadable index, so stale bytes are never replayed after new records
+			channel.truncate(writePos);
+		}
+		if (writePos == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+			header.flip();
+			channel.write(header, 0);
+			writePos = HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * Create index file name for a given watch root inside an index directory.
+	 *
+	 * @param dir
+	 *            index directory
+	 * @param root
+	 *            watched root
+	 * @return index file path
+	 */
+	public static Path indexFileFor(String dir, Path root) {
+		Path abs = root.toAbsolutePath().normalize();
+		String name = abs.getFileName() == null ? "root" : abs.getFileName().toString().replaceAll("[^\\w.-]", "_");
+		return Paths.get(dir, name + "-" + Integer.toHexString(abs.toString().hashCode()) + ".idx");
+	}
+
+	private void load() throws IOException {
+		if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+			return;
+		}
+		FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (in.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot index exceeds 2 GB mapping limit: file=" + file + ", size=" + in.size());
+			}
+			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+				System.out.format("Snapshot index reset: file=%s, reason=unknown format\n", file);
+				return;
+			}
+			writePos = HEADER_SIZE;
+			while (buf.remaining() > 4) {
+				int start = buf.position();
+				int len = buf.getInt();
+				if (len <= 0 || len > buf.remaining()) {
+					break; // preallocated tail or torn write
+				}
+				try {
+					byte type = buf.get();
+					String path = readString(buf);
+					if (type == REC_PUT) {
+						entries.put(path, readEntry(buf));
+					} else {
+						entries.remove(path);
+					}
+				} catch (BufferUnderflowException e) {
+					break;
+				}
+				buf.position(start + 4 + len);
+				writePos = buf.position();
+				recordCount++;
+			}
+		} finally {
+			Utils.close(in);
+		}
+	}
+
+	private void compact() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				byte[] rec = encode(REC_PUT, entry.getKey(), entry.getValue());
+				out.writeInt(rec.length);
+				out.write(rec);
+			}
+		} finally {
+			Utils.close(out);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		writePos = Files.size(file);
+		recordCount = entries.size();
+	}
+
+	/**
+	 * Obtain index entry for a given path.
+	 *
+	 * @param path
+	 *            file path
+	 * @return index entry, null if path is not indexed
+	 */
+	public Entry get(Path path) {
+		return entries.get(path.toString());
+	}
+
+	/**
+	 * Record current attributes of a path, keeping its previously stored content. Stored content is marked stale when
+	 * attributes change, until it is refreshed by {@link #putContent(Path, long, Properties)}.
+	 *
+	 * @param path
+	 *            file path
+	 * @param attrs
+	 *            file attributes
+	 */
+	public void putAttributes(Path path, BasicFileAttributes attrs) {
+		String key = path.toString();
+		synchronized (lockFor(key)) {
+			Entry prev = entries.get(key);
+			Entry entry = new Entry(attrs, 0, prev == null ? null : prev.props);
+			if (prev != null && prev.matches(attrs)) {
+				entry.hash = prev.hash;
+			}
+			put(key, entry);
+		}
+	}
+
+	/**
+	 * Record content hash and parsed properties of a path, along with its current attributes.
+	 *
+	 * @param path
+	 *            file path
+	 * @param hash
+	 *            content hash
+	 * @param props
+	 *            parsed properties, may be null
+	 */
+	public void putContent(Path path, long hash, Properties props) {
+		String key = path.toString();
+		synchronized (lockFor(key)) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+						LinkOption.NOFOLLOW_LINKS);
+				put(key, new Entry(attrs, hash, props == null ? null : encodeProperties(props)));
+			} catch (IOException e) {
+				remove(path);
+			}
+		}
+	}
+
+	/**
+	 * Update index after a watch event on a given path.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	public void update(Path path) {
+		try {
+			putAttributes(path, Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+		} catch (IOException e) {
+			remove(path);
+		}
+	}
+
+	/**
+	 * Remove a path from the index.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	public void remove(Path path) {
+		String key = path.toString();
+		synchronized (lockFor(key)) {
+			if (entries.remove(key) != null) {
+				append(encode(REC_REMOVE, key, null));
+			}
+		}
+	}
+
+	/**
+	 * Remove a directory and all paths under it from the index, as when the directory is deleted.
+	 *
+	 * @param dir
+	 *            directory path
+	 */
+	public void removeTree(Path dir) {
+		for (String path : pathsUnder(dir)) {
+			synchronized (lockFor(path)) {
+				if (entries.remove(path) != null) {
+					append(encode(REC_REMOVE, path, null));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-key a moved path, and all paths under it if it is a directory. Entries already indexed under the new paths
+	 * are kept, they were put after the move.
+	 *
+	 * @param from
+	 *            path before the move
+	 * @param to
+	 *            path after the move
+	 */
+	public void move(Path from, Path to) {
+		String source = from.toString();
+		String target = to.toString();
+		for (String path : pathsUnder(from)) {
+			Entry entry;
+			synchronized (lockFor(path)) {
+				entry = entries.remove(path);
+				if (entry == null) {
+					continue;
+				}
+				append(encode(REC_REMOVE, path, null));
+			}
+			String moved = target + path.substring(source.length());
+			synchronized (lockFor(moved)) {
+				if (!entries.containsKey(moved)) {
+					put(moved, entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indexed paths of a given path and the paths under it.
+	 */
+	private List<String> pathsUnder(Path dir) {
+		String path = dir.toString();
+		String separator = dir.getFileSystem().getSeparator();
+		// children sort between "dir/" and "dir0", the separator's successor
+		String last = path + separator.substring(0, separator.length() - 1)
+				+ (char) (separator.charAt(separator.length() - 1) + 1);
+		List<String> paths = new ArrayList<String>();
+		if (entries.containsKey(path)) {
+			paths.add(path);
+		}
+		paths.addAll(entries.subMap(path + separator, last).keySet());
+		return paths;
+	}
+
+	/**
+	 * Start a new scan generation. Entries put from now on are stamped with the new generation, so entries which are
+	 * not seen by the scan can be found with {@link #sweep()}.
+	 *
+	 * @return true if index contained entries from a previous run, false otherwise
+	 */
+	public boolean beginScan() {
+		generation++;
+		return !entries.isEmpty();
+	}
+
+	/**
+	 * Remove all entries not put since the last {@link #beginScan()}.
+	 *
+	 * @return paths of removed entries
+	 */
+	public List<String> sweep() {
+		List<String> removed = new ArrayList<String>();
+		for (String path : entries.keySet()) {
+			synchronized (lockFor(path)) {
+				Entry entry = entries.get(path);
+				if (entry != null && entry.generation != generation) {
+					entries.remove(path);
+					append(encode(REC_REMOVE, path, null));
+					removed.add(path);
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Obtain lock guarding entry and log record of a given path. Paths are updated under striped locks, so scanning
+	 * threads only contend on appending their records.
+	 */
+	private Object lockFor(String path) {
+		return pathLocks[(path.hashCode() & 0x7fffffff) % pathLocks.length];
+	}
+
+	private void put(String path, Entry entry) {
+		entry.generation = generation;
+		Entry prev = entries.put(path, entry);
+		if (prev == null || !prev.sameAs(entry)) {
+			append(encode(REC_PUT, path, entry));
+		}
+	}
+
+	/**
+	 * Paths of all indexed entries.
+	 *
+	 * @return map of path to entry
+	 */
+	public Map<String, Entry> entries() {
+		return entries;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private synchronized void append(byte[] rec) {
+		try {
+			int len = 4 + rec.length;
+			if (region == null || writePos + len > regionStart + region.capacity()) {
+				regionStart = writePos;
+				region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(MAP_CHUNK, len));
+			}
+			region.position((int) (writePos - regionStart));
+			region.putInt(rec.length);
+			region.put(rec);
+			writePos += len;
+			recordCount++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static byte[] encode(byte type, String path, Entry entry) {
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(recordBytes);
+		try {
+			out.writeByte(type);
+			writeString(out, path);
+			if (entry != null) {
+				out.writeLong(entry.size);
+				out.writeLong(entry.mtime);
+				writeString(out, entry.fileKey);
+				out.writeLong(entry.hash);
+				out.writeInt(entry.props == null ? -1 : entry.props.length);
+				if (entry.props != null) {
+					out.write(entry.props);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return recordBytes.toByteArray();
+	}
+
+	private static Entry readEntry(ByteBuffer buf) {
+		Entry entry = new Entry();
+		entry.size = buf.getLong();
+		entry.mtime = buf.getLong();
+		entry.fileKey = readString(buf);
+		entry.hash = buf.getLong();
+		int len = buf.getInt();
+		if (len >= 0) {
+			entry.props = new byte[len];
+			buf.get(entry.props);
+		}
+		return entry;
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str == null ? new byte[0] : str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Serialize properties into a compact byte array.
+	 *
+	 * @param props
+	 *            properties
+	 * @return serialized properties
+	 */
+	public static byte[] encodeProperties(Properties props) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + props.size() * 32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(props.size());
+			for (Map.Entry<Object, Object> entry : props.entrySet()) {
+				writeString(out, String.valueOf(entry.getKey()));
+				writeString(out, String.valueOf(entry.getValue()));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserialize properties produced by {@link #encodeProperties(Properties)}.
+	 *
+	 * @param bytes
+	 *            serialized properties
+	 * @return properties
+	 */
+	public static Properties decodeProperties(byte[] bytes) {
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		Properties props = new Properties();
+		for (int i = buf.getInt(); i > 0; i--) {
+			String key = readString(buf);
+			props.put(key, readString(buf));
+		}
+		return props;
+	}
+
+	/**
+	 * Flush index to disk.
+	 */
+	public synchronized void flush() {
+		if (region != null) {
+			region.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		region = null;
+		try {
+			channel.truncate(writePos);
+		} catch (IOException e) {
+			// file is still mapped on some platforms, preallocated tail is skipped on load
+		}
+		Utils.close(channel);
+	}
+
+	/**
+	 * Index entry for a single path.
+	 */
+	public static class Entry {
+		long size;
+		long mtime;
+		String fileKey;
+		long hash;
+		byte[] props;
+		int generation;
+
+		Entry() {
+		}
+
+		Entry(BasicFileAttributes attrs, long hash, byte[] props) {
+			this.size = attrs.size();
+			this.mtime = attrs.lastModifiedTime().toMillis();
+			this.fileKey = attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+			this.hash = hash;
+			this.props = props;
+		}
+
+		/**
+		 * Determine if given attributes match indexed attributes.
+		 *
+		 * @param attrs
+		 *            current file attributes
+		 * @return true if file appears unchanged, false otherwise
+		 */
+		public boolean matches(BasicFileAttributes attrs) {
+			String key = attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+			return size == attrs.size() && mtime == attrs.lastModifiedTime().toMillis() && fileKey.equals(key);
+		}
+
+		/**
+		 * Determine if stored content reflects indexed attributes.
+		 *
+		 * @return true if stored properties are current, false if they are missing or stale
+		 */
+		public boolean isContentCurrent() {
+			return props == null || hash != 0;
+		}
+
+		/**
+		 * Obtain stored properties.
+		 *
+		 * @return stored properties, null if none stored
+		 */
+		public Properties getProperties() {
+			return props == null ? null : decodeProperties(props);
+		}
+
+		public boolean hasProperties() {
+			return props != null;
+		}
+
+		public long getHash() {
+			return hash;
+		}
+
+		boolean sameAs(Entry other) {
+			return size == other.size && mtime == other.mtime && hash == other.hash
+					&& Utils.equal(fileKey, other.fileKey) && (hash != 0 || props == other.props);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel running many periodic tasks on one thread. Timers are kept in intrusive lists, one per wheel
+ * slot, and rescheduled in place after they fire, so steady state scheduling allocates nothing. The wheel thread parks
+ * until shortly before the next tick and spins for the rest, trading CPU for low jitter. Timers fire on the first tick
+ * at or after their deadline; late periods are skipped rather than run back to back.
+ * <p>
+ * Scheduling jitter, the delay between a timer deadline and the time its task starts, is recorded in a
+ * {@link LatencyHistogram} in nanoseconds.
+ *
+ * @version $Revision: 1$
+ */
+public class TimerWheel implements Closeable, Runnable {
+	private final Timer[] slots;
+	private final int mask;
+	private final long tickNanos;
+	private final long spinNanos;
+	private final Queue<Timer> added = new ConcurrentLinkedQueue<Timer>();
+	private final LatencyHistogram jitter = new LatencyHistogram();
+	private final long startNanos = System.nanoTime();
+	private volatile Thread thread;
+	private volatile boolean running = true;
+	private long tick;
+	private long firedCount;
+	private long missedCount;
+
+	/**
+	 * Create timer wheel.
+	 *
+	 * @param tickNanos
+	 *            wheel resolution in nanoseconds
+	 * @param wheelSize
+	 *            minimum number of slots, rounded up to a power of 2
+	 * @param spinNanos
+	 *            how long before a tick the wheel thread stops parking and spins
+	 */
+	public TimerWheel(long tickNanos, int wheelSize, long spinNanos) {
+		int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+		this.slots = new Timer[size];
+		this.mask = size - 1;
+		this.tickNanos = Math.max(1000, tickNanos);
+		this.spinNanos = Math.max(0, spinNanos);
+	}
+
+	/**
+	 * Start the wheel on a new thread.
+	 *
+	 * @param name
+	 *            thread name
+	 * @return itself
+	 */
+	public TimerWheel start(String name) {
+		Thread t = new Thread(this, name);
+		t.setDaemon(true);
+		thread = t;
+		t.start();
+		return this;
+	}
+
+	/**
+	 * Run a task periodically at a fixed rate.
+	 *
+	 * @param task
+	 *            task to run on the wheel thread, must not block
+	 * @param delayNanos
+	 *            delay before the first run
+	 * @param periodNanos
+	 *            period between runs
+	 * @return timer, which may be cancelled
+	 */
+	public Timer schedule(Runnable task, long delayNanos, long periodNanos) {
+		Timer timer = new Timer(task, System.nanoTime() + Math.max(0, delayNanos), Math.max(1, periodNanos));
+		added.add(timer);
+		return timer;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			long next = startNanos + (tick + 1) * tickNanos;
+			long now = waitUntil(next);
+			if (!running) {
+				break;
+			}
+			addPending();
+			// catch up on ticks passed while firing or parking too long
+			long current = (now - startNanos) / tickNanos;
+			while (tick < current) {
+				tick++;
+				fire(tick, now);
+				now = System.nanoTime();
+			}
+		}
+	}
+
+	private long waitUntil(long deadline) {
+		long now = System.nanoTime();
+		while (now < deadline && running) {
+			long remaining = deadline - now;
+			if (remaining > spinNanos) {
+				LockSupport.parkNanos(remaining - spinNanos);
+			}
+			now = System.nanoTime();
+		}
+		return now;
+	}
+
+	private void addPending() {
+		Timer timer;
+		while ((timer = added.poll()) != null) {
+			if (!timer.cancelled) {
+				insert(timer);
+			}
+		}
+	}
+
+	private void insert(Timer timer) {
+		// first tick at or after the deadline, never a tick already processed
+		long ticks = (timer.deadline - startNanos + tickNanos - 1) / tickNanos;
+		timer.tick = Math.max(tick + 1, ticks);
+		int slot = (int) timer.tick & mask;
+		timer.prev = null;
+		timer.next = slots[slot];
+		if (timer.next != null) {
+			timer.next.prev = timer;
+		}
+		slots[slot] = timer;
+	}
+
+	private void unlink(Timer timer, int slot) {
+		if (timer.prev == null) {
+			slots[slot] = timer.next;
+		} else {
+			timer.prev.next = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.prev = timer.next = null;
+	}
+
+	private void fire(long current, long now) {
+		int slot = (int) current & mask;
+		Timer timer = slots[slot];
+		Timer due = null;
+		// detach due timers first, so rescheduled ones landing in the same slot are not fired twice
+		while (timer != null) {
+			Timer next = timer.next;
+			if (timer.cancelled || timer.tick <= current) {
+				unlink(timer, slot);
+				if (!timer.cancelled) {
+					timer.next = due;
+					due = timer;
+				}
+			}
+			timer = next;
+		}
+		while (due != null) {
+			Timer next = due.next;
+			due.next = null;
+			long start = System.nanoTime();
+			jitter.record(start - due.deadline);
+			firedCount++;
+			try {
+				due.task.run();
+			} catch (Throwable e) {
+				// keep the wheel running for other timers
+			}
+			long deadline = due.deadline + due.period;
+			if (deadline < now) {
+				long skipped = (now - deadline) / due.period + 1;
+				missedCount += skipped;
+				deadline += skipped * due.period;
+			}
+			due.deadline = deadline;
+			if (!due.cancelled) {
+				insert(due);
+			}
+			due = next;
+		}
+	}
+
+	public LatencyHistogram getJitter() {
+		return jitter;
+	}
+
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Number of timer runs so far, read without synchronization.
+	 *
+	 * @return number of runs
+	 */
+	public long getFiredCount() {
+		return firedCount;
+	}
+
+	/**
+	 * Number of periods skipped because a timer fired too late, read without synchronization.
+	 *
+	 * @return number of skipped periods
+	 */
+	public long getMissedCount() {
+		return missedCount;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		Thread t = thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+			if (t != Thread.currentThread()) {
+				try {
+					t.join(TimeUnit.SECONDS.toMillis(5));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Periodic task scheduled on a wheel.
+	 */
+	public static class Timer {
+		final Runnable task;
+		final long period;
+		long deadline;
+		long tick;
+		Timer prev, next;
+		volatile boolean cancelled;
+
+		Timer(Runnable task, long deadline, long period) {
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		/**
+		 * Stop running this timer. A run already in progress completes.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+}
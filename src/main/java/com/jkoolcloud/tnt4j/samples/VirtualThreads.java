@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of Java 21 and later while still running on Java 8. Virtual thread builders are looked up
+ * reflectively, so this class compiles against Java 8 and reports virtual threads as unsupported on older runtimes,
+ * including runtimes which have them as a preview feature only.
+ *
+ * @version $Revision: 1$
+ */
+public final class VirtualThreads {
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null, name = null, factory = null, perTask = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			ofVirtual.invoke(null); // throws if virtual threads are a disabled preview feature
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+				| InvocationTargetException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = name;
+		BUILDER_FACTORY = factory;
+		PER_TASK_EXECUTOR = perTask;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Whether current runtime supports virtual threads.
+	 *
+	 * @return true if virtual threads are supported
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Create factory of virtual threads named {@code prefix-<n>}.
+	 *
+	 * @param prefix
+	 *            thread name prefix
+	 * @return virtual thread factory
+	 * @throws UnsupportedOperationException
+	 *             if current runtime doesn't support virtual threads
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+		try {
+			Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix + "-", 0L);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("Unable to create virtual thread factory", e);
+		}
+	}
+
+	/**
+	 * Create executor starting a new virtual thread named {@code prefix-<n>} for every task.
+	 *
+	 * @param prefix
+	 *            thread name prefix
+	 * @return thread per task executor
+	 * @throws UnsupportedOperationException
+	 *             if current runtime doesn't support virtual threads
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+		ThreadFactory factory = newThreadFactory(prefix);
+		try {
+			return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, factory);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new UnsupportedOperationException("Unable to create virtual thread executor", e);
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Budget of native watches shared by {@link FolderWatcher} roots, keeping registrations below the kernel limit (e.g.
+ * {@code fs.inotify.max_user_watches} on Linux) instead of failing partway through a large tree. Directories down to
+ * an eager depth below their root are registered up front and pinned. Deeper directories are covered by the polling
+ * watch service and promoted to a native watch once the poller sees activity in them. When the budget is used up, the
+ * least recently active unpinned watch is evicted back to polling to make room. The victim is picked under the budget
+ * lock and demoted by its owner on one of its own threads.
+ * <p>
+ * A registration failing although the budget is not used up lowers the budget to the number of watches held, as the
+ * kernel limit is shared with other processes of the same user.
+ *
+ * @version $Revision: 1$
+ */
+public class WatchBudget {
+	private static final Path INOTIFY_MAX_WATCHES = Paths.get("/proc/sys/fs/inotify/max_user_watches");
+
+	private final int eagerDepth;
+	private final int systemLimit;
+	private volatile int limit;
+	private final LinkedHashMap<WatchKey, Watch> watches = new LinkedHashMap<WatchKey, Watch>(1024, 0.75f, true);
+	private int reserved;
+	private int pinnedCount;
+
+	private final LongAdder deferredCount = new LongAdder();
+	private final LongAdder promotedCount = new LongAdder();
+	private final LongAdder evictedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder unwatchedCount = new LongAdder();
+
+	/**
+	 * Create watch budget.
+	 *
+	 * @param limit
+	 *            maximum number of native watches of all roots
+	 * @param eagerDepth
+	 *            depth below a root down to which directories are registered up front, 0 for the root only
+	 */
+	public WatchBudget(int limit, int eagerDepth) {
+		this.limit = Math.max(1, limit);
+		this.eagerDepth = Math.max(0, eagerDepth);
+		this.systemLimit = readSystemLimit();
+	}
+
+	/**
+	 * Read the kernel limit of native watches per user.
+	 *
+	 * @return maximum number of watches, -1 if unknown
+	 */
+	public static int readSystemLimit() {
+		// proc files report no size, read up to the line end
+		BufferedReader reader = null;
+		try {
+			reader = Files.newBufferedReader(INOTIFY_MAX_WATCHES, StandardCharsets.US_ASCII);
+			String line = reader.readLine();
+			return line == null ? -1 : Integer.parseInt(line.trim());
+		} catch (IOException | NumberFormatException | SecurityException e) {
+			return -1;
+		} finally {
+			Utils.close(reader);
+		}
+	}
+
+	/**
+	 * Whether a directory at a given depth below its root is registered up front.
+	 *
+	 * @param depth
+	 *            directory depth, 0 for the root
+	 * @return true if directory is registered eagerly
+	 */
+	public boolean isEager(int depth) {
+		return depth <= eagerDepth;
+	}
+
+	/**
+	 * Reserve a watch, evicting the least recently active unpinned watch whose owner can poll when the budget is used
+	 * up. A reservation is either completed by {@link #add(FolderWatcher, Path, WatchKey, boolean)} or returned by
+	 * {@link #cancel(IOException)}.
+	 *
+	 * @return true if a watch was reserved, false if none is available
+	 */
+	public boolean reserve() {
+		Watch victim = null;
+		synchronized (this) {
+			if (watches.size() + reserved >= limit && (victim = evict()) == null) {
+				return false;
+			}
+			reserved++;
+		}
+		if (victim != null) {
+			victim.owner.demote(victim.key);
+		}
+		return true;
+	}
+
+	private Watch evict() {
+		Iterator<Watch> it = watches.values().iterator();
+		while (it.hasNext()) {
+			Watch w = it.next();
+			if (!w.pinned && w.owner.canPoll()) {
+				it.remove();
+				evictedCount.increment();
+				return w;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add a registered watch against a reservation.
+	 *
+	 * @param owner
+	 *            watcher owning the key
+	 * @param dir
+	 *            watched directory
+	 * @param key
+	 *            native watch key
+	 * @param pinned
+	 *            true if watch may not be evicted
+	 */
+	public synchronized void add(FolderWatcher owner, Path dir, WatchKey key, boolean pinned) {
+		reserved = Math.max(0, reserved - 1);
+		if (watches.put(key, new Watch(owner, dir, key, pinned)) == null && pinned) {
+			pinnedCount++;
+		}
+	}
+
+	/**
+	 * Take back an evicted watch its owner could not demote, as most recently active. The budget is exceeded by it
+	 * until another watch is released or evicted.
+	 *
+	 * @param owner
+	 *            watcher owning the key
+	 * @param dir
+	 *            watched directory
+	 * @param key
+	 *            native watch key
+	 */
+	public synchronized void restore(FolderWatcher owner, Path dir, WatchKey key) {
+		if (watches.put(key, new Watch(owner, dir, key, false)) == null) {
+			evictedCount.decrement();
+		}
+	}
+
+	/**
+	 * Return a reservation after a registration failed. A failure because the kernel watch limit is reached lowers the
+	 * budget to the number of watches held; failures of single directories, such as denied access, don't.
+	 *
+	 * @param failure
+	 *            registration failure
+	 */
+	public synchronized void cancel(IOException failure) {
+		reserved = Math.max(0, reserved - 1);
+		if (isLimitReached(failure)) {
+			failedCount.increment();
+			limit = Math.max(1, Math.min(limit, watches.size()));
+		}
+	}
+
+	/**
+	 * Determine if a registration failed on the kernel watch limit: ENOSPC from {@code inotify_add_watch}, which the
+	 * JDK reports as "User limit of inotify watches reached", or as a plain ENOSPC file system error.
+	 *
+	 * @param failure
+	 *            registration failure
+	 * @return true if watch limit is reached
+	 */
+	static boolean isLimitReached(IOException failure) {
+		String reason = failure instanceof FileSystemException ? ((FileSystemException) failure).getReason()
+				: failure.getMessage();
+		return reason != null && (reason.contains("limit of inotify watches") || reason.contains("No space left"));
+	}
+
+	/**
+	 * Release the watch of a cancelled or invalid key.
+	 *
+	 * @param key
+	 *            watch key
+	 */
+	public synchronized void release(WatchKey key) {
+		Watch w = watches.remove(key);
+		if (w != null && w.pinned) {
+			pinnedCount--;
+		}
+	}
+
+	/**
+	 * Mark a watch as active, so it is evicted last.
+	 *
+	 * @param key
+	 *            signalled watch key
+	 */
+	public synchronized void touch(WatchKey key) {
+		watches.get(key);
+	}
+
+	void deferred() {
+		deferredCount.increment();
+	}
+
+	void promoted() {
+		promotedCount.increment();
+	}
+
+	void unwatched() {
+		unwatchedCount.increment();
+	}
+
+	public synchronized int getUsed() {
+		return watches.size();
+	}
+
+	public synchronized int getPinnedCount() {
+		return pinnedCount;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getSystemLimit() {
+		return systemLimit;
+	}
+
+	public int getEagerDepth() {
+		return eagerDepth;
+	}
+
+	/**
+	 * Number of directories left to polling at registration, beyond the eager depth or the budget.
+	 *
+	 * @return number of deferred directories
+	 */
+	public long getDeferredCount() {
+		return deferredCount.sum();
+	}
+
+	/**
+	 * Number of polled directories promoted to a native watch after activity.
+	 *
+	 * @return number of promotions
+	 */
+	public long getPromotedCount() {
+		return promotedCount.sum();
+	}
+
+	/**
+	 * Number of idle watches evicted back to polling.
+	 *
+	 * @return number of evictions
+	 */
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+
+	/**
+	 * Number of native registrations failed by the kernel.
+	 *
+	 * @return number of failures
+	 */
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	/**
+	 * Number of directories neither watched nor polled, because the budget was used up and no polling was available.
+	 *
+	 * @return number of unwatched directories
+	 */
+	public long getUnwatchedCount() {
+		return unwatchedCount.sum();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "used=" + watches.size() + ", limit=" + limit + ", system.limit=" + systemLimit + ", pinned="
+				+ pinnedCount + ", eager.depth=" + eagerDepth + ", deferred=" + deferredCount.sum() + ", promoted="
+				+ promotedCount.sum() + ", evicted=" + evictedCount.sum() + ", failed=" + failedCount.sum()
+				+ ", unwatched=" + unwatchedCount.sum();
+	}
+
+	private static class Watch {
+		final FolderWatcher owner;
+		final Path dir;
+		final WatchKey key;
+		final boolean pinned;
+
+		Watch(FolderWatcher owner, Path dir, WatchKey key, boolean pinned) {
+			this.owner = owner;
+			this.dir = dir;
+			this.key = key;
+			this.pinned = pinned;
+		}
+	}
+}
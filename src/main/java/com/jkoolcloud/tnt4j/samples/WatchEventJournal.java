@@ -0,0 +1,398 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+/**
+ * Journal of raw watch events as polled from signalled watch keys, for replaying real workloads against event
+ * handlers with {@link WatchEventReplay}. Every batch (the events of one signalled key) is appended with its
+ * {@link System#nanoTime()} offset from the journal start, the watched directory and the events with their kind, count
+ * and context.
+ * <p>
+ * Records are compact: numbers are varints and directories and context names are written once and referenced by
+ * number afterwards, up to a maximum number of remembered names. Records are buffered and written in blocks, so a
+ * journal not closed properly may miss its last batches.
+ *
+ * @version $Revision: 1$
+ */
+public class WatchEventJournal implements Closeable {
+	private static final int MAGIC = 0x544E574A; // TNWJ
+	private static final int VERSION = 1;
+	private static final int MAX_NAMES = 1 << 16;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte KIND_OVERFLOW = 0;
+	private static final byte KIND_CREATE = 1;
+	private static final byte KIND_DELETE = 2;
+	private static final byte KIND_MODIFY = 3;
+
+	private final Path file;
+	private final OutputStream out;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+	private final long startNanos = System.nanoTime();
+	private long lastNanos;
+	private final Map<Object, Integer> dirs = new HashMap<Object, Integer>();
+	private final Map<Object, Integer> names = new HashMap<Object, Integer>();
+	private boolean closed;
+
+	private final LongAdder batchCount = new LongAdder();
+	private final LongAdder eventCount = new LongAdder();
+
+	/**
+	 * Create journal, replacing an existing file.
+	 *
+	 * @param file
+	 *            journal file
+	 * @throws IOException
+	 *             if file can't be created
+	 */
+	public WatchEventJournal(Path file) throws IOException {
+		this.file = file;
+		this.out = Files.newOutputStream(file);
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		header.writeLong(System.currentTimeMillis());
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Append a batch of events polled from a watch key.
+	 *
+	 * @param dir
+	 *            directory the event contexts are relative to
+	 * @param events
+	 *            raw events, including overflows
+	 */
+	public void record(Path dir, List<WatchEvent<?>> events) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			try {
+				// offsets are kept increasing, batches of concurrent keys may arrive out of order
+				long offset = Math.max(lastNanos, now - startNanos);
+				ensure(32);
+				writeVarint(offset - lastNanos);
+				lastNanos = offset;
+				writeName(dirs, dir);
+				writeVarint(events.size());
+				for (WatchEvent<?> event : events) {
+					ensure(16);
+					buf[pos++] = kindOf(event.kind());
+					writeVarint(event.count());
+					writeName(names, event.context() == null ? "" : event.context());
+				}
+			} catch (IOException e) {
+				// stop recording rather than failing the watcher
+				closed = true;
+				Utils.close(out);
+				return;
+			}
+		}
+		batchCount.increment();
+		eventCount.add(events.size());
+	}
+
+	private void writeName(Map<Object, Integer> known, Object name) throws IOException {
+		// paths are looked up as they are, they cache their hash codes
+		Integer id = known.get(name);
+		if (id != null) {
+			writeVarint(id + 1);
+			return;
+		}
+		byte[] bytes = name.toString().getBytes(StandardCharsets.UTF_8);
+		writeVarint(0);
+		ensure(8 + bytes.length);
+		writeVarint(bytes.length);
+		if (pos + bytes.length > buf.length) {
+			out.write(buf, 0, pos);
+			pos = 0;
+			out.write(bytes);
+		} else {
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+		if (known.size() < MAX_NAMES) {
+			known.put(name, known.size());
+		}
+	}
+
+	private void writeVarint(long v) {
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte) v;
+	}
+
+	/**
+	 * Make room for a given number of bytes, writing the buffer out when it is too full.
+	 */
+	private void ensure(int n) throws IOException {
+		if (pos + n > buf.length) {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	private static byte kindOf(Kind<?> kind) {
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+			return KIND_CREATE;
+		} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			return KIND_DELETE;
+		} else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+			return KIND_MODIFY;
+		}
+		return KIND_OVERFLOW;
+	}
+
+	public long getBatchCount() {
+		return batchCount.sum();
+	}
+
+	public long getEventCount() {
+		return eventCount.sum();
+	}
+
+	/**
+	 * Write buffered records to the journal file.
+	 *
+	 * @throws IOException
+	 *             if records can't be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (!closed) {
+			out.write(buf, 0, pos);
+			pos = 0;
+			out.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			try {
+				flush();
+			} finally {
+				closed = true;
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Batch of events read from a journal.
+	 */
+	public static class Batch {
+		final long offsetNanos;
+		final Path dir;
+		final List<WatchEvent<Path>> events;
+
+		Batch(long offsetNanos, Path dir, List<WatchEvent<Path>> events) {
+			this.offsetNanos = offsetNanos;
+			this.dir = dir;
+			this.events = events;
+		}
+
+		/**
+		 * Time the batch was polled, relative to the journal start.
+		 *
+		 * @return offset in nanoseconds
+		 */
+		public long getOffsetNanos() {
+			return offsetNanos;
+		}
+
+		public Path getDir() {
+			return dir;
+		}
+
+		/**
+		 * Events of the batch. Overflows are reported with a null context.
+		 *
+		 * @return list of events
+		 */
+		public List<WatchEvent<Path>> getEvents() {
+			return events;
+		}
+	}
+
+	/**
+	 * Sequential reader of journal batches. A batch cut short at the end of the journal is ignored, and so are events
+	 * whose names are not valid paths for the file system encoding of the reading JVM.
+	 */
+	public static class Reader implements Closeable {
+		@SuppressWarnings("unchecked")
+		private static final Kind<Path> OVERFLOW = (Kind<Path>) (Kind<?>) StandardWatchEventKinds.OVERFLOW;
+
+		private final DataInputStream in;
+		private final long startMillis;
+		private final List<Path> dirs = new ArrayList<Path>();
+		private final List<Path> names = new ArrayList<Path>();
+		private long offset;
+		private long skippedCount;
+
+		/**
+		 * Open journal for reading.
+		 *
+		 * @param file
+		 *            journal file
+		 * @throws IOException
+		 *             if file can't be read or is not a journal
+		 */
+		public Reader(Path file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+					throw new IOException("Not a watch event journal: " + file);
+				}
+				startMillis = in.readLong();
+			} catch (IOException e) {
+				in.close();
+				throw e instanceof EOFException ? new IOException("Not a watch event journal: " + file) : e;
+			}
+		}
+
+		/**
+		 * Wall clock time the journal was started.
+		 *
+		 * @return time in milliseconds since epoch
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * Read next batch.
+		 *
+		 * @return next batch, null at the end of the journal
+		 * @throws IOException
+		 *             if journal can't be read
+		 */
+		public Batch next() throws IOException {
+			try {
+				for (;;) {
+					offset += readVarint();
+					Path dir = readName(dirs);
+					int count = (int) readVarint();
+					List<WatchEvent<Path>> events = new ArrayList<WatchEvent<Path>>(count);
+					for (int i = 0; i < count; i++) {
+						int kind = in.readUnsignedByte();
+						int repeat = (int) readVarint();
+						Path context = readName(names);
+						if (kind == KIND_OVERFLOW) {
+							events.add(new FolderWatchEvent<Path>(OVERFLOW, null, repeat));
+						} else if (context == null || dir == null) {
+							skippedCount++;
+						} else {
+							events.add(new FolderWatchEvent<Path>(kindOf(kind), context, repeat));
+						}
+					}
+					if (dir != null) {
+						return new Batch(offset, dir, events);
+					}
+				}
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		private static Kind<Path> kindOf(int kind) throws IOException {
+			switch (kind) {
+			case KIND_CREATE:
+				return StandardWatchEventKinds.ENTRY_CREATE;
+			case KIND_DELETE:
+				return StandardWatchEventKinds.ENTRY_DELETE;
+			case KIND_MODIFY:
+				return StandardWatchEventKinds.ENTRY_MODIFY;
+			default:
+				throw new IOException("Unknown event kind: " + kind);
+			}
+		}
+
+		private Path readName(List<Path> known) throws IOException {
+			long id = readVarint();
+			if (id > 0) {
+				return known.get((int) id - 1);
+			}
+			byte[] bytes = new byte[(int) readVarint()];
+			in.readFully(bytes);
+			Path name;
+			try {
+				name = Paths.get(new String(bytes, StandardCharsets.UTF_8));
+			} catch (InvalidPathException e) {
+				name = null;
+			}
+			if (known.size() < MAX_NAMES) {
+				known.add(name);
+			}
+			return name;
+		}
+
+		private long readVarint() throws IOException {
+			long v = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = in.readUnsignedByte();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return v;
+				}
+			}
+		}
+
+		/**
+		 * Number of events skipped so far because their names are not valid paths.
+		 *
+		 * @return number of skipped events
+		 */
+		public long getSkippedCount() {
+			return skippedCount;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link WatchEventJournal} into a {@link WatchEventHandler}, at the recorded pace, scaled by a speed factor,
+ * or as fast as the handler takes events. Handler latency per event and lag of dispatch behind the scheduled time are
+ * recorded, so handler changes can be measured against real workloads. Overflows are skipped, as watchers handle them
+ * themselves.
+ *
+ * @version $Revision: 1$
+ */
+public class WatchEventReplay {
+	private final Path journal;
+	private final double speed;
+	private Path recordedRoot;
+	private Path replayRoot;
+
+	private final LatencyHistogram handlerLatency = new LatencyHistogram();
+	private final LatencyHistogram lag = new LatencyHistogram();
+	private long batchCount;
+	private long eventCount;
+	private long overflowCount;
+	private long skippedCount;
+	private long elapsedNanos;
+
+	/**
+	 * Create replay of a journal.
+	 *
+	 * @param journal
+	 *            journal file
+	 * @param speed
+	 *            speed factor against the recorded pace, e.g. 2 for twice as fast, 0 for maximum speed
+	 */
+	public WatchEventReplay(Path journal, double speed) {
+		this.journal = journal;
+		this.speed = speed;
+	}
+
+	/**
+	 * Replay events recorded under a given directory under another one, e.g. a copy of the recorded tree.
+	 *
+	 * @param recorded
+	 *            recorded root directory
+	 * @param replay
+	 *            directory replacing recorded root
+	 * @return itself
+	 */
+	public WatchEventReplay setRootMapping(Path recorded, Path replay) {
+		this.recordedRoot = recorded;
+		this.replayRoot = replay;
+		return this;
+	}
+
+	/**
+	 * Feed all journal events to a given handler on the calling thread.
+	 *
+	 * @param handler
+	 *            watch event handler
+	 * @return number of events replayed
+	 * @throws IOException
+	 *             if journal can't be read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the next batch
+	 */
+	public long replay(WatchEventHandler<Path> handler) throws IOException, InterruptedException {
+		WatchEventJournal.Reader reader = new WatchEventJournal.Reader(journal);
+		try {
+			long start = System.nanoTime();
+			long first = -1;
+			WatchEventJournal.Batch batch;
+			while ((batch = reader.next()) != null) {
+				if (first < 0) {
+					first = batch.getOffsetNanos();
+				}
+				long due = start;
+				if (speed > 0) {
+					due += (long) ((batch.getOffsetNanos() - first) / speed);
+					for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+						LockSupport.parkNanos(wait);
+						if (Thread.interrupted()) {
+							throw new InterruptedException();
+						}
+					}
+				}
+				Path dir = map(batch.getDir());
+				long now = System.nanoTime();
+				lag.record(speed > 0 ? Math.max(0, now - due) : 0);
+				batchCount++;
+				for (WatchEvent<Path> event : batch.getEvents()) {
+					if (event.context() == null) { // overflow
+						overflowCount++;
+						continue;
+					}
+					handler.handleEvent(event, dir);
+					long end = System.nanoTime();
+					handlerLatency.record(end - now);
+					now = end;
+					eventCount++;
+				}
+			}
+			elapsedNanos = System.nanoTime() - start;
+			skippedCount = reader.getSkippedCount();
+			return eventCount;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private Path map(Path dir) {
+		if (recordedRoot != null && dir.startsWith(recordedRoot)) {
+			return replayRoot.resolve(recordedRoot.relativize(dir));
+		}
+		return dir;
+	}
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * Number of journal events skipped because their names are not valid paths here.
+	 *
+	 * @return number of skipped events
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Time spent by the handler per event.
+	 *
+	 * @return latency histogram in nanoseconds
+	 */
+	public LatencyHistogram getHandlerLatency() {
+		return handlerLatency;
+	}
+
+	/**
+	 * Delay of batches behind their scheduled time, when the handler does not keep up with the replay pace.
+	 *
+	 * @return lag histogram in nanoseconds
+	 */
+	public LatencyHistogram getLag() {
+		return lag;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"batches=%d, events=%d, overflows=%d, skipped=%d, elapsed.ms=%d, events/sec=%.1f, handler.avg.us=%.1f, handler.p50.us=%d, handler.p99.us=%d, handler.max.us=%d, lag.p50.us=%d, lag.p99.us=%d, lag.max.us=%d",
+				batchCount, eventCount, overflowCount, skippedCount, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+				eventCount * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos),
+				handlerLatency.getMean() / 1000, micros(handlerLatency.getPercentile(50)),
+				micros(handlerLatency.getPercentile(99)), micros(handlerLatency.getMax()),
+				micros(lag.getPercentile(50)), micros(lag.getPercentile(99)), micros(lag.getMax()));
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	/**
+	 * Replay a journal into a {@link FolderEventHandler} configured by {@code tnt4j.folder.*} properties, as
+	 * {@link FolderMonitor} would, and print replay stats.
+	 *
+	 * @param args
+	 *            Usage: [-s speed|max] [-m recorded-root=replay-root] journal-file
+	 * @throws Exception
+	 *             if journal can't be replayed
+	 */
+	public static void main(String[] args) throws Exception {
+		double speed = 1;
+		String mapping = null;
+		Path journal = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-s") && i + 1 < args.length) {
+				String value = args[++i];
+				speed = value.equalsIgnoreCase("max") ? 0 : Double.parseDouble(value);
+			} else if (args[i].equals("-m") && i + 1 < args.length) {
+				mapping = args[++i];
+			} else {
+				journal = Paths.get(args[i]);
+			}
+		}
+		if (journal == null || (mapping != null && mapping.indexOf('=') < 0)) {
+			System.out.println("Usage: [-s speed|max] [-m recorded-root=replay-root] journal-file");
+			System.exit(-1);
+		}
+		WatchEventReplay replay = new WatchEventReplay(journal, speed);
+		Path root = Paths.get("replay");
+		if (mapping != null) {
+			int eq = mapping.indexOf('=');
+			root = Paths.get(mapping.substring(eq + 1));
+			replay.setRootMapping(Paths.get(mapping.substring(0, eq)), root);
+		}
+		FolderEventHandler handler = FolderMonitor.newHandler(root, FolderMonitor.newFileStoreCache(),
+				FolderMonitor.newPropertyTracker(), FolderMonitor.newFingerprinter());
+		System.out.println("Replay journal: file=" + journal + ", speed=" + (speed > 0 ? speed : "max"));
+		replay.replay(handler);
+		System.out.println("Replay stats: " + replay);
+		handler.getEventSink().flush();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class multiplexes many {@link FolderWatcher} roots onto a single {@link WatchService} per {@link FileSystem}.
+ * A small number of poller threads take signalled keys and hand them to a bounded worker pool, which dispatches each
+ * key to the {@link FolderWatcher} owning it. A key is not signalled again until it is reset by its owner, so events
+ * for any given directory are still processed in order. Keys of different directories of one root may be processed
+ * by several workers at once, so handlers of multiplexed roots must be thread safe. Poller and worker threads are
+ * daemons. Pollers wake up periodically to run idle tasks of watchers, such as expiring held deletes, on the workers.
+ *
+ * @see FolderWatcher
+ *
+ * @version $Revision: 1$
+ */
+public class WatchMultiplexer implements Closeable {
+	private static final long MAX_IDLE_MS = 1000;
+
+	private final Map<FileSystem, WatchService> services = new ConcurrentHashMap<FileSystem, WatchService>();
+	private final Map<WatchKey, FolderWatcher> owners = new ConcurrentHashMap<WatchKey, FolderWatcher>();
+	private final Set<WatchKey> orphans = ConcurrentHashMap.newKeySet();
+	private final Set<FolderWatcher> idlers = ConcurrentHashMap.newKeySet();
+	private final AtomicLong nextIdle = new AtomicLong(System.nanoTime());
+	private volatile long idleMs = MAX_IDLE_MS;
+	private final List<Thread> pollerThreads = new ArrayList<Thread>();
+	private final ThreadFactory pollerFactory = new NamedThreadFactory("FolderWatcher-poller");
+	private final LongAdder keyCount = new LongAdder();
+	private final ExecutorService workers;
+	private PollingWatchService pollingService;
+	private boolean pollingStarted = false;
+	private final int pollers;
+	private final int workerCount;
+	private volatile boolean closed = false;
+
+	/**
+	 * Create multiplexer with a given number of poller threads per file system and worker threads.
+	 *
+	 * @param pollers
+	 *            number of threads blocking on each watch service
+	 * @param workers
+	 *            number of threads dispatching keys to watchers
+	 */
+	public WatchMultiplexer(int pollers, int workers) {
+		this(pollers, workers, false);
+	}
+
+	/**
+	 * Create multiplexer with a given number of poller threads per file system, dispatching keys on a bounded pool of
+	 * worker threads or on a new virtual thread per key.
+	 *
+	 * @param pollers
+	 *            number of threads blocking on each watch service
+	 * @param workers
+	 *            number of threads dispatching keys to watchers, ignored when virtual
+	 * @param virtual
+	 *            true to dispatch every key on a new virtual thread, so handlers blocking on I/O don't hold up other
+	 *            roots
+	 * @throws UnsupportedOperationException
+	 *             if virtual and current runtime doesn't support virtual threads
+	 * @see VirtualThreads
+	 */
+	public WatchMultiplexer(int pollers, int workers, boolean virtual) {
+		this.pollers = Math.max(1, pollers);
+		this.workerCount = virtual ? 0 : Math.max(1, workers);
+		this.workers = virtual ? VirtualThreads.newThreadPerTaskExecutor("FolderWatcher-worker")
+				: Executors.newFixedThreadPool(workerCount, new NamedThreadFactory("FolderWatcher-worker"));
+	}
+
+	/**
+	 * Obtain shared watch service for a given file system, creating it and its poller threads on first use.
+	 *
+	 * @param fs
+	 *            file system
+	 * @return shared watch service
+	 * @throws IOException
+	 *             if watch service can't be created
+	 */
+	public synchronized WatchService getWatchService(FileSystem fs) throws IOException {
+		WatchService ws = services.get(fs);
+		if (ws == null) {
+			ws = fs.newWatchService();
+			services.put(fs, ws);
+			startPollers(ws);
+		}
+		return ws;
+	}
+
+	/**
+	 * Set polling watch service used for roots watched by polling and as a fallback when native registration fails.
+	 *
+	 * @param ps
+	 *            polling watch service
+	 * @return itself
+	 */
+	public synchronized WatchMultiplexer setPollingService(PollingWatchService ps) {
+		pollingService = ps;
+		return this;
+	}
+
+	/**
+	 * Obtain polling watch service, starting its poller threads on first use.
+	 *
+	 * @return polling watch service, null if not set
+	 */
+	public synchronized PollingWatchService getPollingService() {
+		if (pollingService != null && !pollingStarted) {
+			pollingStarted = true;
+			startPollers(pollingService);
+		}
+		return pollingService;
+	}
+
+	private void startPollers(WatchService ws) {
+		for (int i = 0; i < pollers; i++) {
+			Thread poller = pollerFactory.newThread(new Poller(ws));
+			pollerThreads.add(poller);
+			poller.start();
+		}
+	}
+
+	void bind(WatchKey key, FolderWatcher owner) {
+		owners.put(key, owner);
+		if (orphans.remove(key)) {
+			dispatch(key, owner);
+		}
+	}
+
+	void unbind(WatchKey key) {
+		owners.remove(key);
+		orphans.remove(key);
+	}
+
+	private void dispatch(final WatchKey key, final FolderWatcher owner) {
+		keyCount.increment();
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!owner.processKey(key)) {
+					owner.stopped();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run idle tasks of a watcher on the workers at least every given period, whether or not its keys are signalled.
+	 *
+	 * @param owner
+	 *            watcher to call
+	 * @param periodMs
+	 *            period in milliseconds
+	 * @see FolderWatcher#idle()
+	 */
+	synchronized void addIdleTask(FolderWatcher owner, long periodMs) {
+		idlers.add(owner);
+		idleMs = Math.max(1, Math.min(idleMs, periodMs));
+	}
+
+	void removeIdleTask(FolderWatcher owner) {
+		idlers.remove(owner);
+	}
+
+	/**
+	 * Dispatch idle tasks when due. Called by every poller, only one of them dispatches per period.
+	 */
+	private void runIdleTasks() {
+		long now = System.nanoTime();
+		long next = nextIdle.get();
+		if (idlers.isEmpty() || closed || now - next < 0
+				|| !nextIdle.compareAndSet(next, now + TimeUnit.MILLISECONDS.toNanos(idleMs))) {
+			return;
+		}
+		for (final FolderWatcher owner : idlers) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					owner.idle();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Number of platform threads used by this multiplexer: pollers for every file system plus workers, which are not
+	 * counted when virtual.
+	 *
+	 * @return number of threads
+	 */
+	public synchronized int getThreadCount() {
+		return pollerThreads.size() + workerCount;
+	}
+
+	/**
+	 * Number of signalled keys dispatched to watchers so far.
+	 *
+	 * @return number of dispatched keys
+	 */
+	public long getKeyCount() {
+		return keyCount.sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (WatchService ws : services.values()) {
+			ws.close();
+		}
+		if (pollingService != null) {
+			pollingService.close();
+		}
+		workers.shutdown();
+	}
+
+	private class Poller implements Runnable {
+		private final WatchService ws;
+
+		Poller(WatchService ws) {
+			this.ws = ws;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					WatchKey key = ws.poll(idleMs, TimeUnit.MILLISECONDS);
+					runIdleTasks();
+					if (key == null) {
+						continue;
+					}
+					FolderWatcher owner = owners.get(key);
+					if (owner == null) {
+						// key signalled before its owner bound it, let bind() dispatch it
+						orphans.add(key);
+						owner = owners.get(key);
+						if (owner == null && !key.isValid()) {
+							// signalled after it was cancelled and unbound, nobody will bind it again
+							orphans.remove(key);
+							key.pollEvents();
+							continue;
+						}
+						if (owner == null || !orphans.remove(key)) {
+							continue;
+						}
+					}
+					dispatch(key, owner);
+				}
+			} catch (InterruptedException e) {
+			} catch (ClosedWatchServiceException e) {
+			}
+		}
+	}
+
+	static class NamedThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+		private final String prefix;
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * {@link ContentFlattener} for XML, using a StAX stream reader. Elements are flattened as {@code parent.element},
+ * repeated sibling elements as {@code parent.element[n]} starting with the second occurrence, attributes as
+ * {@code element@attribute}. Element text is trimmed and empty text is skipped. DTDs and external entities are not
+ * processed.
+ *
+ * @version $Revision: 1$
+ */
+public class XmlFlattener implements ContentFlattener {
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	@Override
+	public void flatten(InputStream in, Properties out, int maxEntries) throws IOException {
+		XMLStreamReader reader;
+		try {
+			synchronized (FACTORY) {
+				reader = FACTORY.createXMLStreamReader(in);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		Deque<Element> stack = new ArrayDeque<Element>();
+		try {
+			while (reader.hasNext() && out.size() < maxEntries) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					String name = reader.getLocalName();
+					String path;
+					if (stack.isEmpty()) {
+						path = name;
+					} else {
+						Element parent = stack.peek();
+						int index = parent.childIndex(name);
+						path = ContentFlatteners.join(parent.path, index == 0 ? name : name + "[" + index + "]");
+					}
+					stack.push(new Element(path));
+					for (int i = 0; i < reader.getAttributeCount() && out.size() < maxEntries; i++) {
+						out.put(path + "@" + reader.getAttributeLocalName(i),
+								ContentFlatteners.clip(reader.getAttributeValue(i)));
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (!stack.isEmpty()) {
+						stack.peek().append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					Element element = stack.pop();
+					String text = element.text == null ? "" : element.text.toString().trim();
+					if (!text.isEmpty()) {
+						out.put(element.path, ContentFlatteners.clip(text));
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+			}
+		}
+	}
+
+	private static class Element {
+		final String path;
+		Map<String, Integer> children;
+		StringBuilder text;
+
+		Element(String path) {
+			this.path = path;
+		}
+
+		int childIndex(String name) {
+			if (children == null) {
+				children = new HashMap<String, Integer>();
+			}
+			Integer count = children.get(name);
+			children.put(name, count == null ? 1 : count + 1);
+			return count == null ? 0 : count;
+		}
+
+		void append(char[] chars, int start, int length) {
+			if (text == null) {
+				text = new StringBuilder();
+			}
+			if (text.length() <= MAX_VALUE_LENGTH) {
+				text.append(chars, start, Math.min(length, MAX_VALUE_LENGTH + 1 - text.length()));
+			}
+		}
+	}
+}
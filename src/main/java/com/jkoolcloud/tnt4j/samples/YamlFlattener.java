@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+
+/**
+ * {@link ContentFlattener} for YAML, reading one line at a time. Block mappings are flattened as
+ * {@code parent.key}, block sequences as {@code parent[index]}, literal ({@code |}) and folded ({@code >}) block
+ * scalars as single values. Flow collections, anchors and tags are kept as raw values; multiple documents are
+ * flattened into the same namespace.
+ *
+ * @version $Revision: 1$
+ */
+public class YamlFlattener implements ContentFlattener {
+
+	@Override
+	public void flatten(InputStream in, Properties out, int maxEntries) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		Deque<Level> levels = new ArrayDeque<Level>();
+		levels.push(new Level("", -1));
+		Level pending = null;
+		int pendingIndent = 0;
+		Block block = null;
+		String line;
+		while ((line = reader.readLine()) != null && out.size() < maxEntries) {
+			int indent = indentOf(line);
+			if (block != null) {
+				if (indent == line.length()) {
+					block.append("");
+					continue;
+				} else if (indent > block.parentIndent) {
+					block.append(line.substring(Math.min(indent, block.indent(indent))));
+					continue;
+				}
+				put(out, block.path, block.value());
+				block = null;
+			}
+			String content = stripComment(line.substring(indent)).trim();
+			if (content.isEmpty() || content.startsWith("%")) {
+				continue;
+			}
+			if (content.equals("---") || content.startsWith("--- ") || content.equals("...")) {
+				while (levels.size() > 1) {
+					levels.pop();
+				}
+				pending = null;
+				continue;
+			}
+			if (pending != null) {
+				if (indent > pendingIndent || (indent == pendingIndent && isItem(content))) {
+					pending.indent = indent;
+					pending.sequence = indent == pendingIndent;
+					levels.push(pending);
+				} else {
+					put(out, pending.path, "");
+				}
+				pending = null;
+			}
+			while (levels.peek().indent > indent
+					|| (levels.peek().sequence && levels.peek().indent == indent && !isItem(content))) {
+				levels.pop();
+			}
+			Level top = levels.peek();
+			if (isItem(content)) {
+				String itemPath = top.path + "[" + top.nextIndex++ + "]";
+				String rest = content.substring(1).trim();
+				if (rest.isEmpty()) {
+					pending = new Level(itemPath, -1);
+					pendingIndent = indent;
+					continue;
+				}
+				if (keyEnd(rest) < 0) {
+					put(out, itemPath, scalar(rest));
+					continue;
+				}
+				// mapping inside a sequence item, its keys are aligned with the first one
+				indent += content.length() - rest.length();
+				top = new Level(itemPath, indent);
+				levels.push(top);
+				content = rest;
+			}
+			int colon = keyEnd(content);
+			if (colon < 0) {
+				if (!top.path.isEmpty()) {
+					put(out, top.path, scalar(content));
+				}
+				continue;
+			}
+			String path = ContentFlatteners.join(top.path, scalar(content.substring(0, colon).trim()));
+			String value = content.substring(colon + 1).trim();
+			if (value.isEmpty()) {
+				pending = new Level(path, -1);
+				pendingIndent = indent;
+			} else if (value.startsWith("|") || value.startsWith(">")) {
+				block = new Block(path, indent, value.startsWith(">"));
+			} else {
+				put(out, path, scalar(value));
+			}
+		}
+		if (block != null) {
+			put(out, block.path, block.value());
+		} else if (pending != null) {
+			put(out, pending.path, "");
+		}
+	}
+
+	private static void put(Properties out, String path, String value) {
+		out.put(path, ContentFlatteners.clip(value));
+	}
+
+	private static int indentOf(String line) {
+		int i = 0;
+		while (i < line.length() && line.charAt(i) == ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isItem(String content) {
+		return content.equals("-") || content.startsWith("- ");
+	}
+
+	private static String stripComment(String content) {
+		char quote = 0;
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else if (c == '\\' && quote == '"') {
+					i++;
+				}
+			} else if (c == '"' || c == '\'') {
+				if (i == 0 || content.charAt(i - 1) == ' ' || content.charAt(i - 1) == '-') {
+					quote = c;
+				}
+			} else if (c == '#' && (i == 0 || content.charAt(i - 1) == ' ' || content.charAt(i - 1) == '\t')) {
+				return content.substring(0, i);
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * Find the colon terminating a mapping key.
+	 *
+	 * @return index of key colon, -1 if content is not a mapping entry
+	 */
+	private static int keyEnd(String content) {
+		int start = 0;
+		char first = content.charAt(0);
+		if (first == '"' || first == '\'') {
+			start = content.indexOf(first, 1);
+			while (start > 0 && first == '"' && content.charAt(start - 1) == '\\') {
+				start = content.indexOf(first, start + 1);
+			}
+			if (start < 0) {
+				return -1;
+			}
+		} else if (first == '{' || first == '[') {
+			return -1;
+		}
+		for (int i = start; i < content.length(); i++) {
+			if (content.charAt(i) == ':' && (i + 1 == content.length() || content.charAt(i + 1) == ' ')) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String scalar(String value) {
+		int len = value.length();
+		if (len >= 2 && value.charAt(0) == '\'' && value.charAt(len - 1) == '\'') {
+			return value.substring(1, len - 1).replace("''", "'");
+		} else if (len >= 2 && value.charAt(0) == '"' && value.charAt(len - 1) == '"') {
+			StringBuilder buf = new StringBuilder(len);
+			for (int i = 1; i < len - 1; i++) {
+				char c = value.charAt(i);
+				if (c == '\\' && i + 1 < len - 1) {
+					c = value.charAt(++i);
+					c = c == 'n' ? '\n' : c == 't' ? '\t' : c == 'r' ? '\r' : c == '0' ? '\0' : c;
+				}
+				buf.append(c);
+			}
+			return buf.toString();
+		}
+		return value;
+	}
+
+	private static class Level {
+		final String path;
+		int indent;
+		boolean sequence;
+		int nextIndex;
+
+		Level(String path, int indent) {
+			this.path = path;
+			this.indent = indent;
+		}
+	}
+
+	private static class Block {
+		final String path;
+		final int parentIndent;
+		final boolean folded;
+		final StringBuilder text = new StringBuilder();
+		int indent = -1;
+		int blankLines;
+
+		Block(String path, int parentIndent, boolean folded) {
+			this.path = path;
+			this.parentIndent = parentIndent;
+			this.folded = folded;
+		}
+
+		int indent(int lineIndent) {
+			if (indent < 0) {
+				indent = lineIndent;
+			}
+			return indent;
+		}
+
+		void append(String line) {
+			if (line.isEmpty()) {
+				blankLines++;
+				return;
+			}
+			if (text.length() > 0) {
+				// folded lines are joined by spaces, blank lines become line breaks
+				int breaks = folded ? blankLines : blankLines + 1;
+				for (int i = 0; i < breaks; i++) {
+					text.append('\n');
+				}
+				if (breaks == 0) {
+					text.append(' ');
+				}
+			}
+			blankLines = 0;
+			if (text.length() <= MAX_VALUE_LENGTH) {
+				text.append(line);
+			}
+		}
+
+		String value() {
+			return text.toString();
+		}
+	}
+}
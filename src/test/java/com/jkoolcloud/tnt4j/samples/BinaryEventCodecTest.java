@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.core.PropertySnapshot;
+import com.jkoolcloud.tnt4j.core.UsecTimestamp;
+
+/**
+ * @version $Revision: 1$
+ */
+public class BinaryEventCodecTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String toJson(BinaryEventCodec codec) throws IOException {
+		StringBuilder json = new StringBuilder();
+		BinaryEventCodec.toJson(ByteBuffer.wrap(codec.array(), 0, codec.length()), json);
+		return json.toString();
+	}
+
+	@Test
+	public void testPlainMessage() throws IOException {
+		BinaryEventCodec codec = new BinaryEventCodec();
+		codec.encode(123L, null, OpLevel.INFO, "Changed: file={0}, by={1}", "a\"b\\c", "ü€😀");
+		assertEquals("{\"record\":\"MESSAGE\",\"time-usec\":123,\"severity\":\"INFO\","
+				+ "\"msg-text\":\"Changed: file=a\\\"b\\\\c, by=ü€😀\"}", toJson(codec));
+	}
+
+	@Test
+	public void testFormattedMessage() throws IOException {
+		BinaryEventCodec codec = new BinaryEventCodec();
+		codec.encode(-5L, null, OpLevel.WARNING, "Size: {0}, ratio={1,number,#.#}", 12345, 0.25);
+		String text = MessageFormat.format("Size: {0}, ratio={1,number,#.#}", 12345, 0.25);
+		assertEquals("{\"record\":\"MESSAGE\",\"time-usec\":-5,\"severity\":\"WARNING\",\"msg-text\":\"" + text + "\"}",
+				toJson(codec));
+	}
+
+	@Test
+	public void testException() throws IOException {
+		BinaryEventCodec codec = new BinaryEventCodec();
+		codec.encode(1L, null, OpLevel.ERROR, "Cannot read: file={0}", "x", new IOException("boom"));
+		String json = toJson(codec);
+		assertTrue(json, json.contains("\"msg-text\":\"Cannot read: file=x\""));
+		assertTrue(json, json.contains("\"exception\":\"java.io.IOException: boom\\n"));
+		assertTrue(json, json.contains(BinaryEventCodecTest.class.getName() + ".testException"));
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		PropertySnapshot snapshot = new PropertySnapshot("Files", "a.properties", OpLevel.INFO, new UsecTimestamp(7, 0));
+		snapshot.add("count", 42L);
+		snapshot.add("delta", -3);
+		snapshot.add("ratio", 0.5);
+		snapshot.add("valid", true);
+		snapshot.add("text", "line1\nline2");
+		String json = toJson(new BinaryEventCodec().encode(snapshot));
+		assertTrue(json, json.startsWith("{\"record\":\"SNAPSHOT\",\"time-usec\":7000,\"category\":\"Files\","
+				+ "\"name\":\"a.properties\",\"severity\":\"INFO\""));
+		assertTrue(json, json.contains("{\"name\":\"count\",\"value-type\":\"none\",\"value\":42}"));
+		assertTrue(json, json.contains("{\"name\":\"delta\",\"value-type\":\"none\",\"value\":-3}"));
+		assertTrue(json, json.contains("{\"name\":\"ratio\",\"value-type\":\"none\",\"value\":0.5}"));
+		assertTrue(json, json.contains("{\"name\":\"valid\",\"value-type\":\"flag\",\"value\":true}"));
+		assertTrue(json, json.contains("{\"name\":\"text\",\"value-type\":\"none\",\"value\":\"line1\\nline2\"}"));
+		assertTrue(json, json.endsWith("]}"));
+	}
+
+	@Test
+	public void testRecordIsReplaced() throws IOException {
+		BinaryEventCodec codec = new BinaryEventCodec();
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			big.append("éx");
+		}
+		codec.encode(1L, null, OpLevel.INFO, big.toString());
+		assertTrue(codec.length() > 3000);
+		assertTrue(toJson(codec).contains(big));
+		codec.encode(2L, null, OpLevel.DEBUG, "short");
+		assertEquals("{\"record\":\"MESSAGE\",\"time-usec\":2,\"severity\":\"DEBUG\",\"msg-text\":\"short\"}",
+				toJson(codec));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedRecord() throws IOException {
+		BinaryEventCodec codec = new BinaryEventCodec().encode(1L, null, OpLevel.INFO, "truncated message");
+		BinaryEventCodec.toJson(ByteBuffer.wrap(codec.array(), 0, codec.length() - 4), new StringBuilder());
+	}
+
+	@Test
+	public void testLogRoundTrip() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		BinaryEventLog log = new BinaryEventLog(dir, "test", 64 * 1024, 4096, 10, false);
+		BinaryEventCodec codec = new BinaryEventCodec();
+		int count = 2000;
+		try {
+			for (int i = 0; i < count; i++) {
+				codec.encode(i, null, OpLevel.INFO, "Record {0} of a log spanning several segments", "#" + i);
+				assertTrue(log.append(codec.array(), 0, codec.length()));
+			}
+			assertFalse(log.append(new byte[128 * 1024], 0, 128 * 1024));
+			assertEquals(1, log.getDroppedCount());
+		} finally {
+			log.close();
+		}
+		List<Path> segments = BinaryEventLog.listSegments(dir, "test");
+		assertTrue(segments.size() > 1);
+		final List<String> records = new ArrayList<String>();
+		long read = 0;
+		for (Path segment : segments) {
+			read += BinaryEventLog.read(segment, new BinaryEventLog.RecordReader() {
+				@Override
+				public void read(ByteBuffer record) throws IOException {
+					StringBuilder json = new StringBuilder();
+					BinaryEventCodec.toJson(record, json);
+					records.add(json.toString());
+				}
+			});
+		}
+		assertEquals(count, read);
+		assertEquals(count, log.getRecordCount());
+		for (int i = 0; i < count; i++) {
+			assertEquals("{\"record\":\"MESSAGE\",\"time-usec\":" + i + ",\"severity\":\"INFO\",\"msg-text\":\"Record #"
+					+ i + " of a log spanning several segments\"}", records.get(i));
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * @version $Revision: 1$
+ */
+public class ContentFlattenersTest {
+
+	private static Properties flatten(String fileName, String content, int maxEntries) throws IOException {
+		Properties out = new Properties();
+		ContentFlatteners.forName(fileName)
+				.flatten(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), out, maxEntries);
+		return out;
+	}
+
+	@Test
+	public void testForName() {
+		assertTrue(ContentFlatteners.forName("a.yml") instanceof YamlFlattener);
+		assertTrue(ContentFlatteners.forName("A.YAML") instanceof YamlFlattener);
+		assertTrue(ContentFlatteners.forName("a.xml") instanceof XmlFlattener);
+		assertTrue(ContentFlatteners.forName("a.json") instanceof JsonFlattener);
+		assertSame(ContentFlatteners.PROPERTIES, ContentFlatteners.forName("a.properties"));
+		assertSame(ContentFlatteners.PROPERTIES, ContentFlatteners.forName("noext"));
+	}
+
+	@Test
+	public void testProperties() throws IOException {
+		Properties out = flatten("a.properties", "a=1\nb = two\\\n  three\n# c=0\nc:3\n", 100);
+		assertEquals(3, out.size());
+		assertEquals("1", out.getProperty("a"));
+		assertEquals("twothree", out.getProperty("b"));
+		assertEquals("3", out.getProperty("c"));
+		assertEquals(2, flatten("a.properties", "a=1\nb=2\nc=3\na=4\n", 2).size());
+		assertEquals("4", flatten("a.properties", "a=1\nb=2\nc=3\na=4\n", 2).getProperty("a"));
+	}
+
+	@Test
+	public void testYaml() throws IOException {
+		Properties out = flatten("a.yaml",
+				"# comment\n" //
+						+ "server:\n" //
+						+ "  host: localhost # inline\n" //
+						+ "  port: 8080\n" //
+						+ "  tags:\n" //
+						+ "    - web\n" //
+						+ "    - 'api'\n" //
+						+ "list:\n" //
+						+ "  - name: x\n" //
+						+ "    val: 1\n" //
+						+ "  - name: y\n" //
+						+ "text: |\n" //
+						+ "  line1\n" //
+						+ "  line2\n" //
+						+ "folded: >\n" //
+						+ "  a\n" //
+						+ "  b\n" //
+						+ "flow: [1, 2]\n" //
+						+ "quoted: \"a: b\"\n" //
+						+ "---\n" //
+						+ "other: 2\n",
+				100);
+		assertEquals(12, out.size());
+		assertEquals("localhost", out.getProperty("server.host"));
+		assertEquals("8080", out.getProperty("server.port"));
+		assertEquals("web", out.getProperty("server.tags[0]"));
+		assertEquals("api", out.getProperty("server.tags[1]"));
+		assertEquals("x", out.getProperty("list[0].name"));
+		assertEquals("1", out.getProperty("list[0].val"));
+		assertEquals("y", out.getProperty("list[1].name"));
+		assertEquals("line1\nline2", out.getProperty("text"));
+		assertEquals("a b", out.getProperty("folded"));
+		assertEquals("[1, 2]", out.getProperty("flow"));
+		assertEquals("a: b", out.getProperty("quoted"));
+		assertEquals("2", out.getProperty("other"));
+		assertEquals(2, flatten("a.yaml", "a: 1\nb: 2\nc: 3\n", 2).size());
+	}
+
+	@Test
+	public void testXml() throws IOException {
+		Properties out = flatten("a.xml",
+				"<?xml version=\"1.0\"?>\n<config version=\"2\"><server host=\"h\"><port> 80 </port></server>"
+						+ "<item>a</item><item>b</item><item>c</item><empty/></config>",
+				100);
+		assertEquals(6, out.size());
+		assertEquals("2", out.getProperty("config@version"));
+		assertEquals("h", out.getProperty("config.server@host"));
+		assertEquals("80", out.getProperty("config.server.port"));
+		assertEquals("a", out.getProperty("config.item"));
+		assertEquals("b", out.getProperty("config.item[1]"));
+		assertEquals("c", out.getProperty("config.item[2]"));
+		assertEquals(2, flatten("a.xml", "<a><b>1</b><c>2</c><d>3</d></a>", 2).size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testXmlExternalEntitiesAreRejected() throws IOException {
+		flatten("a.xml", "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><a>&e;</a>",
+				100);
+	}
+
+	@Test
+	public void testJson() throws IOException {
+		Properties out = flatten("a.json", "{\"a\":{\"b\":[1,{\"c\":true}],\"d\":null},\"e\":\"x\\u00fc\"}", 100);
+		assertEquals(4, out.size());
+		assertEquals("1", out.getProperty("a.b[0]"));
+		assertEquals("true", out.getProperty("a.b[1].c"));
+		assertEquals("null", out.getProperty("a.d"));
+		assertEquals("xü", out.getProperty("e"));
+	}
+
+	@Test
+	public void testLongValuesAreClipped() throws IOException {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i <= ContentFlattener.MAX_VALUE_LENGTH; i++) {
+			value.append('v');
+		}
+		Properties out = flatten("a.properties", "a=" + value, 100);
+		assertEquals(ContentFlattener.MAX_VALUE_LENGTH + 3, out.getProperty("a").length());
+		assertTrue(out.getProperty("a").endsWith("..."));
+	}
+}
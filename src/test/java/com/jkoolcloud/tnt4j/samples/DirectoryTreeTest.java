@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @version $Revision: 1$
+ */
+public class DirectoryTreeTest {
+	private static final Path ROOT = Paths.get("/watched");
+	private static final int CHILDREN = 200;
+
+	private static WatchKey watch(DirectoryTree tree, Path dir) {
+		WatchKey key = new StubWatchKey(dir);
+		tree.put(dir, key);
+		return key;
+	}
+
+	@Test
+	public void testManyChildren() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey[] keys = new WatchKey[CHILDREN];
+		for (int i = 0; i < CHILDREN; i++) {
+			keys[i] = watch(tree, ROOT.resolve("d" + i));
+		}
+		assertEquals(CHILDREN + 1, tree.size());
+		assertEquals(CHILDREN, tree.getKeyCount());
+		for (int i = 0; i < CHILDREN; i++) {
+			assertEquals(ROOT.resolve("d" + i), tree.get(keys[i]));
+			assertSame(keys[i], tree.keyOf(ROOT.resolve("d" + i)));
+		}
+		// removals shift probe sequences, every remaining child must still be found
+		for (int i = 0; i < CHILDREN; i += 3) {
+			assertTrue(tree.remove(ROOT.resolve("d" + i)));
+		}
+		for (int i = 0; i < CHILDREN; i++) {
+			assertEquals(i % 3 != 0, tree.contains(ROOT.resolve("d" + i)));
+		}
+		Map<WatchKey, Path> stale = tree.sweep();
+		assertEquals((CHILDREN + 2) / 3, stale.size());
+		assertEquals(CHILDREN - stale.size() + 1, tree.size());
+		for (int i = 0; i < CHILDREN; i += 3) {
+			assertEquals(ROOT.resolve("d" + i), stale.get(keys[i]));
+			assertFalse(keys[i].isValid());
+			keys[i] = watch(tree, ROOT.resolve("d" + i));
+		}
+		for (int i = 0; i < CHILDREN; i++) {
+			assertEquals(ROOT.resolve("d" + i), tree.get(keys[i]));
+		}
+		assertEquals(CHILDREN + 1, tree.size());
+	}
+
+	@Test
+	public void testAncestorsAreAdded() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey key = watch(tree, ROOT.resolve("a/b/c"));
+		assertTrue(tree.contains(ROOT.resolve("a")));
+		assertTrue(tree.contains(ROOT.resolve("a/b")));
+		assertNull(tree.keyOf(ROOT.resolve("a")));
+		assertEquals(4, tree.size());
+		assertEquals(ROOT.resolve("a/b/c"), tree.removeKey(key));
+		assertFalse(tree.contains(ROOT.resolve("a/b/c")));
+		assertTrue(tree.contains(ROOT.resolve("a/b")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutOutsideRoot() {
+		watch(new DirectoryTree(ROOT), Paths.get("/other/dir"));
+	}
+
+	@Test
+	public void testRemovedSubtreeKeysAreStale() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey a = watch(tree, ROOT.resolve("a"));
+		WatchKey b = watch(tree, ROOT.resolve("a/b"));
+		WatchKey c = watch(tree, ROOT.resolve("c"));
+		assertTrue(tree.remove(ROOT.resolve("a")));
+		assertEquals(1, tree.getDetachedCount());
+		assertTrue(tree.isStale(a));
+		assertTrue(tree.isStale(b));
+		assertFalse(tree.isStale(c));
+		// keys of removed directories resolve to the paths they had
+		assertEquals(ROOT.resolve("a/b"), tree.get(b));
+		assertTrue(tree.cancelIfStale(b));
+		assertFalse(b.isValid());
+		assertFalse(tree.cancelIfStale(c));
+		assertTrue(c.isValid());
+
+		Map<WatchKey, Path> stale = tree.sweep();
+		assertEquals(2, stale.size());
+		assertEquals(ROOT.resolve("a"), stale.get(a));
+		assertFalse(a.isValid());
+		assertNull(tree.get(a));
+		assertEquals(0, tree.getDetachedCount());
+		assertEquals(2, tree.size());
+	}
+
+	@Test
+	public void testRemoveWithKey() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey old = watch(tree, ROOT.resolve("a"));
+		assertTrue(tree.remove(ROOT.resolve("a")));
+		WatchKey recreated = watch(tree, ROOT.resolve("a"));
+		// delete of the old directory arriving late must not remove the new one
+		assertFalse(tree.remove(ROOT.resolve("a"), old));
+		assertTrue(tree.contains(ROOT.resolve("a")));
+		assertTrue(tree.remove(ROOT.resolve("a"), recreated));
+		assertFalse(tree.contains(ROOT.resolve("a")));
+	}
+
+	@Test
+	public void testMove() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey a = watch(tree, ROOT.resolve("a"));
+		WatchKey b = watch(tree, ROOT.resolve("a/b"));
+		watch(tree, ROOT.resolve("x"));
+		assertTrue(tree.move(ROOT.resolve("a"), ROOT.resolve("x/y")));
+		assertFalse(tree.contains(ROOT.resolve("a")));
+		assertEquals(ROOT.resolve("x/y"), tree.get(a));
+		assertEquals(ROOT.resolve("x/y/b"), tree.get(b));
+		assertFalse(tree.isStale(b));
+		assertFalse(tree.move(ROOT.resolve("missing"), ROOT.resolve("z")));
+		assertFalse(tree.move(ROOT.resolve("x"), ROOT.resolve("x/y/b")));
+		assertFalse(tree.move(ROOT, ROOT.resolve("z")));
+	}
+
+	@Test
+	public void testReplacedKey() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		WatchKey first = watch(tree, ROOT.resolve("a"));
+		WatchKey second = new StubWatchKey(ROOT.resolve("a"));
+		assertNull(tree.put(ROOT.resolve("a"), second));
+		assertSame(second, tree.keyOf(ROOT.resolve("a")));
+		// a directory whose key was replaced stays when the old key is forgotten
+		assertEquals(ROOT.resolve("a"), tree.removeKey(first));
+		assertTrue(tree.contains(ROOT.resolve("a")));
+		assertEquals(ROOT.resolve("a"), tree.get(second));
+	}
+
+	@Test
+	public void testClear() {
+		DirectoryTree tree = new DirectoryTree(ROOT);
+		watch(tree, ROOT.resolve("a/b"));
+		tree.clear();
+		assertTrue(tree.isEmpty());
+		assertEquals(1, tree.size());
+		assertFalse(tree.contains(ROOT.resolve("a")));
+		assertTrue(tree.estimateBytes() > 0);
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jkoolcloud.tnt4j.sink.EventSink;
+
+/**
+ * @version $Revision: 1$
+ */
+public class EventCoalescerTest {
+	private static final Path DIR = Paths.get("root");
+	private static final long WINDOW_MS = 60000;
+
+	private static Kind<Path> merged(Kind<Path> before, Kind<Path> after) {
+		FolderWatchEvent<Path> pending = new FolderWatchEvent<Path>(before, Paths.get("a"), 1);
+		if (!EventCoalescer.merge(pending, new FolderWatchEvent<Path>(after, Paths.get("a"), 1))) {
+			return null;
+		}
+		assertEquals(2, pending.count());
+		return pending.kind();
+	}
+
+	@Test
+	public void testMergeRules() {
+		assertSame(ENTRY_CREATE, merged(ENTRY_CREATE, ENTRY_MODIFY));
+		assertSame(FolderWatchEvent.ENTRY_MOVE, merged(FolderWatchEvent.ENTRY_MOVE, ENTRY_MODIFY));
+		assertSame(ENTRY_MODIFY, merged(ENTRY_MODIFY, ENTRY_CREATE));
+		assertSame(null, merged(ENTRY_CREATE, ENTRY_DELETE));
+		assertSame(ENTRY_MODIFY, merged(ENTRY_DELETE, ENTRY_CREATE));
+		assertSame(ENTRY_DELETE, merged(ENTRY_MODIFY, ENTRY_DELETE));
+		assertSame(ENTRY_DELETE, merged(FolderWatchEvent.ENTRY_MOVE, ENTRY_DELETE));
+		assertSame(ENTRY_MODIFY, merged(ENTRY_MODIFY, ENTRY_MODIFY));
+	}
+
+	@Test
+	public void testBurstIsCoalesced() {
+		RecordingHandler handler = new RecordingHandler();
+		EventCoalescer coalescer = new EventCoalescer(handler, WINDOW_MS, 100);
+		try {
+			coalescer.submit(event(ENTRY_CREATE, "a"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "b"), DIR);
+			for (int i = 0; i < 5; i++) {
+				coalescer.submit(event(ENTRY_MODIFY, "a"), DIR);
+			}
+			coalescer.submit(event(ENTRY_CREATE, "c"), DIR);
+			coalescer.submit(event(ENTRY_DELETE, "c"), DIR);
+			assertTrue(handler.events.isEmpty());
+			assertEquals(2, coalescer.getPendingCount());
+		} finally {
+			coalescer.close();
+		}
+		assertEquals(2, handler.events.size());
+		assertSame(ENTRY_CREATE, handler.events.get(0).kind());
+		assertEquals(Paths.get("a"), handler.events.get(0).context());
+		assertEquals(6, handler.events.get(0).count());
+		assertSame(ENTRY_MODIFY, handler.events.get(1).kind());
+		assertEquals(Paths.get("b"), handler.events.get(1).context());
+		assertEquals(9, coalescer.getReceivedCount());
+		assertEquals(2, coalescer.getEmittedCount());
+		assertEquals(0, coalescer.getPendingCount());
+	}
+
+	@Test
+	public void testFullEntryIsPassedOnInOrder() {
+		RecordingHandler handler = new RecordingHandler();
+		EventCoalescer coalescer = new EventCoalescer(handler, WINDOW_MS, 3);
+		try {
+			coalescer.submit(event(ENTRY_MODIFY, "a"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "b"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "c"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "b"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "b"), DIR);
+			// older entry of "a" goes first, "c" is still held
+			assertEquals(2, handler.events.size());
+			assertEquals(Paths.get("a"), handler.events.get(0).context());
+			assertEquals(Paths.get("b"), handler.events.get(1).context());
+			assertEquals(3, handler.events.get(1).count());
+			assertEquals(1, coalescer.getPendingCount());
+		} finally {
+			coalescer.close();
+		}
+		assertEquals(Paths.get("c"), handler.events.get(2).context());
+	}
+
+	@Test
+	public void testFlushPath() {
+		RecordingHandler handler = new RecordingHandler();
+		EventCoalescer coalescer = new EventCoalescer(handler, WINDOW_MS, 100);
+		try {
+			coalescer.submit(event(ENTRY_MODIFY, "x"), DIR);
+			coalescer.submit(event(ENTRY_CREATE, "a"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "b"), DIR);
+			coalescer.submit(event(ENTRY_MODIFY, "a1"), DIR.resolve("a"));
+			coalescer.submit(event(ENTRY_MODIFY, "c"), DIR);
+			// a move of "a" must not overtake pending events of "a" and paths under it
+			coalescer.flush(DIR.resolve("a"));
+			assertEquals(4, handler.events.size());
+			assertEquals(Paths.get("x"), handler.events.get(0).context());
+			assertEquals(Paths.get("a"), handler.events.get(1).context());
+			assertEquals(Paths.get("b"), handler.events.get(2).context());
+			assertEquals(Paths.get("a1"), handler.events.get(3).context());
+			assertEquals(1, coalescer.getPendingCount());
+			coalescer.flush(DIR.resolve("missing"));
+			assertEquals(1, coalescer.getPendingCount());
+		} finally {
+			coalescer.close();
+		}
+	}
+
+	@Test
+	public void testWindowFlush() throws InterruptedException {
+		RecordingHandler handler = new RecordingHandler();
+		EventCoalescer coalescer = new EventCoalescer(handler, 20, 100);
+		try {
+			coalescer.submit(event(ENTRY_MODIFY, "a"), DIR);
+			assertEquals(5, coalescer.getTickMillis());
+			coalescer.flush(false);
+			assertEquals(0, handler.size());
+			Thread.sleep(40);
+			coalescer.flush(false);
+			assertEquals(1, handler.size());
+			assertFalse(coalescer.getPendingCount() > 0);
+		} finally {
+			coalescer.close();
+		}
+	}
+
+	private static WatchEvent<Path> event(Kind<Path> kind, String name) {
+		return new FolderWatchEvent<Path>(kind, Paths.get(name), 1);
+	}
+
+	private static class RecordingHandler extends SimpleFileVisitor<Path> implements WatchEventHandler<Path> {
+		final List<WatchEvent<Path>> events = new ArrayList<WatchEvent<Path>>();
+
+		@Override
+		public synchronized void handleEvent(WatchEvent<Path> event, Path root) {
+			events.add(event);
+		}
+
+		synchronized int size() {
+			return events.size();
+		}
+
+		@Override
+		public EventSink getEventSink() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @version $Revision: 1$
+ */
+public class MoveCorrelatorTest {
+	private static final long WINDOW_MS = 60000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path root;
+	private Path dirA;
+	private Path dirB;
+	private DirectoryTree tree;
+	private WatchKey rootKey;
+	private WatchKey keyA;
+	private WatchKey keyB;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot().toPath();
+		dirA = Files.createDirectory(root.resolve("a"));
+		dirB = Files.createDirectory(root.resolve("b"));
+		tree = new DirectoryTree(root);
+		rootKey = watch(root);
+		keyA = watch(dirA);
+		keyB = watch(dirB);
+	}
+
+	private WatchKey watch(Path dir) {
+		WatchKey key = new StubWatchKey(dir);
+		tree.put(dir, key);
+		return key;
+	}
+
+	private static WatchEvent<Path> delete(String name) {
+		return new FolderWatchEvent<Path>(ENTRY_DELETE, Paths.get(name), 1);
+	}
+
+	@Test
+	public void testDeleteThenCreate() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		correlator.remember(dirA.resolve("f"), "k1");
+		assertTrue(correlator.holdDelete(keyA, delete("f"), dirA));
+		assertEquals(1, correlator.getPendingCount());
+		assertEquals(dirA.resolve("f"), correlator.matchCreate(dirB.resolve("g"), "k1"));
+		assertEquals(0, correlator.getPendingCount());
+		assertEquals(1, correlator.getMovedCount());
+		assertTrue(correlator.expire(true).isEmpty());
+		// target is remembered, so it can be moved again
+		assertTrue(correlator.holdDelete(keyB, delete("g"), dirB));
+	}
+
+	@Test
+	public void testUnmatchedDelete() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		assertFalse(correlator.holdDelete(keyA, delete("unknown"), dirA));
+		correlator.remember(dirA.resolve("f"), "k1");
+		assertTrue(correlator.holdDelete(keyA, delete("f"), dirA));
+		assertTrue(correlator.expire(false).isEmpty());
+		List<MoveCorrelator.Pending> expired = correlator.expire(true);
+		assertEquals(1, expired.size());
+		assertEquals(dirA, expired.get(0).getDir());
+		assertEquals(Paths.get("f"), expired.get(0).getEvent().context());
+		assertNull(expired.get(0).getKey());
+		assertEquals(1, correlator.getUnmatchedCount());
+		assertNull(correlator.matchCreate(dirB.resolve("f"), "k1"));
+		assertEquals(0, correlator.getMovedCount());
+	}
+
+	@Test
+	public void testCreateThenDelete() throws IOException {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		correlator.remember(dirA.resolve("f"), "k1");
+		// file is already gone from its source when the create is handled
+		Files.createFile(dirB.resolve("g"));
+		assertEquals(dirA.resolve("f"), correlator.matchCreate(dirB.resolve("g"), "k1"));
+		assertEquals(1, correlator.getMovedCount());
+		// the delete arriving later was reported as part of the move
+		assertTrue(correlator.holdDelete(keyA, delete("f"), dirA));
+		assertEquals(0, correlator.getPendingCount());
+		assertTrue(correlator.expire(true).isEmpty());
+	}
+
+	@Test
+	public void testLinkIsNotMove() throws IOException {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		Files.createFile(dirA.resolve("f"));
+		correlator.remember(dirA.resolve("f"), "k1");
+		assertNull(correlator.matchCreate(dirB.resolve("g"), "k1"));
+		assertNull(correlator.matchCreate(dirB.resolve("h"), null));
+		assertEquals(0, correlator.getMovedCount());
+	}
+
+	@Test
+	public void testNamesFollowMovedDirectory() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		correlator.remember(dirA.resolve("f"), "k1");
+		Path moved = root.resolve("c");
+		assertTrue(tree.move(dirA, moved));
+		assertTrue(correlator.holdDelete(keyA, delete("f"), moved));
+		assertEquals(moved.resolve("f"), correlator.matchCreate(dirB.resolve("f"), "k1"));
+	}
+
+	@Test
+	public void testDeleteInRemovedDirectory() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		correlator.remember(dirA.resolve("f"), "k1");
+		tree.remove(dirA);
+		// the key of the removed directory still resolves to its node
+		assertTrue(correlator.holdDelete(keyA, delete("f"), dirA));
+		assertEquals(dirA.resolve("f"), correlator.matchCreate(dirB.resolve("f"), "k1"));
+	}
+
+	@Test
+	public void testDeletedDirectoryKeepsKey() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 100);
+		correlator.remember(dirA, "k1");
+		assertTrue(correlator.holdDelete(rootKey, delete("a"), root));
+		List<MoveCorrelator.Pending> expired = correlator.expire(true);
+		assertEquals(1, expired.size());
+		assertSame(keyA, expired.get(0).getKey());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedAreForgotten() {
+		MoveCorrelator correlator = new MoveCorrelator(tree, WINDOW_MS, 2);
+		correlator.remember(dirA.resolve("f1"), "k1");
+		correlator.remember(dirA.resolve("f2"), "k2");
+		correlator.remember(dirA.resolve("f3"), "k3");
+		assertEquals(2, correlator.size());
+		assertFalse(correlator.holdDelete(keyA, delete("f1"), dirA));
+		assertTrue(correlator.holdDelete(keyA, delete("f3"), dirA));
+		// paths outside the tree are not remembered
+		correlator.remember(root.getParent().resolve("outside"), "k4");
+		assertEquals(1, correlator.size());
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * @version $Revision: 1$
+ */
+public class PathFilterEngineTest {
+
+	private static boolean globMatches(String glob, String path) {
+		return Pattern.compile(PathFilterEngine.globToRegex(glob)).matcher(path).matches();
+	}
+
+	@Test
+	public void testWildcards() {
+		assertTrue(globMatches("*.log", "app.log"));
+		assertFalse(globMatches("*.log", "logs/app.log"));
+		assertTrue(globMatches("logs/**/*.log", "logs/app.log"));
+		assertTrue(globMatches("logs/**/*.log", "logs/a/b/app.log"));
+		assertTrue(globMatches("logs/**", "logs/a/b"));
+		assertTrue(globMatches("a?c", "abc"));
+		assertFalse(globMatches("a?c", "a/c"));
+		assertTrue(globMatches("a.b", "a.b"));
+		assertFalse(globMatches("a.b", "axb"));
+		assertTrue(globMatches("a+(b)$", "a+(b)$"));
+	}
+
+	@Test
+	public void testGroups() {
+		assertTrue(globMatches("*.{yml,yaml}", "app.yaml"));
+		assertFalse(globMatches("*.{yml,yaml}", "app.json"));
+		assertTrue(globMatches("{a,{b,c}d}", "cd"));
+		assertTrue(globMatches("{a,{b,c}d}", "a"));
+		assertFalse(globMatches("{a,{b,c}d}", "c"));
+		assertTrue(globMatches("a,b", "a,b"));
+		assertTrue(globMatches("a}b", "a}b"));
+	}
+
+	@Test
+	public void testUnclosedGroupIsLiteral() {
+		assertTrue(globMatches("{a", "{a"));
+		assertTrue(globMatches("x{a,b", "x{a,b"));
+		assertTrue(globMatches("{a,{b}", "{a,b"));
+		assertFalse(globMatches("{a,{b}", "a"));
+	}
+
+	@Test
+	public void testClasses() {
+		assertTrue(globMatches("[abc].txt", "b.txt"));
+		assertFalse(globMatches("[abc].txt", "d.txt"));
+		assertTrue(globMatches("[!abc].txt", "d.txt"));
+		assertFalse(globMatches("[!abc].txt", "a.txt"));
+		assertTrue(globMatches("[]a]", "]"));
+		assertTrue(globMatches("[a-c]", "b"));
+		assertTrue(globMatches("[&^\\[]", "^"));
+		assertTrue(globMatches("[&^\\[]", "["));
+		assertFalse(globMatches("[&^\\[]", "a"));
+	}
+
+	@Test
+	public void testUnclosedClassIsLiteral() {
+		assertTrue(globMatches("[a", "[a"));
+		assertTrue(globMatches("[]", "[]"));
+		assertTrue(globMatches("[!]", "[!]"));
+		assertTrue(globMatches("a[b*", "a[bcd"));
+	}
+
+	@Test
+	public void testEngine() {
+		PathFilterEngine engine = new PathFilterEngine("*.properties;conf/**/*.{yml,yaml};regex:.*\\.json",
+				".git;*.tmp;build/");
+		assertFalse(engine.isEmpty());
+		assertTrue(engine.hasIncludes());
+		assertTrue(engine.acceptsFile(Paths.get("a", "b.properties")));
+		assertTrue(engine.acceptsFile(Paths.get("conf", "x", "app.yml")));
+		assertFalse(engine.acceptsFile(Paths.get("other", "app.yml")));
+		assertTrue(engine.acceptsFile(Paths.get("data", "c.json")));
+		assertFalse(engine.acceptsFile(Paths.get("a.txt")));
+		assertFalse(engine.acceptsFile(Paths.get("a.tmp")));
+		assertFalse(engine.acceptsDirectory(Paths.get("x", ".git")));
+		assertFalse(engine.acceptsDirectory(Paths.get("build")));
+		assertTrue(engine.acceptsDirectory(Paths.get("src")));
+		assertTrue(new PathFilterEngine("", " ; ").isEmpty());
+	}
+
+	@Test
+	public void testSuffixTrie() {
+		PathFilterEngine.SuffixTrie trie = new PathFilterEngine.SuffixTrie(Arrays.asList(".tmp", "~", ".swp"));
+		assertTrue(trie.matches("a.tmp"));
+		assertTrue(trie.matches("a~"));
+		assertTrue(trie.matches(".swp"));
+		assertFalse(trie.matches("a.tm"));
+		assertTrue(new PathFilterEngine.SuffixTrie(Arrays.asList("")).matches("any"));
+	}
+}
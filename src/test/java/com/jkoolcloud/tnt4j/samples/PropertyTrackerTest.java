@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @version $Revision: 1$
+ */
+public class PropertyTrackerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUnchangedContentIsNotParsed() throws IOException {
+		PropertyTracker tracker = new PropertyTracker(100, 1024 * 1024, false);
+		Path file = Files.write(folder.getRoot().toPath().resolve("a.properties"),
+				"a=1\nb=2\n".getBytes(StandardCharsets.UTF_8));
+		PropertyTracker.Change change = tracker.update(file);
+		assertNull(change.getBefore());
+		assertEquals("2", change.getAfter().getProperty("b"));
+		assertEquals(ContentHash.hash(file), change.getHash());
+		assertNull(tracker.update(file));
+		assertEquals(1, tracker.getParsedCount());
+		assertEquals(1, tracker.getUnchangedCount());
+
+		Files.write(file, "a=1\nb=3\n".getBytes(StandardCharsets.UTF_8));
+		change = tracker.update(file);
+		assertEquals("2", change.getBefore().getProperty("b"));
+		assertEquals("3", change.getAfter().getProperty("b"));
+	}
+
+	@Test
+	public void testHashCoversUnparsedContent() throws IOException {
+		PropertyTracker tracker = new PropertyTracker(100, 1024 * 1024, false).setMaxKeys(2);
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			content.append("key").append(i).append('=').append(i).append('\n');
+		}
+		// mapped when hashed, streamed when parsed
+		Path file = Files.write(folder.getRoot().toPath().resolve("big.properties"),
+				content.toString().getBytes(StandardCharsets.UTF_8));
+		PropertyTracker.Change change = tracker.update(file);
+		assertEquals(2, change.getAfter().size());
+		assertEquals(ContentHash.hash(file), change.getHash());
+		assertNull(tracker.update(file));
+	}
+
+	@Test
+	public void testIncrementalHash() {
+		byte[] bytes = new byte[1000];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		for (int length : new int[] { 0, 1, 7, 8, 9, 999 }) {
+			ContentHash.Hasher hasher = new ContentHash.Hasher(length);
+			for (int i = 0; i < length; i += 3) {
+				hasher.update(bytes, i, Math.min(3, length - i));
+			}
+			assertEquals(ContentHash.hash(bytes, 0, length), hasher.finish());
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @version $Revision: 1$
+ */
+public class SnapshotIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path indexFile;
+	private Path fileA;
+	private Path fileB;
+
+	@Before
+	public void setUp() throws IOException {
+		indexFile = folder.getRoot().toPath().resolve("index").resolve("test.idx");
+		fileA = Files.write(folder.getRoot().toPath().resolve("a.properties"),
+				"a=1\n".getBytes(StandardCharsets.UTF_8));
+		fileB = Files.write(folder.getRoot().toPath().resolve("b.properties"),
+				"b=2\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static BasicFileAttributes attributesOf(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+
+	private static Properties props(String key, String value) {
+		Properties props = new Properties();
+		props.setProperty(key, value);
+		return props;
+	}
+
+	@Test
+	public void testEntriesPersist() throws IOException {
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			assertFalse(index.beginScan());
+			index.putContent(fileA, 11, props("a", "1"));
+			index.putAttributes(fileB, attributesOf(fileB));
+			assertEquals(2, index.size());
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(2, index.size());
+			SnapshotIndex.Entry entry = index.get(fileA);
+			assertNotNull(entry);
+			assertTrue(entry.matches(attributesOf(fileA)));
+			assertEquals(11, entry.getHash());
+			assertTrue(entry.isContentCurrent());
+			assertEquals(props("a", "1"), entry.getProperties());
+			assertFalse(index.get(fileB).hasProperties());
+			assertNull(index.get(folder.getRoot().toPath().resolve("missing")));
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testChangedAttributesMarkContentStale() throws IOException {
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			index.putContent(fileA, 11, props("a", "1"));
+			// unchanged attributes keep the content hash
+			index.putAttributes(fileA, attributesOf(fileA));
+			assertTrue(index.get(fileA).isContentCurrent());
+
+			Files.write(fileA, "a=22\n".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(fileA, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+			assertFalse(index.get(fileA).matches(attributesOf(fileA)));
+			index.update(fileA);
+			SnapshotIndex.Entry entry = index.get(fileA);
+			assertTrue(entry.matches(attributesOf(fileA)));
+			assertFalse(entry.isContentCurrent());
+			// previous content is kept until it is refreshed
+			assertEquals(props("a", "1"), entry.getProperties());
+
+			Files.delete(fileB);
+			index.putAttributes(fileB, attributesOf(fileA));
+			index.update(fileB);
+			assertNull(index.get(fileB));
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testRemoveAndSweepPersist() throws IOException {
+		Path fileC = Files.write(folder.getRoot().toPath().resolve("c"), new byte[0]);
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			index.update(fileA);
+			index.update(fileB);
+			index.update(fileC);
+			index.remove(fileB);
+			assertEquals(2, index.size());
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(2, index.size());
+			assertNull(index.get(fileB));
+			assertTrue(index.beginScan());
+			index.update(fileA);
+			assertEquals(Collections.singletonList(fileC.toString()), index.sweep());
+			assertTrue(index.sweep().isEmpty());
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(Collections.singleton(fileA.toString()), index.entries().keySet());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testRemoveTree() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path dir = Files.createDirectory(root.resolve("dir"));
+		Path sibling = Files.createDirectory(root.resolve("dir0"));
+		Path nested = Files.createDirectories(dir.resolve("sub"));
+		Path[] paths = { dir, nested, Files.createFile(dir.resolve("x")), Files.createFile(nested.resolve("y")),
+				sibling, Files.createFile(root.resolve("dir.txt")) };
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			for (Path path : paths) {
+				index.update(path);
+			}
+			index.removeTree(dir);
+			assertEquals(2, index.size());
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(new HashSet<String>(Arrays.asList(sibling.toString(), root.resolve("dir.txt").toString())),
+					index.entries().keySet());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testMoveTree() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Path from = Files.createDirectories(root.resolve("from").resolve("sub"));
+		Path file = Files.write(from.resolve("f.properties"), "f=1\n".getBytes(StandardCharsets.UTF_8));
+		Path other = Files.createDirectory(root.resolve("from-other"));
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			index.update(from.getParent());
+			index.update(from);
+			index.putContent(file, 5, props("f", "1"));
+			index.update(other);
+			Path to = root.resolve("to");
+			Files.move(from.getParent(), to);
+			// the target directory is indexed on its own event before the move is detected
+			index.update(to);
+			index.move(from.getParent(), to);
+			assertEquals(4, index.size());
+			assertNull(index.get(from));
+			assertNotNull(index.get(to));
+			assertNotNull(index.get(to.resolve("sub")));
+			assertNotNull(index.get(other));
+			SnapshotIndex.Entry entry = index.get(to.resolve("sub").resolve("f.properties"));
+			assertEquals(5, entry.getHash());
+			assertEquals(props("f", "1"), entry.getProperties());
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(4, index.size());
+			assertTrue(index.beginScan());
+			assertNotNull(index.get(root.resolve("to").resolve("sub").resolve("f.properties")));
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testTornTailIsDropped() throws IOException {
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			index.update(fileA);
+			index.update(fileB);
+		} finally {
+			index.close();
+		}
+		byte[] bytes = Files.readAllBytes(indexFile);
+		Files.write(indexFile, Arrays.copyOf(bytes, bytes.length - 3));
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(1, index.size());
+			assertNotNull(index.get(fileA));
+			index.update(fileB);
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(2, index.size());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testUnknownFormatIsReset() throws IOException {
+		Files.createDirectories(indexFile.getParent());
+		Files.write(indexFile, "not an index file".getBytes(StandardCharsets.UTF_8));
+		SnapshotIndex index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(0, index.size());
+			index.update(fileA);
+		} finally {
+			index.close();
+		}
+
+		index = new SnapshotIndex(indexFile);
+		try {
+			assertEquals(1, index.size());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testPropertiesEncoding() {
+		Properties props = props("key ü", "value\n€");
+		props.setProperty("empty", "");
+		byte[] bytes = SnapshotIndex.encodeProperties(props);
+		assertEquals(props, SnapshotIndex.decodeProperties(bytes));
+		assertArrayEquals(bytes, SnapshotIndex.encodeProperties(SnapshotIndex.decodeProperties(bytes)));
+		assertTrue(SnapshotIndex.decodeProperties(SnapshotIndex.encodeProperties(new Properties())).isEmpty());
+	}
+
+	@Test
+	public void testIndexFileFor() {
+		Path root = folder.getRoot().toPath().resolve("my dir");
+		Path file = SnapshotIndex.indexFileFor("idx", root);
+		assertEquals("idx", file.getParent().toString());
+		assertTrue(file.getFileName().toString(), file.getFileName().toString().startsWith("my_dir-"));
+		assertTrue(file.getFileName().toString().endsWith(".idx"));
+		assertEquals(file, SnapshotIndex.indexFileFor("idx", root.resolve(".")));
+	}
+}
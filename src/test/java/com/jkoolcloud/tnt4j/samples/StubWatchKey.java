@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Watch key not bound to any watch service, recording whether it was cancelled.
+ *
+ * @version $Revision: 1$
+ */
+class StubWatchKey implements WatchKey {
+	private final Path dir;
+	private volatile boolean cancelled;
+
+	StubWatchKey(Path dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public boolean isValid() {
+		return !cancelled;
+	}
+
+	@Override
+	public List<WatchEvent<?>> pollEvents() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean reset() {
+		return !cancelled;
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+	}
+
+	@Override
+	public Watchable watchable() {
+		return dir;
+	}
+
+	@Override
+	public String toString() {
+		return "StubWatchKey{" + dir + "}";
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ * @version $Revision: 1$
+ */
+public class WatchBudgetTest {
+
+	@Test
+	public void testOnlyWatchLimitLowersBudget() {
+		WatchBudget budget = new WatchBudget(10, 0);
+		Path dir = Paths.get("/watched");
+		assertTrue(budget.reserve());
+		budget.add(null, dir, new StubWatchKey(dir), true);
+
+		assertTrue(budget.reserve());
+		budget.cancel(new AccessDeniedException("/watched/private"));
+		assertTrue(budget.reserve());
+		budget.cancel(new NoSuchFileException("/watched/gone"));
+		assertEquals(10, budget.getLimit());
+		assertEquals(0, budget.getFailedCount());
+
+		assertTrue(budget.reserve());
+		budget.cancel(new IOException("User limit of inotify watches reached"));
+		assertEquals(1, budget.getLimit());
+		assertEquals(1, budget.getFailedCount());
+	}
+
+	@Test
+	public void testIsLimitReached() {
+		assertTrue(WatchBudget.isLimitReached(new IOException("User limit of inotify watches reached")));
+		assertTrue(WatchBudget.isLimitReached(new FileSystemException("/d", null, "No space left on device")));
+		assertFalse(WatchBudget.isLimitReached(new AccessDeniedException("/d")));
+		assertFalse(WatchBudget.isLimitReached(new FileSystemException("/d", null, "Too many levels of symbolic links")));
+		assertFalse(WatchBudget.isLimitReached(new IOException()));
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014-2018 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.samples;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @version $Revision: 1$
+ */
+public class WatchEventJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static WatchEvent<?> event(WatchEvent.Kind<?> kind, String name, int count) {
+		@SuppressWarnings("unchecked")
+		WatchEvent.Kind<Object> any = (WatchEvent.Kind<Object>) kind;
+		return new FolderWatchEvent<Object>(any, name == null ? null : Paths.get(name), count);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("events.wej");
+		Path dir1 = Paths.get("/data", "logs");
+		Path dir2 = Paths.get("/data", "conf dir");
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			longName.append('n');
+		}
+		long before = System.currentTimeMillis();
+		WatchEventJournal journal = new WatchEventJournal(file);
+		try {
+			journal.record(dir1, Arrays.asList(event(ENTRY_CREATE, "a.log", 1), event(ENTRY_MODIFY, "a.log", 3)));
+			journal.record(dir2, Arrays.asList(event(OVERFLOW, null, 7)));
+			journal.record(dir1, Arrays.asList(event(ENTRY_DELETE, "a.log", 1), event(ENTRY_CREATE, "b c.log", 1)));
+			for (int i = 0; i < 20; i++) {
+				journal.record(dir2, Arrays.asList(event(ENTRY_MODIFY, longName + "-" + i, i + 1)));
+			}
+			assertEquals(23, journal.getBatchCount());
+			assertEquals(25, journal.getEventCount());
+		} finally {
+			journal.close();
+		}
+		// closed journal ignores further batches
+		journal.record(dir1, Arrays.asList(event(ENTRY_CREATE, "late", 1)));
+		assertEquals(23, journal.getBatchCount());
+
+		List<WatchEventJournal.Batch> batches = new ArrayList<WatchEventJournal.Batch>();
+		WatchEventJournal.Reader reader = new WatchEventJournal.Reader(file);
+		try {
+			assertTrue(reader.getStartMillis() >= before - 1000);
+			WatchEventJournal.Batch batch;
+			while ((batch = reader.next()) != null) {
+				batches.add(batch);
+			}
+			assertEquals(0, reader.getSkippedCount());
+		} finally {
+			reader.close();
+		}
+		assertEquals(23, batches.size());
+		assertEquals(dir1, batches.get(0).getDir());
+		assertEquals(2, batches.get(0).getEvents().size());
+		assertSame(ENTRY_CREATE, batches.get(0).getEvents().get(0).kind());
+		assertEquals(Paths.get("a.log"), batches.get(0).getEvents().get(0).context());
+		assertSame(ENTRY_MODIFY, batches.get(0).getEvents().get(1).kind());
+		assertEquals(3, batches.get(0).getEvents().get(1).count());
+
+		assertEquals(dir2, batches.get(1).getDir());
+		assertSame(OVERFLOW, batches.get(1).getEvents().get(0).kind());
+		assertNull(batches.get(1).getEvents().get(0).context());
+		assertEquals(7, batches.get(1).getEvents().get(0).count());
+
+		assertEquals(dir1, batches.get(2).getDir());
+		assertSame(ENTRY_DELETE, batches.get(2).getEvents().get(0).kind());
+		assertEquals(Paths.get("b c.log"), batches.get(2).getEvents().get(1).context());
+
+		long offset = 0;
+		for (int i = 0; i < batches.size(); i++) {
+			assertTrue(batches.get(i).getOffsetNanos() >= offset);
+			offset = batches.get(i).getOffsetNanos();
+			if (i >= 3) {
+				WatchEvent<Path> event = batches.get(i).getEvents().get(0);
+				assertEquals(Paths.get(longName + "-" + (i - 3)), event.context());
+				assertEquals(i - 2, event.count());
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedBatchIsIgnored() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("events.wej");
+		WatchEventJournal journal = new WatchEventJournal(file);
+		try {
+			journal.record(Paths.get("/d"), Arrays.asList(event(ENTRY_CREATE, "first", 1)));
+			journal.record(Paths.get("/d"), Arrays.asList(event(ENTRY_CREATE, "second-with-a-longer-name", 1)));
+		} finally {
+			journal.close();
+		}
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 5));
+		WatchEventJournal.Reader reader = new WatchEventJournal.Reader(file);
+		try {
+			WatchEventJournal.Batch batch = reader.next();
+			assertEquals(Paths.get("first"), batch.getEvents().get(0).context());
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotJournal() throws IOException {
+		Path file = folder.newFile("other.txt").toPath();
+		Files.write(file, "not a journal".getBytes("UTF-8"));
+		new WatchEventJournal.Reader(file).close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testEmptyFile() throws IOException {
+		new WatchEventJournal.Reader(folder.newFile("empty.wej").toPath()).close();
+	}
+}